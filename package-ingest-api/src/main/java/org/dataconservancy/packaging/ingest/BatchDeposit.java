@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A started deposit of many packages.
+ *
+ * @author apb@jhu.edu
+ */
+public interface BatchDeposit {
+
+    /**
+     * Add a package to the batch.
+     * <p>
+     * Waits until fewer than the maximum number of packages are being deposited, so that a caller producing packages
+     * (e.g. by unpacking them from an archive) does not get too far ahead of the deposits. The package is read in
+     * place, and must remain available until the returned future completes.
+     * </p>
+     *
+     * @param id Identifies the package within the batch, e.g. its file name.
+     * @param pkg package file or directory.
+     * @return future result of depositing the package. If the batch is in one transaction, it completes once the
+     *         batch has been committed.
+     */
+    public CompletableFuture<DepositResult> add(String id, Path pkg);
+
+    /**
+     * Indicate that no more packages will be added.
+     *
+     * @return future results of the packages that were successfully deposited, by id. If the batch is in one
+     *         transaction and any package failed, it completes exceptionally with the cause.
+     */
+    public CompletableFuture<Map<String, DepositResult>> finish();
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest;
+
+import java.net.URI;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Builds a deposit of many packages into the same container.
+ * <p>
+ * Packages are added to a started {@link BatchDeposit} as they become available, and deposited in parallel up to a
+ * limit. By default each package is deposited in its own transaction, so the failure of one does not affect the
+ * others. Packages may instead be grouped into a single transaction, so that either all of them are deposited, or none.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public interface BatchDepositBuilder {
+
+    /**
+     * Specify an LDP container to deposit into.
+     *
+     * @param container Container URI.
+     * @return configured batch deposit builder.
+     */
+    public BatchDepositBuilder intoContainer(URI container);
+
+    /**
+     * Specify listeners for the events of each package in the batch.
+     *
+     * @param listeners Provides the listener for a package, given the id it was added with.
+     * @return configured batch deposit builder.
+     */
+    public BatchDepositBuilder withListeners(Function<String, EventListener> listeners);
+
+    /**
+     * Specify the maximum number of packages deposited at the same time.
+     *
+     * @param packages number of packages.
+     * @return configured batch deposit builder.
+     */
+    public BatchDepositBuilder withParallelism(int packages);
+
+    /**
+     * Specify whether all packages are deposited in a single transaction.
+     * <p>
+     * If so, the batch is only committed once every package has been deposited, and the failure of any one package
+     * cancels and rolls back the whole batch. The {@code success} event of each package is held back until the batch
+     * has been committed.
+     * </p>
+     *
+     * @param oneTransaction true to deposit every package in one transaction.
+     * @return configured batch deposit builder.
+     */
+    public BatchDepositBuilder inOneTransaction(boolean oneTransaction);
+
+    /**
+     * Specify a condition for abandoning the batch, e.g. that the client waiting on it has gone away.
+     *
+     * @param cancelled Whether the batch has been cancelled.
+     * @return configured batch deposit builder.
+     */
+    public BatchDepositBuilder withCancellation(BooleanSupplier cancelled);
+
+    /**
+     * Start the batch, so that packages may be added to it.
+     *
+     * @return the started batch.
+     */
+    public BatchDeposit start();
+}
@@ -18,6 +18,9 @@ package org.dataconservancy.packaging.ingest;
 
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 
 /**
  * @author apb@jhu.edu
@@ -40,6 +43,20 @@ public interface DepositBuilder {
      */
     public DepositBuilder withPackage(InputStream pkgStream);
 
+    /**
+     * Specify a package on the local filesystem to deposit.
+     * <p>
+     * The package is read in place. It may be a package file, or the directory of an already unpacked package, which
+     * is deposited without being copied or extracted if the walker factory
+     * {@link PackageWalkerFactory#acceptsUnpacked() accepts unpacked packages}.
+     * </p>
+     *
+     * @param pkg package file or directory.
+     * @return configured deposit builder.
+     * @throws IllegalArgumentException if the package is a directory, and unpacked packages are not supported.
+     */
+    public DepositBuilder withPackage(Path pkg);
+
     /**
      * Specify a listener for deposit events.
      *
@@ -48,6 +65,56 @@ public interface DepositBuilder {
      */
     public DepositBuilder withListener(EventListener listener);
 
+    /**
+     * Specify the expected size of the package payload, e.g. from the octet count of a BagIt {@code Payload-Oxum}.
+     * Used to prioritize submitted deposits. Ignored by default.
+     *
+     * @param bytes payload size in bytes.
+     * @return configured deposit builder.
+     */
+    public default DepositBuilder withSize(final long bytes) {
+        return this;
+    }
+
+    /**
+     * Specify a condition for abandoning the deposit, e.g. that the client waiting on it has gone away.
+     * <p>
+     * The condition is checked as the deposit proceeds. Once it is true, the deposit stops issuing requests to the
+     * repository, rolls back, and reports an error.
+     * </p>
+     *
+     * @param cancelled Whether the deposit has been cancelled.
+     * @return configured deposit builder.
+     */
+    public DepositBuilder withCancellation(BooleanSupplier cancelled);
+
     /** Perform a deposit */
     public void perform();
+
+    /**
+     * Perform a deposit without blocking the caller.
+     * <p>
+     * The returned future completes with the result of the deposit once it has been committed, or exceptionally with
+     * the cause of its failure. Listeners are notified of events as usual. Cancelling the future cancels the deposit,
+     * as if by {@link #withCancellation(BooleanSupplier)}.
+     * </p>
+     *
+     * @return future result of the deposit.
+     */
+    public CompletableFuture<DepositResult> performAsync();
+
+    /**
+     * Submit the deposit to a queue, to be performed later.
+     * <p>
+     * The package stream is read fully before returning. Listeners are notified of events as the queued deposit is
+     * performed.
+     * </p>
+     *
+     * @return the submitted job.
+     * @throws UnsupportedOperationException if deposits cannot be queued.
+     * @throws IllegalArgumentException if the package is a directory, which cannot be queued.
+     */
+    public default DepositJob submit() {
+        throw new UnsupportedOperationException("Queued deposits are not supported");
+    }
 }
@@ -43,4 +43,13 @@ public interface DepositFactory {
      * @return Initialized Depositor.
      */
     public Depositor newDepositor(URI depositInto, Map<String, Object> context);
+
+    /**
+     * Whether deposits are only committed upon success, so one interrupted partway through leaves nothing behind.
+     *
+     * @return true if deposits are transactional.
+     */
+    public default boolean isTransactional() {
+        return false;
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest;
+
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * A deposit that has been submitted to a queue, to be performed later.
+ *
+ * @author apb@jhu.edu
+ */
+public interface DepositJob {
+
+    /**
+     * Unique identifier of the job.
+     *
+     * @return the id.
+     */
+    public String getId();
+
+    /**
+     * Current state of the job.
+     *
+     * @return the state.
+     */
+    public State getState();
+
+    /**
+     * Container the package is deposited into.
+     *
+     * @return container URI, or null if the repository root.
+     */
+    public URI getContainer();
+
+    /**
+     * Size of the package, in bytes. If given when submitted, this is the size of the package payload rather than the
+     * size of the package file.
+     *
+     * @return package size.
+     */
+    public long getSize();
+
+    /**
+     * Number of resources deposited so far.
+     *
+     * @return count of deposited resources.
+     */
+    public int getDepositedCount();
+
+    /**
+     * Number of resources whose URIs have been remapped so far.
+     *
+     * @return count of remapped resources.
+     */
+    public int getRemappedCount();
+
+    /**
+     * URIs of packaged resources, mapped to the URIs of the repository resources they were deposited as. Only
+     * populated once the job has succeeded; empty otherwise, but never null.
+     *
+     * @return map of package URIs to repository URIs.
+     */
+    public Map<URI, URI> getResources();
+
+    /**
+     * Description of the error that caused the job to fail.
+     *
+     * @return error message, or null if the job has not failed.
+     */
+    public String getError();
+
+    /** Deposit job state */
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+}
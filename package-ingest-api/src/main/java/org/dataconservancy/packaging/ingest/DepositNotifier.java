@@ -19,7 +19,7 @@ package org.dataconservancy.packaging.ingest;
 import java.net.URI;
 
 /**
- * Provides notifications when a resource is deposited.
+ * Provides notifications when a resource is deposited, and of how many there are to deposit.
  *
  * @author apb@jhu.edu
  */
@@ -33,4 +33,14 @@ public interface DepositNotifier {
      */
     public void onDeposit(URI depositURI, PackagedResource resource);
 
+    /**
+     * Notify once the package has been analyzed, before any resource is deposited.
+     *
+     * @param resources Number of resources to deposit, including descriptions.
+     * @param bytes Total size of their bodies, or -1 if the size of any is not known.
+     */
+    public default void onAnalyzed(final long resources, final long bytes) {
+        // Not every notifier tracks progress
+    }
+
 }
\ No newline at end of file
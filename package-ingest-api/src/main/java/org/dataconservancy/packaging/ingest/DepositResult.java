@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Outcome of a successful deposit.
+ *
+ * @author apb@jhu.edu
+ */
+public interface DepositResult {
+
+    /**
+     * URIs of packaged resources, mapped to the URIs of the repository resources they were deposited as.
+     *
+     * @return map of package URIs to repository URIs.
+     */
+    public Map<URI, URI> getResources();
+
+    /**
+     * Time spent analyzing the package and depositing its resources.
+     *
+     * @return duration.
+     */
+    public Duration getDepositDuration();
+
+    /**
+     * Time spent replacing package URIs with repository URIs in deposited resources.
+     *
+     * @return duration.
+     */
+    public Duration getRemapDuration();
+
+    /**
+     * Time spent committing the deposit.
+     *
+     * @return duration.
+     */
+    public Duration getCommitDuration();
+
+    /**
+     * Total time taken by the deposit.
+     *
+     * @return duration.
+     */
+    public Duration getTotalDuration();
+}
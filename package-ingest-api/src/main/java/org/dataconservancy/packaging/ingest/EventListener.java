@@ -20,6 +20,14 @@ import java.net.URI;
 
 /**
  * Notification for events during a deposit.
+ * <p>
+ * The detail of an event is not necessarily a {@link String}. Its {@link Object#toString() string form} is the
+ * human-readable message of the event, which may only be built when asked for, so listeners that want the message
+ * should call {@code toString()} rather than cast. The detail of an {@link EventType#SUCCESS} event may be a
+ * structured report of the deposit, whose string form is a summary line followed by the report as JSON. The detail of
+ * an {@link EventType#ERROR} event is usually a {@link Throwable}, either the one that caused it or one caused by it,
+ * whose string form may likewise be followed by a report of the failed deposit as JSON.
+ * </p>
  *
  * @author apb@jhu.edu
  */
@@ -31,7 +39,7 @@ public interface EventListener {
      * @param type Type of event
      * @param repositoryResource Repository resource relevant to the event, null otherwise.
      * @param resource The packaged resource. May be null.
-     * @param detail Event-specific additional informaiton. May be null.
+     * @param detail Event-specific additional information, whose string form is its message. May be null.
      */
     public void onEvent(EventType type, URI repositoryResource, PackagedResource resource, Object detail);
 }
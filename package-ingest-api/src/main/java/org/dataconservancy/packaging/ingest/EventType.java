@@ -22,6 +22,9 @@ package org.dataconservancy.packaging.ingest;
  * @author apb@jhu.edu
  */
 public enum EventType {
+    /** The deposit is waiting for a thread to perform it */
+    QUEUED,
+
     /** A package entry has been deposited */
     DEPOSIT,
 
@@ -31,6 +34,9 @@ public enum EventType {
     /** noop heartbeat */
     HEARTBEAT,
 
+    /** Periodic report of bytes and resources deposited so far, and when the deposit is expected to finish */
+    PROGRESS,
+
     /** An error has occurred */
     ERROR,
 
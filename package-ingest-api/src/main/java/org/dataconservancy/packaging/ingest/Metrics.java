@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * The registry of package ingest metrics.
+ * <p>
+ * Components record into a single shared registry, so that timings and counts of every phase of a deposit may be
+ * reported together, whichever components happen to be wired up. Metric names are dotted, beginning with the
+ * phase they describe: {@code extract}, {@code analyze}, {@code repository}, {@code remap}, and {@code deposits}.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public final class Metrics {
+
+    /** Name of the shared metric registry */
+    public static final String REGISTRY = "package-ingest";
+
+    private Metrics() {
+    }
+
+    /**
+     * Get the shared registry of package ingest metrics.
+     *
+     * @return the registry.
+     */
+    public static MetricRegistry registry() {
+        return SharedMetricRegistries.getOrCreate(REGISTRY);
+    }
+}
@@ -16,7 +16,10 @@
 
 package org.dataconservancy.packaging.ingest;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
 
 /**
@@ -35,6 +38,29 @@ public interface PackageAnalyzer {
      */
     public Collection<PackagedResource> getContainerRoots(final InputStream pkg);
 
+    /**
+     * Get root resources of a package that is already on the local filesystem.
+     * <p>
+     * By default, the package file is read as a stream. Analyzers that understand unpacked packages may override this
+     * to accept a package directory, and read it in place.
+     * </p>
+     *
+     * @param pkg package file, or directory of an unpacked package.
+     * @return Collection of resources that are "roots" of the given package.
+     * @throws IllegalArgumentException if the package is a directory, and this analyzer cannot read it.
+     */
+    public default Collection<PackagedResource> getContainerRoots(final Path pkg) {
+        if (Files.isDirectory(pkg)) {
+            throw new IllegalArgumentException("Cannot analyze unpacked package " + pkg);
+        }
+
+        try (InputStream in = Files.newInputStream(pkg)) {
+            return getContainerRoots(in);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not read package " + pkg, e);
+        }
+    }
+
     /**
      * Clean up the package extraction directory.
      */
@@ -29,4 +29,13 @@ public interface PackageAnalyzerFactory {
      * @return New analyzer.
      */
     PackageAnalyzer newAnalyzer();
+
+    /**
+     * Whether analyzers created by this factory can read the directory of an unpacked package in place.
+     *
+     * @return true if unpacked packages can be analyzed, false if only package files can.
+     */
+    default boolean acceptsUnpacked() {
+        return false;
+    }
 }
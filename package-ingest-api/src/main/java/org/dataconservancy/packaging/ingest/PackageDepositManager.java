@@ -29,4 +29,19 @@ public interface PackageDepositManager {
      * @return empty/default deposit builder.
      */
     public DepositBuilder newDeposit();
+
+    /**
+     * Create a new builder for a deposit of many packages.
+     *
+     * @return empty/default batch deposit builder.
+     */
+    public BatchDepositBuilder newBatch();
+
+    /**
+     * Look up a deposit job submitted via {@link DepositBuilder#submit()}.
+     *
+     * @param id Job ID.
+     * @return the job, or null if there is no such job.
+     */
+    public DepositJob getJob(String id);
 }
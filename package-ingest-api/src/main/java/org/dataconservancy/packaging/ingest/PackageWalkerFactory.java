@@ -16,7 +16,10 @@
 
 package org.dataconservancy.packaging.ingest;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /**
  * Create a new walker who can walk and deposit resources in the given package.
@@ -32,4 +35,38 @@ public interface PackageWalkerFactory {
      * @return A package walker that walks the given package.
      */
     public PackageWalker newWalker(InputStream pkgSrc);
+
+    /**
+     * Create a walker to walk the contents of a package on the local filesystem.
+     * <p>
+     * By default, the package file is read as a stream when walked. Factories that understand unpacked packages may
+     * override this, and {@link #acceptsUnpacked()}, to walk a package directory in place.
+     * </p>
+     *
+     * @param pkg package file, or directory of an unpacked package.
+     * @return A package walker that walks the given package.
+     * @throws IllegalArgumentException if the package is a directory, and unpacked packages are not supported.
+     */
+    public default PackageWalker newWalker(final Path pkg) {
+        if (Files.isDirectory(pkg) && !acceptsUnpacked()) {
+            throw new IllegalArgumentException("Unpacked package " + pkg + " is not supported");
+        }
+
+        return (depositor, notifier) -> {
+            try (InputStream in = Files.newInputStream(pkg)) {
+                newWalker(in).walk(depositor, notifier);
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not read package " + pkg, e);
+            }
+        };
+    }
+
+    /**
+     * Whether walkers created by this factory can walk the directory of an unpacked package in place.
+     *
+     * @return true if unpacked packages can be walked, false if only package files can.
+     */
+    public default boolean acceptsUnpacked() {
+        return false;
+    }
 }
@@ -56,6 +56,15 @@ public interface PackagedResource {
      */
     public InputStream getBody();
 
+    /**
+     * Size of the body in bytes, if known without reading it.
+     *
+     * @return size of the body, or -1 if unknown.
+     */
+    public default long getSize() {
+        return -1;
+    }
+
     /**
      * IANA media type.
      *
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A timed operation within the trace of a deposit.
+ * <p>
+ * Each deposited package has a root span, started with {@link #root(String, SpanExporter)}. Spans started with
+ * {@link #start(String)} while another is open on the same thread are its children, and are exported along with it.
+ * With no span open, {@link #start(String)} returns a span that records and exports nothing, so components may be
+ * traced whether or not a deposit is. Spans are closed to end them, e.g.
+ * </p>
+ *
+ * <pre>
+ * try (Span span = Span.start("repository.post").with("uri", uri)) {
+ *     ...
+ *     span.with("status", status);
+ * }
+ * </pre>
+ *
+ * @author apb@jhu.edu
+ */
+public final class Span implements AutoCloseable {
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+    private static final Span NONE = new Span(null, null, null, null, null);
+
+    private final String name;
+
+    private final String traceId;
+
+    private final String spanId;
+
+    private final Span parent;
+
+    private final SpanExporter exporter;
+
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+    private final long startMillis = System.currentTimeMillis();
+
+    private final long startNanos = System.nanoTime();
+
+    private long durationNanos = -1;
+
+    private Span(final String name, final String traceId, final String spanId, final Span parent,
+            final SpanExporter exporter) {
+        this.name = name;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parent = parent;
+        this.exporter = exporter;
+    }
+
+    /**
+     * Start a new trace, whose root span is open on this thread until closed.
+     *
+     * @param name Name of the root span.
+     * @param exporter Exporter of the trace's spans, or null to trace nothing.
+     * @return the root span.
+     */
+    public static Span root(final String name, final SpanExporter exporter) {
+        if (exporter == null) {
+            return NONE;
+        }
+        return open(new Span(name, id(2), id(1), null, exporter));
+    }
+
+    /**
+     * Start a child of the span open on this thread.
+     *
+     * @param name Name of the span.
+     * @return the span, which records nothing if there is no open span.
+     */
+    public static Span start(final String name) {
+        final Span parent = CURRENT.get();
+        if (parent == null) {
+            return NONE;
+        }
+        return open(new Span(name, parent.traceId, id(1), parent, parent.exporter));
+    }
+
+    /**
+     * Get the span open on this thread.
+     *
+     * @return the open span, or a span that records nothing if there is none.
+     */
+    public static Span current() {
+        final Span current = CURRENT.get();
+        return current != null ? current : NONE;
+    }
+
+    private static Span open(final Span span) {
+        CURRENT.set(span);
+        span.exporter.start(span);
+        return span;
+    }
+
+    // Random hex identifier of the given number of 64 bit words
+    private static String id(final int words) {
+        final StringBuilder id = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            id.append(String.format("%016x", ThreadLocalRandom.current().nextLong()));
+        }
+        return id.toString();
+    }
+
+    /**
+     * Set an attribute of this span.
+     *
+     * @param key Attribute name.
+     * @param value Attribute value.
+     * @return this span.
+     */
+    public Span with(final String key, final Object value) {
+        if (exporter != null) {
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Whether this span records anything.
+     *
+     * @return true if recording.
+     */
+    public boolean isRecording() {
+        return exporter != null;
+    }
+
+    /**
+     * End this span and export it, making its parent the open span again.
+     */
+    @Override
+    public void close() {
+        if (exporter == null || durationNanos >= 0) {
+            return;
+        }
+
+        durationNanos = System.nanoTime() - startNanos;
+
+        // Ending the root leaves nothing open, even if a child was never closed
+        if (parent == null) {
+            CURRENT.remove();
+        } else if (CURRENT.get() == this) {
+            CURRENT.set(parent);
+        }
+        exporter.export(this);
+    }
+
+    /**
+     * Get the name of the span.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the ID of the trace this span is part of.
+     *
+     * @return 32 digit hex trace ID.
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Get the ID of this span.
+     *
+     * @return 16 digit hex span ID.
+     */
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * Get the ID of the parent span.
+     *
+     * @return parent span ID, or null for the root span.
+     */
+    public String getParentId() {
+        return parent != null ? parent.spanId : null;
+    }
+
+    /**
+     * Get the time the span started.
+     *
+     * @return start time in milliseconds since the epoch.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Get the duration of the span.
+     *
+     * @return duration in nanoseconds, or -1 if the span has not ended.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Get the attributes of the span.
+     *
+     * @return unmodifiable attributes, in the order they were first set.
+     */
+    public Map<String, Object> getAttributes() {
+        return Collections.unmodifiableMap(attributes);
+    }
+}
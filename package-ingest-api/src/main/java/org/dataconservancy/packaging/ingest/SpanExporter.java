@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest;
+
+/**
+ * Receives the trace spans of deposits as they start and end.
+ * <p>
+ * Exporters are called on the thread performing the deposit, so should not block for long.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public interface SpanExporter {
+
+    /**
+     * Note a span has started, before any of its attributes are set.
+     *
+     * @param span The span.
+     */
+    public default void start(final Span span) {
+        // Most exporters only care about ended spans
+    }
+
+    /**
+     * Export an ended span.
+     *
+     * @param span The span.
+     */
+    public void export(Span span);
+}
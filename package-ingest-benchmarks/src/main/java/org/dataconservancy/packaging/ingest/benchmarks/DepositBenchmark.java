@@ -0,0 +1,279 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.dataconservancy.packaging.impl.DcsPackageAnalyzerFactory;
+import org.dataconservancy.packaging.impl.deposit.DefaultPackageWalkerFactory;
+import org.dataconservancy.packaging.impl.deposit.FedoraDepositFactory;
+import org.dataconservancy.packaging.impl.deposit.SingleDepositManager;
+import org.dataconservancy.packaging.ingest.DepositResult;
+import org.dataconservancy.packaging.test.InMemoryLdpServer;
+import org.dataconservancy.packaging.test.PackageGenerator;
+import org.dataconservancy.packaging.test.PackageGenerator.SizeDistribution;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * End-to-end deposit throughput against an {@link InMemoryLdpServer}.
+ * <p>
+ * Deposits generated packages through the whole analyzer, walker, and depositor stack, over every combination of
+ * transactions on or off, SPARQL patch on or off, and a list of concurrencies, and reports resources deposited per
+ * second for each. Unlike the JMH benchmarks, each combination is a single timed run after one warm-up deposit, since
+ * a run may take minutes. Configured by system properties:
+ * </p>
+ * <dl>
+ * <dt>{@code binaries}</dt>
+ * <dd>Binaries per package, default 100</dd>
+ * <dt>{@code depth}, {@code fanOut}</dt>
+ * <dd>Container nesting of each package, default 2 and 3</dd>
+ * <dt>{@code binarySize}</dt>
+ * <dd>Size of each binary in bytes, default 1024</dd>
+ * <dt>{@code packages}</dt>
+ * <dd>Packages deposited per run, default 8</dd>
+ * <dt>{@code concurrency}</dt>
+ * <dd>Comma-separated numbers of packages deposited at once, default {@code 1,4}</dd>
+ * <dt>{@code latency}, {@code bandwidth}, {@code errorRate}</dt>
+ * <dd>Repository latency per request in milliseconds, bandwidth in bytes per second, and fraction of requests
+ * failed; default 1, unlimited, and none</dd>
+ * <dt>{@code results}</dt>
+ * <dd>File to write results to as JSON, default none</dd>
+ * </dl>
+ *
+ * @author apb@jhu.edu
+ */
+public class DepositBenchmark {
+
+    private final int packages = Integer.getInteger("packages", 8);
+
+    private final long latency = Long.getLong("latency", 1);
+
+    private final long bandwidth = Long.getLong("bandwidth", 0);
+
+    private final double errorRate = Double.parseDouble(System.getProperty("errorRate", "0"));
+
+    private final List<Run> runs = new ArrayList<>();
+
+    private Path pkg;
+
+    private Path extractDir;
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args unused; configuration is by system properties.
+     * @throws Exception if the benchmark cannot be run.
+     */
+    public static void main(final String[] args) throws Exception {
+        final DepositBenchmark benchmark = new DepositBenchmark();
+        try {
+            benchmark.generate();
+
+            for (final String concurrency : System.getProperty("concurrency", "1,4").split(",")) {
+                for (final boolean useTransactions : new boolean[] { true, false }) {
+                    for (final boolean useSparql : new boolean[] { true, false }) {
+                        benchmark.run(useTransactions, useSparql, Integer.parseInt(concurrency.trim()));
+                    }
+                }
+            }
+        } finally {
+            benchmark.cleanUp();
+        }
+
+        benchmark.report(System.out);
+
+        final String results = System.getProperty("results");
+        if (results != null) {
+            Files.write(Paths.get(results), benchmark.json().getBytes(UTF_8));
+        }
+    }
+
+    private void generate() throws IOException {
+        final Path dir = Files.createTempDirectory("deposit-benchmark");
+        extractDir = Files.createDirectory(dir.resolve("extract"));
+        final PackageGenerator.Summary summary = new PackageGenerator()
+                .withName("pkg")
+                .withBinaries(Long.getLong("binaries", 100))
+                .withDepth(Integer.getInteger("depth", 2))
+                .withFanOut(Integer.getInteger("fanOut", 3))
+                .withBinarySize(SizeDistribution.fixed(Long.getLong("binarySize", 1024)))
+                .write(dir, PackageGenerator.Format.DIRECTORY);
+        pkg = dir.resolve("pkg");
+        System.err.println("Generated " + summary);
+    }
+
+    private void cleanUp() throws IOException {
+        if (pkg != null) {
+            FileUtils.deleteDirectory(pkg.getParent().toFile());
+        }
+    }
+
+    private void run(final boolean useTransactions, final boolean useSparql, final int concurrency)
+            throws Exception {
+        try (InMemoryLdpServer server = new InMemoryLdpServer()
+                .retainingBinaries(false)
+                .withLatency(latency)
+                .withBandwidth(bandwidth)
+                .withErrors(errorRate, 503)
+                .start()) {
+
+            final FedoraDepositFactory fedora = new FedoraDepositFactory();
+            fedora.setBaseUri(server.getBaseUri().toString());
+            fedora.setUseTransactions(useTransactions);
+            fedora.setUseSparql(useSparql);
+
+            final DcsPackageAnalyzerFactory dcs = new DcsPackageAnalyzerFactory();
+            dcs.setExtractDir(extractDir.toString());
+
+            final DefaultPackageWalkerFactory walker = new DefaultPackageWalkerFactory();
+            walker.setAnalyzerFactory(dcs);
+
+            final SingleDepositManager mgr = new SingleDepositManager();
+            mgr.setDepositFactory(fedora);
+            mgr.setWalkerFactory(walker);
+            mgr.setAsyncThreads(concurrency);
+
+            try {
+                final URI container = createContainer(server.getBaseUri());
+
+                // Warm up, so that the first combination does not pay for class loading and JIT alone
+                deposit(mgr, container, 1);
+
+                final long start = System.nanoTime();
+                final Run run = deposit(mgr, container, packages);
+                run.nanos = System.nanoTime() - start;
+                run.useTransactions = useTransactions;
+                run.useSparql = useSparql;
+                run.concurrency = concurrency;
+                run.requests = server.getRequestCounts().values().stream().mapToLong(Long::longValue).sum();
+                runs.add(run);
+            } finally {
+                mgr.shutdown();
+            }
+        }
+    }
+
+    private Run deposit(final SingleDepositManager mgr, final URI container, final int count) {
+        final List<CompletableFuture<DepositResult>> deposits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            deposits.add(mgr.newDeposit().withPackage(pkg).intoContainer(container).performAsync());
+        }
+
+        final Run run = new Run();
+        for (final CompletableFuture<DepositResult> deposit : deposits) {
+            try {
+                run.resources += deposit.join().getResources().size();
+                run.deposited++;
+            } catch (final CompletionException e) {
+                run.failed++;
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Create a container to deposit into.
+     *
+     * @param baseUri Repository base URI.
+     * @return URI of the new container.
+     * @throws IOException if the container cannot be created.
+     */
+    static URI createContainer(final URI baseUri) throws IOException {
+        final HttpURLConnection post = (HttpURLConnection) baseUri.toURL().openConnection();
+        try {
+            post.setRequestMethod("POST");
+            post.setRequestProperty("Slug", "benchmark");
+            if (post.getResponseCode() != 201) {
+                throw new IOException("Could not create container: " + post.getResponseCode());
+            }
+            return URI.create(post.getHeaderField("Location"));
+        } finally {
+            post.disconnect();
+        }
+    }
+
+    private void report(final PrintStream out) {
+        out.printf("%-6s %-6s %11s %9s %6s %10s %10s %12s%n", "tx", "sparql", "concurrency", "deposited", "failed",
+                "resources", "seconds", "resources/s");
+        for (final Run run : runs) {
+            out.printf("%-6s %-6s %11d %9d %6d %10d %10.3f %12.1f%n", run.useTransactions, run.useSparql,
+                    run.concurrency, run.deposited, run.failed, run.resources, run.seconds(), run.throughput());
+        }
+    }
+
+    private String json() {
+        final StringBuilder json = new StringBuilder("[\n");
+        for (final Run run : runs) {
+            json.append(json.length() > 2 ? ",\n" : "")
+                    .append("  {\"useTransactions\": ").append(run.useTransactions)
+                    .append(", \"useSparqlPatch\": ").append(run.useSparql)
+                    .append(", \"concurrency\": ").append(run.concurrency)
+                    .append(", \"latencyMillis\": ").append(latency)
+                    .append(", \"bandwidth\": ").append(bandwidth)
+                    .append(", \"errorRate\": ").append(errorRate)
+                    .append(", \"deposited\": ").append(run.deposited)
+                    .append(", \"failed\": ").append(run.failed)
+                    .append(", \"resources\": ").append(run.resources)
+                    .append(", \"requests\": ").append(run.requests)
+                    .append(", \"seconds\": ").append(run.seconds())
+                    .append(", \"resourcesPerSecond\": ").append(run.throughput())
+                    .append('}');
+        }
+        return json.append("\n]\n").toString();
+    }
+
+    private static class Run {
+
+        boolean useTransactions;
+
+        boolean useSparql;
+
+        int concurrency;
+
+        int deposited;
+
+        int failed;
+
+        long resources;
+
+        long requests;
+
+        long nanos;
+
+        double seconds() {
+            return nanos / 1e9;
+        }
+
+        double throughput() {
+            return nanos > 0 ? resources / seconds() : 0;
+        }
+    }
+}
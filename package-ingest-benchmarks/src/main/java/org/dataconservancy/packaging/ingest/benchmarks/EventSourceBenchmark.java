@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.dataconservancy.packaging.ingest.http.EventSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of parsing the event stream of a deposit.
+ *
+ * @author apb@jhu.edu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventSourceBenchmark {
+
+    /** Number of events in the stream, i.e. resources deposited */
+    @Param({ "10", "1000", "100000" })
+    public int events;
+
+    /** Number of data lines in each event */
+    @Param({ "1", "10" })
+    public int dataLines;
+
+    private byte[] stream;
+
+    /**
+     * Generate an event stream like that of a deposit.
+     */
+    @Setup
+    public void setup() {
+        final StringBuilder sse = new StringBuilder();
+        for (int i = 1; i <= events; i++) {
+            sse.append("id: ").append(i).append('\n');
+            sse.append("event: deposit\n");
+            sse.append("data: http://localhost:8080/rest/container/resource-").append(i).append('\n');
+            for (int d = 1; d < dataLines; d++) {
+                sse.append("data: bag://pkg/data/obj/resource-").append(i).append(".ttl\n");
+            }
+            sse.append('\n');
+            if (i % 100 == 0) {
+                sse.append(":\n");
+            }
+        }
+        stream = sse.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Parse the whole stream.
+     *
+     * @param bh blackhole.
+     */
+    @Benchmark
+    public void start(final Blackhole bh) {
+        EventSource.from(new ByteArrayInputStream(stream))
+                .onEvent(bh::consume)
+                .onException(e -> {
+                    throw new RuntimeException(e);
+                })
+                .start();
+    }
+}
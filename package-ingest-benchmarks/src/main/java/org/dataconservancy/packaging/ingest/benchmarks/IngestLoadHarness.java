@@ -0,0 +1,389 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.dataconservancy.packaging.test.JarRunner.jar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dataconservancy.packaging.ingest.http.EventSource;
+import org.dataconservancy.packaging.test.InMemoryLdpServer;
+import org.dataconservancy.packaging.test.PackageGenerator;
+import org.dataconservancy.packaging.test.PackageGenerator.SizeDistribution;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load test of the ingest service, as run from the executable jar.
+ * <p>
+ * Starts the jar with {@code JarRunner} against an {@link InMemoryLdpServer}, or uses an instance that is already
+ * running, then uploads generated packages from a number of concurrent clients. Each response is followed with an
+ * {@link EventSource}, recording the time to the first event, the time to the success event, and bytes uploaded per
+ * second to success, per package size class. Configured by system properties:
+ * </p>
+ * <dl>
+ * <dt>{@code uploads}</dt>
+ * <dd>Total number of uploads, default 200</dd>
+ * <dt>{@code clients}</dt>
+ * <dd>Maximum number of uploads at once, default 8</dd>
+ * <dt>{@code rate}</dt>
+ * <dd>Uploads started per second, or 0 to start each as soon as a client is free; default 0</dd>
+ * <dt>{@code sizes}</dt>
+ * <dd>Comma-separated binaries per package of each size class, uploaded in turn; default {@code 10,100,1000}</dd>
+ * <dt>{@code binarySize}</dt>
+ * <dd>Size of each binary in bytes, default 16384</dd>
+ * <dt>{@code events}</dt>
+ * <dd>Event verbosity requested of the service, default all</dd>
+ * <dt>{@code latency}</dt>
+ * <dd>Repository latency per request in milliseconds, default 1</dd>
+ * <dt>{@code ingestJar}</dt>
+ * <dd>Executable ingest jar, default the one built in {@code package-ingest-jar/target}</dd>
+ * <dt>{@code ingestUri}, {@code container}</dt>
+ * <dd>Endpoint of an ingest service that is already running, and container to deposit into, rather than starting
+ * one</dd>
+ * <dt>{@code report}</dt>
+ * <dd>File to write the report to, followed by the full percentile distributions; default none</dd>
+ * </dl>
+ * <p>
+ * When a rate is given, times are measured from when each upload was scheduled to start rather than when a client
+ * got round to it, so that a service falling behind shows up as latency rather than as a lower rate.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class IngestLoadHarness {
+
+    private static final long STARTUP_SECONDS = 60;
+
+    private final int uploads = Integer.getInteger("uploads", 200);
+
+    private final int clients = Integer.getInteger("clients", 8);
+
+    private final double rate = Double.parseDouble(System.getProperty("rate", "0"));
+
+    private final String events = System.getProperty("events");
+
+    private final List<SizeClass> classes = new ArrayList<>();
+
+    private Path dir;
+
+    private InMemoryLdpServer repository;
+
+    private Process ingest;
+
+    private URI target;
+
+    private long nanos;
+
+    /**
+     * Run the load test.
+     *
+     * @param args unused; configuration is by system properties.
+     * @throws Exception if the load test cannot be run.
+     */
+    public static void main(final String[] args) throws Exception {
+        final IngestLoadHarness harness = new IngestLoadHarness();
+        try {
+            harness.generate();
+            harness.start();
+            harness.run();
+        } finally {
+            harness.stop();
+        }
+
+        harness.report(System.out, false);
+
+        final String report = System.getProperty("report");
+        if (report != null) {
+            try (PrintStream out = new PrintStream(new File(report), UTF_8.name())) {
+                harness.report(out, true);
+            }
+        }
+    }
+
+    private void generate() throws IOException {
+        dir = Files.createTempDirectory("ingest-load");
+        for (final String size : System.getProperty("sizes", "10,100,1000").split(",")) {
+            final long binaries = Long.parseLong(size.trim());
+            final Path pkg = dir.resolve("pkg-" + binaries + ".zip");
+            new PackageGenerator()
+                    .withName("pkg-" + binaries)
+                    .withBinaries(binaries)
+                    .withBinarySize(SizeDistribution.fixed(Long.getLong("binarySize", 16384)))
+                    .write(pkg, PackageGenerator.Format.ZIP);
+            classes.add(new SizeClass(binaries + " binaries", pkg, Files.size(pkg)));
+        }
+    }
+
+    private void start() throws Exception {
+        final String ingestUri = System.getProperty("ingestUri");
+        final URI container;
+
+        if (ingestUri != null) {
+            target = URI.create(ingestUri);
+            container = URI.create(System.getProperty("container"));
+        } else {
+            repository = new InMemoryLdpServer()
+                    .retainingBinaries(false)
+                    .withLatency(Long.getLong("latency", 1))
+                    .start();
+            container = DepositBenchmark.createContainer(repository.getBaseUri());
+
+            final int port = freePort();
+            ingest = jar(ingestJar())
+                    .withEnv("REPOSITORY_BASEURI", repository.getBaseUri().toString())
+                    .withEnv("PACKAGE_INGEST_PORT", Integer.toString(port))
+                    .withEnv("PACKAGE_INGEST_REGISTER", "false")
+                    .logOutput(LoggerFactory.getLogger("ingest"))
+                    .start();
+            target = URI.create("http://localhost:" + port + "/ingest");
+            awaitStartup();
+        }
+
+        target = URI.create(target + "?container=" + URLEncoder.encode(container.toString(), UTF_8.name()) +
+                (events != null ? "&events=" + events : ""));
+    }
+
+    private void run() throws Exception {
+        final ExecutorService exe = Executors.newFixedThreadPool(clients);
+        final List<Future<?>> uploaded = new ArrayList<>();
+        final long intervalNanos = rate > 0 ? (long) (SECONDS.toNanos(1) / rate) : 0;
+
+        try {
+            final long start = System.nanoTime();
+            for (int i = 0; i < uploads; i++) {
+                final SizeClass size = classes.get(i % classes.size());
+
+                if (intervalNanos > 0) {
+                    final long scheduled = start + i * intervalNanos;
+                    final long wait = scheduled - System.nanoTime();
+                    if (wait > 0) {
+                        NANOSECONDS.sleep(wait);
+                    }
+                    uploaded.add(exe.submit(() -> upload(size, scheduled)));
+                } else {
+                    uploaded.add(exe.submit(() -> upload(size, System.nanoTime())));
+                }
+            }
+
+            for (final Future<?> upload : uploaded) {
+                upload.get();
+            }
+            nanos = System.nanoTime() - start;
+        } finally {
+            exe.shutdownNow();
+        }
+    }
+
+    private void upload(final SizeClass size, final long start) {
+        final long[] first = new long[1];
+        final long[] success = new long[1];
+
+        try {
+            final HttpURLConnection post = (HttpURLConnection) target.toURL().openConnection();
+            try {
+                post.setRequestMethod("POST");
+                post.setDoOutput(true);
+                post.setFixedLengthStreamingMode(size.bytes);
+                post.setRequestProperty("Content-Type", "application/zip");
+
+                try (OutputStream out = post.getOutputStream()) {
+                    Files.copy(size.pkg, out);
+                }
+
+                if (post.getResponseCode() > 299) {
+                    size.failed.incrementAndGet();
+                    return;
+                }
+
+                EventSource.from(post.getInputStream())
+                        .onEvent(e -> {
+                            final long now = System.nanoTime();
+                            if (first[0] == 0) {
+                                first[0] = now;
+                            }
+                            if ("success".equals(e.event())) {
+                                success[0] = now;
+                            }
+                        }).start();
+            } finally {
+                post.disconnect();
+            }
+        } catch (final IOException e) {
+            size.failed.incrementAndGet();
+            return;
+        }
+
+        if (first[0] != 0) {
+            size.firstEvent.recordValue(NANOSECONDS.toMicros(first[0] - start));
+        }
+
+        if (success[0] != 0) {
+            size.success.recordValue(NANOSECONDS.toMicros(success[0] - start));
+            size.throughput.recordValue(size.bytes * SECONDS.toNanos(1) / Math.max(1, success[0] - start));
+        } else {
+            size.failed.incrementAndGet();
+        }
+    }
+
+    private void stop() throws Exception {
+        if (ingest != null) {
+            ingest.destroy();
+            ingest.waitFor();
+        }
+
+        if (repository != null) {
+            repository.close();
+        }
+
+        if (dir != null) {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private void report(final PrintStream out, final boolean distributions) {
+        out.printf("%d uploads by %d clients, %s, in %.1f s%n", uploads, clients,
+                rate > 0 ? rate + " per second" : "back to back", nanos / 1e9);
+        out.printf("%-16s %10s %7s %-18s %12s %12s %12s %12s%n", "class", "bytes", "failed", "metric", "p50", "p99",
+                "p999", "max");
+
+        for (final SizeClass size : classes) {
+            row(out, size, "first event ms", size.firstEvent, 1000.0);
+            row(out, size, "success ms", size.success, 1000.0);
+            row(out, size, "bytes/s", size.throughput, 1.0);
+        }
+
+        if (distributions) {
+            for (final SizeClass size : classes) {
+                distribution(out, size, "first event ms", size.firstEvent, 1000.0);
+                distribution(out, size, "success ms", size.success, 1000.0);
+                distribution(out, size, "bytes/s", size.throughput, 1.0);
+            }
+        }
+    }
+
+    private static void row(final PrintStream out, final SizeClass size, final String metric,
+            final Histogram histogram, final double scale) {
+        out.printf("%-16s %10d %7d %-18s %12.1f %12.1f %12.1f %12.1f%n", size.name, size.bytes, size.failed.get(),
+                metric,
+                histogram.getValueAtPercentile(50) / scale,
+                histogram.getValueAtPercentile(99) / scale,
+                histogram.getValueAtPercentile(99.9) / scale,
+                histogram.getMaxValue() / scale);
+    }
+
+    private static void distribution(final PrintStream out, final SizeClass size, final String metric,
+            final Histogram histogram, final double scale) {
+        out.printf("%n%s, %s%n", size.name, metric);
+        if (histogram.getTotalCount() > 0) {
+            histogram.outputPercentileDistribution(out, scale);
+        }
+    }
+
+    private void awaitStartup() throws Exception {
+        final long deadline = System.nanoTime() + SECONDS.toNanos(STARTUP_SECONDS);
+        while (System.nanoTime() < deadline) {
+            if (!ingest.isAlive()) {
+                throw new IllegalStateException("Ingest service exited with status " + ingest.exitValue());
+            }
+
+            try {
+                final HttpURLConnection options = (HttpURLConnection) target.toURL().openConnection();
+                options.setRequestMethod("OPTIONS");
+                try {
+                    if (options.getResponseCode() < 500) {
+                        return;
+                    }
+                } finally {
+                    options.disconnect();
+                }
+            } catch (final IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException("Ingest service did not start within " + STARTUP_SECONDS + " seconds");
+    }
+
+    private static File ingestJar() throws IOException {
+        if (System.getProperty("ingestJar") != null) {
+            return new File(System.getProperty("ingestJar"));
+        }
+
+        try (DirectoryStream<Path> jars = Files.newDirectoryStream(Paths.get("package-ingest-jar", "target"),
+                "package-ingest-jar-*.jar")) {
+            for (final Path jar : jars) {
+                return jar.toFile();
+            }
+        }
+        throw new IllegalStateException("No ingest jar found; build package-ingest-jar or specify -DingestJar");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class SizeClass {
+
+        final String name;
+
+        final Path pkg;
+
+        final long bytes;
+
+        final AtomicLong failed = new AtomicLong();
+
+        // Times in microseconds, throughput in bytes per second
+        final Histogram firstEvent = new ConcurrentHistogram(3);
+
+        final Histogram success = new ConcurrentHistogram(3);
+
+        final Histogram throughput = new ConcurrentHistogram(3);
+
+        SizeClass(final String name, final Path pkg, final long bytes) {
+            this.name = name;
+            this.pkg = pkg;
+            this.bytes = bytes;
+        }
+    }
+}
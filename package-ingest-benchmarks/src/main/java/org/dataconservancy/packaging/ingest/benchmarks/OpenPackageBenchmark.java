@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.dataconservancy.packaging.impl.DcsPackageAnalyzer;
+import org.dataconservancy.packaging.impl.OpenPackageService;
+import org.dataconservancy.packaging.test.PackageGenerator;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of extracting and analyzing a package archive, as when a package is uploaded.
+ *
+ * @author apb@jhu.edu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OpenPackageBenchmark {
+
+    /** Number of binaries in the package */
+    @Param({ "10", "100", "1000" })
+    public int resources;
+
+    /** Depth of container nesting */
+    @Param({ "1", "3" })
+    public int depth;
+
+    /** Number of child containers of each container */
+    @Param({ "3" })
+    public int fanOut;
+
+    /** Number of triples in each domain object */
+    @Param({ "10", "1000" })
+    public int bodyTriples;
+
+    /** Archive format */
+    @Param({ "zip", "tar", "tar.gz" })
+    public String format;
+
+    private Path dir;
+
+    private Path archive;
+
+    private File extractDir;
+
+    private final OpenPackageService packageService = new OpenPackageService();
+
+    /**
+     * Generate and archive the package.
+     *
+     * @throws IOException if the package cannot be written.
+     */
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("open-package-benchmark");
+        archive = dir.resolve("pkg." + format);
+        new PackageGenerator()
+                .withName("pkg")
+                .withBinaries(resources)
+                .withDepth(depth)
+                .withFanOut(fanOut)
+                .withDescriptionTriples(bodyTriples)
+                .write(archive, PackageGenerator.Format.fromExtension(format));
+        extractDir = dir.resolve("extract").toFile();
+    }
+
+    /**
+     * Remove the package.
+     *
+     * @throws IOException if the package cannot be deleted.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    /**
+     * Remove the extracted package, so that each invocation extracts into an empty directory. An invocation takes
+     * long enough that the cost of a per-invocation fixture does not skew the result.
+     *
+     * @throws IOException if the extracted package cannot be deleted.
+     */
+    @TearDown(Level.Invocation)
+    public void cleanExtractDir() throws IOException {
+        FileUtils.deleteDirectory(extractDir);
+    }
+
+    /**
+     * Extract the archive.
+     *
+     * @return the extracted package directory.
+     * @throws IOException if the archive cannot be extracted.
+     */
+    @Benchmark
+    public File openPackage() throws IOException {
+        return packageService.openPackage(extractDir, archive.toFile());
+    }
+
+    /**
+     * Extract and analyze the archive.
+     *
+     * @return number of resources found.
+     */
+    @Benchmark
+    public int getContainerRoots() {
+        return PackageAnalyzerBenchmark.close(new DcsPackageAnalyzer(packageService, extractDir)
+                .getContainerRoots(archive));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.dataconservancy.packaging.impl.DcsPackageAnalyzer;
+import org.dataconservancy.packaging.impl.OpenPackageService;
+import org.dataconservancy.packaging.ingest.PackagedResource;
+import org.dataconservancy.packaging.test.PackageGenerator;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of analyzing an unpacked package, as when depositing a package by reference.
+ *
+ * @author apb@jhu.edu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackageAnalyzerBenchmark {
+
+    /** Number of binaries in the package */
+    @Param({ "10", "100", "1000" })
+    public int resources;
+
+    /** Depth of container nesting */
+    @Param({ "1", "3", "6" })
+    public int depth;
+
+    /** Number of child containers of each container */
+    @Param({ "3" })
+    public int fanOut;
+
+    private Path dir;
+
+    private Path bag;
+
+    private DcsPackageAnalyzer analyzer;
+
+    /**
+     * Generate the package.
+     *
+     * @throws IOException if the package cannot be written.
+     */
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("analyzer-benchmark");
+        new PackageGenerator()
+                .withName("pkg")
+                .withBinaries(resources)
+                .withDepth(depth)
+                .withFanOut(fanOut)
+                .write(dir, PackageGenerator.Format.DIRECTORY);
+        bag = dir.resolve("pkg");
+        analyzer = new DcsPackageAnalyzer(new OpenPackageService(), dir.toFile());
+    }
+
+    /**
+     * Remove the package.
+     *
+     * @throws IOException if the package cannot be deleted.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    /**
+     * Analyze the unpacked package in place.
+     *
+     * @return number of resources found.
+     */
+    @Benchmark
+    public int getContainerRoots() {
+        return close(analyzer.getContainerRoots(bag));
+    }
+
+    /**
+     * Close the bodies of analyzed resources, which are open files.
+     *
+     * @param resources resources to close.
+     * @return number of resources closed.
+     */
+    static int close(final Collection<PackagedResource> resources) {
+        int count = 0;
+        for (final PackagedResource resource : resources) {
+            count++;
+            try (InputStream body = resource.getBody()) {
+                if (resource.getDescription() != null) {
+                    resource.getDescription().getBody().close();
+                    count++;
+                }
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not close " + resource.getURI(), e);
+            }
+            count += close(resource.getChildren());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.dataconservancy.packaging.impl.BasicLdpResource;
+import org.dataconservancy.packaging.impl.RdfUtil;
+import org.dataconservancy.packaging.ingest.PackagedResource;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the RDF transforms applied to each domain object as it is deposited.
+ *
+ * @author apb@jhu.edu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RdfUtilBenchmark {
+
+    static final String SUBJECT = "bag://pkg/data/obj/file-0.ttl";
+
+    static final String BOM = "http://dataconservancy.org/business-object-model#";
+
+    /** Number of triples in the RDF body */
+    @Param({ "10", "1000", "10000" })
+    public int bodyTriples;
+
+    /** Number of local URIs known to the remapping, i.e. resources deposited so far */
+    @Param({ "10", "10000" })
+    public int mappedUris;
+
+    private List<Triple> triples;
+
+    private byte[] body;
+
+    private Function<Triple, Triple> remap;
+
+    private Model orig;
+
+    private Model updated;
+
+    /**
+     * Generate an RDF body, and a remapping for every URI in it.
+     */
+    @Setup
+    public void setup() {
+        orig = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(orig, new ByteArrayInputStream(body("bag://pkg/data/obj/container-0.ttl", bodyTriples)),
+                SUBJECT, Lang.TURTLE);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RDFDataMgr.write(out, orig, Lang.TURTLE);
+        body = out.toByteArray();
+
+        triples = orig.listStatements().mapWith(Statement::asTriple).toList();
+
+        final Map<URI, URI> localToRepository = new HashMap<>();
+        localToRepository.put(URI.create(SUBJECT), URI.create("http://localhost/rest/file-0"));
+        localToRepository.put(URI.create("bag://pkg/data/obj/container-0.ttl"),
+                URI.create("http://localhost/rest/container-0"));
+        for (int i = localToRepository.size(); i < mappedUris; i++) {
+            localToRepository.put(URI.create("bag://pkg/data/obj/other-" + i + ".ttl"),
+                    URI.create("http://localhost/rest/other-" + i));
+        }
+        remap = RdfUtil.remap(localToRepository);
+
+        // The resource as it is in the repository after a tenth of its triples have been changed
+        updated = ModelFactory.createDefaultModel().add(orig);
+        final List<Statement> statements = updated.listStatements().toList();
+        for (int i = 0; i < statements.size(); i += 10) {
+            final Statement s = statements.get(i);
+            updated.remove(s);
+            updated.add(s.getSubject(), s.getPredicate(), "changed " + i);
+        }
+    }
+
+    /**
+     * Remap every triple of a body.
+     *
+     * @param bh blackhole.
+     */
+    @Benchmark
+    public void remap(final Blackhole bh) {
+        for (final Triple triple : triples) {
+            bh.consume(remap.apply(triple));
+        }
+    }
+
+    /**
+     * Parse, remap, and re-serialize a body.
+     *
+     * @return number of bytes in the filtered body.
+     * @throws IOException if the filtered body cannot be read.
+     */
+    @Benchmark
+    public long filterBody() throws IOException {
+        final BasicLdpResource resource = new BasicLdpResource(URI.create(SUBJECT));
+        resource.setType(PackagedResource.Type.RDFSOURCE);
+        resource.setMediaType("text/turtle");
+        resource.setBody(new ByteArrayInputStream(body));
+
+        try (InputStream filtered = RdfUtil.filterBody(resource, remap).getBody()) {
+            return IOUtils.copyLarge(filtered, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+    }
+
+    /**
+     * Compute the patch from the original body to one with a tenth of its triples changed.
+     *
+     * @return the patch.
+     * @throws IOException never.
+     */
+    @Benchmark
+    public byte[] makeSparqlPatch() throws IOException {
+        return IOUtils.toByteArray(RdfUtil.makeSparqlPatch(orig, updated));
+    }
+
+    // Turtle body of a domain object
+    private static byte[] body(final String parent, final int triples) {
+        final StringBuilder body = new StringBuilder();
+        body.append("<> a <").append(BOM).append("DataItem> .\n");
+        body.append("<> <").append(BOM).append("isMemberOf> <").append(parent).append("> .\n");
+        for (int t = 2; t < triples; t++) {
+            body.append("<> <").append(BOM).append("hasDescription> \"Description number ").append(t)
+                    .append(" of a synthetic object\" .\n");
+        }
+        return body.toString().getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Event stream of a single deposit, which clients may disconnect from and resume.
+ * <p>
+ * Each event frame is given an id, one greater than the last, and the most recent frames are retained in a bounded
+ * replay buffer. A client that reconnects with the id of the last event it saw is sent the retained frames that
+ * followed it, then continues to receive events as they happen. If some of the events it missed are no longer
+ * retained, it is first sent a {@value #TRUNCATED} event saying how many. If no client is connected for longer than
+ * the resume timeout, the stream is considered abandoned, and the deposit may be cancelled.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class DepositStream implements SseOutput {
+
+    static final Logger LOG = LoggerFactory.getLogger(DepositStream.class);
+
+    /** Default number of frames retained for replay */
+    static final int DEFAULT_REPLAY_SIZE = 1024;
+
+    /** Default number of seconds a deposit waits for a disconnected client to resume */
+    static final int DEFAULT_RESUME_TIMEOUT = 60;
+
+    /** Event telling a resuming client that some of the events it missed can no longer be replayed */
+    static final String TRUNCATED = "truncated";
+
+    private final String id;
+
+    private final int replaySize;
+
+    private final long resumeTimeoutNanos;
+
+    private final Deque<Frame> replay = new ArrayDeque<>();
+
+    private long lastId;
+
+    private Client client;
+
+    private long detachedAt = System.nanoTime();
+
+    private boolean finished;
+
+    private long finishedAt;
+
+    DepositStream(final String id, final int replaySize, final int resumeTimeoutSeconds) {
+        this.id = id;
+        this.replaySize = replaySize > 0 ? replaySize : DEFAULT_REPLAY_SIZE;
+        this.resumeTimeoutNanos = TimeUnit.SECONDS.toNanos(resumeTimeoutSeconds);
+    }
+
+    /**
+     * Deposit id.
+     *
+     * @return the id.
+     */
+    String id() {
+        return id;
+    }
+
+    /**
+     * Number frames, retain them for replay, and send them to the connected client, if any.
+     * <p>
+     * A failure to write to the client disconnects it, rather than failing.
+     * </p>
+     */
+    @Override
+    public synchronized void send(final List<String> frames) {
+        final StringBuilder text = new StringBuilder();
+        for (final String frame : frames) {
+            if (frame.startsWith(":")) {
+                // Comments are not events
+                text.append(frame);
+            } else {
+                final Frame numbered = new Frame(++lastId, frame);
+                retain(numbered);
+                text.append(numbered.text);
+            }
+        }
+
+        if (client != null) {
+            try {
+                client.out.write(text.toString());
+                client.out.flush();
+            } catch (final IOException e) {
+                LOG.info("Client of deposit {} went away, awaiting resume", id, e);
+                detach(client.cxt);
+            }
+        }
+    }
+
+    /**
+     * Connect a client, replaying any retained frames after the last one it saw.
+     * <p>
+     * Any client already connected is disconnected. If the deposit has finished, the client is disconnected once the
+     * replayed frames have been sent.
+     * </p>
+     *
+     * @param out Output to the client.
+     * @param cxt Async context of the client's request.
+     * @param lastEventId Id of the last event the client saw, or 0 for none.
+     */
+    synchronized void attach(final NonBlockingOutput out, final AsyncContext cxt, final long lastEventId) {
+        if (client != null) {
+            LOG.debug("Replacing client of deposit {}", id);
+            final Client previous = client;
+            client = null;
+            previous.out.whenDrained(() -> complete(previous.cxt));
+        }
+
+        cxt.addListener(new AsyncListener() {
+
+            @Override
+            public void onError(final AsyncEvent event) {
+                LOG.info("Client connection to deposit {} failed, awaiting resume", id, event.getThrowable());
+                detach(cxt);
+            }
+
+            @Override
+            public void onTimeout(final AsyncEvent event) {
+                LOG.info("Client connection to deposit {} timed out, awaiting resume", id);
+                detach(cxt);
+            }
+
+            @Override
+            public void onComplete(final AsyncEvent event) {
+                // nothing to do
+            }
+
+            @Override
+            public void onStartAsync(final AsyncEvent event) {
+                // nothing to do
+            }
+        });
+
+        final StringBuilder missed = new StringBuilder();
+
+        // Without this, a client missing events it can no longer be sent would take its stream to be complete
+        final Frame oldest = replay.peekFirst();
+        if (oldest != null && oldest.id > lastEventId + 1) {
+            LOG.info("Events {} to {} of deposit {} are no longer retained for replay", lastEventId + 1, oldest.id - 1,
+                    id);
+            missed.append("event: ").append(TRUNCATED).append("\ndata: ").append(oldest.id - lastEventId - 1)
+                    .append(" earlier events are no longer available\n\n");
+        }
+
+        replay.stream().filter(f -> f.id > lastEventId).forEach(f -> missed.append(f.text));
+
+        if (missed.length() > 0) {
+            try {
+                out.write(missed.toString());
+                out.flush();
+            } catch (final IOException e) {
+                LOG.info("Could not replay events of deposit {}", id, e);
+                complete(cxt);
+                return;
+            }
+        }
+
+        if (finished) {
+            out.whenDrained(() -> complete(cxt));
+        } else {
+            client = new Client(out, cxt);
+        }
+    }
+
+    /**
+     * Disconnect a client, if it is the one currently connected.
+     *
+     * @param cxt Async context of the client's request.
+     */
+    synchronized void detach(final AsyncContext cxt) {
+        if (client != null && client.cxt == cxt) {
+            client = null;
+            detachedAt = System.nanoTime();
+            complete(cxt);
+        }
+    }
+
+    /**
+     * Mark the deposit as finished, and disconnect the client once everything has been sent to it.
+     */
+    synchronized void finish() {
+        finished = true;
+        finishedAt = System.nanoTime();
+
+        if (client != null) {
+            final Client last = client;
+            client = null;
+            last.out.whenDrained(() -> complete(last.cxt));
+        }
+    }
+
+    /**
+     * Whether no client has been connected to an unfinished deposit for longer than the resume timeout.
+     *
+     * @return true if abandoned.
+     */
+    synchronized boolean isAbandoned() {
+        return !finished && client == null && System.nanoTime() - detachedAt > resumeTimeoutNanos;
+    }
+
+    /**
+     * Whether the deposit finished long enough ago that a client is no longer expected to resume it.
+     *
+     * @return true if expired.
+     */
+    synchronized boolean isExpired() {
+        return finished && System.nanoTime() - finishedAt > resumeTimeoutNanos;
+    }
+
+    private void retain(final Frame frame) {
+        if (replay.size() == replaySize) {
+            replay.removeFirst();
+        }
+        replay.addLast(frame);
+    }
+
+    private static void complete(final AsyncContext cxt) {
+        try {
+            cxt.complete();
+        } catch (final Throwable e) {
+            LOG.debug("Could not complete response", e);
+        }
+    }
+
+    private static class Frame {
+
+        final long id;
+
+        final String text;
+
+        Frame(final long id, final String frame) {
+            this.id = id;
+            this.text = "id: " + id + "\n" + frame;
+        }
+    }
+
+    private static class Client {
+
+        final NonBlockingOutput out;
+
+        final AsyncContext cxt;
+
+        Client(final NonBlockingOutput out, final AsyncContext cxt) {
+            this.out = out;
+            this.cxt = cxt;
+        }
+    }
+}
@@ -23,7 +23,7 @@ package org.dataconservancy.packaging.ingest.http;
  */
 public class Event {
 
-    int id = 0;
+    long id = 0;
 
     String event = "message";
 
@@ -34,7 +34,7 @@ public class Event {
      *
      * @return id;
      */
-    public int id() {
+    public long id() {
         return id;
     }
 
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.dataconservancy.packaging.ingest.EventListener;
+import org.dataconservancy.packaging.ingest.EventType;
+import org.dataconservancy.packaging.ingest.PackagedResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands events off to a listener running on its own thread.
+ * <p>
+ * Events are passed through a bounded {@link RingBuffer}, so that a slow listener (e.g. one writing to a slow HTTP
+ * client) does not hold up the thread producing events. What happens when the buffer is full is determined by an
+ * {@link Overflow} policy. Events are delivered in the order they were produced, and error and success events are
+ * never dropped.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class EventDispatcher implements EventListener, AutoCloseable {
+
+    static final Logger LOG = LoggerFactory.getLogger(EventDispatcher.class);
+
+    /** Default buffer capacity */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /** What to do with an event when the buffer is full */
+    public enum Overflow {
+
+        /** Wait for room in the buffer */
+        BLOCK,
+
+        /** Count deposit and remap events rather than buffering them; drop heartbeats and progress */
+        COALESCE,
+
+        /** Drop heartbeats and progress; wait for room for any other event */
+        DROP_HEARTBEAT
+    }
+
+    /** Detail of an event standing in for a number of coalesced events */
+    public static final class Coalesced {
+
+        /** Number of events coalesced */
+        public final long count;
+
+        private final String verb;
+
+        Coalesced(final long count, final String verb) {
+            this.count = count;
+            this.verb = verb;
+        }
+
+        @Override
+        public String toString() {
+            return count + " more resources " + verb;
+        }
+    }
+
+    private final EventListener listener;
+
+    private final RingBuffer<Pending> buffer;
+
+    private final Overflow overflow;
+
+    private final AtomicLong coalescedDeposits = new AtomicLong();
+
+    private final AtomicLong coalescedRemaps = new AtomicLong();
+
+    private final CountDownLatch drained = new CountDownLatch(1);
+
+    private Runnable idle = () -> {
+    };
+
+    private volatile Thread writer;
+
+    private volatile boolean waiting;
+
+    private volatile boolean closed;
+
+    private volatile boolean failed;
+
+    /**
+     * Create a dispatcher.
+     *
+     * @param listener Listener to deliver events to.
+     * @param capacity Maximum number of events buffered.
+     * @param overflow Policy for events that don't fit in the buffer.
+     */
+    public EventDispatcher(final EventListener listener, final int capacity, final Overflow overflow) {
+        this.listener = listener;
+        this.buffer = new RingBuffer<>(capacity > 0 ? capacity : DEFAULT_CAPACITY);
+        this.overflow = overflow;
+    }
+
+    /**
+     * Specify a task to run on the delivery thread whenever it is waiting for events, e.g. to flush output.
+     *
+     * @param task the task.
+     * @return this dispatcher.
+     */
+    public EventDispatcher onIdle(final Runnable task) {
+        this.idle = task;
+        return this;
+    }
+
+    /**
+     * Start delivering events.
+     *
+     * @param exe Executor to run the delivery loop on. It occupies one thread until the dispatcher is closed.
+     * @return this dispatcher.
+     */
+    public EventDispatcher start(final Executor exe) {
+        exe.execute(this::deliver);
+        return this;
+    }
+
+    /**
+     * Whether the listener has thrown an exception. Events are no longer delivered once it has.
+     *
+     * @return true if delivery has failed.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public void onEvent(final EventType type, final URI repositoryResource, final PackagedResource resource,
+            final Object detail) {
+
+        if (closed) {
+            LOG.debug("Ignoring {} event after dispatcher closed", type);
+            return;
+        }
+
+        final Pending event = new Pending(type, repositoryResource, resource, detail);
+
+        if (overflow == Overflow.COALESCE && (type == EventType.DEPOSIT || type == EventType.REMAP)) {
+            if (!(flushCoalesced(false) && offer(event))) {
+                (type == EventType.DEPOSIT ? coalescedDeposits : coalescedRemaps).incrementAndGet();
+            }
+        } else if ((type == EventType.HEARTBEAT || type == EventType.PROGRESS) && overflow != Overflow.BLOCK) {
+            // A later one will do as well
+            if (flushCoalesced(false)) {
+                offer(event);
+            }
+        } else {
+            flushCoalesced(true);
+            put(event);
+        }
+    }
+
+    /**
+     * Wait for all buffered events to be delivered, and stop the delivery loop.
+     */
+    @Override
+    public void close() {
+        flushCoalesced(true);
+        closed = true;
+        signal();
+        try {
+            drained.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Buffer counts of coalesced events as single events, so they precede anything produced afterwards
+    private boolean flushCoalesced(final boolean block) {
+        return flushCoalesced(coalescedDeposits, EventType.DEPOSIT, "deposited", block) &&
+                flushCoalesced(coalescedRemaps, EventType.REMAP, "remapped", block);
+    }
+
+    private boolean flushCoalesced(final AtomicLong counter, final EventType type, final String verb,
+            final boolean block) {
+        final long count = counter.getAndSet(0);
+        if (count == 0) {
+            return true;
+        }
+
+        final Pending summary = new Pending(type, null, null, new Coalesced(count, verb));
+        if (block) {
+            put(summary);
+            return true;
+        } else if (offer(summary)) {
+            return true;
+        }
+
+        counter.addAndGet(count);
+        return false;
+    }
+
+    private boolean offer(final Pending event) {
+        if (buffer.offer(event)) {
+            signal();
+            return true;
+        }
+        return false;
+    }
+
+    private void put(final Pending event) {
+        while (!offer(event)) {
+            if (failed) {
+                return;
+            }
+            LockSupport.parkNanos(this, BACKOFF_NANOS);
+        }
+    }
+
+    private void signal() {
+        final Thread w = writer;
+        if (waiting && w != null) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    private void deliver() {
+        writer = Thread.currentThread();
+        try {
+            while (true) {
+                final Pending event = buffer.poll();
+
+                if (event != null) {
+                    if (!failed) {
+                        try {
+                            listener.onEvent(event.type, event.repositoryResource, event.resource, event.detail);
+                        } catch (final Throwable e) {
+                            LOG.info("Event listener failed, discarding subsequent events", e);
+                            failed = true;
+                        }
+                    }
+                } else if (closed && buffer.isEmpty()) {
+                    return;
+                } else {
+                    runIdle();
+                    waiting = true;
+                    if (buffer.isEmpty() && !closed) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    waiting = false;
+                }
+            }
+        } finally {
+            writer = null;
+            drained.countDown();
+        }
+    }
+
+    private void runIdle() {
+        if (!failed) {
+            try {
+                idle.run();
+            } catch (final Throwable e) {
+                LOG.info("Event listener failed, discarding subsequent events", e);
+                failed = true;
+            }
+        }
+    }
+
+    private static class Pending {
+
+        final EventType type;
+
+        final URI repositoryResource;
+
+        final PackagedResource resource;
+
+        final Object detail;
+
+        Pending(final EventType type, final URI repositoryResource, final PackagedResource resource,
+                final Object detail) {
+            this.type = type;
+            this.repositoryResource = repositoryResource;
+            this.resource = resource;
+            this.detail = detail;
+        }
+    }
+}
@@ -93,7 +93,7 @@ public class EventSource {
         try {
             while ((line = bufferedReader.readLine()) != null) {
                 if (line.startsWith("id: ")) {
-                    event.id = Integer.parseInt(value(line));
+                    event.id = Long.parseLong(value(line));
                 } else if (line.startsWith("event: ")) {
                     event.event = value(line);
                 } else if (line.startsWith("data: ")) {
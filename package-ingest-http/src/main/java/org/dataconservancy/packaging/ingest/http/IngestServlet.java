@@ -18,17 +18,36 @@ package org.dataconservancy.packaging.ingest.http;
 
 import static javax.servlet.http.HttpServletResponse.SC_ACCEPTED;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_CONFLICT;
+import static javax.servlet.http.HttpServletResponse.SC_CREATED;
+import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
 import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static javax.servlet.http.HttpServletResponse.SC_METHOD_NOT_ALLOWED;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NO_CONTENT;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
@@ -37,31 +56,150 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.dataconservancy.packaging.ingest.BatchDeposit;
+import org.dataconservancy.packaging.ingest.BatchDepositBuilder;
 import org.dataconservancy.packaging.ingest.DepositBuilder;
+import org.dataconservancy.packaging.ingest.DepositJob;
+import org.dataconservancy.packaging.ingest.EventListener;
 import org.dataconservancy.packaging.ingest.EventType;
 import org.dataconservancy.packaging.ingest.PackageDepositManager;
 
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+@ObjectClassDefinition(name = "org.dataconservancy.packaging.ingest.http.IngestServlet",
+        description = "HTTP endpoint for depositing packages")
+@interface IngestServletConfig {
+
+    @AttributeDefinition(description = "Maximum number of deposit events buffered for each client")
+    int ingest_event_buffer_size() default EventDispatcher.DEFAULT_CAPACITY;
+
+    @AttributeDefinition(description = "What to do with deposit events when a client falls behind and its buffer " +
+            "is full: BLOCK the deposit, COALESCE deposit and remap events into counts, or DROP_HEARTBEAT events")
+    EventDispatcher.Overflow ingest_event_overflow() default EventDispatcher.Overflow.COALESCE;
+
+    @AttributeDefinition(description = "Maximum time, in milliseconds, that events are batched before being sent " +
+            "to the client")
+    long ingest_event_flush_interval_ms() default IngestServlet.DEFAULT_FLUSH_INTERVAL;
+
+    @AttributeDefinition(description = "Amount of batched event data that causes it to be sent to the client " +
+            "before the flush interval has elapsed")
+    int ingest_event_flush_bytes() default IngestServlet.DEFAULT_FLUSH_BYTES;
+
+    @AttributeDefinition(description = "Directory uploaded packages are spooled to before being deposited.  If " +
+            "blank, the system temporary directory is used")
+    String ingest_spool_dir() default "";
+
+    @AttributeDefinition(description = "Directory under which packages may be deposited by reference to their " +
+            "location on the server, rather than uploaded.  If blank, deposit by reference is disabled")
+    String ingest_reference_root() default "";
+
+    @AttributeDefinition(description = "Number of events of each deposit retained for replay to clients that " +
+            "resume its event stream")
+    int ingest_replay_size() default DepositStream.DEFAULT_REPLAY_SIZE;
+
+    @AttributeDefinition(description = "Number of seconds a deposit waits for a disconnected client to resume its " +
+            "event stream before being cancelled, and that the events of a finished deposit remain available")
+    int ingest_resume_timeout_seconds() default DepositStream.DEFAULT_RESUME_TIMEOUT;
+
+    @AttributeDefinition(description = "Number of packages of a batch deposited at the same time, unless the " +
+            "request specifies otherwise")
+    int ingest_batch_parallelism() default IngestServlet.DEFAULT_BATCH_PARALLELISM;
+
+    @AttributeDefinition(description = "Number of hours a resumable upload may go untouched before it is discarded")
+    int ingest_upload_expiry_hours() default ResumableUpload.DEFAULT_EXPIRY_HOURS;
+}
+
 /**
  * @author apb@jhu.edu
  */
 @SuppressWarnings("serial")
-@WebServlet(asyncSupported = true, name = "PackageIngest", urlPatterns = { "/ingest" })
-@Component(service = HttpServlet.class, property = { "osgi.http.whiteboard.servlet.pattern=/ingest" })
+@WebServlet(asyncSupported = true, name = "PackageIngest", urlPatterns = { "/ingest/*" })
+@Designate(ocd = IngestServletConfig.class)
+@Component(service = HttpServlet.class, configurationPolicy = ConfigurationPolicy.OPTIONAL,
+        property = { "osgi.http.whiteboard.servlet.pattern=/ingest/*" })
 public class IngestServlet extends HttpServlet {
 
     static final Logger LOG = LoggerFactory.getLogger(IngestServlet.class);
 
+    static final String JOBS_PATH = "/jobs";
+
+    static final String DEPOSITS_PATH = "/deposits";
+
+    static final String LAST_EVENT_ID = "Last-Event-ID";
+
+    static final String PAYLOAD_OXUM = "Payload-Oxum";
+
+    static final String EVENTS_PARAM = "events";
+
+    static final String PATH_PARAM = "path";
+
+    static final String BATCH_PATH = "/batch";
+
+    static final String PARALLELISM_PARAM = "parallelism";
+
+    static final String TRANSACTION_PARAM = "transaction";
+
+    static final int DEFAULT_BATCH_PARALLELISM = 4;
+
+    static final String UPLOADS_PATH = "/uploads";
+
+    static final String UPLOAD_LENGTH = "Upload-Length";
+
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+
+    static final String DIGEST = "Digest";
+
+    static final String URI_LIST = "text/uri-list";
+
+    static final long DEFAULT_FLUSH_INTERVAL = 100;
+
+    static final int DEFAULT_FLUSH_BYTES = 8192;
+
     ExecutorService exe = Executors.newCachedThreadPool();
 
     PackageDepositManager depositManager;
 
+    int eventBufferSize = EventDispatcher.DEFAULT_CAPACITY;
+
+    EventDispatcher.Overflow eventOverflow = EventDispatcher.Overflow.COALESCE;
+
+    long eventFlushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    int eventFlushBytes = DEFAULT_FLUSH_BYTES;
+
+    Path spoolDir = Paths.get(System.getProperty("java.io.tmpdir"));
+
+    Path referenceRoot;
+
+    int replaySize = DepositStream.DEFAULT_REPLAY_SIZE;
+
+    int resumeTimeout = DepositStream.DEFAULT_RESUME_TIMEOUT;
+
+    int batchParallelism = DEFAULT_BATCH_PARALLELISM;
+
+    int uploadExpiry = ResumableUpload.DEFAULT_EXPIRY_HOURS;
+
+    final Map<String, DepositStream> streams = new ConcurrentHashMap<>();
+
+    final Map<String, ResumableUpload> uploads = new ConcurrentHashMap<>();
+
     /**
      * Set the package deposit manager.
      *
@@ -72,6 +210,117 @@ public class IngestServlet extends HttpServlet {
         this.depositManager = mgr;
     }
 
+    /**
+     * Set the maximum number of deposit events buffered for each client.
+     *
+     * @param size number of events.
+     */
+    public void setEventBufferSize(final int size) {
+        this.eventBufferSize = size;
+    }
+
+    /**
+     * Set what to do with deposit events when a client falls behind.
+     *
+     * @param overflow policy for events that do not fit in a client's buffer.
+     */
+    public void setEventOverflow(final EventDispatcher.Overflow overflow) {
+        this.eventOverflow = overflow;
+    }
+
+    /**
+     * Set the maximum time events are batched before being sent to the client.
+     *
+     * @param millis flush interval in milliseconds.
+     */
+    public void setEventFlushInterval(final long millis) {
+        this.eventFlushInterval = millis;
+    }
+
+    /**
+     * Set the amount of batched event data that causes it to be sent to the client.
+     *
+     * @param bytes flush threshold.
+     */
+    public void setEventFlushBytes(final int bytes) {
+        this.eventFlushBytes = bytes;
+    }
+
+    /**
+     * Set the directory uploaded packages are spooled to before being deposited.
+     *
+     * @param dir spool directory, or null/empty for the system temporary directory.
+     */
+    public void setSpoolDir(final String dir) {
+        this.spoolDir = Paths.get(dir == null || dir.trim().isEmpty() ? System.getProperty("java.io.tmpdir") : dir);
+    }
+
+    /**
+     * Set the directory under which packages may be deposited by reference, rather than uploaded.
+     *
+     * @param dir root directory, or null/empty to disable deposit by reference.
+     */
+    public void setReferenceRoot(final String dir) {
+        this.referenceRoot = dir == null || dir.trim().isEmpty() ? null : Paths.get(dir);
+    }
+
+    /**
+     * Set the number of events retained for replay to clients resuming a deposit's event stream.
+     *
+     * @param size number of events.
+     */
+    public void setReplaySize(final int size) {
+        this.replaySize = size;
+    }
+
+    /**
+     * Set how long a deposit waits for a disconnected client to resume its event stream before being cancelled.
+     * This is also how long the events of a finished deposit remain available.
+     *
+     * @param seconds resume timeout.
+     */
+    public void setResumeTimeout(final int seconds) {
+        this.resumeTimeout = seconds;
+    }
+
+    /**
+     * Set the number of packages of a batch deposited at the same time, unless the request says otherwise.
+     *
+     * @param packages number of packages.
+     */
+    public void setBatchParallelism(final int packages) {
+        this.batchParallelism = packages;
+    }
+
+    /**
+     * Set how long a resumable upload may go untouched before it is discarded.
+     *
+     * @param hours expiry time.
+     */
+    public void setUploadExpiry(final int hours) {
+        this.uploadExpiry = hours;
+    }
+
+    /**
+     * Initialize.
+     *
+     * @param config OSGi DS-style configuration
+     */
+    @Activate
+    @Modified
+    public void init(final IngestServletConfig config) {
+        setEventBufferSize(config.ingest_event_buffer_size());
+        setEventOverflow(config.ingest_event_overflow());
+        setEventFlushInterval(config.ingest_event_flush_interval_ms());
+        setEventFlushBytes(config.ingest_event_flush_bytes());
+        setSpoolDir(config.ingest_spool_dir());
+        setReferenceRoot(config.ingest_reference_root());
+        setReplaySize(config.ingest_replay_size());
+        setResumeTimeout(config.ingest_resume_timeout_seconds());
+        setBatchParallelism(config.ingest_batch_parallelism());
+        setUploadExpiry(config.ingest_upload_expiry_hours());
+    }
+
     /** No arg constructor */
     public IngestServlet() {
     }
@@ -81,6 +330,17 @@ public class IngestServlet extends HttpServlet {
         this.depositManager = manager;
     }
 
+    @Override
+    protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException,
+            IOException {
+        // HttpServlet doesn't know about PATCH
+        if ("PATCH".equals(req.getMethod())) {
+            doPatch(req, resp);
+        } else {
+            super.service(req, resp);
+        }
+    }
+
     @Override
     protected void doOptions(final HttpServletRequest req, final HttpServletResponse resp)
             throws ServletException, IOException {
@@ -92,7 +352,7 @@ public class IngestServlet extends HttpServlet {
         resp.setStatus(SC_OK);
         resp.setHeader("Content-Type", "text/turtle");
         resp.setHeader("Accept-Post", "application/zip,application/x-tgz,application/tar,application/gzip");
-        resp.setHeader("Allow", "POST,HEAD,GET,OPTIONS");
+        resp.setHeader("Allow", "POST,HEAD,GET,OPTIONS,PATCH,DELETE");
 
         try (OutputStream out = resp.getOutputStream()) {
             IOUtils.copy(this.getClass().getResourceAsStream("/options.ttl"), out);
@@ -107,6 +367,20 @@ public class IngestServlet extends HttpServlet {
 
         printHeaders(req);
 
+        if (isJob(req)) {
+            getJob(req.getPathInfo().substring(JOBS_PATH.length() + 1), resp);
+            return;
+        } else if (isDeposit(req)) {
+            resumeDeposit(req.getPathInfo().substring(DEPOSITS_PATH.length() + 1), req, resp);
+            return;
+        } else if (isUpload(req)) {
+            getUpload(uploadId(req), resp);
+            return;
+        } else if (!isEndpoint(req)) {
+            resp.sendError(SC_NOT_FOUND);
+            return;
+        }
+
         resp.setStatus(SC_OK);
         resp.setHeader("Content-Type", "text/turtle");
 
@@ -131,91 +405,645 @@ public class IngestServlet extends HttpServlet {
         LOG.debug("Servicing POST " + req.getPathInfo());
         printHeaders(req);
 
+        if (JOBS_PATH.equals(req.getPathInfo())) {
+            submitJob(req, resp);
+            return;
+        } else if (BATCH_PATH.equals(req.getPathInfo())) {
+            depositBatch(req, resp);
+            return;
+        } else if (UPLOADS_PATH.equals(req.getPathInfo())) {
+            createUpload(req, resp);
+            return;
+        } else if (isUpload(req)) {
+            depositUpload(uploadId(req), req, resp);
+            return;
+        } else if (isJob(req) || isDeposit(req)) {
+            resp.sendError(SC_METHOD_NOT_ALLOWED);
+            return;
+        } else if (!isEndpoint(req)) {
+            resp.sendError(SC_NOT_FOUND);
+            return;
+        }
+
+        final SseWriter.Verbosity verbosity;
+        try {
+            verbosity = SseWriter.Verbosity.parse(req.getParameter(EVENTS_PARAM));
+        } catch (final IllegalArgumentException e) {
+            resp.sendError(SC_BAD_REQUEST, "Unknown " + EVENTS_PARAM + " " + req.getParameter(EVENTS_PARAM) +
+                    ", expecting one of all, summary, errors");
+            return;
+        }
+
+        final URI container = uriFromRequest(req);
+
+        // A package already on the server is read where it is, if it is of a form that can be deposited
+        final Path reference;
+        final DepositBuilder referenced;
+        try {
+            reference = packageReference(req);
+            referenced = reference != null ? depositManager.newDeposit().withPackage(reference) : null;
+        } catch (final SecurityException e) {
+            resp.sendError(SC_FORBIDDEN, e.getMessage());
+            return;
+        } catch (final NoSuchFileException e) {
+            resp.sendError(SC_NOT_FOUND, "No package " + e.getMessage());
+            return;
+        } catch (final IllegalArgumentException e) {
+            resp.sendError(SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
         final AsyncContext cxt = req.startAsync();
         cxt.setTimeout(0);
 
-        final DepositBuilder deposit = depositManager.newDeposit()
-                .withPackage(cxt.getRequest().getInputStream())
-                .intoContainer(uriFromRequest(req));
-
-        exe.execute(() -> {
+        if (referenced != null) {
+            LOG.debug("Depositing package {} by reference", reference);
             try {
-                execDeposit(deposit, cxt);
+                execDeposit(referenced.intoContainer(container), verbosity, cxt, () -> {
+                });
             } catch (final Throwable e) {
                 LOG.info("Terminated response with exception", e);
-                try {
-                    cxt.complete();
-                } catch (final Throwable x) {
-                    LOG.warn("Error handler could not complete", e);
-                }
+                complete(cxt);
             }
-        });
+            return;
+        }
 
+        // Read the upload as it arrives, and only start depositing once it's all here
+        try {
+            UploadSpool.start(req.getInputStream(), spoolDir, upload -> {
+                try {
+                    execDeposit(depositManager.newDeposit()
+                            .withPackage(upload.open())
+                            .intoContainer(container), verbosity, cxt, upload::close);
+                } catch (final Throwable e) {
+                    LOG.info("Terminated response with exception", e);
+                    upload.close();
+                    complete(cxt);
+                }
+            }, e -> uploadFailed(resp, cxt, e));
+        } catch (final IOException e) {
+            LOG.warn("Could not spool upload", e);
+            resp.setStatus(SC_INTERNAL_SERVER_ERROR);
+            complete(cxt);
+        }
     }
 
-    private static void execDeposit(final DepositBuilder deposit, final AsyncContext cxt) {
-        final HttpServletResponse response = response(cxt);
-        final PrintWriter out;
+    private void depositBatch(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        final SseWriter.Verbosity verbosity;
+        final BatchDepositBuilder batch;
         try {
-            out = response.getWriter();
+            verbosity = SseWriter.Verbosity.parse(req.getParameter(EVENTS_PARAM));
+            batch = depositManager.newBatch()
+                    .intoContainer(uriFromRequest(req))
+                    .withParallelism(req.getParameter(PARALLELISM_PARAM) != null ? Integer.parseInt(req
+                            .getParameter(PARALLELISM_PARAM)) : batchParallelism)
+                    .inOneTransaction(oneTransaction(req.getParameter(TRANSACTION_PARAM)));
+        } catch (final IllegalArgumentException e) {
+            resp.sendError(SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        final AsyncContext cxt = req.startAsync();
+        cxt.setTimeout(0);
+
+        // The archive of packages is spooled, so that unpacking it does not wait on the uploader
+        try {
+            UploadSpool.start(req.getInputStream(), spoolDir, upload -> {
+                try {
+                    execBatch(batch, upload, verbosity, cxt);
+                } catch (final Throwable e) {
+                    LOG.info("Terminated response with exception", e);
+                    upload.close();
+                    complete(cxt);
+                }
+            }, e -> uploadFailed(resp, cxt, e));
         } catch (final IOException e) {
-            LOG.warn("Could not open response writer", e);
-            response.setStatus(SC_INTERNAL_SERVER_ERROR);
+            LOG.warn("Could not spool upload", e);
+            resp.setStatus(SC_INTERNAL_SERVER_ERROR);
+            complete(cxt);
+        }
+    }
+
+    private static boolean oneTransaction(final String transaction) {
+        if (transaction == null || "package".equals(transaction)) {
+            return false;
+        } else if ("batch".equals(transaction)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown " + TRANSACTION_PARAM + " " + transaction +
+                ", expecting one of package, batch");
+    }
+
+    @Override
+    protected void doDelete(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException,
+            IOException {
+        LOG.debug("Servicing DELETE " + req.getPathInfo());
+
+        if (!isUpload(req)) {
+            resp.sendError(isEndpoint(req) || isJob(req) || isDeposit(req) ? SC_METHOD_NOT_ALLOWED : SC_NOT_FOUND);
             return;
         }
 
-        response.setStatus(SC_ACCEPTED);
-        response.setCharacterEncoding("UTF-8");
-        response.setContentType("text/event-stream");
+        final ResumableUpload upload = uploads.remove(uploadId(req));
+        if (upload == null) {
+            resp.sendError(SC_NOT_FOUND, "No upload " + uploadId(req));
+            return;
+        }
+
+        upload.close();
+        resp.setStatus(SC_NO_CONTENT);
+    }
+
+    /**
+     * Write a chunk of a resumable upload at the offset given by its {@code Upload-Offset} header.
+     *
+     * @param req the request.
+     * @param resp the response.
+     * @throws IOException if the chunk could not be read.
+     */
+    protected void doPatch(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        LOG.debug("Servicing PATCH " + req.getPathInfo());
+
+        if (!isUpload(req)) {
+            resp.sendError(isEndpoint(req) || isJob(req) || isDeposit(req) ? SC_METHOD_NOT_ALLOWED : SC_NOT_FOUND);
+            return;
+        }
 
-        deposit.withListener((event, uri, resource, detail) -> {
+        final ResumableUpload upload = uploads.get(uploadId(req));
+        if (upload == null) {
+            resp.sendError(SC_NOT_FOUND, "No upload " + uploadId(req));
+            return;
+        }
+
+        final long offset;
+        final ResumableUpload.Digest digest;
+        try {
+            offset = Long.parseLong(req.getHeader(UPLOAD_OFFSET).trim());
+            digest = ResumableUpload.Digest.parse(req.getHeader(DIGEST));
+        } catch (final NullPointerException | IllegalArgumentException e) {
+            resp.sendError(SC_BAD_REQUEST, "Chunk needs a valid " + UPLOAD_OFFSET + ", and optionally a valid " +
+                    DIGEST + ": " + e.getMessage());
+            return;
+        }
+
+        if (offset < 0 || offset + Math.max(req.getContentLengthLong(), 0) > upload.length()) {
+            resp.sendError(SC_BAD_REQUEST, "Chunk at " + offset + " does not fit in upload of length " + upload
+                    .length());
+            return;
+        }
+
+        final AsyncContext cxt = req.startAsync();
+        cxt.setTimeout(0);
 
-            // If the first event we encounter is an error, just throw an http error
-            if (EventType.ERROR.equals(event) && !response.isCommitted()) {
+        try {
+            upload.receive(req.getInputStream(), offset, digest, accepted -> {
                 try {
-                    LOG.warn("Error thrown in deposit", (Throwable) detail);
-                    response.sendError(SC_BAD_REQUEST, "event: error\ndata: " + detail + "\n");
+                    resp.setHeader(UPLOAD_OFFSET, Long.toString(upload.offset()));
+                    if (accepted) {
+                        resp.setStatus(SC_NO_CONTENT);
+                    } else {
+                        resp.sendError(SC_BAD_REQUEST, "Chunk does not match its " + DIGEST);
+                    }
                 } catch (final IOException e) {
-                    throw new RuntimeException("Could not send error response", e);
+                    LOG.info("Could not respond to chunk", e);
+                } finally {
+                    complete(cxt);
+                }
+            }, e -> {
+                LOG.info("Receiving chunk of upload {} failed", upload.id(), e);
+                try {
+                    resp.sendError(e instanceof IllegalStateException ? SC_CONFLICT : SC_BAD_REQUEST, e.getMessage());
+                } catch (final Exception x) {
+                    LOG.debug("Could not send error", x);
                 }
+                complete(cxt);
+            });
+        } catch (final IllegalStateException e) {
+            resp.sendError(SC_CONFLICT, e.getMessage());
+            complete(cxt);
+        }
+    }
+
+    private void createUpload(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        final long length;
+        try {
+            length = Long.parseLong(req.getHeader(UPLOAD_LENGTH).trim());
+        } catch (final NullPointerException | NumberFormatException e) {
+            resp.sendError(SC_BAD_REQUEST, "A resumable upload needs a valid " + UPLOAD_LENGTH);
+            return;
+        }
+
+        // An upload of negative length could never complete, and would hold a spool file until it expired
+        if (length < 0) {
+            resp.sendError(SC_BAD_REQUEST, "Negative " + UPLOAD_LENGTH + " " + length);
+            return;
+        }
+
+        uploads.values().removeIf(u -> {
+            if (u.isExpired(uploadExpiry)) {
+                LOG.info("Discarding expired upload {}", u.id());
+                u.close();
+                return true;
+            }
+            return false;
+        });
+
+        final ResumableUpload upload = new ResumableUpload(UUID.randomUUID().toString(), spoolDir, length);
+        uploads.put(upload.id(), upload);
+
+        LOG.debug("Created upload {} of length {}", upload.id(), length);
+
+        resp.setStatus(SC_CREATED);
+        resp.setHeader("Location", req.getRequestURL().append('/').append(upload.id()).toString());
+        resp.setHeader(UPLOAD_OFFSET, "0");
+        resp.setHeader(UPLOAD_LENGTH, Long.toString(length));
+    }
+
+    private void getUpload(final String id, final HttpServletResponse resp) throws IOException {
+        final ResumableUpload upload = uploads.get(id);
+
+        if (upload == null) {
+            resp.sendError(SC_NOT_FOUND, "No upload " + id);
+            return;
+        }
+
+        resp.setStatus(SC_NO_CONTENT);
+        resp.setHeader("Cache-Control", "no-store");
+        resp.setHeader(UPLOAD_OFFSET, Long.toString(upload.offset()));
+        resp.setHeader(UPLOAD_LENGTH, Long.toString(upload.length()));
+    }
+
+    // Deposit a completed upload, streaming events as for any other deposit
+    private void depositUpload(final String id, final HttpServletRequest req, final HttpServletResponse resp)
+            throws IOException {
+        final ResumableUpload upload = uploads.get(id);
+
+        if (upload == null) {
+            resp.sendError(SC_NOT_FOUND, "No upload " + id);
+            return;
+        }
+
+        final SseWriter.Verbosity verbosity;
+        try {
+            verbosity = SseWriter.Verbosity.parse(req.getParameter(EVENTS_PARAM));
+        } catch (final IllegalArgumentException e) {
+            resp.sendError(SC_BAD_REQUEST, "Unknown " + EVENTS_PARAM + " " + req.getParameter(EVENTS_PARAM) +
+                    ", expecting one of all, summary, errors");
+            return;
+        }
+
+        if (!upload.finalizeUpload()) {
+            resp.setHeader(UPLOAD_OFFSET, Long.toString(upload.offset()));
+            resp.sendError(SC_CONFLICT, "Upload " + id + " is incomplete, or already being deposited");
+            return;
+        }
+
+        final AsyncContext cxt = req.startAsync();
+        cxt.setTimeout(0);
+
+        try {
+            execDeposit(depositManager.newDeposit()
+                    .withPackage(upload.file())
+                    .intoContainer(uriFromRequest(req)), verbosity, cxt, () -> {
+                        uploads.remove(id);
+                        upload.close();
+                    });
+        } catch (final Throwable e) {
+            LOG.info("Terminated response with exception", e);
+            uploads.remove(id);
+            upload.close();
+            complete(cxt);
+        }
+    }
+
+    private void submitJob(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        final DepositBuilder deposit = depositManager.newDeposit()
+                .intoContainer(uriFromRequest(req));
+
+        if (req.getHeader(PAYLOAD_OXUM) != null) {
+            try {
+                deposit.withSize(octetCount(req.getHeader(PAYLOAD_OXUM)));
+            } catch (final NumberFormatException e) {
+                resp.sendError(SC_BAD_REQUEST, "Malformed " + PAYLOAD_OXUM + " " + req.getHeader(PAYLOAD_OXUM));
                 return;
             }
+        }
 
-            // Write the event to the stream
-            synchronized (cxt) {
-                switch (event) {
-                case HEARTBEAT:
-                    if (response.isCommitted()) {
-                        out.println(":");
-                    } else {
-                        return;
+        final String jobs = req.getRequestURL().append('/').toString();
+        final AsyncContext cxt = req.startAsync();
+        cxt.setTimeout(0);
+
+        // Read the upload as it arrives, and only submit the job once it's all here
+        try {
+            UploadSpool.start(req.getInputStream(), spoolDir, upload -> {
+                try {
+                    final DepositJob job = deposit.withPackage(upload.open()).submit();
+
+                    LOG.debug("Submitted deposit job {}", job.getId());
+
+                    resp.setStatus(SC_ACCEPTED);
+                    resp.setHeader("Location", jobs + job.getId());
+                    writeJob(job, resp);
+                } catch (final Throwable e) {
+                    LOG.warn("Could not submit deposit job", e);
+                    if (!resp.isCommitted()) {
+                        resp.setStatus(SC_INTERNAL_SERVER_ERROR);
                     }
-                    break;
-                default:
-                    out.println("event: " + event.toString());
-                    if (detail != null) {
-                        for (final String line : detail.toString().split("\n")) {
-                            out.println("data: " + line);
-                        }
+                } finally {
+                    upload.close();
+                    complete(cxt);
+                }
+            }, e -> uploadFailed(resp, cxt, e));
+        } catch (final IOException e) {
+            LOG.warn("Could not spool upload", e);
+            resp.setStatus(SC_INTERNAL_SERVER_ERROR);
+            complete(cxt);
+        }
+    }
+
+    private void getJob(final String id, final HttpServletResponse resp) throws IOException {
+        final DepositJob job = depositManager.getJob(id);
+
+        if (job == null) {
+            resp.sendError(SC_NOT_FOUND, "No deposit job " + id);
+            return;
+        }
+
+        resp.setStatus(SC_OK);
+        writeJob(job, resp);
+    }
+
+    private static void writeJob(final DepositJob job, final HttpServletResponse resp) throws IOException {
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType(JobStatus.MEDIA_TYPE);
+        resp.setHeader("Cache-Control", "no-cache");
+
+        try (PrintWriter out = resp.getWriter()) {
+            out.print(JobStatus.toJson(job));
+        }
+    }
+
+    // Payload-Oxum is octetcount.streamcount
+    private static long octetCount(final String oxum) {
+        final int dot = oxum.indexOf('.');
+        return Long.parseLong((dot > 0 ? oxum.substring(0, dot) : oxum).trim());
+    }
+
+    private static boolean isEndpoint(final HttpServletRequest req) {
+        return req.getPathInfo() == null || "/".equals(req.getPathInfo());
+    }
+
+    private static boolean isJob(final HttpServletRequest req) {
+        return req.getPathInfo() != null && req.getPathInfo().startsWith(JOBS_PATH + "/") && req.getPathInfo()
+                .length() > JOBS_PATH.length() + 1;
+    }
+
+    private static boolean isUpload(final HttpServletRequest req) {
+        return req.getPathInfo() != null && req.getPathInfo().startsWith(UPLOADS_PATH + "/") && req
+                .getPathInfo().length() > UPLOADS_PATH.length() + 1;
+    }
+
+    private static String uploadId(final HttpServletRequest req) {
+        return req.getPathInfo().substring(UPLOADS_PATH.length() + 1);
+    }
+
+    private static boolean isDeposit(final HttpServletRequest req) {
+        return req.getPathInfo() != null && req.getPathInfo().startsWith(DEPOSITS_PATH + "/") && req
+                .getPathInfo().length() > DEPOSITS_PATH.length() + 1;
+    }
+
+    private void execDeposit(final DepositBuilder deposit, final SseWriter.Verbosity verbosity,
+            final AsyncContext cxt, final Runnable done) throws IOException {
+        streamEvents(verbosity, cxt, done, (listener, cancelled) -> deposit.withListener(listener)
+                .withCancellation(cancelled)
+                .performAsync());
+    }
+
+    private void execBatch(final BatchDepositBuilder builder, final UploadSpool upload,
+            final SseWriter.Verbosity verbosity, final AsyncContext cxt) throws IOException {
+        streamEvents(verbosity, cxt, upload::close, (listener, cancelled) -> {
+            final CompletableFuture<Object> result = new CompletableFuture<>();
+            final AtomicReference<Throwable> unreadable = new AtomicReference<>();
+
+            // Events of each package are tagged with its name; events of the batch itself are not
+            final BatchDeposit batch = builder
+                    .withListeners(id -> (type, uri, resource, detail) -> listener.onEvent(type, uri, resource,
+                            new SseWriter.Tagged(id, detail)))
+                    .withCancellation(() -> cancelled.getAsBoolean() || unreadable.get() != null)
+                    .start();
+
+            // Packages are unpacked from the upload while earlier ones are being deposited
+            exe.execute(() -> {
+                int count = 0;
+                try (InputStream archive = upload.open()) {
+                    count = addPackages(batch, archive, cancelled);
+                } catch (final Exception e) {
+                    LOG.info("Could not read batch of packages", e);
+                    unreadable.set(e);
+                }
+
+                final int added = count;
+                batch.finish().whenComplete((deposited, e) -> {
+                    final Throwable failure = unreadable.get() != null ? unreadable.get() : e;
+                    if (failure == null) {
+                        listener.onEvent(EventType.SUCCESS, null, null, "Deposited " + deposited.size() + " of " +
+                                added + " packages");
+                        result.complete(deposited);
+                    } else {
+                        listener.onEvent(EventType.ERROR, null, null, failure);
+                        result.completeExceptionally(failure);
                     }
-                    out.println();
+                });
+            });
+
+            return result;
+        });
+    }
+
+    // Unpack each package in an archive of packages to the spool directory, and add it to the batch
+    private int addPackages(final BatchDeposit batch, final InputStream archive, final BooleanSupplier cancelled)
+            throws IOException, ArchiveException {
+        int count = 0;
+        try (ArchiveInputStream entries = new ArchiveStreamFactory().createArchiveInputStream(
+                new BufferedInputStream(archive))) {
+            ArchiveEntry entry;
+            while ((entry = entries.getNextEntry()) != null && !cancelled.getAsBoolean()) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+
+                final Path pkg = Files.createTempFile(spoolDir, "batch-", "-" + FilenameUtils.getName(entry
+                        .getName()));
+                Files.copy(entries, pkg, StandardCopyOption.REPLACE_EXISTING);
+
+                // Waits if enough packages are already being deposited
+                batch.add(entry.getName(), pkg).whenComplete((r, e) -> FileUtils.deleteQuietly(pkg.toFile()));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Stream the events of a deposit started by the given function, which is passed the listener to notify, and
+     * whether the deposit should be abandoned.
+     */
+    private void streamEvents(final SseWriter.Verbosity verbosity, final AsyncContext cxt, final Runnable done,
+            final BiFunction<EventListener, BooleanSupplier, CompletableFuture<?>> deposit) throws IOException {
+        final HttpServletResponse response = response(cxt);
+
+        // Clients that lose their connection may resume the stream from the deposit's URI
+        final DepositStream stream = new DepositStream(UUID.randomUUID().toString(), replaySize, resumeTimeout);
+        streams.values().removeIf(DepositStream::isExpired);
+        streams.put(stream.id(), stream);
+
+        response.setStatus(SC_ACCEPTED);
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType("text/event-stream");
+        response.setHeader("Location", depositUri((HttpServletRequest) cxt.getRequest(), stream.id()));
+
+        // Events are sent as the client is ready for them, rather than blocking a thread on a slow client
+        stream.attach(new NonBlockingOutput(response.getOutputStream(), NonBlockingOutput.DEFAULT_BACKLOG), cxt, 0);
+
+        final SseWriter sse = new SseWriter(response, stream, verbosity, eventFlushInterval, eventFlushBytes);
+
+        // Write events on their own thread, so a slow client does not hold up the deposit
+        final EventDispatcher dispatcher = new EventDispatcher(sse, eventBufferSize, eventOverflow)
+                .onIdle(sse::tick)
+                .start(exe);
+
+        // The deposit runs on the deposit manager's threads; this one goes back to the container
+        final CompletableFuture<?> result;
+        try {
+            // Give up on the deposit if its client goes away and does not come back
+            result = deposit.apply(dispatcher, () -> stream.isAbandoned() || dispatcher.isFailed());
+        } catch (final RuntimeException e) {
+            dispatcher.close();
+            stream.finish();
+            throw e;
+        }
+
+        result.whenComplete((r, e) -> {
+            try {
+                LOG.debug("Deposit finished: {}", r != null ? r : e);
+                done.run();
+                dispatcher.close();
+                if (!dispatcher.isFailed()) {
+                    sse.flush();
                 }
-                out.flush();
-                flushResponse(response);
+            } catch (final Throwable x) {
+                LOG.info("Terminated response with exception", x);
+            } finally {
+                stream.finish();
             }
-        }).perform();
+        });
+    }
+
+    // Resume the event stream of a deposit, following the last event the client saw
+    private void resumeDeposit(final String id, final HttpServletRequest req, final HttpServletResponse resp)
+            throws IOException {
+        final DepositStream stream = streams.get(id);
+
+        if (stream == null || stream.isExpired()) {
+            resp.sendError(SC_NOT_FOUND, "No deposit " + id);
+            return;
+        }
+
+        final long lastEventId;
+        try {
+            lastEventId = req.getHeader(LAST_EVENT_ID) != null ? Long.parseLong(req.getHeader(LAST_EVENT_ID)
+                    .trim()) : 0;
+        } catch (final NumberFormatException e) {
+            resp.sendError(SC_BAD_REQUEST, "Malformed " + LAST_EVENT_ID + " " + req.getHeader(LAST_EVENT_ID));
+            return;
+        }
+
+        LOG.debug("Resuming deposit {} after event {}", id, lastEventId);
+
+        final AsyncContext cxt = req.startAsync();
+        cxt.setTimeout(0);
 
-        cxt.complete();
+        resp.setStatus(SC_OK);
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType("text/event-stream");
+
+        stream.attach(new NonBlockingOutput(resp.getOutputStream(), NonBlockingOutput.DEFAULT_BACKLOG), cxt,
+                lastEventId);
+    }
+
+    // Deposits live under the endpoint, whichever of its paths (batch, uploads, ...) started them
+    private static String depositUri(final HttpServletRequest req, final String id) {
+        final StringBuffer url = req.getRequestURL();
+        url.setLength(url.length() - req.getRequestURI().length());
+        return url.append(req.getContextPath()).append(req.getServletPath()).append(DEPOSITS_PATH).append('/')
+                .append(id).toString();
     }
 
-    private static void flushResponse(final HttpServletResponse response) {
+    // Nothing has been sent when an upload fails, so whose fault it was can be the status of the response
+    private static void uploadFailed(final HttpServletResponse resp, final AsyncContext cxt, final Throwable e) {
+        LOG.info("Upload failed", e);
+        if (!resp.isCommitted()) {
+            resp.setStatus(e instanceof UploadSpool.SpoolException ? SC_INTERNAL_SERVER_ERROR : SC_BAD_REQUEST);
+        }
+        complete(cxt);
+    }
+
+    private static void complete(final AsyncContext cxt) {
         try {
-            response.flushBuffer();
-        } catch (final IOException e) {
-            LOG.warn("Could not flush response", e);
+            cxt.complete();
+        } catch (final Throwable e) {
+            LOG.warn("Could not complete response", e);
         }
     }
 
+    /*
+     * Locate a package on the server named by the path parameter, or a text/uri-list body. Only packages under the
+     * reference root may be deposited this way.
+     */
+    private Path packageReference(final HttpServletRequest req) throws IOException {
+        final String named;
+        if (req.getParameter(PATH_PARAM) != null) {
+            named = req.getParameter(PATH_PARAM);
+        } else if (req.getContentType() != null && req.getContentType().startsWith(URI_LIST)) {
+            named = IOUtils.readLines(req.getReader()).stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .findFirst().orElseThrow(() -> new IllegalArgumentException("No package named in " + URI_LIST));
+        } else {
+            return null;
+        }
+
+        if (referenceRoot == null) {
+            throw new SecurityException("Deposit by reference is not enabled");
+        }
+
+        final Path pkg;
+        try {
+            pkg = named.startsWith("file:") ? Paths.get(URI.create(named)) : Paths.get(named);
+        } catch (final Exception e) {
+            throw new IllegalArgumentException("Malformed package reference " + named, e);
+        }
+
+        final Path root;
+        try {
+            root = referenceRoot.toRealPath();
+        } catch (final NoSuchFileException e) {
+            throw new IOException("Deposit reference root " + referenceRoot + " does not exist", e);
+        }
+
+        // Check relative segments, then symbolic links, so neither can be used to escape the root
+        if (!root.resolve(pkg).normalize().startsWith(root)) {
+            throw new SecurityException("Package " + named + " is not under the deposit reference root");
+        }
+
+        final Path resolved = root.resolve(pkg).toRealPath();
+        if (!resolved.startsWith(root)) {
+            throw new SecurityException("Package " + named + " is not under the deposit reference root");
+        }
+
+        return resolved;
+    }
+
     private static HttpServletResponse response(final AsyncContext cxt) {
         return (HttpServletResponse) cxt.getResponse();
     }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Map;
+
+import org.dataconservancy.packaging.ingest.DepositJob;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Serializes the status of a deposit job as JSON.
+ *
+ * @author apb@jhu.edu
+ */
+abstract class JobStatus {
+
+    static final String MEDIA_TYPE = "application/json";
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    static String toJson(final DepositJob job) {
+        final StringWriter json = new StringWriter();
+        try (JsonGenerator out = JSON.createGenerator(json)) {
+            out.writeStartObject();
+            out.writeStringField("id", job.getId());
+            out.writeStringField("state", job.getState().toString());
+            out.writeStringField("container", job.getContainer() != null ? job.getContainer().toString() : null);
+            out.writeNumberField("size", job.getSize());
+            out.writeNumberField("deposited", job.getDepositedCount());
+            out.writeNumberField("remapped", job.getRemappedCount());
+
+            if (job.getError() != null) {
+                out.writeStringField("error", job.getError());
+            }
+
+            out.writeObjectFieldStart("resources");
+            for (final Map.Entry<URI, URI> resource : job.getResources().entrySet()) {
+                out.writeStringField(resource.getKey().toString(), resource.getValue().toString());
+            }
+            out.writeEndObject();
+            out.writeEndObject();
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not render status of deposit job " + job.getId(), e);
+        }
+        return json.toString();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.http;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.dataconservancy.packaging.ingest.Metrics;
+
+import org.osgi.service.component.annotations.Component;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Serves package ingest metrics in the Prometheus text exposition format.
+ * <p>
+ * Metric names are prefixed with {@code package_ingest_}, with dots replaced by underscores. Counters and meters are
+ * counters, numeric gauges are gauges, and histograms and timers are summaries of their median, 99th and 99.9th
+ * percentiles. Timers are in seconds.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+@SuppressWarnings("serial")
+@WebServlet(name = "PackageIngestMetrics", urlPatterns = { "/metrics" })
+@Component(service = HttpServlet.class, property = { "osgi.http.whiteboard.servlet.pattern=/metrics" })
+public class MetricsServlet extends HttpServlet {
+
+    static final String MEDIA_TYPE = "text/plain; version=0.0.4";
+
+    static final String PREFIX = "package_ingest_";
+
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final MetricRegistry registry;
+
+    /** Serve the shared package ingest metrics */
+    public MetricsServlet() {
+        this(Metrics.registry());
+    }
+
+    /**
+     * Serve the metrics of a specific registry.
+     *
+     * @param registry the metrics.
+     */
+    public MetricsServlet(final MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType(MEDIA_TYPE);
+        write(registry, resp.getWriter());
+    }
+
+    /**
+     * Write the metrics of a registry in the Prometheus text format.
+     *
+     * @param registry the metrics.
+     * @param out writer to write to.
+     */
+    static void write(final MetricRegistry registry, final PrintWriter out) {
+        for (final Map.Entry<String, Counter> counter : registry.getCounters().entrySet()) {
+            sample(out, type(out, counter.getKey(), "counter"), counter.getValue().getCount());
+        }
+
+        for (final Map.Entry<String, Meter> meter : registry.getMeters().entrySet()) {
+            sample(out, type(out, meter.getKey(), "counter"), meter.getValue().getCount());
+        }
+
+        for (@SuppressWarnings("rawtypes") final Map.Entry<String, Gauge> gauge : registry.getGauges().entrySet()) {
+            final Object value = gauge.getValue().getValue();
+            if (value instanceof Number) {
+                sample(out, type(out, gauge.getKey(), "gauge"), ((Number) value).doubleValue());
+            }
+        }
+
+        for (final Map.Entry<String, Histogram> histogram : registry.getHistograms().entrySet()) {
+            summary(out, histogram.getKey(), histogram.getValue().getSnapshot(), histogram.getValue().getCount(),
+                    1);
+        }
+
+        for (final Map.Entry<String, Timer> timer : registry.getTimers().entrySet()) {
+            summary(out, timer.getKey() + ".seconds", timer.getValue().getSnapshot(), timer.getValue().getCount(),
+                    NANOS_PER_SECOND);
+        }
+
+        out.flush();
+    }
+
+    private static void summary(final PrintWriter out, final String metric, final Snapshot snapshot,
+            final long count, final double unit) {
+        final String name = type(out, metric, "summary");
+        for (final double quantile : QUANTILES) {
+            sample(out, name + "{quantile=\"" + quantile + "\"}", snapshot.getValue(quantile) / unit);
+        }
+        sample(out, name + "_count", count);
+    }
+
+    // Writes the TYPE line of a metric, and returns its Prometheus name
+    private static String type(final PrintWriter out, final String metric, final String type) {
+        final String name = PREFIX + metric.replaceAll("[^a-zA-Z0-9_]", "_");
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return name;
+    }
+
+    private static void sample(final PrintWriter out, final String name, final double value) {
+        out.append(name).append(' ').append(Double.toString(value)).append('\n');
+    }
+
+    private static void sample(final PrintWriter out, final String name, final long value) {
+        out.append(name).append(' ').append(Long.toString(value)).append('\n');
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Writes characters to a servlet response using non-blocking I/O.
+ * <p>
+ * Written text is queued, and handed to the container only when the response output stream is ready for it, so no
+ * thread waits on a slow client. The queue is bounded: once more than a given number of bytes are waiting to be
+ * sent after the first flush, the client has fallen too far behind, and the output fails as if the client had gone
+ * away. Its queued text is dropped, rather than held for it or waited on; a client of a resumable deposit stream can
+ * reconnect and replay what it missed. The servlet's write listener is not registered until the first flush, so until
+ * then the response may still be used to send an HTTP error.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class NonBlockingOutput extends Writer implements WriteListener {
+
+    /** Default number of bytes queued before the client is dropped */
+    static final int DEFAULT_BACKLOG = 1024 * 1024;
+
+    private final ServletOutputStream out;
+
+    private final long maxBacklog;
+
+    private final Deque<ByteBuffer> pending = new ArrayDeque<>();
+
+    private long backlog;
+
+    private boolean registered;
+
+    private boolean unflushed;
+
+    private Runnable onDrained;
+
+    private volatile Throwable failure;
+
+    NonBlockingOutput(final ServletOutputStream out, final long maxBacklog) {
+        this.out = out;
+        this.maxBacklog = maxBacklog;
+    }
+
+    @Override
+    public synchronized void write(final char[] cbuf, final int off, final int len) throws IOException {
+        checkFailure();
+        final ByteBuffer bytes = UTF_8.encode(CharBuffer.wrap(cbuf, off, len));
+        pending.add(bytes);
+        backlog += bytes.remaining();
+    }
+
+    /**
+     * Send queued text to the client as soon as it is ready for it, without waiting.
+     *
+     * @throws IOException if writing has failed, or too much is queued for the client.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        checkFailure();
+
+        if (!registered) {
+            // The container calls onWritePossible once registered
+            registered = true;
+            out.setWriteListener(this);
+        } else {
+            drain();
+
+            if (backlog > maxBacklog) {
+                fail(new IOException("Client fell more than " + maxBacklog + " bytes behind"));
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Whether writing to the client has failed.
+     *
+     * @return true if failed.
+     */
+    boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Run a task once everything written has been sent, or writing has failed.
+     *
+     * @param task the task, e.g. completing the async context.
+     */
+    void whenDrained(final Runnable task) {
+        final boolean now;
+        synchronized (this) {
+            now = !registered || failure != null;
+            if (!now) {
+                onDrained = task;
+            }
+        }
+
+        if (now) {
+            task.run();
+        } else {
+            onWritePossible();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    @Override
+    public void onWritePossible() {
+        final Runnable task;
+        synchronized (this) {
+            try {
+                drain();
+            } catch (final IOException e) {
+                fail(e);
+            }
+            task = drained() ? onDrained : null;
+            if (task != null) {
+                onDrained = null;
+            }
+        }
+
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+        final Runnable task;
+        synchronized (this) {
+            fail(t);
+            task = onDrained;
+            onDrained = null;
+        }
+
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    // Write as much as the container will take without blocking
+    private void drain() throws IOException {
+        if (!registered || failure != null) {
+            return;
+        }
+
+        while (!pending.isEmpty()) {
+            if (!out.isReady()) {
+                return;
+            }
+
+            final ByteBuffer bytes = pending.poll();
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            backlog -= bytes.remaining();
+            unflushed = true;
+        }
+
+        if (unflushed && out.isReady()) {
+            unflushed = false;
+            out.flush();
+        }
+    }
+
+    private boolean drained() {
+        return failure != null || (pending.isEmpty() && !unflushed && out.isReady());
+    }
+
+    // Nothing more will be sent, so nothing queued need be kept
+    private void fail(final Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+        pending.clear();
+        backlog = 0;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Could not write to client", failure);
+        }
+    }
+}
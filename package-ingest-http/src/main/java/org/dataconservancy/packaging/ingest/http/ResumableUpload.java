@@ -0,0 +1,371 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A package uploaded in chunks, which may be sent in any order and retried, over as many requests as it takes.
+ * <p>
+ * Each chunk is spooled to a file of its own as it arrives, using non-blocking I/O, and only copied into the upload at
+ * its offset once all of it has been read. If the chunk came with a digest, it is only copied in if the digest
+ * matches, so a damaged retry never overwrites bytes that were already received. Once every byte has been received,
+ * the upload is complete and may be deposited; chunks that finish arriving after that are rejected. Closing the
+ * upload deletes the spool file.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class ResumableUpload implements Closeable {
+
+    static final Logger LOG = LoggerFactory.getLogger(ResumableUpload.class);
+
+    /** Default number of hours an upload may go untouched before it is discarded */
+    static final int DEFAULT_EXPIRY_HOURS = 24;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String id;
+
+    private final Path dir;
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final long length;
+
+    // Start of each received range of bytes, mapped to its end
+    private final TreeMap<Long, Long> received = new TreeMap<>();
+
+    private long touched = System.nanoTime();
+
+    private boolean finalized;
+
+    ResumableUpload(final String id, final Path dir, final long length) throws IOException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative upload length " + length);
+        }
+        this.id = id;
+        this.dir = dir;
+        this.file = Files.createTempFile(dir, "upload-" + id, ".part");
+        this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        this.length = length;
+    }
+
+    /**
+     * Upload id.
+     *
+     * @return the id.
+     */
+    String id() {
+        return id;
+    }
+
+    /**
+     * Total size of the package.
+     *
+     * @return length in bytes.
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Number of bytes received from the start of the package without a gap, i.e. where to resume a sequential upload.
+     *
+     * @return offset.
+     */
+    synchronized long offset() {
+        final Map.Entry<Long, Long> first = received.firstEntry();
+        return first != null && first.getKey() == 0 ? first.getValue() : 0;
+    }
+
+    /**
+     * Whether every byte of the package has been received.
+     *
+     * @return true if complete.
+     */
+    synchronized boolean isComplete() {
+        return offset() == length;
+    }
+
+    /**
+     * Mark the upload as being deposited, so that it can no longer be changed.
+     *
+     * @return false if it is incomplete, or has already been finalized.
+     */
+    synchronized boolean finalizeUpload() {
+        if (finalized || !isComplete()) {
+            return false;
+        }
+        finalized = true;
+        return true;
+    }
+
+    /**
+     * The spooled package. Only complete once the upload is.
+     *
+     * @return path of the spool file.
+     */
+    Path file() {
+        return file;
+    }
+
+    /**
+     * Whether the upload has gone untouched for longer than the given time, and is not being deposited.
+     *
+     * @param hours expiry time.
+     * @return true if expired.
+     */
+    synchronized boolean isExpired(final int hours) {
+        return !finalized && System.nanoTime() - touched > TimeUnit.HOURS.toNanos(hours);
+    }
+
+    /**
+     * Start receiving a chunk.
+     *
+     * @param in Request input stream containing the chunk.
+     * @param offset Where the chunk belongs in the package.
+     * @param digest Expected digest of the chunk, or null if none.
+     * @param onComplete Called once the chunk has been received, with true if it was accepted.
+     * @param onError Called if reading or writing the chunk fails.
+     */
+    void receive(final ServletInputStream in, final long offset, final Digest digest,
+            final Consumer<Boolean> onComplete, final Consumer<Throwable> onError) {
+        synchronized (this) {
+            if (finalized) {
+                throw new IllegalStateException("Upload " + id + " has already been finalized");
+            }
+            touched = System.nanoTime();
+        }
+        in.setReadListener(new Chunk(in, offset, digest, onComplete, onError));
+    }
+
+    private synchronized void received(final long start, final long end) {
+        touched = System.nanoTime();
+
+        // Merge with any adjacent or overlapping ranges
+        long from = start;
+        long to = end;
+
+        final Map.Entry<Long, Long> before = received.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            from = before.getKey();
+            to = Math.max(to, before.getValue());
+        }
+
+        Map.Entry<Long, Long> after = received.ceilingEntry(from);
+        while (after != null && after.getKey() <= to) {
+            to = Math.max(to, after.getValue());
+            received.remove(after.getKey());
+            after = received.ceilingEntry(from);
+        }
+
+        received.put(from, to);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (final IOException e) {
+            LOG.warn("Could not delete upload {}", file, e);
+        }
+    }
+
+    /** Expected digest of a chunk */
+    static final class Digest {
+
+        final String algorithm;
+
+        final byte[] value;
+
+        Digest(final String algorithm, final byte[] value) {
+            this.algorithm = algorithm;
+            this.value = value;
+        }
+
+        /**
+         * Parse an RFC 3230 {@code Digest} header, e.g. {@code sha-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=}.
+         *
+         * @param header header value.
+         * @return the digest, or null if none given.
+         * @throws IllegalArgumentException if malformed or of an unsupported algorithm.
+         */
+        static Digest parse(final String header) {
+            if (header == null || header.trim().isEmpty()) {
+                return null;
+            }
+
+            final int eq = header.indexOf('=');
+            if (eq < 1) {
+                throw new IllegalArgumentException("Malformed digest " + header);
+            }
+
+            final String algorithm = header.substring(0, eq).trim().toUpperCase();
+            if (!"SHA-256".equals(algorithm) && !"MD5".equals(algorithm) && !"SHA".equals(algorithm)) {
+                throw new IllegalArgumentException("Unsupported digest algorithm " + algorithm +
+                        ", expecting one of sha-256, sha, md5");
+            }
+
+            return new Digest("SHA".equals(algorithm) ? "SHA-1" : algorithm, Base64.getDecoder().decode(header
+                    .substring(eq + 1).trim()));
+        }
+
+        MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new RuntimeException("No " + algorithm + " digest available", e);
+            }
+        }
+    }
+
+    // Spools a chunk as it arrives, then copies it into the upload at its offset once verified
+    private class Chunk implements ReadListener {
+
+        private final ServletInputStream in;
+
+        private final long start;
+
+        private final Digest expected;
+
+        private final MessageDigest digest;
+
+        private final Consumer<Boolean> onComplete;
+
+        private final Consumer<Throwable> onError;
+
+        private final byte[] buf = new byte[BUFFER_SIZE];
+
+        private FileChannel spool;
+
+        private long position;
+
+        Chunk(final ServletInputStream in, final long start, final Digest expected,
+                final Consumer<Boolean> onComplete, final Consumer<Throwable> onError) {
+            this.in = in;
+            this.start = start;
+            this.position = start;
+            this.expected = expected;
+            this.digest = expected != null ? expected.newDigest() : null;
+            this.onComplete = onComplete;
+            this.onError = onError;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            if (spool == null) {
+                spool = FileChannel.open(Files.createTempFile(dir, "chunk-" + id, ".part"), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+
+            int len;
+            while (in.isReady() && (len = in.read(buf)) != -1) {
+                if (position + len > length) {
+                    throw new IOException("Chunk extends past the end of upload " + id);
+                }
+
+                final ByteBuffer bytes = ByteBuffer.wrap(buf, 0, len);
+                while (bytes.hasRemaining()) {
+                    position += spool.write(bytes);
+                }
+
+                if (digest != null) {
+                    digest.update(buf, 0, len);
+                }
+            }
+        }
+
+        @Override
+        public void onAllDataRead() throws IOException {
+            try {
+                if (digest != null && !MessageDigest.isEqual(expected.value, digest.digest())) {
+                    LOG.info("Chunk {}-{} of upload {} does not match its digest", start, position, id);
+                    onComplete.accept(false);
+                    return;
+                }
+
+                synchronized (ResumableUpload.this) {
+                    if (finalized) {
+                        onError.accept(new IllegalStateException("Upload " + id + " has already been finalized"));
+                        return;
+                    }
+
+                    if (position > start) {
+                        copy();
+                        received(start, position);
+                    }
+                }
+            } finally {
+                closeSpool();
+            }
+
+            LOG.debug("Received chunk {}-{} of upload {}", start, position, id);
+            onComplete.accept(true);
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            closeSpool();
+            onError.accept(t);
+        }
+
+        // Copy the spooled chunk into the upload at its offset
+        private void copy() throws IOException {
+            spool.position(0);
+            final ByteBuffer bytes = ByteBuffer.wrap(buf);
+            long at = start;
+            while (spool.read(bytes) != -1 || bytes.position() > 0) {
+                bytes.flip();
+                at += channel.write(bytes, at);
+                bytes.compact();
+            }
+        }
+
+        private void closeSpool() {
+            if (spool != null) {
+                try {
+                    spool.close();
+                } catch (final IOException e) {
+                    LOG.warn("Could not delete spooled chunk of upload {}", id, e);
+                }
+            }
+        }
+    }
+}
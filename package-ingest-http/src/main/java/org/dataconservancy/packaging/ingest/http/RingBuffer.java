@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free, multi-producer ring buffer.
+ * <p>
+ * Each slot carries a sequence number recording whether it is ready to be written or read at a given position, so
+ * producers and consumers only contend on a single compare-and-set of the tail or head position.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class RingBuffer<T> {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<T> slots;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Create a ring buffer.
+     *
+     * @param capacity Minimum capacity. Rounded up to a power of two.
+     */
+    RingBuffer(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an item, if there is room.
+     *
+     * @param item The item.
+     * @return true if the item was added, false if the buffer is full.
+     */
+    boolean offer(final T item) {
+        long pos = tail.get();
+        while (true) {
+            final int slot = (int) (pos & mask);
+            final long diff = sequences.get(slot) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(slot, item);
+                    sequences.set(slot, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest item.
+     *
+     * @return the item, or null if the buffer is empty.
+     */
+    T poll() {
+        long pos = head.get();
+        while (true) {
+            final int slot = (int) (pos & mask);
+            final long diff = sequences.get(slot) - (pos + 1);
+
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    final T item = slots.get(slot);
+                    slots.lazySet(slot, null);
+                    sequences.set(slot, pos + mask + 1);
+                    return item;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Whether the buffer is empty.
+     *
+     * @return true if there is nothing to poll.
+     */
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * Capacity of the buffer.
+     *
+     * @return the capacity.
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
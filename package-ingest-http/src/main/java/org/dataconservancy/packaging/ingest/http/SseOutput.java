@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Destination for batches of server-sent event frames.
+ *
+ * @author apb@jhu.edu
+ */
+@FunctionalInterface
+interface SseOutput {
+
+    /**
+     * Send a batch of frames to the client.
+     *
+     * @param frames Complete frames, or comments, each terminated by a newline.
+     * @throws IOException if the frames could not be sent.
+     */
+    void send(List<String> frames) throws IOException;
+
+    /**
+     * Send frames to a writer as they are, flushing after each batch.
+     *
+     * @param out the writer.
+     * @return output writing to the writer.
+     */
+    static SseOutput writingTo(final Writer out) {
+        return frames -> {
+            for (final String frame : frames) {
+                out.write(frame);
+            }
+            out.flush();
+        };
+    }
+}
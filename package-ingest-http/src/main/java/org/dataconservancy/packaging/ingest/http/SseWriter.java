@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.dataconservancy.packaging.ingest.EventListener;
+import org.dataconservancy.packaging.ingest.EventType;
+import org.dataconservancy.packaging.ingest.PackagedResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes deposit events to an HTTP response as a server-sent event stream.
+ * <p>
+ * Frames are batched, and only flushed to the client once a size or time threshold is reached, or upon an error or
+ * success event. Depending on the requested {@link Verbosity}, per-resource events may be suppressed, or aggregated
+ * into periodic {@code progress} frames along with the latest byte-level progress of the deposit.
+ * </p>
+ * <p>
+ * Not thread safe; intended to be driven by a single {@link EventDispatcher}.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class SseWriter implements EventListener {
+
+    static final Logger LOG = LoggerFactory.getLogger(SseWriter.class);
+
+    static final String PROGRESS = "progress";
+
+    // Heartbeats let a client know the deposit is alive, and let us notice if the client has gone away
+    static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    /** Which events are written to the stream */
+    enum Verbosity {
+
+        /** Every event */
+        ALL,
+
+        /** Periodic progress, errors, and success */
+        SUMMARY,
+
+        /** Only errors and success */
+        ERRORS;
+
+        static Verbosity parse(final String value) {
+            return value == null || value.isEmpty() ? ALL : valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /** Detail of an event of one package among many, whose data begins with the package id */
+    static final class Tagged {
+
+        final String tag;
+
+        final Object detail;
+
+        Tagged(final String tag, final Object detail) {
+            this.tag = tag;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString() {
+            return detail != null ? tag + "\n" + detail : tag;
+        }
+    }
+
+    private final HttpServletResponse response;
+
+    private final SseOutput out;
+
+    private final Verbosity verbosity;
+
+    private final long flushIntervalNanos;
+
+    private final int flushChars;
+
+    private final List<String> frames = new ArrayList<>();
+
+    private int frameChars;
+
+    private long firstUnflushed;
+
+    private long lastProgress = System.nanoTime();
+
+    private long lastFlush = System.nanoTime();
+
+    private long deposited;
+
+    private long remapped;
+
+    private long reportedDeposited;
+
+    private long reportedRemapped;
+
+    // Latest progress event not yet reported in summary
+    private Object progressDetail;
+
+    private boolean written;
+
+    SseWriter(final HttpServletResponse response, final Writer out, final Verbosity verbosity,
+            final long flushIntervalMillis, final int flushChars) {
+        this(response, SseOutput.writingTo(out), verbosity, flushIntervalMillis, flushChars);
+    }
+
+    SseWriter(final HttpServletResponse response, final SseOutput out, final Verbosity verbosity,
+            final long flushIntervalMillis, final int flushChars) {
+        this.response = response;
+        this.out = out;
+        this.verbosity = verbosity;
+        this.flushIntervalNanos = flushIntervalMillis * 1000000;
+        this.flushChars = flushChars;
+    }
+
+    @Override
+    public void onEvent(final EventType type, final URI repositoryResource, final PackagedResource resource,
+            final Object detail) {
+
+        // If the first event we encounter is an error, just throw an http error. Not so if only one of many packages
+        // failed, though.
+        if (EventType.ERROR.equals(type) && !(detail instanceof Tagged) && !written && !response.isCommitted()) {
+            try {
+                LOG.warn("Error thrown in deposit", detail instanceof Throwable ? (Throwable) detail : null);
+                response.sendError(SC_BAD_REQUEST, format("error", detail));
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not send error response", e);
+            }
+            return;
+        }
+
+        switch (type) {
+        case DEPOSIT:
+            deposited += count(detail);
+            if (verbosity == Verbosity.ALL) {
+                frame(type.toString(), detail);
+            }
+            break;
+        case REMAP:
+            remapped += count(detail);
+            if (verbosity == Verbosity.ALL) {
+                frame(type.toString(), detail);
+            }
+            break;
+        case HEARTBEAT:
+            if (written) {
+                add(":\n");
+            }
+            break;
+        case PROGRESS:
+            if (verbosity == Verbosity.ALL) {
+                frame(type.toString(), detail);
+            } else if (verbosity == Verbosity.SUMMARY) {
+                progressDetail = detail;
+            }
+            break;
+        case ERROR:
+        case SUCCESS:
+            if (verbosity == Verbosity.SUMMARY) {
+                progress();
+            }
+            frame(type.toString(), detail);
+
+            // The end of a package in a batch is no reason to flush right away, the end of the whole deposit is
+            if (!(detail instanceof Tagged)) {
+                flush();
+                return;
+            }
+            break;
+        default:
+            frame(type.toString(), detail);
+        }
+
+        tick();
+
+        // The first frame is sent right away, so the client knows the deposit has started
+        if (!written && !frames.isEmpty()) {
+            flush();
+        }
+    }
+
+    /**
+     * Flush batched frames if the flush interval has elapsed, or there are enough of them to send.
+     */
+    void tick() {
+        final long now = System.nanoTime();
+
+        if (verbosity == Verbosity.SUMMARY && now - lastProgress >= flushIntervalNanos) {
+            progress();
+        }
+
+        if (written && frames.isEmpty() && now - lastFlush >= HEARTBEAT_NANOS) {
+            add(":\n");
+            flush();
+        }
+
+        if (frameChars >= flushChars || (!frames.isEmpty() && now - firstUnflushed >= flushIntervalNanos)) {
+            flush();
+        }
+    }
+
+    /**
+     * Send all batched frames to the client.
+     */
+    void flush() {
+        if (frames.isEmpty()) {
+            return;
+        }
+
+        try {
+            out.send(frames);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not write to client", e);
+        }
+
+        frames.clear();
+        frameChars = 0;
+        written = true;
+        lastFlush = System.nanoTime();
+    }
+
+    private void progress() {
+        lastProgress = System.nanoTime();
+        if (deposited != reportedDeposited || remapped != reportedRemapped || progressDetail != null) {
+            frame(PROGRESS, "deposited " + deposited + "\nremapped " + remapped +
+                    (progressDetail != null ? "\n" + progressDetail : ""));
+            reportedDeposited = deposited;
+            reportedRemapped = remapped;
+            progressDetail = null;
+        }
+    }
+
+    private void frame(final String event, final Object detail) {
+        add(format(event, detail));
+    }
+
+    // Each line of the detail is a line of data, as the detail of an error may be followed by a report
+    private static String format(final String event, final Object detail) {
+        final StringBuilder frame = new StringBuilder();
+        frame.append("event: ").append(event).append('\n');
+        if (detail != null) {
+            for (final String line : detail.toString().split("\n")) {
+                frame.append("data: ").append(line).append('\n');
+            }
+        }
+        return frame.append('\n').toString();
+    }
+
+    private void add(final String frame) {
+        if (frames.isEmpty()) {
+            firstUnflushed = System.nanoTime();
+        }
+        frames.add(frame);
+        frameChars += frame.length();
+    }
+
+    private static long count(final Object detail) {
+        return detail instanceof EventDispatcher.Coalesced ? ((EventDispatcher.Coalesced) detail).count : 1;
+    }
+}
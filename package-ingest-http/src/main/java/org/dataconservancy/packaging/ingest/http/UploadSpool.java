@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spools an uploaded package to a file using non-blocking I/O.
+ * <p>
+ * The upload is read only as data arrives, so a slow uploader does not tie up a thread. Once it has been read
+ * entirely, the spooled package is handed off to be deposited. Closing the spool deletes the file.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class UploadSpool implements ReadListener, Closeable {
+
+    static final Logger LOG = LoggerFactory.getLogger(UploadSpool.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ServletInputStream in;
+
+    private final Path file;
+
+    private final OutputStream spool;
+
+    private final Consumer<UploadSpool> onComplete;
+
+    private final Consumer<Throwable> onError;
+
+    private final byte[] buf = new byte[BUFFER_SIZE];
+
+    private InputStream pkg;
+
+    private UploadSpool(final ServletInputStream in, final Path dir, final Consumer<UploadSpool> onComplete,
+            final Consumer<Throwable> onError) throws IOException {
+        this.in = in;
+        this.file = Files.createTempFile(dir, "upload", ".pkg");
+        this.spool = Files.newOutputStream(file);
+        this.onComplete = onComplete;
+        this.onError = onError;
+    }
+
+    /**
+     * Start spooling an upload.
+     *
+     * @param in Request input stream.
+     * @param dir Directory to spool into.
+     * @param onComplete Called with the spool once the upload has been read entirely.
+     * @param onError Called if the upload fails.
+     * @throws IOException if the spool file cannot be created.
+     */
+    static void start(final ServletInputStream in, final Path dir, final Consumer<UploadSpool> onComplete,
+            final Consumer<Throwable> onError) throws IOException {
+        in.setReadListener(new UploadSpool(in, dir, onComplete, onError));
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        int len;
+        while (in.isReady() && (len = in.read(buf)) != -1) {
+            try {
+                spool.write(buf, 0, len);
+            } catch (final IOException e) {
+                throw new SpoolException("Could not spool upload to " + file, e);
+            }
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        try {
+            spool.close();
+        } catch (final IOException e) {
+            throw new SpoolException("Could not spool upload to " + file, e);
+        }
+        LOG.debug("Spooled {} byte upload to {}", Files.size(file), file);
+        onComplete.accept(this);
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+        close();
+        onError.accept(t);
+    }
+
+    /**
+     * Open the spooled package.
+     *
+     * @return the package content.
+     * @throws IOException if the spooled package cannot be read.
+     */
+    synchronized InputStream open() throws IOException {
+        pkg = Files.newInputStream(file);
+        return pkg;
+    }
+
+    @Override
+    public synchronized void close() {
+        IOUtils.closeQuietly(spool);
+        IOUtils.closeQuietly(pkg);
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException e) {
+            LOG.warn("Could not delete spooled upload {}", file, e);
+        }
+    }
+
+    /**
+     * Failure to write a spooled upload on the server, as opposed to a failure of the upload itself.
+     */
+    static class SpoolException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        SpoolException(final String message, final Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
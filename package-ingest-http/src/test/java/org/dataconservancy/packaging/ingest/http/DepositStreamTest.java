@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class DepositStreamTest {
+
+    @Test
+    public void numberingTest() throws Exception {
+        final DepositStream stream = new DepositStream("test", 10, 60);
+        final Client client = new Client();
+
+        stream.attach(client.out, client.cxt, 0);
+        stream.send(asList("event: deposit\ndata: a\n\n", ":\n", "event: deposit\ndata: b\n\n"));
+
+        assertEquals("id: 1\nevent: deposit\ndata: a\n\n:\nid: 2\nevent: deposit\ndata: b\n\n", client.received());
+    }
+
+    @Test
+    public void resumeTest() throws Exception {
+        final DepositStream stream = new DepositStream("test", 10, 60);
+        final Client first = new Client();
+
+        stream.attach(first.out, first.cxt, 0);
+        stream.send(asList("event: deposit\ndata: a\n\n"));
+
+        // The first client goes away, missing the next event
+        stream.detach(first.cxt);
+        verify(first.cxt).complete();
+        stream.send(asList("event: deposit\ndata: b\n\n"));
+        assertFalse(stream.isAbandoned());
+
+        final Client second = new Client();
+        stream.attach(second.out, second.cxt, 1);
+        stream.send(asList("event: success\ndata: done\n\n"));
+
+        assertEquals("id: 2\nevent: deposit\ndata: b\n\nid: 3\nevent: success\ndata: done\n\n", second.received());
+        verify(second.cxt, never()).complete();
+
+        stream.finish();
+        verify(second.cxt).complete();
+    }
+
+    @Test
+    public void boundedReplayTest() throws Exception {
+        final DepositStream stream = new DepositStream("test", 2, 60);
+
+        for (int i = 0; i < 5; i++) {
+            stream.send(asList("data: " + i + "\n\n"));
+        }
+        stream.finish();
+
+        // Only the most recent events are retained, and a finished deposit's stream ends after replay
+        final Client client = new Client();
+        stream.attach(client.out, client.cxt, 0);
+
+        assertEquals("event: truncated\ndata: 3 earlier events are no longer available\n\n" +
+                "id: 4\ndata: 3\n\nid: 5\ndata: 4\n\n", client.received());
+        verify(client.cxt).complete();
+
+        // A client that missed nothing that was dropped is not told otherwise
+        final Client resumed = new Client();
+        stream.attach(resumed.out, resumed.cxt, 3);
+        assertEquals("id: 4\ndata: 3\n\nid: 5\ndata: 4\n\n", resumed.received());
+    }
+
+    @Test
+    public void abandonedTest() throws Exception {
+        final DepositStream stream = new DepositStream("test", 10, 0);
+        final Client client = new Client();
+
+        stream.attach(client.out, client.cxt, 0);
+        assertFalse(stream.isAbandoned());
+
+        stream.detach(client.cxt);
+        Thread.sleep(10);
+        assertTrue(stream.isAbandoned());
+
+        stream.finish();
+        assertFalse(stream.isAbandoned());
+        Thread.sleep(10);
+        assertTrue(stream.isExpired());
+    }
+
+    // A client whose connection is always ready
+    private static class Client {
+
+        final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+        final ServletOutputStream stream = mock(ServletOutputStream.class);
+
+        final AsyncContext cxt = mock(AsyncContext.class);
+
+        final NonBlockingOutput out = new NonBlockingOutput(stream, 1024);
+
+        Client() throws Exception {
+            when(stream.isReady()).thenReturn(true);
+            doAnswer(i -> {
+                sent.write(i.getArgument(0), i.getArgument(1), i.getArgument(2));
+                return null;
+            }).when(stream).write(any(byte[].class), anyInt(), anyInt());
+        }
+
+        String received() {
+            out.onWritePossible();
+            return new String(sent.toByteArray(), UTF_8);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dataconservancy.packaging.ingest.EventType;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class EventDispatcherTest {
+
+    final ExecutorService exe = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        exe.shutdownNow();
+    }
+
+    @Test
+    public void ringBufferTest() {
+        final RingBuffer<Integer> ring = new RingBuffer<>(3);
+        assertEquals(4, ring.capacity());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertTrue(!ring.offer(4));
+
+        assertEquals(0, ring.poll().intValue());
+        assertTrue(ring.offer(4));
+
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, ring.poll().intValue());
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void orderedDeliveryTest() {
+        final List<Object> delivered = Collections.synchronizedList(new ArrayList<>());
+
+        final EventDispatcher dispatcher = new EventDispatcher((type, uri, resource, detail) -> delivered.add(
+                detail), 4, EventDispatcher.Overflow.BLOCK).start(exe);
+
+        for (int i = 0; i < 1000; i++) {
+            dispatcher.onEvent(EventType.DEPOSIT, null, null, i);
+        }
+        dispatcher.onEvent(EventType.SUCCESS, null, null, "done");
+        dispatcher.close();
+
+        assertEquals(1001, delivered.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, delivered.get(i));
+        }
+        assertEquals("done", delivered.get(1000));
+    }
+
+    @Test
+    public void coalesceTest() throws Exception {
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final List<EventType> types = Collections.synchronizedList(new ArrayList<>());
+        final List<Object> details = Collections.synchronizedList(new ArrayList<>());
+
+        final EventDispatcher dispatcher = new EventDispatcher((type, uri, resource, detail) -> {
+            try {
+                // Simulate a client that stalls
+                stalled.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            types.add(type);
+            details.add(detail);
+        }, 4, EventDispatcher.Overflow.COALESCE).start(exe);
+
+        // None of these should block, even though the listener is stuck
+        for (int i = 0; i < 100; i++) {
+            dispatcher.onEvent(EventType.DEPOSIT, null, null, i);
+            dispatcher.onEvent(EventType.HEARTBEAT, null, null, null);
+        }
+
+        stalled.countDown();
+        dispatcher.onEvent(EventType.SUCCESS, null, null, "done");
+        dispatcher.close();
+
+        // Every deposit should be accounted for, either individually or in a count.
+        int deposits = 0;
+        for (int i = 0; i < types.size(); i++) {
+            if (types.get(i) == EventType.DEPOSIT) {
+                final Object detail = details.get(i);
+                deposits += detail instanceof Integer ? 1 : Integer.parseInt(detail.toString().split(" ")[0]);
+            }
+        }
+        assertEquals(100, deposits);
+        assertEquals(EventType.SUCCESS, types.get(types.size() - 1));
+        assertTrue(types.size() < 100);
+    }
+
+    @Test
+    public void failedListenerTest() {
+        final EventDispatcher dispatcher = new EventDispatcher((type, uri, resource, detail) -> {
+            throw new RuntimeException("Client went away");
+        }, 2, EventDispatcher.Overflow.BLOCK).start(exe);
+
+        // Must not block forever once the listener has failed
+        for (int i = 0; i < 100; i++) {
+            dispatcher.onEvent(EventType.DEPOSIT, null, null, i);
+        }
+        dispatcher.close();
+
+        assertTrue(dispatcher.isFailed());
+    }
+}
@@ -93,6 +93,19 @@ public class EventSourceTest {
         assertEquals("data a\nb\nc", event.data());
     }
 
+    @Test
+    public void longIdTest() throws Exception {
+        final List<Event> events = new ArrayList<>();
+        EventSource.from(IOUtils.toInputStream("id: 3000000000\ndata: a\n\n", UTF_8)).onEvent(e -> {
+            events.add(e);
+        }).onException(x -> {
+            fail("Exception thrown");
+        }).start();
+
+        assertEquals(1, events.size());
+        assertEquals(3000000000L, events.get(0).id());
+    }
+
     @Test
     public void exceptionTest() throws Exception {
         final CountDownLatch expectedExceptionCount = new CountDownLatch(1);
@@ -20,11 +20,16 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.fcrepo.client.FcrepoClient;
 import org.fcrepo.client.FcrepoOperationFailedException;
@@ -37,6 +42,12 @@ import org.dataconservancy.packaging.impl.deposit.SingleDepositManager;
 import org.dataconservancy.packaging.ingest.EventType;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.ServletContextHandler;
@@ -70,6 +81,8 @@ public class IngestServletIT {
     @ClassRule
     public static TemporaryFolder testFolder = new TemporaryFolder();
 
+    static File referenceRoot;
+
     public static void main(final String[] args) throws Exception {
         setUp();
         server.join();
@@ -94,6 +107,11 @@ public class IngestServletIT {
 
         final IngestServlet ingest = new IngestServlet(mgr);
 
+        referenceRoot = tempDir();
+        Files.copy(IngestServletIT.class.getResourceAsStream("/packages/test-package.zip"), referenceRoot.toPath()
+                .resolve("test-package.zip"));
+        ingest.setReferenceRoot(referenceRoot.toString());
+
         final ServletContextHandler servletContext = new ServletContextHandler();
         servletContext.setContextPath("/");
         servletContext.setBaseResource(Resource.newClassPathResource("/index.html"));
@@ -101,7 +119,7 @@ public class IngestServletIT {
         final ServletHolder ingestServlet = new ServletHolder(ingest);
         ingestServlet.setAsyncSupported(true);
 
-        servletContext.addServlet(new ServletHolder(ingest), "/ingest");
+        servletContext.addServlet(new ServletHolder(ingest), "/ingest/*");
 
         servletContext.addServlet(DefaultServlet.class, "/");
 
@@ -197,6 +215,201 @@ public class IngestServletIT {
         }
     }
 
+    @Test
+    public void referenceDepositTest() throws Exception {
+        final FcrepoClient client = FcrepoClient.client().throwExceptionOnFailure().build();
+
+        final AtomicInteger deposited = new AtomicInteger(0);
+        final AtomicInteger success = new AtomicInteger(0);
+
+        try (FcrepoResponse response = client.post(URI.create(ingestUri + "?path=test-package.zip")).perform()) {
+
+            EventSource.from(response.getBody())
+                    .onEvent((e) -> {
+                        switch (EventType.valueOf(e.event.toUpperCase())) {
+                        case DEPOSIT:
+                            deposited.incrementAndGet();
+                            break;
+                        case SUCCESS:
+                            success.incrementAndGet();
+                            break;
+                        default:
+                        }
+                    }).start();
+        }
+
+        assertEquals(1, success.get());
+        assertEquals(21, deposited.get());
+
+        // The referenced package is left where it is
+        assertTrue(new File(referenceRoot, "test-package.zip").exists());
+    }
+
+    @Test
+    public void referenceOutsideRootTest() throws Exception {
+        final FcrepoClient client = FcrepoClient.client().build();
+
+        try (FcrepoResponse response = client.post(URI.create(ingestUri + "?path=../test-package.zip"))
+                .perform()) {
+            assertEquals(403, response.getStatusCode());
+        }
+    }
+
+    @Test
+    public void batchDepositTest() throws Exception {
+        final FcrepoClient client = FcrepoClient.client().throwExceptionOnFailure().build();
+
+        // An archive of two packages
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(batch)) {
+            for (final String name : Arrays.asList("first.zip", "second.zip")) {
+                zip.putNextEntry(new ZipEntry(name));
+                IOUtils.copy(this.getClass().getResourceAsStream("/packages/test-package.zip"), zip);
+                zip.closeEntry();
+            }
+        }
+
+        final AtomicInteger deposited = new AtomicInteger(0);
+        final AtomicInteger packageSuccess = new AtomicInteger(0);
+        final AtomicInteger batchSuccess = new AtomicInteger(0);
+        final AtomicInteger error = new AtomicInteger(0);
+
+        try (FcrepoResponse response = client.post(URI.create(ingestUri + "/batch?transaction=batch"))
+                .body(new ByteArrayInputStream(batch.toByteArray()), "application/zip")
+                .perform()) {
+
+            EventSource.from(response.getBody())
+                    .onEvent((e) -> {
+                        switch (EventType.valueOf(e.event.toUpperCase())) {
+                        case DEPOSIT:
+                            deposited.incrementAndGet();
+                            break;
+                        case SUCCESS:
+                            if (e.data().startsWith("first.zip\n") || e.data().startsWith("second.zip\n")) {
+                                packageSuccess.incrementAndGet();
+                            } else {
+                                batchSuccess.incrementAndGet();
+                            }
+                            break;
+                        case ERROR:
+                            error.incrementAndGet();
+                        default:
+                        }
+                    }).start();
+        }
+
+        assertEquals(0, error.get());
+        assertEquals(2, packageSuccess.get());
+        assertEquals(1, batchSuccess.get());
+        assertEquals(42, deposited.get());
+    }
+
+    @Test
+    public void batchDepositLocationTest() throws Exception {
+        final FcrepoClient client = FcrepoClient.client().throwExceptionOnFailure().build();
+
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(batch)) {
+            zip.putNextEntry(new ZipEntry("only.zip"));
+            IOUtils.copy(this.getClass().getResourceAsStream("/packages/test-package.zip"), zip);
+            zip.closeEntry();
+        }
+
+        final URI deposit;
+        try (FcrepoResponse response = client.post(URI.create(ingestUri + "/batch"))
+                .body(new ByteArrayInputStream(batch.toByteArray()), "application/zip")
+                .perform()) {
+            deposit = response.getLocation();
+            EventSource.from(response.getBody()).start();
+        }
+
+        assertResumable(deposit);
+    }
+
+    @Test
+    public void uploadDepositLocationTest() throws Exception {
+        final byte[] pkg = IOUtils.toByteArray(this.getClass().getResourceAsStream("/packages/test-package.zip"));
+
+        try (CloseableHttpClient http = HttpClients.createDefault()) {
+            final HttpPost create = new HttpPost(ingestUri + "/uploads");
+            create.setHeader("Upload-Length", Integer.toString(pkg.length));
+            final URI upload;
+            try (CloseableHttpResponse response = http.execute(create)) {
+                assertEquals(201, response.getStatusLine().getStatusCode());
+                upload = URI.create(response.getFirstHeader("Location").getValue());
+            }
+
+            final HttpPatch chunk = new HttpPatch(upload);
+            chunk.setHeader("Upload-Offset", "0");
+            chunk.setEntity(new ByteArrayEntity(pkg));
+            try (CloseableHttpResponse response = http.execute(chunk)) {
+                assertEquals(204, response.getStatusLine().getStatusCode());
+            }
+
+            final URI deposit;
+            try (CloseableHttpResponse response = http.execute(new HttpPost(upload))) {
+                assertEquals(202, response.getStatusLine().getStatusCode());
+                deposit = URI.create(response.getFirstHeader("Location").getValue());
+                EventSource.from(response.getEntity().getContent()).start();
+            }
+
+            assertResumable(deposit);
+        }
+    }
+
+    // The deposit URI is under the endpoint, and replays the finished deposit's events
+    private static void assertResumable(final URI deposit) throws Exception {
+        assertTrue(deposit.toString(), deposit.toString().startsWith(ingestUri + "/deposits/"));
+
+        final AtomicInteger success = new AtomicInteger(0);
+        try (FcrepoResponse response = FcrepoClient.client().throwExceptionOnFailure().build().get(deposit)
+                .perform()) {
+            assertEquals(200, response.getStatusCode());
+            EventSource.from(response.getBody())
+                    .onEvent((e) -> {
+                        if (EventType.SUCCESS.name().equalsIgnoreCase(e.event)) {
+                            success.incrementAndGet();
+                        }
+                    }).start();
+        }
+
+        assertTrue(success.get() > 0);
+    }
+
+    @Test
+    public void jobDepositTest() throws Exception {
+        final FcrepoClient client = FcrepoClient.client().throwExceptionOnFailure().build();
+
+        final URI job;
+        try (FcrepoResponse response = client.post(URI.create(ingestUri + "/jobs"))
+                .body(this.getClass().getResourceAsStream("/packages/test-package.zip"), "application/zip")
+                .perform()) {
+            assertEquals(202, response.getStatusCode());
+            job = response.getLocation();
+        }
+
+        String status = "";
+        for (int i = 0; i < 120 && !status.contains("\"succeeded\"") && !status.contains("\"failed\""); i++) {
+            Thread.sleep(500);
+            try (FcrepoResponse response = client.get(job).perform()) {
+                assertTrue(response.getContentType().startsWith("application/json"));
+                status = IOUtils.toString(response.getBody(), UTF_8);
+            }
+        }
+
+        assertTrue(status, status.contains("\"state\":\"succeeded\""));
+        assertTrue(status, status.contains("\"deposited\":21"));
+    }
+
+    @Test
+    public void missingJobTest() throws Exception {
+        final FcrepoClient client = FcrepoClient.client().build();
+
+        try (FcrepoResponse response = client.get(URI.create(ingestUri + "/jobs/nonexistent")).perform()) {
+            assertEquals(404, response.getStatusCode());
+        }
+    }
+
     @Test
     public void otionsTest() throws Exception {
         final FcrepoClient client = FcrepoClient.client().throwExceptionOnFailure().build();
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.http;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class MetricsServletTest {
+
+    final MetricRegistry registry = new MetricRegistry();
+
+    @Test
+    public void counterAndGaugeTest() {
+        registry.counter("repository.status.201").inc(3);
+        registry.register("deposits.active", (Gauge<Integer>) () -> 2);
+
+        final String body = write();
+
+        assertTrue(body.contains("# TYPE package_ingest_repository_status_201 counter\n" +
+                "package_ingest_repository_status_201 3\n"));
+        assertTrue(body.contains("# TYPE package_ingest_deposits_active gauge\n" +
+                "package_ingest_deposits_active 2.0\n"));
+    }
+
+    @Test
+    public void timerInSecondsTest() {
+        registry.timer("repository.post").update(1500, TimeUnit.MILLISECONDS);
+
+        final String body = write();
+
+        assertTrue(body.contains("# TYPE package_ingest_repository_post_seconds summary\n"));
+        assertTrue(body.contains("package_ingest_repository_post_seconds{quantile=\"0.99\"} 1.5\n"));
+        assertTrue(body.contains("package_ingest_repository_post_seconds_count 1\n"));
+    }
+
+    @Test
+    public void histogramTest() {
+        for (int i = 1; i <= 100; i++) {
+            registry.histogram("extract.bytes").update(i);
+        }
+
+        final String body = write();
+
+        assertTrue(body.contains("# TYPE package_ingest_extract_bytes summary\n"));
+        assertTrue(body.contains("package_ingest_extract_bytes{quantile=\"0.5\"} "));
+        assertTrue(body.contains("package_ingest_extract_bytes_count 100\n"));
+    }
+
+    private String write() {
+        final StringWriter body = new StringWriter();
+        MetricsServlet.write(registry, new PrintWriter(body));
+        return body.toString();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class NonBlockingOutputTest {
+
+    @Mock
+    ServletOutputStream stream;
+
+    final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws Exception {
+        doAnswer(i -> {
+            sent.write(i.getArgument(0), i.getArgument(1), i.getArgument(2));
+            return null;
+        }).when(stream).write(any(byte[].class), anyInt(), anyInt());
+    }
+
+    @Test
+    public void writeWhenReadyTest() throws Exception {
+        final NonBlockingOutput out = new NonBlockingOutput(stream, 1024);
+
+        out.write("first");
+
+        // Nothing is sent, nor the listener registered, until flushed
+        verify(stream, never()).setWriteListener(any());
+        assertEquals(0, sent.size());
+
+        out.flush();
+        verify(stream).setWriteListener(out);
+
+        // The client isn't ready yet
+        when(stream.isReady()).thenReturn(false);
+        out.onWritePossible();
+        assertEquals(0, sent.size());
+
+        when(stream.isReady()).thenReturn(true);
+        out.onWritePossible();
+        assertEquals("first", new String(sent.toByteArray(), UTF_8));
+        verify(stream).flush();
+    }
+
+    @Test
+    public void whenDrainedTest() throws Exception {
+        final AtomicBoolean drained = new AtomicBoolean(false);
+        final NonBlockingOutput out = new NonBlockingOutput(stream, 1024);
+
+        out.write("event: success\n\n");
+        out.flush();
+
+        when(stream.isReady()).thenReturn(false);
+        out.whenDrained(() -> drained.set(true));
+        assertFalse(drained.get());
+
+        when(stream.isReady()).thenReturn(true);
+        out.onWritePossible();
+        assertTrue(drained.get());
+        assertEquals("event: success\n\n", new String(sent.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void failureTest() throws Exception {
+        final AtomicBoolean drained = new AtomicBoolean(false);
+        final NonBlockingOutput out = new NonBlockingOutput(stream, 1024);
+
+        when(stream.isReady()).thenReturn(true);
+        out.write("first");
+        out.flush();
+        out.onWritePossible();
+        out.onError(new IOException("Client went away"));
+
+        assertTrue(out.isFailed());
+
+        try {
+            out.write("second");
+            out.flush();
+            fail("Writing should fail once the client has gone away");
+        } catch (final IOException e) {
+            // expected
+        }
+
+        out.whenDrained(() -> drained.set(true));
+        assertTrue(drained.get());
+    }
+
+    @Test
+    public void laggingClientTest() throws Exception {
+        final NonBlockingOutput out = new NonBlockingOutput(stream, 16);
+
+        // Whatever is written before the first flush is sent, however much
+        out.write("more than sixteen bytes");
+        out.flush();
+
+        when(stream.isReady()).thenReturn(true);
+        out.onWritePossible();
+
+        // The client stops reading, and falls behind
+        when(stream.isReady()).thenReturn(false);
+        out.write("sixteen bytes...");
+        out.flush();
+
+        try {
+            out.write("one too many");
+            out.flush();
+            fail("Client should have been dropped");
+        } catch (final IOException e) {
+            // expected
+        }
+
+        assertTrue(out.isFailed());
+        assertEquals("more than sixteen bytes", new String(sent.toByteArray(), UTF_8));
+    }
+}
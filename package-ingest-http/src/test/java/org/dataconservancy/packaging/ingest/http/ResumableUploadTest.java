@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class ResumableUploadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    final byte[] content = "This is a package, uploaded in chunks".getBytes(UTF_8);
+
+    @Test
+    public void outOfOrderTest() throws Exception {
+        final Path dir = folder.newFolder().toPath();
+        final ResumableUpload upload = new ResumableUpload("test", dir, content.length);
+
+        assertTrue(send(upload, 20, null));
+        assertEquals(0, upload.offset());
+        assertFalse(upload.isComplete());
+
+        assertTrue(send(upload, 0, null));
+        assertEquals(content.length, upload.offset());
+        assertTrue(upload.isComplete());
+        assertArrayEquals(content, Files.readAllBytes(upload.file()));
+
+        assertTrue(upload.finalizeUpload());
+        assertFalse("Can only be finalized once", upload.finalizeUpload());
+
+        upload.close();
+        assertEquals(0, dir.toFile().list().length);
+    }
+
+    @Test
+    public void digestTest() throws Exception {
+        final ResumableUpload upload = new ResumableUpload("test", folder.newFolder().toPath(), content.length);
+        final byte[] chunk = Arrays.copyOfRange(content, 0, 20);
+        final String sha256 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(chunk));
+
+        // Damaged in transit
+        assertFalse(send(upload, 0, ResumableUpload.Digest.parse("md5=" + sha256)));
+        assertEquals(0, upload.offset());
+
+        // A retry just overwrites it
+        assertTrue(send(upload, 0, ResumableUpload.Digest.parse("sha-256=" + sha256)));
+        assertEquals(20, upload.offset());
+        assertFalse(upload.finalizeUpload());
+    }
+
+    @Test
+    public void damagedRetryTest() throws Exception {
+        final ResumableUpload upload = new ResumableUpload("test", folder.newFolder().toPath(), content.length);
+        final byte[] chunk = Arrays.copyOfRange(content, 0, 20);
+        final String md5 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(chunk));
+
+        assertTrue(send(upload, 0, ResumableUpload.Digest.parse("md5=" + md5)));
+
+        // A retry of the same range, damaged in transit, leaves the bytes already received alone
+        final byte[] damaged = new byte[20];
+        final AtomicBoolean accepted = new AtomicBoolean(true);
+        upload.receive(new Chunk(damaged), 0, ResumableUpload.Digest.parse("md5=" + md5), accepted::set, e -> {
+            throw new RuntimeException(e);
+        });
+
+        assertFalse(accepted.get());
+        assertEquals(20, upload.offset());
+        assertArrayEquals(chunk, Arrays.copyOfRange(Files.readAllBytes(upload.file()), 0, 20));
+    }
+
+    @Test
+    public void finalizedWhileReceivingTest() throws Exception {
+        final Path dir = folder.newFolder().toPath();
+        final ResumableUpload upload = new ResumableUpload("test", dir, content.length);
+        assertTrue(send(upload, 0, null));
+        assertTrue(send(upload, 20, null));
+
+        // A retry starts arriving, but the upload is finalized before it is all read
+        final AtomicReference<ReadListener> listener = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final AtomicBoolean completed = new AtomicBoolean();
+        upload.receive(new Chunk(new byte[20]) {
+
+            @Override
+            public void setReadListener(final ReadListener l) {
+                listener.set(l);
+            }
+        }, 0, null, completed::set, error::set);
+
+        listener.get().onDataAvailable();
+        assertTrue(upload.finalizeUpload());
+        listener.get().onAllDataRead();
+
+        assertFalse(completed.get());
+        assertTrue(error.get() instanceof IllegalStateException);
+        assertArrayEquals(content, Files.readAllBytes(upload.file()));
+
+        upload.close();
+        assertEquals(0, dir.toFile().list().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLengthTest() throws Exception {
+        new ResumableUpload("test", folder.newFolder().toPath(), -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedDigestTest() {
+        ResumableUpload.Digest.parse("crc32=AAAA");
+    }
+
+    // Send the chunk of content starting at the given offset, up to the next 20 bytes
+    private boolean send(final ResumableUpload upload, final int offset, final ResumableUpload.Digest digest) {
+        final AtomicBoolean accepted = new AtomicBoolean();
+        upload.receive(new Chunk(Arrays.copyOfRange(content, offset, Math.min(offset + 20, content.length))),
+                offset, digest, accepted::set, e -> {
+                    throw new RuntimeException(e);
+                });
+        return accepted.get();
+    }
+
+    // Request body that arrives all at once
+    private static class Chunk extends ServletInputStream {
+
+        private final ByteArrayInputStream in;
+
+        Chunk(final byte[] bytes) {
+            this.in = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(final ReadListener listener) {
+            try {
+                listener.onDataAvailable();
+                listener.onAllDataRead();
+            } catch (final Exception e) {
+                listener.onError(e);
+            }
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.dataconservancy.packaging.ingest.EventType;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SseWriterTest {
+
+    @Mock
+    HttpServletResponse response;
+
+    final StringWriter body = new StringWriter();
+
+    final PrintWriter out = spy(new PrintWriter(body));
+
+    @Test
+    public void batchingTest() throws Exception {
+        final SseWriter sse = new SseWriter(response, out, SseWriter.Verbosity.ALL, Long.MAX_VALUE / 1000000,
+                Integer.MAX_VALUE);
+
+        sse.onEvent(EventType.DEPOSIT, null, null, "first");
+
+        // The first frame goes out immediately
+        assertEquals("event: deposit\ndata: first\n\n", body.toString());
+
+        for (int i = 0; i < 100; i++) {
+            sse.onEvent(EventType.DEPOSIT, null, null, "resource " + i);
+        }
+
+        // Nothing else until a threshold is reached
+        assertEquals("event: deposit\ndata: first\n\n", body.toString());
+
+        sse.onEvent(EventType.SUCCESS, null, null, "done");
+
+        assertTrue(body.toString().contains("data: resource 99\n"));
+        assertTrue(body.toString().endsWith("event: success\ndata: done\n\n"));
+        verify(out, times(2)).flush();
+    }
+
+    @Test
+    public void sizeThresholdTest() throws Exception {
+        final SseWriter sse = new SseWriter(response, out, SseWriter.Verbosity.ALL, Long.MAX_VALUE / 1000000,
+                100);
+
+        for (int i = 0; i < 100; i++) {
+            sse.onEvent(EventType.DEPOSIT, null, null, "resource " + i);
+        }
+
+        // Every few frames
+        assertTrue(body.toString().contains("data: resource 90\n"));
+        verify(out, atLeast(20)).flush();
+        verify(out, atMost(40)).flush();
+    }
+
+    @Test
+    public void intervalTest() throws Exception {
+        final SseWriter sse = new SseWriter(response, out, SseWriter.Verbosity.ALL, 1, Integer.MAX_VALUE);
+
+        sse.onEvent(EventType.DEPOSIT, null, null, "first");
+        sse.onEvent(EventType.DEPOSIT, null, null, "second");
+        assertFalse(body.toString().contains("second"));
+
+        Thread.sleep(10);
+        sse.tick();
+
+        assertTrue(body.toString().contains("second"));
+    }
+
+    @Test
+    public void summaryTest() throws Exception {
+        final SseWriter sse = new SseWriter(response, out, SseWriter.Verbosity.SUMMARY, 1, Integer.MAX_VALUE);
+
+        sse.onEvent(EventType.DEPOSIT, null, null, "first");
+        sse.onEvent(EventType.DEPOSIT, null, null, new EventDispatcher.Coalesced(10, "deposited"));
+        sse.onEvent(EventType.REMAP, null, null, "remapped");
+        Thread.sleep(10);
+        sse.tick();
+
+        assertFalse(body.toString().contains("event: deposit"));
+        assertTrue(body.toString().contains("event: progress\ndata: deposited 11\ndata: remapped 1\n\n"));
+
+        sse.onEvent(EventType.SUCCESS, null, null, "done");
+        assertTrue(body.toString().endsWith("event: success\ndata: done\n\n"));
+    }
+
+    @Test
+    public void byteProgressTest() throws Exception {
+        final SseWriter sse = new SseWriter(response, out, SseWriter.Verbosity.SUMMARY, 1, Integer.MAX_VALUE);
+
+        sse.onEvent(EventType.DEPOSIT, null, null, "first");
+        sse.onEvent(EventType.PROGRESS, null, null, "bytes 10 of 100\nresources 1 of 2");
+        Thread.sleep(10);
+        sse.tick();
+
+        assertTrue(body.toString().contains("event: progress\ndata: deposited 1\ndata: remapped 0\n" +
+                "data: bytes 10 of 100\ndata: resources 1 of 2\n\n"));
+
+        // Byte progress alone is reported, as a large upload may not finish any resources for a while
+        sse.onEvent(EventType.PROGRESS, null, null, "bytes 60 of 100\nresources 1 of 2");
+        sse.onEvent(EventType.SUCCESS, null, null, "done");
+
+        assertTrue(body.toString().endsWith("event: progress\ndata: deposited 1\ndata: remapped 0\n" +
+                "data: bytes 60 of 100\ndata: resources 1 of 2\n\nevent: success\ndata: done\n\n"));
+    }
+
+    @Test
+    public void errorsOnlyTest() throws Exception {
+        final SseWriter sse = new SseWriter(response, out, SseWriter.Verbosity.ERRORS, 1, 1);
+
+        for (int i = 0; i < 100; i++) {
+            sse.onEvent(EventType.DEPOSIT, null, null, "resource " + i);
+            sse.onEvent(EventType.REMAP, null, null, "resource " + i);
+        }
+        sse.onEvent(EventType.SUCCESS, null, null, "done");
+
+        assertEquals("event: success\ndata: done\n\n", body.toString());
+    }
+
+    @Test
+    public void taggedTest() throws Exception {
+        final SseWriter sse = new SseWriter(response, out, SseWriter.Verbosity.ALL, Long.MAX_VALUE / 1000000,
+                Integer.MAX_VALUE);
+
+        // One package failing does not fail the whole response
+        sse.onEvent(EventType.ERROR, null, null, new SseWriter.Tagged("a.zip", "Bad package"));
+        sse.onEvent(EventType.SUCCESS, null, null, new SseWriter.Tagged("b.zip", "done"));
+        verify(response, never()).sendError(anyInt(), any());
+
+        sse.onEvent(EventType.SUCCESS, null, null, "Deposited 1 of 2 packages");
+
+        assertEquals("event: error\ndata: a.zip\ndata: Bad package\n\n" +
+                "event: success\ndata: b.zip\ndata: done\n\n" +
+                "event: success\ndata: Deposited 1 of 2 packages\n\n", body.toString());
+    }
+
+    @Test
+    public void verbosityTest() {
+        assertEquals(SseWriter.Verbosity.ALL, SseWriter.Verbosity.parse(null));
+        assertEquals(SseWriter.Verbosity.SUMMARY, SseWriter.Verbosity.parse("summary"));
+        assertEquals(SseWriter.Verbosity.ERRORS, SseWriter.Verbosity.parse("errors"));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.ingest.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class UploadSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    ServletInputStream in;
+
+    @Test
+    public void spoolTest() throws Exception {
+        final byte[] content = "This is a package".getBytes();
+        final InputStream arriving = new ByteArrayInputStream(content);
+        final AtomicReference<ReadListener> listener = new AtomicReference<>();
+        final AtomicReference<UploadSpool> spooled = new AtomicReference<>();
+
+        doAnswer(i -> {
+            listener.set(i.getArgument(0));
+            return null;
+        }).when(in).setReadListener(any());
+
+        // Data arrives a few bytes at a time
+        when(in.isReady()).thenReturn(true, false, true, false, true);
+        when(in.read(any(byte[].class))).thenAnswer(i -> arriving.read(i.getArgument(0), 0, 8));
+
+        final Path dir = folder.newFolder().toPath();
+        UploadSpool.start(in, dir, spooled::set, e -> {
+            throw new RuntimeException(e);
+        });
+
+        listener.get().onDataAvailable();
+        listener.get().onDataAvailable();
+        assertNull(spooled.get());
+
+        listener.get().onDataAvailable();
+        listener.get().onAllDataRead();
+        assertNotNull(spooled.get());
+
+        try (InputStream pkg = spooled.get().open()) {
+            assertArrayEquals(content, IOUtils.toByteArray(pkg));
+        }
+
+        // Closing deletes the spooled file
+        spooled.get().close();
+        assertEquals(0, dir.toFile().list().length);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.dataconservancy.packaging.ingest.PackagedResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of package analysis results, keyed by a digest of the package content and the analyzer settings that
+ * affect the result.
+ * <p>
+ * Each entry records the containment tree of a package, along with the type, media type and size of every resource. The
+ * content of each resource is not cached; it is re-opened from the freshly extracted package when an entry is read.
+ * Entries are evicted in least-recently-used order when the total size of the cache exceeds its limit.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class AnalysisCache {
+
+    static final Logger LOG = LoggerFactory.getLogger(AnalysisCache.class);
+
+    static final String SUFFIX = ".plan";
+
+    private static final int FORMAT_VERSION = 3;
+
+    private final Path dir;
+
+    private final long maxBytes;
+
+    /**
+     * Create a cache in the given directory.
+     *
+     * @param dir Cache directory. Will be created if it does not exist.
+     * @param maxBytes Maximum total size of cache entries, in bytes.
+     */
+    public AnalysisCache(final Path dir, final long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+
+        try {
+            Files.createDirectories(dir);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not create analysis cache directory " + dir, e);
+        }
+    }
+
+    /**
+     * Retrieve the analyzed resources of a package.
+     *
+     * @param key Digest of the package and analyzer settings.
+     * @param bodies Opens the body of a resource, given its URI. Bodies are opened when they are read.
+     * @return root resources of the package, or null if the package is not in the cache.
+     */
+    public Collection<PackagedResource> get(final String key, final Function<URI, InputStream> bodies) {
+        final Path entry = entry(key);
+
+        if (!Files.exists(entry)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                LOG.info("Discarding analysis cache entry {} with old format", entry);
+                Files.deleteIfExists(entry);
+                return null;
+            }
+
+            final int count = in.readInt();
+            final List<PackagedResource> roots = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                roots.add(read(in, bodies));
+            }
+
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+
+            LOG.debug("Using cached analysis of package {}", key);
+            return roots;
+        } catch (final IOException e) {
+            LOG.warn("Could not read analysis cache entry {}, discarding", entry, e);
+            try {
+                Files.deleteIfExists(entry);
+            } catch (final IOException x) {
+                LOG.warn("Could not delete analysis cache entry {}", entry, x);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Store the analyzed resources of a package.
+     *
+     * @param key Digest of the package and analyzer settings.
+     * @param roots root resources of the package.
+     */
+    public void put(final String key, final Collection<PackagedResource> roots) {
+        final Path entry = entry(key);
+
+        try {
+            final Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                    tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(roots.size());
+                for (final PackagedResource root : roots) {
+                    write(out, root);
+                }
+            }
+            Files.move(tmp, entry, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (final IOException e) {
+            LOG.warn("Could not write analysis cache entry {}", entry, e);
+            return;
+        }
+
+        evict();
+    }
+
+    // Delete least recently used entries until the cache fits within its size limit
+    synchronized void evict() {
+        try (Stream<Path> files = Files.list(dir)) {
+            final List<Path> entries = files
+                    .filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing(AnalysisCache::lastModified).reversed())
+                    .collect(Collectors.toList());
+
+            long total = 0;
+            for (final Path entry : entries) {
+                total += Files.size(entry);
+                if (total > maxBytes) {
+                    LOG.debug("Evicting analysis cache entry {}", entry);
+                    Files.deleteIfExists(entry);
+                }
+            }
+        } catch (final IOException e) {
+            LOG.warn("Could not evict entries from analysis cache {}", dir, e);
+        }
+    }
+
+    private Path entry(final String key) {
+        return dir.resolve(key + SUFFIX);
+    }
+
+    private static FileTime lastModified(final Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (final IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void write(final DataOutputStream out, final PackagedResource resource) throws IOException {
+        out.writeUTF(resource.getURI().toString());
+        out.writeUTF(resource.getType().name());
+        out.writeBoolean(resource.getMediaType() != null);
+        if (resource.getMediaType() != null) {
+            out.writeUTF(resource.getMediaType());
+        }
+        out.writeLong(resource.getSize());
+
+        out.writeBoolean(resource.getDescription() != null);
+        if (resource.getDescription() != null) {
+            write(out, resource.getDescription());
+        }
+
+        out.writeInt(resource.getChildren().size());
+        for (final PackagedResource child : resource.getChildren()) {
+            write(out, child);
+        }
+    }
+
+    private static PackagedResource read(final DataInputStream in, final Function<URI, InputStream> bodies)
+            throws IOException {
+        final BasicLdpResource resource = new BasicLdpResource(URI.create(in.readUTF()));
+        resource.setType(PackagedResource.Type.valueOf(in.readUTF()));
+        if (in.readBoolean()) {
+            resource.setMediaType(in.readUTF());
+        }
+        resource.setSize(in.readLong());
+        resource.setBody(() -> bodies.apply(resource.getURI()));
+
+        if (in.readBoolean()) {
+            resource.setDescription(read(in, bodies));
+        }
+
+        final int childCount = in.readInt();
+        for (int i = 0; i < childCount; i++) {
+            resource.addChild(read(in, bodies));
+        }
+
+        return resource;
+    }
+}
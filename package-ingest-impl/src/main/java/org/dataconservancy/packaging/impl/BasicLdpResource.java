@@ -20,6 +20,7 @@ import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.function.Supplier;
 
 import org.dataconservancy.packaging.ingest.PackagedResource;
 
@@ -36,10 +37,12 @@ public class BasicLdpResource implements PackagedResource {
 
     private Collection<PackagedResource> children;
 
-    private InputStream content;
+    private Supplier<InputStream> content;
 
     private String mediaType;
 
+    private long size = -1;
+
     private PackagedResource domainObjectDescription;
 
     /**
@@ -100,7 +103,7 @@ public class BasicLdpResource implements PackagedResource {
 
     @Override
     public InputStream getBody() {
-        return content;
+        return content != null ? content.get() : null;
     }
 
     /**
@@ -109,9 +112,32 @@ public class BasicLdpResource implements PackagedResource {
      * @param body the body.
      */
     public void setBody(final InputStream body) {
+        this.content = () -> body;
+    }
+
+    /**
+     * Set the body to be opened whenever it is asked for, rather than held open, e.g. a file.
+     *
+     * @param body opens the body.
+     */
+    public void setBody(final Supplier<InputStream> body) {
         this.content = body;
     }
 
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Set the size of the body.
+     *
+     * @param size size in bytes, or -1 if unknown.
+     */
+    public void setSize(final long size) {
+        this.size = size;
+    }
+
     @Override
     public String getMediaType() {
         return mediaType;
@@ -16,6 +16,7 @@
 
 package org.dataconservancy.packaging.impl;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.dataconservancy.packaging.impl.UriUtility.resolveBagUri;
 
 import java.io.BufferedReader;
@@ -24,19 +25,30 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+import org.dataconservancy.packaging.ingest.Metrics;
 import org.dataconservancy.packaging.ingest.PackageAnalyzer;
 import org.dataconservancy.packaging.ingest.PackagedResource;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
@@ -44,9 +56,14 @@ import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.ResIterator;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+
 /**
  * @author bbrosius@jhu.edu
  */
@@ -55,9 +72,11 @@ public class DcsPackageAnalyzer
 
     static final Logger LOG = LoggerFactory.getLogger(DcsPackageAnalyzer.class);
 
-    public static final String PARAM_EXTRACT_DIR = "pkg.extract.dir";
+    static final Timer ANALYZE_TIME = Metrics.registry().timer("analyze");
 
-    static final String APPLICATION_OCTETSTREAM = "application/octet-stream";
+    static final Histogram ANALYZE_RESOURCES = Metrics.registry().histogram("analyze.resources");
+
+    public static final String PARAM_EXTRACT_DIR = "pkg.extract.dir";
 
     private final String BAG_INFO_NAME = "bag-info.txt";
 
@@ -81,8 +100,19 @@ public class DcsPackageAnalyzer
 
     private final File extractDir;
 
+    private final MediaTypeRegistry mediaTypes;
+
+    private final ForkJoinPool pool;
+
     private File extractedPackageLocation;
 
+    // Directory containing the bag being analyzed, against which bag URIs are resolved
+    private Path bagBase;
+
+    private AnalysisCache analysisCache;
+
+    private JsonLdContextCache jsonLdContexts = JsonLdContextCache.offline();
+
     /**
      * Create an analyzer.
      *
@@ -90,62 +120,164 @@ public class DcsPackageAnalyzer
      * @param extractDir Extraction directory.
      */
     public DcsPackageAnalyzer(final OpenPackageService openPackageService, final File extractDir) {
+        this(openPackageService, extractDir, new MediaTypeRegistry());
+    }
+
+    /**
+     * Create an analyzer with a shared media type registry.
+     *
+     * @param openPackageService Service to extract/open the package.
+     * @param extractDir Extraction directory.
+     * @param mediaTypes Media type registry.
+     */
+    public DcsPackageAnalyzer(final OpenPackageService openPackageService, final File extractDir,
+            final MediaTypeRegistry mediaTypes) {
+        this(openPackageService, extractDir, mediaTypes, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create an analyzer with a shared media type registry and analysis thread pool.
+     *
+     * @param openPackageService Service to extract/open the package.
+     * @param extractDir Extraction directory.
+     * @param mediaTypes Media type registry.
+     * @param pool Fork/join pool used for analyzing the package's containment tree.
+     */
+    public DcsPackageAnalyzer(final OpenPackageService openPackageService, final File extractDir,
+            final MediaTypeRegistry mediaTypes, final ForkJoinPool pool) {
         this.packageService = openPackageService;
         this.extractDir = extractDir;
+        this.mediaTypes = mediaTypes;
+        this.pool = pool;
+    }
+
+    /**
+     * Use a cache of analysis results.
+     * <p>
+     * If set, the package stream is digested as it is extracted, and a package with the same digest as one
+     * previously analyzed with the same media type and JSON-LD context settings will be re-constructed from the cache
+     * rather than re-analyzed.
+     * </p>
+     *
+     * @param cache The analysis cache, or null for none.
+     */
+    public void setAnalysisCache(final AnalysisCache cache) {
+        this.analysisCache = cache;
+    }
+
+    /**
+     * Resolve the contexts of JSON-LD in the package through the given cache.
+     *
+     * @param contexts The context cache.
+     */
+    public void setJsonLdContexts(final JsonLdContextCache contexts) {
+        this.jsonLdContexts = contexts;
     }
 
     @Override
     public Collection<PackagedResource> getContainerRoots(final InputStream pkg) {
-        final Map<URI, PackagedResource> packageContainerResources = new HashMap<>();
-        final List<URI> visitedChildContainers = new ArrayList<>();
+        bagBase = extractDir.toPath();
+        String cacheKey = null;
         try {
-            extractedPackageLocation = packageService.openPackage(extractDir, pkg);
+            if (analysisCache != null) {
+                // Digest the package as it is extracted, and use the digest as a cache key
+                final DigestInputStream digested = new DigestInputStream(pkg, sha256());
+                extractedPackageLocation = packageService.openPackage(extractDir, digested);
+
+                // The archive may have trailing content that the extractor did not need to read.
+                IOUtils.copy(digested, NullOutputStream.NULL_OUTPUT_STREAM);
+
+                // The same package may be analyzed differently with different settings
+                final MessageDigest digest = digested.getMessageDigest();
+                digest.update(settings().getBytes(UTF_8));
+                cacheKey = String.format("%064x", new BigInteger(1, digest.digest()));
+
+                final Path base = bagBase;
+                final Collection<PackagedResource> cached = analysisCache.get(cacheKey, uri -> openBody(base, uri));
+                if (cached != null) {
+                    return cached;
+                }
+            } else {
+                extractedPackageLocation = packageService.openPackage(extractDir, pkg);
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to open that package to retrieve the bag-info file. " + e
+                    .getMessage(), e);
+        }
+
+        final Collection<PackagedResource> roots = analyze(extractedPackageLocation);
+
+        if (cacheKey != null) {
+            analysisCache.put(cacheKey, roots);
+        }
+
+        return roots;
+    }
+
+    /**
+     * Get root resources of a package file, or an unpacked package directory.
+     * <p>
+     * An unpacked package is analyzed where it is, without copying or extracting it, and is left untouched by
+     * {@link #cleanUpExtractionDirectory()}. Its directory must be named after the bag, as given by the authority of
+     * its bag URIs.
+     * </p>
+     *
+     * @param pkg package file or directory.
+     * @return Collection of resources that are "roots" of the given package.
+     */
+    @Override
+    public Collection<PackagedResource> getContainerRoots(final Path pkg) {
+        if (!Files.isDirectory(pkg)) {
+            return PackageAnalyzer.super.getContainerRoots(pkg);
+        }
+
+        bagBase = pkg.toAbsolutePath().getParent();
+        return analyze(pkg.toFile());
+    }
+
+    // Analyze the contents of an unpacked bag, recording how long it took and how many resources it found
+    private Collection<PackagedResource> analyze(final File bagDir) {
+        try (Timer.Context timer = ANALYZE_TIME.time()) {
+            final Collection<PackagedResource> roots = analyzeBag(bagDir);
+            ANALYZE_RESOURCES.update(count(roots));
+            return roots;
+        }
+    }
+
+    private static long count(final Collection<PackagedResource> resources) {
+        long count = 0;
+        for (final PackagedResource resource : resources) {
+            count += 1 + (resource.getChildren() != null ? count(resource.getChildren()) : 0) +
+                    (resource.getDescription() != null ? 1 : 0);
+        }
+        return count;
+    }
 
+    private Collection<PackagedResource> analyzeBag(final File bagDir) {
+        final Map<URI, PackagedResource> packageContainerResources = new HashMap<>();
+        final Set<URI> visitedChildContainers = ConcurrentHashMap.newKeySet();
+        try {
             // Read bag info file to get ore-rem file
-            final File bagInfoFile = new File(extractedPackageLocation, BAG_INFO_NAME);
-            final String remURI = getTag(new FileInputStream(bagInfoFile), REM_KEY);
+            final File bagInfoFile = new File(bagDir, BAG_INFO_NAME);
+            final String remURI;
+            try (InputStream bagInfo = new FileInputStream(bagInfoFile)) {
+                remURI = getTag(bagInfo, REM_KEY);
+            }
 
             try {
                 if (UriUtility.isBagUri(new URI(remURI))) {
-                    final Path remPath = resolveBagUri(extractDir.toPath(), new URI(remURI));
+                    final Path remPath = resolveBagUri(bagBase, new URI(remURI));
 
                     final Model remModel = ModelFactory.createDefaultModel();
-                    remModel.read(remPath.toUri().toString(), getJenaFormatString(remPath));
-
-                    final ResIterator nodeIterator = remModel.listResourcesWithProperty(TYPE, remModel.getResource(
-                            LDP_CONTAINER));
-                    if (!nodeIterator.hasNext()) {
-                        throw new RuntimeException("Couldn't find any LDP Containers in the package.");
-                    } else {
-
-                        while (nodeIterator.hasNext()) {
-                            final Resource containerResource = nodeIterator.next();
-                            if (!visitedChildContainers.contains(new URI(containerResource.getURI()))) {
-                                final PackagedResource newContainer = populateLdpContainerResource(remModel,
-                                        containerResource, visitedChildContainers, extractDir.toPath());
-                                packageContainerResources.put(newContainer.getURI(), newContainer);
-                            }
-                        }
-                    }
-
-                    // process any remaining binary resources:
-                    // these are resources that are the object of iana:describes, and are not the object of an
-                    // ldp:contains.
-                    remModel.listStatements(null, DESCRIBES_PROPERTY, (String) null)
-                            .filterDrop(statement -> remModel.contains(null, LDP_CONTAINS, statement.getObject()))
-                            .forEachRemaining(statement -> {
-                                try {
-                                    final PackagedResource binaryResource = populateFileResource(statement.getObject()
-                                            .asResource(), extractDir.toPath(), remModel);
-                                    packageContainerResources.put(binaryResource.getURI(), binaryResource);
-                                } catch (URISyntaxException | IOException e) {
-                                    throw new RuntimeException("Error processing non-container binary resources: " + e
-                                            .getMessage(), e);
-                                }
-                            });
 
+                    // Subtrees of the containment hierarchy are analyzed in parallel
+                    pool.invoke(ForkJoinTask.adapt(() -> {
+                        readRem(remModel, remPath);
+                        findRoots(remModel, packageContainerResources, visitedChildContainers);
+                        return null;
+                    }));
                 }
-            } catch (URISyntaxException | IOException e) {
+            } catch (final URISyntaxException e) {
                 throw new RuntimeException("An error occurred reading the package Resource map. " + e.getMessage());
             }
             // Read through the REM File to get the ldp concepts to populate the ldpresources
@@ -163,38 +295,146 @@ public class DcsPackageAnalyzer
         return packageContainerResources.values();
     }
 
-    // Parses out information from the ReM needed to populate LdpContainerResources.
+    private static InputStream openBody(final Path base, final URI bagUri) {
+        return openBody(resolveBagUri(base, bagUri));
+    }
+
+    // Bodies are only opened when read, so that a package with many resources doesn't hold as many files open
+    private static InputStream openBody(final Path path) {
+        try {
+            return new FileInputStream(path.toFile());
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not open packaged resource " + path, e);
+        }
+    }
+
+    // Sizes are recorded while analyzing, so deposit progress can be given in bytes
+    private static long sizeOf(final Path path) {
+        try {
+            return Files.size(path);
+        } catch (final IOException e) {
+            LOG.debug("Could not determine size of {}", path, e);
+            return -1;
+        }
+    }
+
+    // Settings that affect the analysis of a package, besides its content
+    private String settings() {
+        return mediaTypes.fingerprint() + "\n" + jsonLdContexts.fingerprint();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Reads the REM in whatever serialization its extension indicates. N-Triples REMs are parsed in parallel chunks.
+    private void readRem(final Model remModel, final Path remPath) throws IOException {
+        final Lang remLang = mediaTypes.getRdfLang(remPath);
+
+        if (Lang.NTRIPLES.equals(remLang)) {
+            RdfUtil.readNTriples(remModel.getGraph(), remPath, pool.getParallelism());
+        } else if (remLang != null) {
+            try (InputStream in = Files.newInputStream(remPath)) {
+                jsonLdContexts.parse(StreamRDFLib.graph(remModel.getGraph()), in, remPath.toUri().toString(),
+                        remLang);
+            }
+        } else {
+            remModel.read(remPath.toUri().toString());
+        }
+    }
+
+    // Finds the root containers and binaries of the package. Must be run within the fork/join pool.
+    private void findRoots(final Model remModel, final Map<URI, PackagedResource> packageContainerResources,
+            final Set<URI> visitedChildContainers) throws URISyntaxException {
+
+        final ResIterator nodeIterator = remModel.listResourcesWithProperty(TYPE, remModel.getResource(
+                LDP_CONTAINER));
+        if (!nodeIterator.hasNext()) {
+            throw new RuntimeException("Couldn't find any LDP Containers in the package.");
+        } else {
+
+            while (nodeIterator.hasNext()) {
+                final Resource containerResource = nodeIterator.next();
+                if (!visitedChildContainers.contains(new URI(containerResource.getURI()))) {
+                    final PackagedResource newContainer = populateLdpContainerResource(remModel,
+                            containerResource, visitedChildContainers, bagBase);
+                    packageContainerResources.put(newContainer.getURI(), newContainer);
+                }
+            }
+        }
+
+        // process any remaining binary resources:
+        // these are resources that are the object of iana:describes, and are not the object of an
+        // ldp:contains.
+        final List<ForkJoinTask<PackagedResource>> binaries = remModel.listStatements(null, DESCRIBES_PROPERTY,
+                (String) null)
+                .filterDrop(statement -> remModel.contains(null, LDP_CONTAINS, statement.getObject()))
+                .mapWith(statement -> ForkJoinTask.adapt(() -> {
+                    try {
+                        return populateFileResource(statement.getObject().asResource(), bagBase,
+                                remModel);
+                    } catch (URISyntaxException | IOException e) {
+                        throw new RuntimeException("Error processing non-container binary resources: " + e
+                                .getMessage(), e);
+                    }
+                })).toList();
+
+        ForkJoinTask.invokeAll(binaries).forEach(task -> {
+            final PackagedResource binaryResource = task.join();
+            packageContainerResources.put(binaryResource.getURI(), binaryResource);
+        });
+    }
+
+    // Parses out information from the ReM needed to populate LdpContainerResources. Each child is analyzed in its own
+    // fork/join task, so this must be run within the fork/join pool.
     private PackagedResource populateLdpContainerResource(final Model model, final Resource ldpContainerResource,
-            final List<URI> visitedContainerResources, final Path extractDirectory)
-            throws URISyntaxException, IOException {
-        final URI resourceBagUri = new URI(ldpContainerResource.getURI());
-        final BasicLdpResource resource = new BasicLdpResource(resourceBagUri);
-        resource.setType(PackagedResource.Type.CONTAINER);
+            final Set<URI> visitedContainerResources, final Path extractDirectory) {
+        final BasicLdpResource resource;
 
-        final Path resourcePath = UriUtility.resolveBagUri(extractDirectory, resourceBagUri);
-        resource.setMediaType(getDomainObjectMimeType(resourcePath));
-        resource.setBody(new FileInputStream(resourcePath.toFile()));
+        try {
+            final URI resourceBagUri = new URI(ldpContainerResource.getURI());
+            resource = new BasicLdpResource(resourceBagUri);
+            resource.setType(PackagedResource.Type.CONTAINER);
+
+            final Path resourcePath = UriUtility.resolveBagUri(extractDirectory, resourceBagUri);
+            resource.setMediaType(mediaTypes.getRdfMediaType(resourcePath));
+            resource.setBody(() -> openBody(resourcePath));
+            resource.setSize(sizeOf(resourcePath));
+        } catch (final Exception e) {
+            throw new RuntimeException("Resource map was invalid. ", e);
+        }
 
         if (ldpContainerResource.hasProperty(LDP_CONTAINS)) {
             final List<RDFNode> childrenNodes = model.listObjectsOfProperty(ldpContainerResource, LDP_CONTAINS)
                     .toList();
 
+            final List<ForkJoinTask<PackagedResource>> children = new ArrayList<>(childrenNodes.size());
+
             for (final RDFNode child : childrenNodes) {
-                try {
-                    final Resource childResource = child.asResource();
-                    // Handle a file
-                    if (!childResource.hasProperty(TYPE, model.getResource(LDP_CONTAINER))) {
-                        resource.addChild(populateFileResource(childResource, extractDirectory, model));
-                    } else {
-                        final PackagedResource childContainer = populateLdpContainerResource(model, childResource,
-                                visitedContainerResources, extractDirectory);
-                        resource.addChild(childContainer);
-                        visitedContainerResources.add(childContainer.getURI());
+                children.add(ForkJoinTask.adapt(() -> {
+                    try {
+                        final Resource childResource = child.asResource();
+                        // Handle a file
+                        if (!childResource.hasProperty(TYPE, model.getResource(LDP_CONTAINER))) {
+                            return populateFileResource(childResource, extractDirectory, model);
+                        } else {
+                            final PackagedResource childContainer = populateLdpContainerResource(model,
+                                    childResource, visitedContainerResources, extractDirectory);
+                            visitedContainerResources.add(childContainer.getURI());
+                            return childContainer;
+                        }
+                    } catch (final Exception e) {
+                        throw new RuntimeException("Resource map was invalid. ", e);
                     }
-                } catch (final Exception e) {
-                    throw new RuntimeException("Resource map was invalid. ", e);
-                }
+                }));
             }
+
+            // Children are added in REM order, regardless of the order they complete
+            ForkJoinTask.invokeAll(children).forEach(task -> resource.addChild(task.join()));
         }
 
         return resource;
@@ -212,12 +452,9 @@ public class DcsPackageAnalyzer
         binaryFileResource.setType(PackagedResource.Type.NONRDFSOURCE);
 
         final Path resourcePath = UriUtility.resolveBagUri(extractDirectory, binaryFileURI);
-        String mimeType = Files.probeContentType(resourcePath);
-        if (mimeType == null) {
-            mimeType = APPLICATION_OCTETSTREAM;
-        }
-        binaryFileResource.setMediaType(mimeType);
-        binaryFileResource.setBody(new FileInputStream(resourcePath.toFile()));
+        binaryFileResource.setMediaType(mediaTypes.getMediaType(resourcePath));
+        binaryFileResource.setBody(() -> openBody(resourcePath));
+        binaryFileResource.setSize(sizeOf(resourcePath));
 
         final BasicLdpResource domainObjectResource;
 
@@ -233,8 +470,9 @@ public class DcsPackageAnalyzer
             binaryFileResource.setDescription(domainObjectResource);
 
             final Path domainObjectResourcePath = UriUtility.resolveBagUri(extractDirectory, domainObjectURI);
-            domainObjectResource.setMediaType(getDomainObjectMimeType(domainObjectResourcePath));
-            domainObjectResource.setBody(new FileInputStream(domainObjectResourcePath.toFile()));
+            domainObjectResource.setMediaType(mediaTypes.getRdfMediaType(domainObjectResourcePath));
+            domainObjectResource.setBody(() -> openBody(domainObjectResourcePath));
+            domainObjectResource.setSize(sizeOf(domainObjectResourcePath));
         }
 
         return binaryFileResource;
@@ -283,33 +521,6 @@ public class DcsPackageAnalyzer
         return result;
     }
 
-    // The default jena read method that detects content types didn't seem to work, so this function sets the correct
-    // language.
-    private String getJenaFormatString(final Path remFile) {
-        if (remFile.toString().toLowerCase().endsWith(".ttl")) {
-            return "TTL";
-        } else if (remFile.toString().toLowerCase().endsWith(".rdf")) {
-            return "RDF/XML";
-        } else if (remFile.toString().toLowerCase().endsWith(".jsonld")) {
-            return "JSON-LD";
-        }
-
-        return "";
-    }
-
-    // Java's probe content type won't give correct mime types for our domain object files so we'll do it manually.
-    private String getDomainObjectMimeType(final Path remFile) {
-        if (remFile.toString().toLowerCase().endsWith(".ttl")) {
-            return "text/turtle";
-        } else if (remFile.toString().toLowerCase().endsWith(".rdf")) {
-            return "application/rdf+xml";
-        } else if (remFile.toString().toLowerCase().endsWith(".jsonld")) {
-            return "application/ld+json";
-        }
-
-        return "";
-    }
-
     @Override
     public void cleanUpExtractionDirectory() {
         if (extractedPackageLocation != null && extractedPackageLocation.exists()) {
@@ -19,6 +19,8 @@ package org.dataconservancy.packaging.impl;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
 
 import org.dataconservancy.packaging.ingest.PackageAnalyzer;
 import org.dataconservancy.packaging.ingest.PackageAnalyzerFactory;
@@ -26,6 +28,7 @@ import org.dataconservancy.packaging.ingest.PackageAnalyzerFactory;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
@@ -43,15 +46,55 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
     @AttributeDefinition(description = "Directory for temporary unpacking package contents as necessary")
     String package_extract_dir();
+
+    @AttributeDefinition(description = "Sniff file headers for media type when the file extension is not known")
+    boolean package_mediatype_sniff() default true;
+
+    @AttributeDefinition(description = "Maximum number of header bytes to read when sniffing media type")
+    int package_mediatype_sniff_bytes() default MediaTypeRegistry.DEFAULT_SNIFF_BYTES;
+
+    @AttributeDefinition(description = "Number of threads used to analyze a package.  If zero or less, the " +
+            "number of available processors is used")
+    int package_analysis_parallelism() default 0;
+
+    @AttributeDefinition(description = "Directory for caching the results of analyzing packages, so that " +
+            "re-submitted packages need not be re-analyzed.  If blank, no cache is used")
+    String package_analysis_cache_dir() default "";
+
+    @AttributeDefinition(description = "Maximum size of the analysis cache, in bytes")
+    long package_analysis_cache_max_bytes() default DcsPackageAnalyzerFactory.DEFAULT_CACHE_MAX_BYTES;
+
+    @AttributeDefinition(description = "Directory of preloaded JSON-LD contexts.  If blank, only contexts " +
+            "already loaded in memory are available")
+    String package_jsonld_context_dir() default "";
+
+    @AttributeDefinition(description = "Maximum number of JSON-LD contexts kept in memory")
+    int package_jsonld_context_cache_size() default JsonLdContextCache.DEFAULT_CACHE_SIZE;
+
+    @AttributeDefinition(description = "Allow JSON-LD contexts that are not available locally to be retrieved " +
+            "over the network")
+    boolean package_jsonld_allow_remote() default false;
 }
 
 @Designate(ocd = PackageFileAnalyzerFactoryConfig.class)
-@Component(configurationPolicy = ConfigurationPolicy.OPTIONAL, immediate = true)
+@Component(service = { PackageAnalyzerFactory.class, DcsPackageAnalyzerFactory.class },
+        configurationPolicy = ConfigurationPolicy.OPTIONAL, immediate = true)
 public class DcsPackageAnalyzerFactory
         implements PackageAnalyzerFactory {
 
+    static final long DEFAULT_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+
     private File extractBaseDir;
 
+    private AnalysisCache analysisCache;
+
+    private final MediaTypeRegistry mediaTypes = new MediaTypeRegistry();
+
+    private volatile ForkJoinPool analysisPool = ForkJoinPool.commonPool();
+
+    // Limited to contexts available offline unless configured otherwise
+    private volatile JsonLdContextCache jsonLdContexts = JsonLdContextCache.offline();
+
     /**
      * Set the extraction dir.
      *
@@ -62,6 +105,87 @@ public class DcsPackageAnalyzerFactory
         extractBaseDir.mkdirs();
     }
 
+    /**
+     * Whether to sniff file content when the media type can't be determined from its extension.
+     *
+     * @param sniff true to sniff content.
+     */
+    public void setSniffMediaType(final boolean sniff) {
+        mediaTypes.setSniffContent(sniff);
+    }
+
+    /**
+     * Set the maximum number of header bytes read when sniffing media types.
+     *
+     * @param bytes number of bytes.
+     */
+    public void setSniffMediaTypeBytes(final int bytes) {
+        mediaTypes.setSniffBytes(bytes);
+    }
+
+    /**
+     * Set the number of threads used to analyze a package.
+     *
+     * @param parallelism number of threads. If zero or less, the number of available processors is used.
+     */
+    public synchronized void setAnalysisParallelism(final int parallelism) {
+        final int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+
+        if (analysisPool == ForkJoinPool.commonPool() || analysisPool.getParallelism() != threads) {
+            replaceAnalysisPool(new ForkJoinPool(threads));
+        }
+    }
+
+    // Analyses already running on the previous pool are allowed to finish
+    private synchronized void replaceAnalysisPool(final ForkJoinPool pool) {
+        final ForkJoinPool previous = analysisPool;
+
+        analysisPool = pool;
+
+        if (previous != ForkJoinPool.commonPool()) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Cache analysis results in the given directory.
+     *
+     * @param dir Cache directory, or null/empty for no cache.
+     * @param maxBytes Maximum size of the cache, in bytes.
+     */
+    public void setAnalysisCache(final String dir, final long maxBytes) {
+        if (dir == null || dir.trim().isEmpty()) {
+            this.analysisCache = null;
+        } else {
+            this.analysisCache = new AnalysisCache(Paths.get(dir), maxBytes);
+        }
+    }
+
+    /**
+     * Configure how JSON-LD contexts are resolved when parsing package RDF.
+     * <p>
+     * The analyzers of this factory use the configured cache, as do deposit factories given this factory, e.g.
+     * {@link org.dataconservancy.packaging.impl.deposit.FedoraDepositFactory#setAnalyzerFactory}.
+     * </p>
+     *
+     * @param dir Directory of preloaded contexts, or null/empty for none.
+     * @param cacheSize Maximum number of contexts to keep in memory.
+     * @param allowRemote Whether to retrieve contexts that are not available locally over the network.
+     */
+    public void setJsonLdContexts(final String dir, final int cacheSize, final boolean allowRemote) {
+        jsonLdContexts = new JsonLdContextCache(dir == null || dir.trim().isEmpty() ? null : Paths.get(dir),
+                cacheSize, allowRemote);
+    }
+
+    /**
+     * How JSON-LD contexts are resolved when parsing package RDF.
+     *
+     * @return the currently configured context cache.
+     */
+    public JsonLdContextCache getJsonLdContexts() {
+        return jsonLdContexts;
+    }
+
     /**
      * Initialize.
      *
@@ -71,6 +195,29 @@ public class DcsPackageAnalyzerFactory
     @Modified
     public void init(final PackageFileAnalyzerFactoryConfig config) {
         setExtractDir(config.package_extract_dir());
+        setSniffMediaType(config.package_mediatype_sniff());
+        setSniffMediaTypeBytes(config.package_mediatype_sniff_bytes());
+        setAnalysisParallelism(config.package_analysis_parallelism());
+        setAnalysisCache(config.package_analysis_cache_dir(), config.package_analysis_cache_max_bytes());
+        setJsonLdContexts(config.package_jsonld_context_dir(), config.package_jsonld_context_cache_size(),
+                config.package_jsonld_allow_remote());
+    }
+
+    /** Stop the analysis thread pool. */
+    @Deactivate
+    public void shutdown() {
+        replaceAnalysisPool(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Unpacked bags are analyzed in place.
+     * </p>
+     */
+    @Override
+    public boolean acceptsUnpacked() {
+        return true;
     }
 
     @Override
@@ -86,8 +233,12 @@ public class DcsPackageAnalyzerFactory
                 }
             }
         }
-        return new DcsPackageAnalyzer(new OpenPackageService(),
-                extractBaseDir);
+        final DcsPackageAnalyzer analyzer = new DcsPackageAnalyzer(new OpenPackageService(),
+                extractBaseDir, mediaTypes, analysisPool);
+        analyzer.setAnalysisCache(analysisCache);
+        analyzer.setJsonLdContexts(jsonLdContexts);
+
+        return analyzer;
     }
 
 }
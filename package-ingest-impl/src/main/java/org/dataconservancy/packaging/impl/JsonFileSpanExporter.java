@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import org.dataconservancy.packaging.ingest.Span;
+import org.dataconservancy.packaging.ingest.SpanExporter;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+@ObjectClassDefinition(name = "org.dataconservancy.packaging.impl.JsonFileSpanExporter",
+        description = "Writes deposit trace spans to a file")
+@interface JsonFileSpanExporterConfig {
+
+    @AttributeDefinition(description = "File trace spans are appended to, one JSON object per line")
+    String trace_file();
+}
+
+/**
+ * Appends trace spans to a file as JSON, one span per line, for offline analysis.
+ * <p>
+ * Each line has the span's {@code traceId}, {@code spanId}, {@code parentId}, {@code name}, {@code start} time in
+ * milliseconds since the epoch, {@code duration} in microseconds, and {@code attributes}. The file is flushed as each
+ * deposit's root span ends, rather than for every span.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+@Designate(ocd = JsonFileSpanExporterConfig.class)
+@Component(configurationPolicy = ConfigurationPolicy.REQUIRE)
+public class JsonFileSpanExporter implements SpanExporter, AutoCloseable {
+
+    static final Logger LOG = LoggerFactory.getLogger(JsonFileSpanExporter.class);
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private Writer out;
+
+    /** Create an exporter, which exports nothing until a file is set */
+    public JsonFileSpanExporter() {
+    }
+
+    /**
+     * Create an exporter writing to a file.
+     *
+     * @param file File to append spans to.
+     */
+    public JsonFileSpanExporter(final Path file) {
+        setFile(file);
+    }
+
+    /**
+     * Set the file spans are appended to. Any previous file is closed.
+     *
+     * @param file the file.
+     */
+    public synchronized void setFile(final Path file) {
+        close();
+        try {
+            out = Files.newBufferedWriter(file, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not open trace file " + file, e);
+        }
+    }
+
+    /**
+     * Initialize.
+     *
+     * @param config OSGi DS-style configuration
+     */
+    @Activate
+    @Modified
+    public void init(final JsonFileSpanExporterConfig config) {
+        setFile(Paths.get(config.trace_file()));
+    }
+
+    @Override
+    public synchronized void export(final Span span) {
+        if (out == null) {
+            return;
+        }
+
+        try {
+            out.write(toJson(span));
+            out.write('\n');
+            if (span.getParentId() == null) {
+                out.flush();
+            }
+        } catch (final IOException e) {
+            LOG.warn("Could not write span {} of trace {}", span.getName(), span.getTraceId(), e);
+        }
+    }
+
+    @Override
+    @Deactivate
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (final IOException e) {
+                LOG.warn("Could not close trace file", e);
+            }
+            out = null;
+        }
+    }
+
+    static String toJson(final Span span) {
+        final StringWriter json = new StringWriter();
+        try (JsonGenerator out = JSON.createGenerator(json)) {
+            out.writeStartObject();
+            out.writeStringField("traceId", span.getTraceId());
+            out.writeStringField("spanId", span.getSpanId());
+            out.writeStringField("parentId", span.getParentId());
+            out.writeStringField("name", span.getName());
+            out.writeNumberField("start", span.getStartMillis());
+            out.writeNumberField("duration", span.getDurationNanos() / 1000);
+
+            out.writeObjectFieldStart("attributes");
+            for (final Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+                final Object value = attribute.getValue();
+                out.writeFieldName(attribute.getKey());
+                if (value == null) {
+                    out.writeNull();
+                } else if (value instanceof Number) {
+                    out.writeNumber(value.toString());
+                } else if (value instanceof Boolean) {
+                    out.writeBoolean((Boolean) value);
+                } else {
+                    out.writeString(value.toString());
+                }
+            }
+            out.writeEndObject();
+            out.writeEndObject();
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not render span " + span.getName(), e);
+        }
+        return json.toString();
+    }
+}
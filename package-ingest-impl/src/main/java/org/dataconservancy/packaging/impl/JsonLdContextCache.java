@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.jsonldjava.core.DocumentLoader;
+import com.github.jsonldjava.core.JsonLdError;
+import com.github.jsonldjava.core.RemoteDocument;
+import com.github.jsonldjava.utils.JsonUtils;
+
+/**
+ * JSON-LD document loader that resolves remote {@code @context} documents locally.
+ * <p>
+ * Contexts are looked up in an in-memory LRU cache, then in a directory of preloaded contexts. A context in the
+ * directory is found either through a {@code contexts.properties} file in that directory mapping context URLs to file
+ * names, or by a file named with the URL-encoded context URL. Unless remote loading is explicitly allowed, a context
+ * that cannot be found locally is an error rather than a network request.
+ * </p>
+ * <p>
+ * Jena's own JSON-LD parsing is left alone; RDF parsed with {@link #parse(StreamRDF, InputStream, String, Lang)}
+ * resolves contexts through the cache. Code that parses package RDF while depositing it, e.g. with
+ * {@link RdfUtil}, is given the cache configured for the analyzer factory rather than using one of its own.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class JsonLdContextCache extends DocumentLoader {
+
+    static final Logger LOG = LoggerFactory.getLogger(JsonLdContextCache.class);
+
+    static final String INDEX_FILE = "contexts.properties";
+
+    /** Default number of contexts kept in memory */
+    public static final int DEFAULT_CACHE_SIZE = 100;
+
+    private final Path dir;
+
+    private final boolean allowRemote;
+
+    private final Properties index = new Properties();
+
+    private final Map<String, Object> cache;
+
+    /**
+     * Create a context cache.
+     *
+     * @param dir Directory of preloaded contexts, or null for none.
+     * @param size Maximum number of contexts to keep in memory.
+     * @param allowRemote Whether to load contexts not found locally from the network.
+     */
+    public JsonLdContextCache(final Path dir, final int size, final boolean allowRemote) {
+        this.dir = dir;
+        this.allowRemote = allowRemote;
+
+        final int maxSize = size > 0 ? size : DEFAULT_CACHE_SIZE;
+        this.cache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Object> eldest) {
+                return size() > maxSize;
+            }
+        };
+
+        if (dir != null && Files.exists(dir.resolve(INDEX_FILE))) {
+            try (InputStream in = Files.newInputStream(dir.resolve(INDEX_FILE))) {
+                index.load(in);
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not read JSON-LD context index " + dir.resolve(INDEX_FILE), e);
+            }
+        }
+    }
+
+    /**
+     * Create a cache with no preloaded contexts, which does not load remote contexts.
+     *
+     * @return the context cache.
+     */
+    public static JsonLdContextCache offline() {
+        return new JsonLdContextCache(null, DEFAULT_CACHE_SIZE, false);
+    }
+
+    /**
+     * Parse RDF, resolving the contexts of JSON-LD through this cache. Other languages are parsed by Jena as usual.
+     *
+     * @param sink Destination of the parsed triples.
+     * @param in RDF content.
+     * @param base Base URI.
+     * @param lang RDF language.
+     */
+    public void parse(final StreamRDF sink, final InputStream in, final String base, final Lang lang) {
+        if (RDFLanguages.JSONLD.equals(lang)) {
+            new JsonLdReader(this).read(in, base, null, sink, null);
+        } else {
+            RDFDataMgr.parse(sink, in, base, lang);
+        }
+    }
+
+    /**
+     * Describe the settings that affect how contexts are resolved, e.g. to tell apart analyses made with different
+     * settings.
+     *
+     * @return description of the settings.
+     */
+    String fingerprint() {
+        return "contexts=" + (dir != null ? dir.toAbsolutePath() : "") + ",remote=" + allowRemote;
+    }
+
+    @Override
+    public RemoteDocument loadDocument(final String url) throws JsonLdError {
+        synchronized (cache) {
+            if (cache.containsKey(url)) {
+                return new RemoteDocument(url, cache.get(url));
+            }
+        }
+
+        Object document = loadLocal(url);
+
+        if (document == null) {
+            if (!allowRemote) {
+                throw new JsonLdError(JsonLdError.Error.LOADING_REMOTE_CONTEXT_FAILED,
+                        "Context " + url + " is not available locally, and remote contexts are disallowed");
+            }
+
+            LOG.debug("Loading remote JSON-LD context {}", url);
+            document = super.loadDocument(url).getDocument();
+        }
+
+        synchronized (cache) {
+            cache.put(url, document);
+        }
+
+        return new RemoteDocument(url, document);
+    }
+
+    private Object loadLocal(final String url) throws JsonLdError {
+        if (dir == null) {
+            return null;
+        }
+
+        final Path file = dir.resolve(index.getProperty(url, encode(url)));
+
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        LOG.debug("Loading JSON-LD context {} from {}", url, file);
+        try (InputStream in = Files.newInputStream(file)) {
+            return JsonUtils.fromInputStream(in);
+        } catch (final IOException e) {
+            throw new JsonLdError(JsonLdError.Error.LOADING_REMOTE_CONTEXT_FAILED, "Could not read context " +
+                    url + " from " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static String encode(final String url) {
+        try {
+            return URLEncoder.encode(url, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.UUID;
+
+import org.apache.jena.atlas.web.ContentType;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.ReaderRIOT;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.ErrorHandler;
+import org.apache.jena.riot.system.ErrorHandlerFactory;
+import org.apache.jena.riot.system.ParserProfile;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.util.Context;
+
+import com.github.jsonldjava.core.JsonLdError;
+import com.github.jsonldjava.core.JsonLdOptions;
+import com.github.jsonldjava.core.JsonLdProcessor;
+import com.github.jsonldjava.core.RDFDataset;
+import com.github.jsonldjava.utils.JsonUtils;
+
+/**
+ * JSON-LD reader that resolves contexts through a {@link JsonLdContextCache}.
+ *
+ * @author apb@jhu.edu
+ */
+class JsonLdReader implements ReaderRIOT {
+
+    private static final String DEFAULT_GRAPH = "@default";
+
+    private final JsonLdContextCache contexts;
+
+    private ErrorHandler errorHandler = ErrorHandlerFactory.getDefaultErrorHandler();
+
+    private ParserProfile profile;
+
+    JsonLdReader(final JsonLdContextCache contexts) {
+        this.contexts = contexts;
+    }
+
+    @Override
+    public void read(final InputStream in, final String baseURI, final ContentType ct, final StreamRDF output,
+            final Context context) {
+        try {
+            read(JsonUtils.fromInputStream(in), baseURI, output);
+        } catch (final IOException e) {
+            throw new RiotException(e);
+        }
+    }
+
+    @Override
+    public void read(final Reader reader, final String baseURI, final ContentType ct, final StreamRDF output,
+            final Context context) {
+        try {
+            read(JsonUtils.fromReader(reader), baseURI, output);
+        } catch (final IOException e) {
+            throw new RiotException(e);
+        }
+    }
+
+    private void read(final Object json, final String baseURI, final StreamRDF output) {
+        final JsonLdOptions options = new JsonLdOptions(baseURI);
+        options.setDocumentLoader(contexts);
+
+        final RDFDataset dataset;
+        try {
+            dataset = (RDFDataset) JsonLdProcessor.toRDF(json, options);
+        } catch (final JsonLdError e) {
+            errorHandler.fatal(e.getMessage(), -1, -1);
+            throw new RiotException(e);
+        }
+
+        // As Jena's own readers do, so that streaming writers are flushed
+        output.start();
+        try {
+            emit(dataset, output);
+        } finally {
+            output.finish();
+        }
+    }
+
+    private static void emit(final RDFDataset dataset, final StreamRDF output) {
+        // Blank node labels are only unique within a single document
+        final String scope = UUID.randomUUID().toString();
+
+        for (final String graphName : dataset.graphNames()) {
+            for (final RDFDataset.Quad quad : dataset.getQuads(graphName)) {
+                final Triple triple = Triple.create(
+                        node(quad.getSubject(), scope),
+                        node(quad.getPredicate(), scope),
+                        node(quad.getObject(), scope));
+
+                if (DEFAULT_GRAPH.equals(graphName)) {
+                    output.triple(triple);
+                } else {
+                    output.quad(Quad.create(NodeFactory.createURI(graphName), triple));
+                }
+            }
+        }
+    }
+
+    private static Node node(final RDFDataset.Node node, final String scope) {
+        if (node.isIRI()) {
+            return NodeFactory.createURI(node.getValue());
+        } else if (node.isBlankNode()) {
+            return NodeFactory.createBlankNode(scope + node.getValue());
+        } else if (node.getLanguage() != null && !node.getLanguage().isEmpty()) {
+            return NodeFactory.createLiteral(node.getValue(), node.getLanguage());
+        } else {
+            return NodeFactory.createLiteral(node.getValue(), TypeMapper.getInstance().getSafeTypeByName(node
+                    .getDatatype()));
+        }
+    }
+
+    @Override
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    @Override
+    public void setErrorHandler(final ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    @Override
+    public ParserProfile getParserProfile() {
+        return profile;
+    }
+
+    @Override
+    public void setParserProfile(final ParserProfile profile) {
+        this.profile = profile;
+    }
+}
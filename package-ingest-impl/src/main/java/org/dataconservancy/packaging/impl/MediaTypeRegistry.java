@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Determines media types of packaged files.
+ * <p>
+ * Media types are looked up by file extension in a fixed table first. Extensions not in the table are resolved by
+ * name through Tika, and the result is cached per extension. If that still yields nothing better than
+ * {@code application/octet-stream}, the first few bytes of the file may be sniffed by Tika's magic detector. The
+ * sniffed result depends on file content, so it is not cached.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class MediaTypeRegistry {
+
+    static final Logger LOG = LoggerFactory.getLogger(MediaTypeRegistry.class);
+
+    static final String APPLICATION_OCTETSTREAM = "application/octet-stream";
+
+    /** Default number of header bytes to sniff */
+    public static final int DEFAULT_SNIFF_BYTES = 4096;
+
+    private static final Map<String, String> RDF_EXTENSIONS = new HashMap<>();
+
+    private static final Map<String, String> EXTENSIONS = new HashMap<>();
+
+    static {
+        RDF_EXTENSIONS.put("ttl", "text/turtle");
+        RDF_EXTENSIONS.put("rdf", "application/rdf+xml");
+        RDF_EXTENSIONS.put("owl", "application/rdf+xml");
+        RDF_EXTENSIONS.put("jsonld", "application/ld+json");
+        RDF_EXTENSIONS.put("nt", "application/n-triples");
+        RDF_EXTENSIONS.put("nq", "application/n-quads");
+        RDF_EXTENSIONS.put("trig", "application/trig");
+        RDF_EXTENSIONS.put("n3", "text/n3");
+        RDF_EXTENSIONS.put("trdf", "application/rdf+thrift");
+
+        EXTENSIONS.putAll(RDF_EXTENSIONS);
+        EXTENSIONS.put("txt", "text/plain");
+        EXTENSIONS.put("log", "text/plain");
+        EXTENSIONS.put("csv", "text/csv");
+        EXTENSIONS.put("tsv", "text/tab-separated-values");
+        EXTENSIONS.put("html", "text/html");
+        EXTENSIONS.put("htm", "text/html");
+        EXTENSIONS.put("xml", "application/xml");
+        EXTENSIONS.put("json", "application/json");
+        EXTENSIONS.put("pdf", "application/pdf");
+        EXTENSIONS.put("zip", "application/zip");
+        EXTENSIONS.put("gz", "application/gzip");
+        EXTENSIONS.put("tgz", "application/gzip");
+        EXTENSIONS.put("tar", "application/x-tar");
+        EXTENSIONS.put("png", "image/png");
+        EXTENSIONS.put("jpg", "image/jpeg");
+        EXTENSIONS.put("jpeg", "image/jpeg");
+        EXTENSIONS.put("gif", "image/gif");
+        EXTENSIONS.put("tif", "image/tiff");
+        EXTENSIONS.put("tiff", "image/tiff");
+    }
+
+    private final Map<String, String> byExtension = new ConcurrentHashMap<>();
+
+    private final Tika tika = new Tika();
+
+    private boolean sniffContent = true;
+
+    private int sniffBytes = DEFAULT_SNIFF_BYTES;
+
+    /**
+     * Whether to sniff file headers when the extension gives no useful media type.
+     *
+     * @param sniff true to sniff content.
+     */
+    public void setSniffContent(final boolean sniff) {
+        this.sniffContent = sniff;
+    }
+
+    /**
+     * Set the maximum number of header bytes read when sniffing content.
+     *
+     * @param bytes number of bytes.
+     */
+    public void setSniffBytes(final int bytes) {
+        this.sniffBytes = bytes > 0 ? bytes : DEFAULT_SNIFF_BYTES;
+    }
+
+    /**
+     * Describe the settings that affect which media types are determined, e.g. to tell apart analyses made with
+     * different settings.
+     *
+     * @return description of the settings.
+     */
+    String fingerprint() {
+        return "sniff=" + (sniffContent ? sniffBytes : 0);
+    }
+
+    /**
+     * Determine the media type of a file.
+     *
+     * @param file the file.
+     * @return media type, or {@code application/octet-stream} if unknown; never null.
+     */
+    public String getMediaType(final Path file) {
+        final String byName = byExtension.computeIfAbsent(extension(file), this::lookup);
+
+        if (sniffContent && APPLICATION_OCTETSTREAM.equals(byName)) {
+            return sniff(file);
+        }
+
+        return byName;
+    }
+
+    /**
+     * Determine the media type of an RDF file.
+     *
+     * @param file the file.
+     * @return RDF media type, or empty string if the file is not a recognized RDF serialization.
+     */
+    public String getRdfMediaType(final Path file) {
+        return RDF_EXTENSIONS.getOrDefault(extension(file), "");
+    }
+
+    /**
+     * Determine the RDF language of a file.
+     *
+     * @param file the file.
+     * @return the language, or null if the file is not a recognized RDF serialization.
+     */
+    public Lang getRdfLang(final Path file) {
+        final String mediaType = RDF_EXTENSIONS.get(extension(file));
+        return mediaType != null ? RDFLanguages.contentTypeToLang(mediaType) : null;
+    }
+
+    private String lookup(final String extension) {
+        if (EXTENSIONS.containsKey(extension)) {
+            return EXTENSIONS.get(extension);
+        } else if (extension.isEmpty()) {
+            return APPLICATION_OCTETSTREAM;
+        }
+
+        final String detected = tika.detect("file." + extension);
+        return detected != null ? detected : APPLICATION_OCTETSTREAM;
+    }
+
+    private String sniff(final Path file) {
+        final byte[] header = new byte[sniffBytes];
+        try (InputStream in = Files.newInputStream(file)) {
+            final int len = IOUtils.read(in, header);
+            return tika.detect(Arrays.copyOf(header, len), file.getFileName().toString());
+        } catch (final IOException e) {
+            LOG.debug("Could not sniff content of {}", file, e);
+            return APPLICATION_OCTETSTREAM;
+        }
+    }
+
+    private static String extension(final Path file) {
+        return FilenameUtils.getExtension(file.getFileName().toString()).toLowerCase();
+    }
+}
@@ -24,6 +24,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import org.dataconservancy.packaging.ingest.Metrics;
+import org.dataconservancy.packaging.ingest.Span;
+
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
@@ -35,6 +38,9 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+
 /**
  * Service for opening up a package file for ingest.
  * <p>
@@ -47,6 +53,10 @@ public class OpenPackageService {
 
     private static final Logger LOG = LoggerFactory.getLogger(OpenPackageService.class);
 
+    private static final Timer EXTRACT_TIME = Metrics.registry().timer("extract");
+
+    private static final Histogram EXTRACT_BYTES = Metrics.registry().histogram("extract.bytes");
+
     /**
      * Extract contents of an archive.
      *
@@ -77,6 +87,8 @@ public class OpenPackageService {
             }
         }
 
+        EXTRACT_BYTES.update(ais.getBytesRead());
+        Span.current().with("bytes", ais.getBytesRead());
         return archive_base;
     }
 
@@ -120,7 +132,7 @@ public class OpenPackageService {
      * @throws IOException if there is a problem expanding files into the directory.
      */
     public File openPackage(final File staging_dir, final File file) throws IOException {
-        try {
+        try (Timer.Context timer = EXTRACT_TIME.time(); Span span = Span.start("extract")) {
             final String archive_base = extract(staging_dir, file);
             return new File(staging_dir, archive_base);
 
@@ -138,7 +150,7 @@ public class OpenPackageService {
      * @throws IOException if there is a problem expanding files into the directory.
      */
     public File openPackage(final File staging_dir, final InputStream stream) throws IOException {
-        try {
+        try (Timer.Context timer = EXTRACT_TIME.time(); Span span = Span.start("extract")) {
             return new File(staging_dir, extract(staging_dir, stream));
         } catch (final ArchiveException e) {
             throw new IOException(e);
@@ -55,6 +55,11 @@ class PackagedResourceWrapper implements PackagedResource {
         return delegate.getBody();
     }
 
+    @Override
+    public long getSize() {
+        return delegate.getSize();
+    }
+
     @Override
     public String getMediaType() {
         return delegate.getMediaType();
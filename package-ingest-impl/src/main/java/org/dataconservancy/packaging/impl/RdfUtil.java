@@ -25,28 +25,45 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
 
 import org.dataconservancy.packaging.ingest.PackagedResource;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Statement;
-import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFFormat;
 import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RiotReader;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.lang.LangRIOT;
 import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.apache.jena.riot.system.StreamRDFWrapper;
 import org.apache.jena.riot.system.StreamRDFWriter;
 import org.apache.jena.riot.writer.NTriplesWriter;
+import org.apache.jena.sparql.graph.GraphFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,9 +76,17 @@ public abstract class RdfUtil {
 
     static final Logger LOG = LoggerFactory.getLogger(RdfUtil.class);
 
+    /** Media type of filtered resource bodies */
+    public static final String FILTERED_MEDIA_TYPE = "text/turtle";
+
     private static final ExecutorService executor = Executors
             .newCachedThreadPool();
 
+    // Smallest N-Triples chunk worth parsing in its own task
+    static final long MIN_NTRIPLES_CHUNK = 4L * 1024 * 1024;
+
+    private static final JsonLdContextCache OFFLINE_CONTEXTS = JsonLdContextCache.offline();
+
     /**
      * Make all URIs relative to the given URI.
      *
@@ -104,6 +129,12 @@ public abstract class RdfUtil {
 
     /**
      * Filter the RDF in the given resource body.
+     * <p>
+     * The body may be in any RDF syntax Jena reads, as given by its media type. The filtered body is always written as
+     * Turtle, so the filtered resource's media type is {@value #FILTERED_MEDIA_TYPE} rather than the original's. With
+     * no transforms, this translates a body into Turtle. JSON-LD contexts are not loaded from files or the network; see
+     * {@link #filterBody(JsonLdContextCache, PackagedResource, Function...)}.
+     * </p>
      *
      * @param pkg The package
      * @param transforms transforms to apply.
@@ -112,8 +143,27 @@ public abstract class RdfUtil {
     @SafeVarargs
     public static PackagedResource filterBody(final PackagedResource pkg,
             final Function<Triple, Triple>... transforms) {
+        return filterBody(OFFLINE_CONTEXTS, pkg, transforms);
+    }
+
+    /**
+     * Filter the RDF in the given resource body, resolving the contexts of a JSON-LD body through the given cache.
+     *
+     * @param contexts JSON-LD context cache, e.g. that of the analyzer factory that analyzed the package.
+     * @param pkg The package
+     * @param transforms transforms to apply.
+     * @return filtered resource.
+     */
+    @SafeVarargs
+    public static PackagedResource filterBody(final JsonLdContextCache contexts, final PackagedResource pkg,
+            final Function<Triple, Triple>... transforms) {
         return new PackagedResourceWrapper(pkg) {
 
+            @Override
+            public String getMediaType() {
+                return FILTERED_MEDIA_TYPE;
+            }
+
             @Override
             public InputStream getBody() {
                 final PipedInputStream in = new PipedInputStream();
@@ -149,14 +199,15 @@ public abstract class RdfUtil {
                     @Override
                     public void run() {
                         try {
-                            RDFDataMgr.parse(transformer, orig, "", RDFLanguages.contentTypeToLang(pkg
-                                    .getMediaType()));
+                            contexts.parse(transformer, orig, "", RDFLanguages
+                                    .contentTypeToLang(pkg.getMediaType()));
                         } finally {
                             try {
                                 out.close();
                             } catch (final IOException e) {
                                 LOG.warn("Could not close piped output stream", e);
                             }
+                            IOUtils.closeQuietly(orig);
                         }
                     }
                 });
@@ -167,6 +218,84 @@ public abstract class RdfUtil {
         };
     }
 
+    /**
+     * Read an N-Triples file into a graph, parsing chunks of the file in parallel.
+     * <p>
+     * The file is split at line boundaries into at most {@code parallelism} chunks, each of which is parsed in its own
+     * fork/join task. Blank node labels are kept as given, so a blank node referenced from more than one chunk is
+     * still a single node.
+     * </p>
+     *
+     * @param graph The graph to add triples to.
+     * @param file N-Triples file.
+     * @param parallelism Maximum number of chunks to parse in parallel.
+     * @throws IOException if the file cannot be read.
+     */
+    public static void readNTriples(final Graph graph, final Path file, final int parallelism) throws IOException {
+        final long chunks = Math.min(parallelism, Files.size(file) / MIN_NTRIPLES_CHUNK);
+        readNTriplesChunks(graph, file, (int) Math.max(1, chunks));
+    }
+
+    static void readNTriplesChunks(final Graph graph, final Path file, final int chunks) throws IOException {
+        final List<Long> boundaries = lineBoundaries(file, chunks);
+
+        final List<ForkJoinTask<Graph>> tasks = new ArrayList<>(boundaries.size());
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            final long start = boundaries.get(i);
+            final long length = boundaries.get(i + 1) - start;
+            tasks.add(ForkJoinTask.adapt(() -> parseNTriples(file, start, length)));
+        }
+
+        // Graphs are not thread safe, so merge the parsed chunks in this thread.
+        ForkJoinTask.invokeAll(tasks).forEach(task -> GraphUtil.addInto(graph, task.join()));
+    }
+
+    private static Graph parseNTriples(final Path file, final long start, final long length) throws IOException {
+        final Graph chunk = GraphFactory.createDefaultGraph();
+        final StreamRDF dest = StreamRDFLib.graph(chunk);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(start);
+            final InputStream in = new BoundedInputStream(Channels.newInputStream(channel), length);
+
+            final LangRIOT parser = RiotReader.createParser(in, Lang.NTRIPLES, null, dest);
+            parser.getProfile().setLabelToNode(LabelToNode.createUseLabelAsGiven());
+
+            dest.start();
+            parser.parse();
+            dest.finish();
+        }
+
+        return chunk;
+    }
+
+    // Offsets of the start of each chunk, plus the end of the file.
+    private static List<Long> lineBoundaries(final Path file, final int chunks) throws IOException {
+        final List<Long> boundaries = new ArrayList<>(chunks + 1);
+        boundaries.add(0L);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            final long size = raf.length();
+
+            for (int i = 1; i < chunks; i++) {
+                long pos = Math.max(size * i / chunks, boundaries.get(boundaries.size() - 1));
+                raf.seek(pos);
+                while (pos < size && raf.read() != '\n') {
+                    pos++;
+                }
+                pos = Math.min(pos + 1, size);
+
+                if (pos > boundaries.get(boundaries.size() - 1) && pos < size) {
+                    boundaries.add(pos);
+                }
+            }
+
+            boundaries.add(size);
+        }
+
+        return boundaries;
+    }
+
     /**
      * Creates a SPARQL/Update patch which, when applied to the original model, result in the updated.
      *
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dataconservancy.packaging.ingest.DepositResult;
+
+/**
+ * Result of a deposit, with timings taken from {@link System#nanoTime()} at the boundaries of each phase.
+ *
+ * @author apb@jhu.edu
+ */
+class BasicDepositResult implements DepositResult {
+
+    private final Map<URI, URI> resources;
+
+    private final long started;
+
+    private final long deposited;
+
+    private final long remapped;
+
+    private final long committed;
+
+    BasicDepositResult(final Map<URI, URI> resources, final long started, final long deposited,
+            final long remapped, final long committed) {
+        this.resources = Collections.unmodifiableMap(new HashMap<>(resources));
+        this.started = started;
+        this.deposited = deposited;
+        this.remapped = remapped;
+        this.committed = committed;
+    }
+
+    @Override
+    public Map<URI, URI> getResources() {
+        return resources;
+    }
+
+    @Override
+    public Duration getDepositDuration() {
+        return Duration.ofNanos(deposited - started);
+    }
+
+    @Override
+    public Duration getRemapDuration() {
+        return Duration.ofNanos(remapped - deposited);
+    }
+
+    @Override
+    public Duration getCommitDuration() {
+        return Duration.ofNanos(committed - remapped);
+    }
+
+    @Override
+    public Duration getTotalDuration() {
+        return Duration.ofNanos(committed - started);
+    }
+
+    @Override
+    public String toString() {
+        return "Deposited " + resources.size() + " resources in " + getTotalDuration().toMillis() + "ms (deposit " +
+                getDepositDuration().toMillis() + "ms, remap " + getRemapDuration().toMillis() + "ms, commit " +
+                getCommitDuration().toMillis() + "ms)";
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+import org.dataconservancy.packaging.ingest.Depositor;
+import org.dataconservancy.packaging.ingest.PackagedResource;
+
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * Depositor that stops depositing once a deposit has been cancelled.
+ * <p>
+ * Every operation but rollback fails with a {@link CancellationException} once cancelled. Reading the content of a
+ * resource being deposited fails as well, so that a large upload stops part way through rather than running to
+ * completion.
+ * </p>
+ * <p>
+ * Bytes read from the content of resources being deposited are counted as they are read, so that the progress of a
+ * large upload can be reported.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class CancellableDepositor implements Depositor {
+
+    static final String CANCELLED = "Deposit cancelled";
+
+    private final Depositor delegate;
+
+    private final BooleanSupplier cancelled;
+
+    private final LongConsumer bytesRead;
+
+    CancellableDepositor(final Depositor delegate, final BooleanSupplier cancelled, final LongConsumer bytesRead) {
+        this.delegate = delegate;
+        this.cancelled = cancelled;
+        this.bytesRead = bytesRead;
+    }
+
+    /**
+     * Wrap a stream so that reading fails once cancelled.
+     *
+     * @param in the stream.
+     * @param cancelled Whether the deposit has been cancelled.
+     * @return cancellable stream.
+     */
+    static InputStream cancellable(final InputStream in, final BooleanSupplier cancelled) {
+        return in == null ? null : new ProxyInputStream(in) {
+
+            @Override
+            protected void beforeRead(final int n) throws InterruptedIOException {
+                if (cancelled.getAsBoolean()) {
+                    throw new InterruptedIOException(CANCELLED);
+                }
+            }
+        };
+    }
+
+    @Override
+    public DepositedResource deposit(final PackagedResource packagedResource, final URI intoContainer) {
+        check();
+        return delegate.deposit(new CancellableResource(packagedResource), intoContainer);
+    }
+
+    @Override
+    public void remap(final URI toRemap, final Map<URI, URI> localToRepository) {
+        check();
+        delegate.remap(toRemap, localToRepository);
+    }
+
+    @Override
+    public void commit() {
+        check();
+        delegate.commit();
+    }
+
+    @Override
+    public void rollback() {
+        delegate.rollback();
+    }
+
+    private void check() {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException(CANCELLED);
+        }
+    }
+
+    private class CancellableResource implements PackagedResource {
+
+        private final PackagedResource resource;
+
+        CancellableResource(final PackagedResource resource) {
+            this.resource = resource;
+        }
+
+        @Override
+        public Type getType() {
+            return resource.getType();
+        }
+
+        @Override
+        public URI getURI() {
+            return resource.getURI();
+        }
+
+        @Override
+        public Collection<PackagedResource> getChildren() {
+            return resource.getChildren();
+        }
+
+        @Override
+        public InputStream getBody() {
+            final InputStream body = cancellable(resource.getBody(), cancelled);
+            return body == null ? null : new ProxyInputStream(body) {
+
+                @Override
+                protected void afterRead(final int n) {
+                    if (n > 0) {
+                        bytesRead.accept(n);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public long getSize() {
+            return resource.getSize();
+        }
+
+        @Override
+        public String getMediaType() {
+            return resource.getMediaType();
+        }
+
+        @Override
+        public PackagedResource getDescription() {
+            return resource.getDescription() != null ? new CancellableResource(resource.getDescription()) : null;
+        }
+    }
+}
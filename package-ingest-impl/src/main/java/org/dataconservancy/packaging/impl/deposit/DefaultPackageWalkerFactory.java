@@ -18,7 +18,10 @@ package org.dataconservancy.packaging.impl.deposit;
 
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.function.Function;
 
 import org.dataconservancy.packaging.ingest.DepositNotifier;
 import org.dataconservancy.packaging.ingest.Depositor;
@@ -28,6 +31,7 @@ import org.dataconservancy.packaging.ingest.PackageAnalyzerFactory;
 import org.dataconservancy.packaging.ingest.PackageWalker;
 import org.dataconservancy.packaging.ingest.PackageWalkerFactory;
 import org.dataconservancy.packaging.ingest.PackagedResource;
+import org.dataconservancy.packaging.ingest.Span;
 
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
@@ -56,6 +60,23 @@ public class DefaultPackageWalkerFactory implements PackageWalkerFactory {
 
     @Override
     public PackageWalker newWalker(final InputStream pkg) {
+        return newWalker(analyzer -> analyzer.getContainerRoots(pkg));
+    }
+
+    @Override
+    public PackageWalker newWalker(final Path pkg) {
+        if (Files.isDirectory(pkg) && !acceptsUnpacked()) {
+            throw new IllegalArgumentException("Unpacked package " + pkg + " cannot be analyzed");
+        }
+        return newWalker(analyzer -> analyzer.getContainerRoots(pkg));
+    }
+
+    @Override
+    public boolean acceptsUnpacked() {
+        return analyzerFactory.acceptsUnpacked();
+    }
+
+    private PackageWalker newWalker(final Function<PackageAnalyzer, Collection<PackagedResource>> roots) {
         final PackageAnalyzer analyzer = analyzerFactory.newAnalyzer();
 
         return new PackageWalker() {
@@ -63,9 +84,19 @@ public class DefaultPackageWalkerFactory implements PackageWalkerFactory {
             @Override
             public void walk(final Depositor depositor, final DepositNotifier notifier) {
                 try {
-                    doWalk(depositor, notifier, analyzer.getContainerRoots(pkg), null);
+                    final Collection<PackagedResource> analyzed;
+                    try (Span span = Span.start("analyze")) {
+                        analyzed = roots.apply(analyzer);
+                    }
+                    final long[] totals = new long[3];
+                    total(analyzed, totals);
+
+                    // A total of only the known sizes would be too small; progress goes by resources instead
+                    notifier.onAnalyzed(totals[0], totals[2] == 0 ? totals[1] : -1);
+
+                    doWalk(depositor, notifier, analyzed, null);
                 } finally {
-                    try {
+                    try (Span span = Span.start("cleanup")) {
                         analyzer.cleanUpExtractionDirectory();
                     } catch (final Exception e) {
                         LOG.warn("Could not clean up extraction directory", e);
@@ -76,6 +107,33 @@ public class DefaultPackageWalkerFactory implements PackageWalkerFactory {
 
     }
 
+    // Count resources to deposit including descriptions, the total known size of their bodies, and how many are unknown
+    private static void total(final Collection<PackagedResource> resources, final long[] totals) {
+        if (resources == null) {
+            return;
+        }
+
+        for (final PackagedResource resource : resources) {
+            count(resource, totals);
+
+            final PackagedResource description = resource.getDescription();
+            if (description != null) {
+                count(description, totals);
+            }
+
+            total(resource.getChildren(), totals);
+        }
+    }
+
+    private static void count(final PackagedResource resource, final long[] totals) {
+        totals[0]++;
+        if (resource.getSize() >= 0) {
+            totals[1] += resource.getSize();
+        } else {
+            totals[2]++;
+        }
+    }
+
     private static void doWalk(final Depositor depositer, final DepositNotifier notify,
             final Collection<PackagedResource> packedResources,
             final URI into) {
@@ -83,7 +141,11 @@ public class DefaultPackageWalkerFactory implements PackageWalkerFactory {
         for (final PackagedResource packagedResource : packedResources) {
 
             // Deposit the current node
-            final DepositedResource result = depositer.deposit(packagedResource, into);
+            final DepositedResource result;
+            try (Span span = Span.start("resource").with("uri", packagedResource.getURI())
+                    .with("type", packagedResource.getType())) {
+                result = depositer.deposit(packagedResource, into);
+            }
 
             // Notify as appropriate
             notify.onDeposit(result.uri, packagedResource);
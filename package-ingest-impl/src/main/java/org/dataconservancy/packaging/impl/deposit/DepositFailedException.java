@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl.deposit;
+
+/**
+ * Detail of the {@link org.dataconservancy.packaging.ingest.EventType#ERROR} event of a failed deposit.
+ * <p>
+ * Its cause is the error that failed the deposit, and it carries the performance report of the deposit up to that
+ * point. Like the detail of a successful deposit, its string form is a summary line, here the cause, followed by
+ * the report as a single line of JSON.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class DepositFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient DepositReport report;
+
+    DepositFailedException(final Throwable cause, final DepositReport report) {
+        super(String.valueOf(cause), cause);
+        this.report = report;
+    }
+
+    /**
+     * Get the performance report of the failed deposit.
+     *
+     * @return the report.
+     */
+    public DepositReport getReport() {
+        return report;
+    }
+
+    @Override
+    public String toString() {
+        return getMessage() + "\n" + report.toJson();
+    }
+}
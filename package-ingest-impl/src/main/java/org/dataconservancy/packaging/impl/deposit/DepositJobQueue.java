@@ -0,0 +1,579 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import org.dataconservancy.packaging.ingest.DepositJob;
+import org.dataconservancy.packaging.ingest.EventListener;
+import org.dataconservancy.packaging.ingest.EventType;
+import org.dataconservancy.packaging.ingest.PackagedResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk-journaled queue of deposit jobs, performed by a fixed pool of workers.
+ * <p>
+ * Each submitted package is spooled to the queue directory, along with a small properties file recording the state
+ * of its job. Jobs that were queued when the queue was last closed are queued again when a queue is opened on the
+ * same directory. Jobs that were running are only performed again if deposits are transactional, since then an
+ * interrupted deposit left nothing behind; otherwise re-running one would deposit its resources twice, so it fails.
+ * </p>
+ * <p>
+ * Jobs are performed in order of submission, or optionally smallest first.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class DepositJobQueue implements AutoCloseable {
+
+    static final Logger LOG = LoggerFactory.getLogger(DepositJobQueue.class);
+
+    static final String JOB_SUFFIX = ".job";
+
+    static final String PACKAGE_SUFFIX = ".pkg";
+
+    private static final String RESOURCE_PREFIX = "resource.";
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    // Jobs being performed by the workers of every queue in this JVM, by journal file.  A queue that could not stop
+    // its workers leaves their jobs running, so a queue opened on the same directory must not perform them again.
+    private static final Map<Path, Job> PERFORMING = new ConcurrentHashMap<>();
+
+    /** Default number of workers */
+    public static final int DEFAULT_WORKERS = 2;
+
+    /** Default number of hours to retain completed jobs */
+    public static final int DEFAULT_RETENTION_HOURS = 72;
+
+    /** Performs the deposit of a package */
+    @FunctionalInterface
+    public interface Deposit {
+
+        /**
+         * Deposit a package.
+         *
+         * @param container Container to deposit into.
+         * @param pkg Package content.
+         * @param listener Deposit event listener.
+         * @param cancelled Whether the deposit has been cancelled, because the queue is closing.
+         */
+        void perform(URI container, InputStream pkg, EventListener listener, BooleanSupplier cancelled);
+    }
+
+    private final Path dir;
+
+    private final Deposit deposit;
+
+    private final boolean smallestFirst;
+
+    private final boolean rerunInterrupted;
+
+    private final long retentionMillis;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final ThreadPoolExecutor workers;
+
+    private volatile boolean closed;
+
+    private volatile boolean cancelled;
+
+    // Whether close() gave up waiting for the workers, guarded by this queue
+    private boolean abandoned;
+
+    long closeTimeoutMillis = TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS);
+
+    /**
+     * Open a job queue, re-queuing any unfinished jobs found in its directory.
+     *
+     * @param dir Queue directory. Will be created if it does not exist.
+     * @param workers Number of jobs performed concurrently.
+     * @param smallestFirst Whether to perform smaller packages first, rather than in order of submission.
+     * @param retentionHours Number of hours to retain the status of completed jobs.
+     * @param transactional Whether deposits are only committed upon success, so interrupted jobs can be re-run.
+     * @param deposit Performs the deposit of a package.
+     */
+    public DepositJobQueue(final Path dir, final int workers, final boolean smallestFirst, final int retentionHours,
+            final boolean transactional, final Deposit deposit) {
+        this.dir = dir;
+        this.deposit = deposit;
+        this.smallestFirst = smallestFirst;
+        this.rerunInterrupted = transactional;
+        this.retentionMillis = TimeUnit.HOURS.toMillis(retentionHours);
+
+        final int threads = workers > 0 ? workers : DEFAULT_WORKERS;
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>());
+
+        try {
+            Files.createDirectories(dir);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not create deposit job directory " + dir, e);
+        }
+
+        recover();
+    }
+
+    /**
+     * Submit a package for deposit.
+     *
+     * @param container Container to deposit into.
+     * @param pkg Package content. Read fully before returning.
+     * @param size Expected payload size of the package, or zero or less to use the size of the package itself.
+     * @param listener Listener notified of events as the job is performed.
+     * @return the submitted job.
+     */
+    public DepositJob submit(final URI container, final InputStream pkg, final long size,
+            final EventListener listener) {
+        final String id = UUID.randomUUID().toString();
+        final Path spool = dir.resolve(id + PACKAGE_SUFFIX);
+
+        final long packageSize;
+        try {
+            Files.copy(pkg, spool);
+            packageSize = Files.size(spool);
+        } catch (final IOException e) {
+            delete(spool);
+            throw new RuntimeException("Could not spool package for deposit job " + id, e);
+        }
+
+        final Job job = new Job(id, container, size > 0 ? size : packageSize, sequence.getAndIncrement());
+        job.listener = listener;
+
+        jobs.put(id, job);
+        save(job);
+        workers.execute(new Task(job));
+
+        LOG.debug("Queued deposit job {} of {} bytes into {}", id, job.size, container);
+
+        purge();
+
+        return job;
+    }
+
+    /**
+     * Look up a job.
+     *
+     * @param id Job ID.
+     * @return the job, or null if there is no such job.
+     */
+    public DepositJob get(final String id) {
+        return jobs.get(id);
+    }
+
+    // Number of jobs being performed
+    int running() {
+        return workers.getActiveCount();
+    }
+
+    // Number of jobs waiting for a worker
+    int waiting() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Stop performing jobs.
+     * <p>
+     * Jobs that have not started remain queued on disk. Running jobs are given a short time to finish, then are
+     * cancelled and given the same time again to stop. Cancelled jobs are queued again if deposits are transactional,
+     * and fail otherwise. A job still running after that is left to finish, and is not performed by a queue opened on
+     * the same directory meanwhile.
+     * </p>
+     */
+    @Override
+    public void close() {
+        closed = true;
+        workers.getQueue().clear();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Deposit jobs still running after {} ms, cancelling", closeTimeoutMillis);
+                cancelled = true;
+                workers.shutdownNow();
+                if (!workers.awaitTermination(closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    LOG.warn("Deposit jobs still running after being cancelled, leaving them to finish");
+                }
+            }
+        } catch (final InterruptedException e) {
+            cancelled = true;
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            abandoned = !workers.isTerminated();
+        }
+    }
+
+    private void perform(final Job job) {
+        if (closed) {
+            return;
+        }
+
+        final Path journal = journal(job.id);
+        PERFORMING.put(journal, job);
+        try {
+            job.state = DepositJob.State.RUNNING;
+            save(job);
+
+            LOG.debug("Starting deposit job {}", job.id);
+
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(dir.resolve(job.id +
+                    PACKAGE_SUFFIX)))) {
+                deposit.perform(job.container, in, job, () -> cancelled);
+            } catch (final Exception e) {
+                LOG.warn("Deposit job {} failed", job.id, e);
+                job.fail(e);
+            }
+
+            synchronized (this) {
+                if (cancelled && job.state != DepositJob.State.SUCCEEDED) {
+                    interrupted(job);
+                    return;
+                }
+            }
+
+            if (job.state == DepositJob.State.RUNNING) {
+                job.fail("Deposit ended without completing");
+            }
+
+            job.finished = System.currentTimeMillis();
+            save(job);
+            delete(dir.resolve(job.id + PACKAGE_SUFFIX));
+
+            LOG.debug("Deposit job {} {}", job.id, job.state);
+        } finally {
+            PERFORMING.remove(journal);
+        }
+    }
+
+    /*
+     * A job cancelled by closing the queue is queued again, to be performed when a queue is next opened on this
+     * directory, if its deposit was rolled back.  If close() has already given up on it, a new queue may have been
+     * opened without it, so it fails.
+     */
+    private void interrupted(final Job job) {
+        if (rerunInterrupted && !abandoned) {
+            LOG.info("Deposit job {} was cancelled, and remains queued", job.id);
+            job.error = null;
+            job.state = DepositJob.State.QUEUED;
+            save(job);
+        } else {
+            LOG.warn("Deposit job {} was cancelled, and may have partially deposited its package", job.id);
+            finish(job, "Deposit was interrupted, and may have partially deposited the package");
+            delete(dir.resolve(job.id + PACKAGE_SUFFIX));
+        }
+    }
+
+    // Re-queue unfinished jobs from a previous queue on the same directory, if that is safe
+    private void recover() {
+        final List<Job> unfinished = new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> p.getFileName().toString().endsWith(JOB_SUFFIX)).forEach(file -> {
+                // A job still being performed by a closed queue is its own, so is only tracked here
+                final Job performing = PERFORMING.get(file.toAbsolutePath().normalize());
+                final Job job = performing != null ? performing : load(file);
+                if (job != null) {
+                    jobs.put(job.id, job);
+                    if (performing == null && (job.state == DepositJob.State.QUEUED ||
+                            job.state == DepositJob.State.RUNNING)) {
+                        unfinished.add(job);
+                    }
+                    sequence.updateAndGet(s -> Math.max(s, job.sequence + 1));
+                }
+            });
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not read deposit job directory " + dir, e);
+        }
+
+        unfinished.sort(Comparator.comparingLong(job -> job.sequence));
+
+        for (final Job job : unfinished) {
+            if (!Files.exists(dir.resolve(job.id + PACKAGE_SUFFIX))) {
+                finish(job, "Package content was lost before the deposit completed");
+            } else if (job.state == DepositJob.State.RUNNING && !rerunInterrupted) {
+                LOG.warn("Deposit job {} was interrupted, and may have partially deposited its package", job.id);
+                finish(job, "Deposit was interrupted, and may have partially deposited the package");
+                delete(dir.resolve(job.id + PACKAGE_SUFFIX));
+            } else {
+                LOG.info("Re-queuing unfinished deposit job {}", job.id);
+                job.state = DepositJob.State.QUEUED;
+                workers.execute(new Task(job));
+            }
+        }
+
+        purge();
+    }
+
+    private void finish(final Job job, final String error) {
+        job.fail(error);
+        job.finished = System.currentTimeMillis();
+        save(job);
+    }
+
+    // Forget completed jobs past their retention time
+    private void purge() {
+        final long cutoff = System.currentTimeMillis() - retentionMillis;
+
+        jobs.values().removeIf(job -> {
+            if (job.finished > 0 && job.finished < cutoff) {
+                delete(dir.resolve(job.id + JOB_SUFFIX));
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void save(final Job job) {
+        final Properties props = new Properties();
+        props.setProperty("id", job.id);
+        props.setProperty("container", job.container != null ? job.container.toString() : "");
+        props.setProperty("size", Long.toString(job.size));
+        props.setProperty("sequence", Long.toString(job.sequence));
+        props.setProperty("state", job.state.name());
+        props.setProperty("deposited", Integer.toString(job.deposited.get()));
+        props.setProperty("remapped", Integer.toString(job.remapped.get()));
+        props.setProperty("finished", Long.toString(job.finished));
+        if (job.error != null) {
+            props.setProperty("error", job.error);
+        }
+        if (job.state == DepositJob.State.SUCCEEDED) {
+            job.getResources().forEach((local, deposited) -> props.setProperty(RESOURCE_PREFIX + local, deposited
+                    .toString()));
+        }
+
+        final Path file = journal(job.id);
+        try {
+            final Path tmp = Files.createTempFile(dir, job.id, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                props.store(out, null);
+            }
+            Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not journal deposit job " + job.id, e);
+        }
+    }
+
+    private Path journal(final String id) {
+        return dir.resolve(id + JOB_SUFFIX).toAbsolutePath().normalize();
+    }
+
+    private static Job load(final Path file) {
+        final Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+
+            final String container = props.getProperty("container");
+            final Job job = new Job(props.getProperty("id"),
+                    container.isEmpty() ? null : URI.create(container),
+                    Long.parseLong(props.getProperty("size")),
+                    Long.parseLong(props.getProperty("sequence")));
+            job.state = DepositJob.State.valueOf(props.getProperty("state"));
+            job.deposited.set(Integer.parseInt(props.getProperty("deposited")));
+            job.remapped.set(Integer.parseInt(props.getProperty("remapped")));
+            job.finished = Long.parseLong(props.getProperty("finished"));
+            job.error = props.getProperty("error");
+
+            props.stringPropertyNames().stream()
+                    .filter(key -> key.startsWith(RESOURCE_PREFIX))
+                    .forEach(key -> job.resources.put(URI.create(key.substring(RESOURCE_PREFIX.length())), URI
+                            .create(props.getProperty(key))));
+
+            return job;
+        } catch (final Exception e) {
+            LOG.warn("Could not read deposit job {}, ignoring", file, e);
+            return null;
+        }
+    }
+
+    private static void delete(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException e) {
+            LOG.warn("Could not delete {}", file, e);
+        }
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+
+        final Job job;
+
+        Task(final Job job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            perform(job);
+        }
+
+        @Override
+        public int compareTo(final Task other) {
+            if (smallestFirst && job.size != other.job.size) {
+                return Long.compare(job.size, other.job.size);
+            }
+            return Long.compare(job.sequence, other.job.sequence);
+        }
+    }
+
+    // Job state, updated by listening to the events of its deposit
+    static class Job implements DepositJob, EventListener {
+
+        final String id;
+
+        final URI container;
+
+        final long size;
+
+        final long sequence;
+
+        final AtomicInteger deposited = new AtomicInteger();
+
+        final AtomicInteger remapped = new AtomicInteger();
+
+        final Map<URI, URI> resources = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        volatile State state = State.QUEUED;
+
+        volatile String error;
+
+        volatile long finished;
+
+        volatile EventListener listener;
+
+        Job(final String id, final URI container, final long size, final long sequence) {
+            this.id = id;
+            this.container = container;
+            this.size = size;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void onEvent(final EventType type, final URI repositoryResource, final PackagedResource resource,
+                final Object detail) {
+            switch (type) {
+            case DEPOSIT:
+                deposited.incrementAndGet();
+                if (resource != null) {
+                    resources.put(resource.getURI(), repositoryResource);
+                }
+                break;
+            case REMAP:
+                remapped.incrementAndGet();
+                break;
+            case SUCCESS:
+                state = State.SUCCEEDED;
+                break;
+            case ERROR:
+                fail(detail);
+                break;
+            default:
+            }
+
+            final EventListener l = listener;
+            if (l != null) {
+                l.onEvent(type, repositoryResource, resource, detail);
+            }
+        }
+
+        void fail(final Object cause) {
+            // The status of a job has no room for the performance report a failure carries
+            if (cause instanceof DepositFailedException) {
+                error = String.valueOf(((DepositFailedException) cause).getCause());
+            } else {
+                error = String.valueOf(cause);
+            }
+            state = State.FAILED;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public State getState() {
+            return state;
+        }
+
+        @Override
+        public URI getContainer() {
+            return container;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public int getDepositedCount() {
+            return deposited.get();
+        }
+
+        @Override
+        public int getRemappedCount() {
+            return remapped.get();
+        }
+
+        @Override
+        public Map<URI, URI> getResources() {
+            if (state != State.SUCCEEDED) {
+                return Collections.emptyMap();
+            }
+            synchronized (resources) {
+                return new LinkedHashMap<>(resources);
+            }
+        }
+
+        @Override
+        public String getError() {
+            return error;
+        }
+    }
+}
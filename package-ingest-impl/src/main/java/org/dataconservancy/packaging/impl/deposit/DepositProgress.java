@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import java.time.Instant;
+
+/**
+ * Detail of a {@link org.dataconservancy.packaging.ingest.EventType#PROGRESS} event: how much of a package has been
+ * deposited so far, and when it is expected to finish.
+ * <p>
+ * Its string form gives each figure on its own line, e.g.
+ * </p>
+ *
+ * <pre>
+ * bytes 1048576 of 4194304
+ * resources 12 of 40
+ * bytesPerSecond 524288
+ * eta 2017-05-01T12:00:06Z
+ * </pre>
+ * <p>
+ * Totals are omitted until the package has been analyzed, and the estimated completion time until there is enough
+ * progress to base it on.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public final class DepositProgress {
+
+    private final long bytes;
+
+    private final long bytesTotal;
+
+    private final long resources;
+
+    private final long resourcesTotal;
+
+    private final long bytesPerSecond;
+
+    private final Instant eta;
+
+    DepositProgress(final long bytes, final long bytesTotal, final long resources, final long resourcesTotal,
+            final long bytesPerSecond, final Instant eta) {
+        this.bytes = bytes;
+        this.bytesTotal = bytesTotal;
+        this.resources = resources;
+        this.resourcesTotal = resourcesTotal;
+        this.bytesPerSecond = bytesPerSecond;
+        this.eta = eta;
+    }
+
+    /**
+     * Get the number of bytes of resource bodies uploaded so far.
+     *
+     * @return number of bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the total size of resource bodies to upload.
+     *
+     * @return number of bytes, or -1 if not yet known.
+     */
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    /**
+     * Get the number of resources deposited so far.
+     *
+     * @return number of resources.
+     */
+    public long getResources() {
+        return resources;
+    }
+
+    /**
+     * Get the number of resources to deposit.
+     *
+     * @return number of resources, or -1 if not yet known.
+     */
+    public long getResourcesTotal() {
+        return resourcesTotal;
+    }
+
+    /**
+     * Get the rate bytes have been uploaded at since the previous progress event.
+     *
+     * @return bytes per second.
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Get when the deposit is expected to have deposited every resource.
+     *
+     * @return expected time, or null if it cannot yet be estimated.
+     */
+    public Instant getEstimatedCompletion() {
+        return eta;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder progress = new StringBuilder();
+        progress.append("bytes ").append(bytes);
+        if (bytesTotal >= 0) {
+            progress.append(" of ").append(bytesTotal);
+        }
+        progress.append("\nresources ").append(resources);
+        if (resourcesTotal >= 0) {
+            progress.append(" of ").append(resourcesTotal);
+        }
+        progress.append("\nbytesPerSecond ").append(bytesPerSecond);
+        if (eta != null) {
+            progress.append("\neta ").append(eta);
+        }
+        return progress.toString();
+    }
+}
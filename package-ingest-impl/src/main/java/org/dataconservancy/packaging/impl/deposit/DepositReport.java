@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.IntSupplier;
+
+import org.dataconservancy.packaging.ingest.Span;
+import org.dataconservancy.packaging.ingest.SpanExporter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Performance report of a single package deposit, compiled from the spans of its trace.
+ * <p>
+ * Gives the time spent in each phase (extract, analyze, deposit, cleanup, remap, commit or rollback), the number
+ * and bytes of resources deposited by type, throughput, the slowest resources, repository requests by operation and
+ * how many failed, and the most deposits being performed at once while this one was. Phase times are exclusive:
+ * analysis does not include extraction, and deposit does not include analysis or clean up.
+ * </p>
+ * <p>
+ * Its string form is a summary line, followed by the report as a single line of JSON.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public final class DepositReport implements SpanExporter {
+
+    /** Default number of slowest resources reported */
+    public static final int DEFAULT_SLOWEST = 10;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final String[] PHASES = { "extract", "analyze", "deposit", "cleanup", "remap", "commit",
+            "rollback" };
+
+    private final String summary;
+
+    private final int slowestCount;
+
+    private final IntSupplier concurrency;
+
+    private final Map<String, Long> phaseNanos = new HashMap<>();
+
+    private final Map<String, long[]> byType = new TreeMap<>();
+
+    private final Map<String, Long> requests = new TreeMap<>();
+
+    // Bytes sent by repository requests, by the span they were made within
+    private final Map<String, Long> bytesWithin = new HashMap<>();
+
+    private final PriorityQueue<Timing> slowest = new PriorityQueue<>(Comparator.comparingLong(t -> t.nanos));
+
+    private URI container;
+
+    private String status = "incomplete";
+
+    private String error;
+
+    private long totalNanos;
+
+    private long extractedBytes;
+
+    private long failedRequests;
+
+    private int peakConcurrency;
+
+    /**
+     * Start a report.
+     *
+     * @param summary Summary of the deposit's outcome.
+     * @param slowest Number of slowest resources to report.
+     * @param concurrency Number of deposits currently being performed.
+     */
+    DepositReport(final String summary, final int slowest, final IntSupplier concurrency) {
+        this.summary = summary;
+        this.slowestCount = slowest;
+        this.concurrency = concurrency;
+        this.peakConcurrency = concurrency.getAsInt();
+    }
+
+    @Override
+    public void export(final Span span) {
+        peakConcurrency = Math.max(peakConcurrency, concurrency.getAsInt());
+
+        final String name = span.getName();
+        final Map<String, Object> attributes = span.getAttributes();
+
+        if (name.startsWith("repository.")) {
+            requests.merge(name.substring("repository.".length()), 1L, Long::sum);
+            if (!isSuccess(attributes.get("status"))) {
+                failedRequests++;
+            }
+            if (attributes.get("bytes") instanceof Long) {
+                bytesWithin.merge(span.getParentId(), (Long) attributes.get("bytes"), Long::sum);
+            }
+        } else if ("resource".equals(name)) {
+            final Long bytes = bytesWithin.remove(span.getSpanId());
+            final Timing timing = new Timing(String.valueOf(attributes.get("uri")),
+                    String.valueOf(attributes.get("type")), span.getDurationNanos(), bytes != null ? bytes : 0);
+
+            final long[] counts = byType.computeIfAbsent(timing.type, t -> new long[2]);
+            counts[0]++;
+            counts[1] += timing.bytes;
+
+            slowest.add(timing);
+            if (slowest.size() > slowestCount) {
+                slowest.poll();
+            }
+        } else if ("package".equals(name)) {
+            container = (URI) attributes.get("container");
+            status = String.valueOf(attributes.get("status"));
+            error = attributes.get("error") != null ? attributes.get("error").toString() : null;
+            totalNanos = span.getDurationNanos();
+        } else {
+            phaseNanos.merge(name, span.getDurationNanos(), Long::sum);
+            if ("extract".equals(name) && attributes.get("bytes") instanceof Long) {
+                extractedBytes += (Long) attributes.get("bytes");
+            }
+        }
+    }
+
+    private static boolean isSuccess(final Object status) {
+        return status != null && status.toString().startsWith("2");
+    }
+
+    // Time spent in a phase, less the time spent in the phase nested within it
+    private long exclusiveNanos(final String phase) {
+        final long nanos = phaseNanos.getOrDefault(phase, 0L);
+        if ("analyze".equals(phase)) {
+            return nanos - phaseNanos.getOrDefault("extract", 0L);
+        } else if ("deposit".equals(phase)) {
+            return nanos - phaseNanos.getOrDefault("analyze", 0L) - phaseNanos.getOrDefault("cleanup", 0L);
+        }
+        return nanos;
+    }
+
+    /**
+     * Get the number of resources deposited.
+     *
+     * @return number of resources.
+     */
+    public long getResourceCount() {
+        return byType.values().stream().mapToLong(c -> c[0]).sum();
+    }
+
+    /**
+     * Get the number of bytes sent to the repository in the bodies of deposited resources.
+     *
+     * @return number of bytes.
+     */
+    public long getByteCount() {
+        return byType.values().stream().mapToLong(c -> c[1]).sum();
+    }
+
+    /**
+     * Get the most deposits performed at once while this one was.
+     *
+     * @return number of deposits, including this one.
+     */
+    public int getPeakConcurrency() {
+        return peakConcurrency;
+    }
+
+    /**
+     * Get the slowest resources, slowest first.
+     *
+     * @return URIs of the slowest packaged resources.
+     */
+    public List<URI> getSlowest() {
+        final List<URI> uris = new ArrayList<>();
+        for (final Timing timing : sortedSlowest()) {
+            uris.add(URI.create(timing.uri));
+        }
+        return uris;
+    }
+
+    private List<Timing> sortedSlowest() {
+        final List<Timing> sorted = new ArrayList<>(slowest);
+        sorted.sort(Comparator.comparingLong((Timing t) -> t.nanos).reversed());
+        return sorted;
+    }
+
+    /**
+     * Render the report as JSON.
+     *
+     * @return JSON object.
+     */
+    public String toJson() {
+        final double seconds = totalNanos / 1e9;
+
+        final StringWriter json = new StringWriter();
+        try (JsonGenerator out = JSON.createGenerator(json)) {
+            out.writeStartObject();
+            out.writeStringField("status", status);
+            out.writeStringField("container", container != null ? container.toString() : null);
+            if (error != null) {
+                out.writeStringField("error", error);
+            }
+
+            out.writeObjectFieldStart("millis");
+            for (final String phase : PHASES) {
+                out.writeFieldName(phase);
+                out.writeNumber(millis(exclusiveNanos(phase)));
+            }
+            out.writeFieldName("total");
+            out.writeNumber(millis(totalNanos));
+            out.writeEndObject();
+
+            out.writeObjectFieldStart("resources");
+            for (final Map.Entry<String, long[]> type : byType.entrySet()) {
+                out.writeObjectFieldStart(type.getKey());
+                out.writeNumberField("count", type.getValue()[0]);
+                out.writeNumberField("bytes", type.getValue()[1]);
+                out.writeEndObject();
+            }
+            out.writeEndObject();
+
+            out.writeNumberField("extractedBytes", extractedBytes);
+            out.writeFieldName("resourcesPerSecond");
+            out.writeNumber(rate(getResourceCount(), seconds));
+            out.writeFieldName("bytesPerSecond");
+            out.writeNumber(rate(getByteCount(), seconds));
+
+            out.writeObjectFieldStart("requests");
+            for (final Map.Entry<String, Long> operation : requests.entrySet()) {
+                out.writeNumberField(operation.getKey(), operation.getValue());
+            }
+            out.writeEndObject();
+            out.writeNumberField("failedRequests", failedRequests);
+
+            out.writeArrayFieldStart("slowest");
+            for (final Timing timing : sortedSlowest()) {
+                out.writeStartObject();
+                out.writeStringField("uri", timing.uri);
+                out.writeStringField("type", timing.type);
+                out.writeFieldName("millis");
+                out.writeNumber(millis(timing.nanos));
+                out.writeNumberField("bytes", timing.bytes);
+                out.writeEndObject();
+            }
+            out.writeEndArray();
+
+            out.writeNumberField("peakConcurrency", peakConcurrency);
+            out.writeEndObject();
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not render deposit report", e);
+        }
+        return json.toString();
+    }
+
+    @Override
+    public String toString() {
+        return summary + "\n" + toJson();
+    }
+
+    private static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String rate(final long amount, final double seconds) {
+        return String.format(Locale.ROOT, "%.1f", seconds > 0 ? amount / seconds : 0);
+    }
+
+    private static class Timing {
+
+        final String uri;
+
+        final String type;
+
+        final long nanos;
+
+        final long bytes;
+
+        Timing(final String uri, final String type, final long nanos, final long bytes) {
+            this.uri = uri;
+            this.type = type;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+}
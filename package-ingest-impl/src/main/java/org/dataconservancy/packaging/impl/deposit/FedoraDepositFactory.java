@@ -31,6 +31,7 @@ import java.net.URLEncoder;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -38,13 +39,18 @@ import org.fcrepo.client.FcrepoClient;
 import org.fcrepo.client.FcrepoOperationFailedException;
 import org.fcrepo.client.FcrepoResponse;
 
+import org.dataconservancy.packaging.impl.DcsPackageAnalyzerFactory;
+import org.dataconservancy.packaging.impl.JsonLdContextCache;
 import org.dataconservancy.packaging.impl.RdfUtil;
 import org.dataconservancy.packaging.ingest.DepositFactory;
 import org.dataconservancy.packaging.ingest.Depositor;
+import org.dataconservancy.packaging.ingest.Metrics;
 import org.dataconservancy.packaging.ingest.PackagedResource;
+import org.dataconservancy.packaging.ingest.Span;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.RDFNode;
@@ -57,12 +63,20 @@ import org.apache.jena.util.ResourceUtils;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 @ObjectClassDefinition(name = "Something")
 @interface Config {
 
@@ -90,6 +104,23 @@ public class FedoraDepositFactory implements DepositFactory {
 
     private static final Logger LOG = LoggerFactory.getLogger(FedoraDepositFactory.class);
 
+    // RDF media types Fedora accepts as-is.  An empty media type is left for Fedora to sort out.
+    private static final Set<String> FEDORA_RDF_TYPES = new HashSet<>(Arrays.asList(
+            "", "text/turtle", "application/rdf+xml", "application/n-triples", "application/ld+json", "text/n3",
+            "text/rdf+n3", "application/x-turtle"));
+
+    private static final MetricRegistry METRICS = Metrics.registry();
+
+    // Number of package-local URIs found in each remapped resource
+    private static final Histogram REMAP_URIS = METRICS.histogram("remap.uris");
+
+    // Size of each PUT or PATCH body updating a remapped resource
+    private static final Histogram REMAP_BYTES = METRICS.histogram("remap.bytes");
+
+    private static final JsonLdContextCache OFFLINE_CONTEXTS = JsonLdContextCache.offline();
+
+    private DcsPackageAnalyzerFactory analyzerFactory;
+
     /**
      * Set the Fedora baseURI.
      *
@@ -108,13 +139,43 @@ public class FedoraDepositFactory implements DepositFactory {
         this.doTx = useTransactions;
     }
 
+    /**
+     * Resolve the JSON-LD contexts of package RDF as the given analyzer factory is configured to.
+     * <p>
+     * Without one, JSON-LD that refers to remote contexts cannot be parsed.
+     * </p>
+     *
+     * @param factory the analyzer factory.
+     */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY, unbind = "unsetAnalyzerFactory")
+    public synchronized void setAnalyzerFactory(final DcsPackageAnalyzerFactory factory) {
+        this.analyzerFactory = factory;
+    }
+
+    /**
+     * Stop resolving JSON-LD contexts through the given analyzer factory.
+     *
+     * @param factory analyzer factory no longer available.
+     */
+    public synchronized void unsetAnalyzerFactory(final DcsPackageAnalyzerFactory factory) {
+        // A replacement may already have been set
+        if (analyzerFactory == factory) {
+            analyzerFactory = null;
+        }
+    }
+
+    private synchronized JsonLdContextCache jsonLdContexts() {
+        return analyzerFactory != null ? analyzerFactory.getJsonLdContexts() : OFFLINE_CONTEXTS;
+    }
+
     /**
      * Use SPARQL/Update PATCH requests.
      *
      * @param useSparql if True, updates to objects will use SPARQL/Update PATCH.
      */
     public void setUseSparql(final boolean useSparql) {
-        this.setUseTransactions(true);
+        this.useSparql = useSparql;
     }
 
     public boolean doTx = true;
@@ -143,14 +204,20 @@ public class FedoraDepositFactory implements DepositFactory {
         URI txBase = URI.create(baseUri);
 
         if (doTx) {
-            try (FcrepoResponse response = client.post(URI.create(txStart)).perform()) {
+            try (FcrepoResponse response = perform("begin", URI.create(txStart), () -> client.post(URI.create(txStart))
+                    .perform())) {
                 txBase = response.getLocation();
             } catch (final Exception e) {
                 throw new RuntimeException(e);
             }
         }
 
-        return new TxDepositor(txBase, depositInto, client);
+        return new TxDepositor(txBase, depositInto, client, jsonLdContexts());
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return doTx;
     }
 
     private class TxDepositor implements Depositor {
@@ -161,11 +228,16 @@ public class FedoraDepositFactory implements DepositFactory {
 
         private final FcrepoClient client;
 
-        private TxDepositor(final URI txBase, final URI canonicalDepositInto, final FcrepoClient client) {
+        private final JsonLdContextCache contexts;
+
+        private TxDepositor(final URI txBase, final URI canonicalDepositInto, final FcrepoClient client,
+                final JsonLdContextCache contexts) {
             this.txBase = txBase;
 
             this.client = client;
 
+            this.contexts = contexts;
+
             // This is a little hairy, but there's no real alternative!
             if (canonicalDepositInto != null) {
                 txDepositInto = URI.create(canonicalDepositInto.toString().replace(baseUri, txBase.toString()));
@@ -188,7 +260,8 @@ public class FedoraDepositFactory implements DepositFactory {
                 LOG.debug("Deposited binary {} has description, finding description resource in repository",
                         deposited.uri, deposited.describedBy);
 
-                try (FcrepoResponse response = client.head(deposited.uri).perform()) {
+                try (FcrepoResponse response = perform("head", deposited.uri, () -> client.head(deposited.uri)
+                        .perform())) {
 
                     deposited.describedBy = response.getLinkHeaders("describedby").get(0);
 
@@ -204,14 +277,16 @@ public class FedoraDepositFactory implements DepositFactory {
             return deposited;
         }
 
-        private URI doDeposit(final PackagedResource resource, final URI parent) {
+        private URI doDeposit(final PackagedResource packagedResource, final URI parent) {
+            final PackagedResource resource = transcodeIfNecessary(packagedResource);
+
             LOG.debug("Depositing {} into {}", resource.getURI(), parent);
-            try (InputStream content = resource.getBody();
-                    FcrepoResponse r = client.post(parent)
+            try (CountingInputStream content = counting(resource.getBody());
+                    FcrepoResponse r = perform("post", parent, content, () -> client.post(parent)
                             .slug(fileName(resource))
                             .filename(fileNameIfBinary(resource))
                             .body(content, resource.getMediaType())
-                            .perform()) {
+                            .perform())) {
                 checkError(r);
 
                 LOG.debug("Successfully deposited {} into {} as {}", resource.getURI(), parent, r.getLocation());
@@ -221,6 +296,17 @@ public class FedoraDepositFactory implements DepositFactory {
             }
         }
 
+        // Fedora only understands text RDF serializations, so translate any others (e.g. RDF Thrift) to turtle.
+        private PackagedResource transcodeIfNecessary(final PackagedResource resource) {
+            if (!NONRDFSOURCE.equals(resource.getType()) && resource.getMediaType() != null &&
+                    !FEDORA_RDF_TYPES.contains(resource.getMediaType())) {
+                LOG.debug("Translating {} from {} to {}", resource.getURI(), resource.getMediaType(),
+                        RdfUtil.FILTERED_MEDIA_TYPE);
+                return RdfUtil.filterBody(contexts, resource);
+            }
+            return resource;
+        }
+
         private String fileNameIfBinary(final PackagedResource resource) {
             if (NONRDFSOURCE.equals(resource.getType())) {
                 return fileName(resource);
@@ -239,14 +325,15 @@ public class FedoraDepositFactory implements DepositFactory {
             mapping.put(packagedResource.getURI(), depositedResource.uri);
 
             final PackagedResource filteredDescription =
-                    RdfUtil.filterBody(packagedResource.getDescription(),
+                    RdfUtil.filterBody(contexts, packagedResource.getDescription(),
                             RdfUtil.remap(mapping));
 
-            try (
-                    FcrepoResponse r = client.put(depositedResource.describedBy)
-                            .body(filteredDescription.getBody(), filteredDescription.getMediaType())
+            try (CountingInputStream content = counting(filteredDescription.getBody());
+                    FcrepoResponse r = perform("put", depositedResource.describedBy, content, () -> client
+                            .put(depositedResource.describedBy)
+                            .body(content, filteredDescription.getMediaType())
                             .preferLenient()
-                            .perform()) {
+                            .perform())) {
                 checkError(r);
             } catch (final Exception e) {
                 throw new RuntimeException("Could not update contents of resource " +
@@ -259,7 +346,7 @@ public class FedoraDepositFactory implements DepositFactory {
 
             if (doTx) {
                 final URI commitUri = URI.create(txBase.toString() + "/fcr:tx/fcr:commit");
-                try (FcrepoResponse r = client.post(commitUri).perform()) {
+                try (FcrepoResponse r = perform("commit", commitUri, () -> client.post(commitUri).perform())) {
                     checkError(r);
                 } catch (final Exception e) {
                     throw new RuntimeException(e);
@@ -272,7 +359,8 @@ public class FedoraDepositFactory implements DepositFactory {
 
             if (doTx) {
                 final URI rollbackUri = URI.create(txBase.toString() + "/fcr:tx/fcr:rollback");
-                try (FcrepoResponse r = client.post(rollbackUri).perform()) {
+                try (FcrepoResponse r = perform("rollback", rollbackUri, () -> client.post(rollbackUri)
+                        .perform())) {
                     checkError(r);
                 } catch (final Exception e) {
                     throw new RuntimeException(e);
@@ -288,11 +376,11 @@ public class FedoraDepositFactory implements DepositFactory {
             // GET an instance of the object without server-managed or ldp containment triples.
             // It's darn near impossible to do a PUT that contains *any* of these with Fedora, so
             // use a minimal approach.
-            try (FcrepoResponse response = client.get(toRemap).preferMinimal()
+            try (FcrepoResponse response = perform("get", toRemap, () -> client.get(toRemap).preferMinimal()
                     .preferRepresentation(Collections.emptyList(), Arrays.asList(
                             URI.create("http://fedora.info/definitions/v4/repository#ServerManaged"),
                             URI.create("http://www.w3.org/ns/ldp#PreferContainment"))).accept("text/turtle")
-                    .perform()) {
+                    .perform())) {
                 RDFDataMgr.parse(StreamRDFLib.graph(updatedModel.getGraph()), response.getBody(),
                         contentTypeToLang(parse(response.getContentType()).getMimeType()));
             } catch (final Exception e) {
@@ -312,6 +400,8 @@ public class FedoraDepositFactory implements DepositFactory {
                     .filterKeep(uri -> localToRepository.containsKey(URI.create(withoutHash(uri))))
                     .toSet();
 
+            REMAP_URIS.update(localUris.size());
+
             // If we found any, re-map and update!
             if (!localUris.isEmpty()) {
                 for (final String localURI : localUris) {
@@ -324,21 +414,27 @@ public class FedoraDepositFactory implements DepositFactory {
                 if (!useSparql) {
                     final ByteArrayOutputStream out = new ByteArrayOutputStream();
                     updatedModel.write(out, "TTL");
+                    REMAP_BYTES.update(out.size());
 
-                    try (FcrepoResponse response = client
+                    try (CountingInputStream body = counting(new ByteArrayInputStream(out.toByteArray()));
+                            FcrepoResponse response = perform("put", toRemap, body, () -> client
                             .put(toRemap)
-                            .body(new ByteArrayInputStream(out.toByteArray()), "text/turtle")
+                            .body(body, "text/turtle")
                             .preferLenient()
-                            .perform()) {
+                            .perform())) {
                         checkError(response);
                     } catch (final Exception e) {
                         throw new RuntimeException(e);
                     }
                 } else {
-                    try (FcrepoResponse response = client
+                    final byte[] patch = makeSparqlPatch(originalModel, updatedModel);
+                    REMAP_BYTES.update(patch.length);
+
+                    try (CountingInputStream body = counting(new ByteArrayInputStream(patch));
+                            FcrepoResponse response = perform("patch", toRemap, body, () -> client
                             .patch(toRemap)
-                            .body(makeSparqlPatch(originalModel, updatedModel))
-                            .perform()) {
+                            .body(body)
+                            .perform())) {
                         checkError(response);
                     } catch (final Exception e) {
                         throw new RuntimeException(e);
@@ -356,8 +452,47 @@ public class FedoraDepositFactory implements DepositFactory {
         }
     }
 
+    private static FcrepoResponse perform(final String operation, final URI uri, final Request request)
+            throws FcrepoOperationFailedException {
+        return perform(operation, uri, null, request);
+    }
+
+    /*
+     * Perform a repository request, timing it as repository.<operation>, and counting its status code as
+     * repository.status.<code>. Requests that fail to get any response are counted as repository.status.error.
+     * The request is traced as a span with its URI, status, and the bytes of its body, if any.
+     */
+    private static FcrepoResponse perform(final String operation, final URI uri, final CountingInputStream body,
+            final Request request) throws FcrepoOperationFailedException {
+        final Timer.Context timer = METRICS.timer(MetricRegistry.name("repository", operation)).time();
+        final Span span = Span.start(MetricRegistry.name("repository", operation)).with("uri", uri);
+        String status = "error";
+        try {
+            final FcrepoResponse response = request.perform();
+            status = Integer.toString(response.getStatusCode());
+            return response;
+        } finally {
+            timer.stop();
+            METRICS.counter(MetricRegistry.name("repository", "status", status)).inc();
+            if (body != null) {
+                span.with("bytes", body.getByteCount());
+            }
+            span.with("status", status).close();
+        }
+    }
+
+    private static CountingInputStream counting(final InputStream in) {
+        return in != null ? new CountingInputStream(in) : null;
+    }
+
+    @FunctionalInterface
+    private interface Request {
+
+        FcrepoResponse perform() throws FcrepoOperationFailedException;
+    }
+
     // Creates a SPARQL/Update patch which, when applied to the original model, result in the updated.
-    private static InputStream makeSparqlPatch(final Model orig, final Model updated) {
+    private static byte[] makeSparqlPatch(final Model orig, final Model updated) {
         try {
             final ByteArrayOutputStream body = new ByteArrayOutputStream();
 
@@ -380,7 +515,7 @@ public class FedoraDepositFactory implements DepositFactory {
 
             IOUtils.write("}\n".getBytes(UTF_8), body);
 
-            return new ByteArrayInputStream(body.toByteArray());
+            return body.toByteArray();
         } catch (final IOException e) {
             throw new RuntimeException("Error creating spaeql patch", e);
         }
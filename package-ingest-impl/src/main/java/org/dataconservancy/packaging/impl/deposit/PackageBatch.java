@@ -0,0 +1,274 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.dataconservancy.packaging.ingest.BatchDeposit;
+import org.dataconservancy.packaging.ingest.DepositResult;
+import org.dataconservancy.packaging.ingest.Depositor;
+import org.dataconservancy.packaging.ingest.EventListener;
+import org.dataconservancy.packaging.ingest.EventType;
+import org.dataconservancy.packaging.ingest.PackagedResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deposits packages as they are added, a limited number at a time.
+ * <p>
+ * Each package is analyzed and deposited on the deposit manager's asynchronous deposit threads, so a package may be
+ * analyzed while others are still being deposited. If the batch is in one transaction, every package is deposited
+ * through the same depositor, which is only committed (or rolled back) once the batch is finished.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class PackageBatch implements BatchDeposit {
+
+    static final Logger LOG = LoggerFactory.getLogger(PackageBatch.class);
+
+    /** Default number of packages deposited at the same time */
+    static final int DEFAULT_PARALLELISM = 4;
+
+    private final SingleDepositManager manager;
+
+    private final URI container;
+
+    private final Function<String, EventListener> listeners;
+
+    private final Semaphore slots;
+
+    private final BooleanSupplier cancelled;
+
+    // Only in one transaction
+    private final Depositor transaction;
+
+    private final List<Added> added = Collections.synchronizedList(new ArrayList<>());
+
+    private final Map<String, DepositResult> results = new ConcurrentHashMap<>();
+
+    private volatile Throwable failure;
+
+    private volatile boolean finished;
+
+    PackageBatch(final SingleDepositManager manager, final URI container,
+            final Function<String, EventListener> listeners, final int parallelism, final boolean oneTransaction,
+            final BooleanSupplier cancelled) {
+        this.manager = manager;
+        this.container = container;
+        this.listeners = listeners;
+        this.slots = new Semaphore(parallelism);
+        this.cancelled = cancelled;
+        this.transaction = oneTransaction ? manager.depositor(container).get() : null;
+    }
+
+    @Override
+    public CompletableFuture<DepositResult> add(final String id, final Path pkg) {
+        if (finished) {
+            throw new IllegalStateException("Batch is already finished");
+        }
+
+        try {
+            slots.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting to deposit " + id, e);
+        }
+
+        final Added pending = new Added(id, listeners.apply(id));
+
+        LOG.debug("Depositing package {} of batch into {}", id, container);
+
+        final Supplier<Depositor> depositor = transaction != null ? () -> new Enlisted(transaction) : manager
+                .depositor(container);
+
+        pending.deposited = manager.performAsync(container, manager.walking(pkg), transaction != null ? pending
+                : pending.listener, depositor, () -> cancelled.getAsBoolean() || (transaction != null &&
+                        failure != null));
+        added.add(pending);
+
+        pending.deposited.whenComplete((result, e) -> {
+            slots.release();
+            if (e != null && failure == null) {
+                failure = e;
+            }
+
+            // Packages in their own transaction are done; in one transaction, they wait for the batch
+            if (transaction == null) {
+                if (e == null) {
+                    results.put(id, result);
+                    pending.result.complete(result);
+                } else {
+                    pending.result.completeExceptionally(e);
+                }
+            }
+        });
+
+        return pending.result;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DepositResult>> finish() {
+        finished = true;
+
+        final CompletableFuture<?>[] deposits;
+        synchronized (added) {
+            deposits = added.stream().map(a -> a.deposited).toArray(CompletableFuture[]::new);
+        }
+
+        final CompletableFuture<Map<String, DepositResult>> done = new CompletableFuture<>();
+
+        CompletableFuture.allOf(deposits).whenComplete((v, e) -> {
+            try {
+                if (transaction == null || resolveTransaction()) {
+                    done.complete(results);
+                } else {
+                    done.completeExceptionally(failure);
+                }
+            } catch (final Throwable t) {
+                LOG.warn("Could not finish batch", t);
+                done.completeExceptionally(t);
+            }
+        });
+
+        return done;
+    }
+
+    // Commit if every package was deposited, otherwise roll everything back
+    private boolean resolveTransaction() {
+
+        // A failed package's own completion callback may not have run yet
+        synchronized (added) {
+            for (final Added pending : added) {
+                if (failure == null && pending.deposited.isCompletedExceptionally()) {
+                    failure = pending.deposited.handle((r, e) -> e).getNow(null);
+                }
+            }
+        }
+
+        if (failure == null && cancelled.getAsBoolean()) {
+            failure = new CancellationException(CancellableDepositor.CANCELLED);
+        }
+
+        if (failure == null) {
+            try {
+                transaction.commit();
+            } catch (final Throwable e) {
+                LOG.info("Could not commit batch", e);
+                failure = e;
+            }
+        }
+
+        if (failure != null) {
+            try {
+                transaction.rollback();
+            } catch (final Throwable e) {
+                LOG.warn("Could not roll back batch", e);
+            }
+        }
+
+        for (final Added pending : added) {
+            // A failed deposit has no result; getNow would throw its failure
+            final DepositResult result = pending.deposited.isCompletedExceptionally() ? null : pending.deposited
+                    .getNow(null);
+            if (result == null) {
+                pending.result.completeExceptionally(failure);
+            } else if (failure == null) {
+                results.put(pending.id, result);
+                pending.listener.onEvent(EventType.SUCCESS, null, null, pending.success);
+                pending.result.complete(result);
+            } else {
+                pending.listener.onEvent(EventType.ERROR, null, null, "Batch rolled back: " + failure);
+                pending.result.completeExceptionally(failure);
+            }
+        }
+
+        return failure == null;
+    }
+
+    // A package in the batch; holds back its success event until the batch has been committed
+    private static class Added implements EventListener {
+
+        final String id;
+
+        final EventListener listener;
+
+        final CompletableFuture<DepositResult> result = new CompletableFuture<>();
+
+        CompletableFuture<DepositResult> deposited;
+
+        Object success;
+
+        Added(final String id, final EventListener listener) {
+            this.id = id;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onEvent(final EventType type, final URI repositoryResource, final PackagedResource resource,
+                final Object detail) {
+            if (EventType.SUCCESS.equals(type)) {
+                success = detail;
+            } else {
+                listener.onEvent(type, repositoryResource, resource, detail);
+            }
+        }
+    }
+
+    // Deposits a package within the batch's transaction, leaving commit and rollback to the batch
+    private static class Enlisted implements Depositor {
+
+        private final Depositor transaction;
+
+        Enlisted(final Depositor transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public DepositedResource deposit(final PackagedResource resource, final URI intoContainer) {
+            return transaction.deposit(resource, intoContainer);
+        }
+
+        @Override
+        public void remap(final URI toRemap, final Map<URI, URI> localToRepository) {
+            transaction.remap(toRemap, localToRepository);
+        }
+
+        @Override
+        public void commit() {
+            // Committed with the batch
+        }
+
+        @Override
+        public void rollback() {
+            // Rolled back with the batch
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import java.time.Instant;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dataconservancy.packaging.ingest.EventListener;
+import org.dataconservancy.packaging.ingest.EventType;
+
+/**
+ * Tracks the bytes and resources deposited from a package, and periodically notifies a listener of its
+ * {@link DepositProgress}.
+ * <p>
+ * Bytes and resources may be counted on any thread. Progress events are sent from a timer, so that a deposit that has
+ * stalled is reported as making no progress, rather than going quiet. The listener is therefore notified from a
+ * thread other than the one performing the deposit, and must not be called concurrently by it; see
+ * {@link SingleDepositManager}, which serializes the events of a deposit.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class ProgressTracker {
+
+    private final EventListener listener;
+
+    private final long intervalNanos;
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong resources = new AtomicLong();
+
+    private long bytesTotal = -1;
+
+    private long resourcesTotal = -1;
+
+    private long analyzed;
+
+    private long lastReport = System.nanoTime();
+
+    private long lastBytes;
+
+    private ScheduledFuture<?> ticking;
+
+    private boolean stopped;
+
+    /**
+     * Track the progress of a deposit.
+     *
+     * @param listener Listener to send progress events to.
+     * @param intervalMillis Milliseconds between progress events, or 0 for none.
+     */
+    ProgressTracker(final EventListener listener, final long intervalMillis) {
+        this.listener = listener;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * Send progress events every interval from the given timer, until stopped.
+     *
+     * @param timer the timer.
+     */
+    synchronized void start(final ScheduledExecutorService timer) {
+        if (intervalNanos > 0 && !stopped) {
+            ticking = timer.scheduleAtFixedRate(this::tick, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stop sending progress events. None are sent once this returns, even by a tick already underway.
+     */
+    synchronized void stop() {
+        stopped = true;
+        if (ticking != null) {
+            ticking.cancel(false);
+        }
+    }
+
+    /**
+     * Note how much there is to deposit, now that the package has been analyzed.
+     *
+     * @param resourceCount Number of resources.
+     * @param byteCount Total size of resource bodies, or -1 if not known.
+     */
+    synchronized void analyzed(final long resourceCount, final long byteCount) {
+        resourcesTotal = resourceCount;
+        bytesTotal = byteCount;
+        analyzed = System.nanoTime();
+    }
+
+    /**
+     * Note bytes read from a resource body.
+     *
+     * @param n number of bytes.
+     */
+    void read(final long n) {
+        bytes.addAndGet(n);
+    }
+
+    /** Note a resource has been deposited. */
+    void deposited() {
+        resources.incrementAndGet();
+    }
+
+    /** Notify the listener of progress since it last was, which may be none at all. */
+    synchronized void tick() {
+        if (!stopped) {
+            listener.onEvent(EventType.PROGRESS, null, null, progress(System.nanoTime()));
+        }
+    }
+
+    synchronized DepositProgress progress(final long now) {
+        final long bytesDone = bytes.get();
+        final long resourcesDone = resources.get();
+
+        final long bytesPerSecond = now > lastReport ? (bytesDone - lastBytes) * 1000000000L / (now - lastReport) : 0;
+        lastReport = now;
+        lastBytes = bytesDone;
+
+        return new DepositProgress(bytesDone, bytesTotal, resourcesDone, resourcesTotal, bytesPerSecond,
+                eta(now, bytesDone, resourcesDone));
+    }
+
+    // Extrapolate from the average rate since analysis, by bytes if sizes are known, or else by resources
+    private Instant eta(final long now, final long bytesDone, final long resourcesDone) {
+        if (resourcesTotal < 0 || now <= analyzed) {
+            return null;
+        }
+
+        final double fraction;
+        if (bytesTotal > 0 && bytesDone > 0) {
+            fraction = Math.min((double) bytesDone / bytesTotal, 1);
+        } else if (resourcesTotal > 0 && resourcesDone > 0) {
+            fraction = Math.min((double) resourcesDone / resourcesTotal, 1);
+        } else {
+            return null;
+        }
+
+        final long remainingNanos = (long) ((now - analyzed) * (1 - fraction) / fraction);
+        return Instant.now().plusNanos(remainingNanos);
+    }
+}
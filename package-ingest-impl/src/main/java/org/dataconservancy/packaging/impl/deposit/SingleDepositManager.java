@@ -16,43 +16,157 @@
 
 package org.dataconservancy.packaging.impl.deposit;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.dataconservancy.packaging.ingest.BatchDeposit;
+import org.dataconservancy.packaging.ingest.BatchDepositBuilder;
 import org.dataconservancy.packaging.ingest.DepositBuilder;
 import org.dataconservancy.packaging.ingest.DepositFactory;
+import org.dataconservancy.packaging.ingest.DepositJob;
+import org.dataconservancy.packaging.ingest.DepositNotifier;
+import org.dataconservancy.packaging.ingest.DepositResult;
 import org.dataconservancy.packaging.ingest.Depositor;
 import org.dataconservancy.packaging.ingest.EventListener;
 import org.dataconservancy.packaging.ingest.EventType;
+import org.dataconservancy.packaging.ingest.Metrics;
 import org.dataconservancy.packaging.ingest.PackageDepositManager;
 import org.dataconservancy.packaging.ingest.PackageWalker;
 import org.dataconservancy.packaging.ingest.PackageWalkerFactory;
+import org.dataconservancy.packaging.ingest.PackagedResource;
 import org.dataconservancy.packaging.ingest.PackagedResource.Type;
+import org.dataconservancy.packaging.ingest.Span;
+import org.dataconservancy.packaging.ingest.SpanExporter;
 
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+@ObjectClassDefinition(name = "org.dataconservancy.packaging.impl.deposit.SingleDepositManager",
+        description = "Deposits packages into the repository")
+@interface SingleDepositManagerConfig {
+
+    @AttributeDefinition(description = "Directory for journaling submitted deposit jobs and their packages.  If " +
+            "blank, a temporary directory is used, and submitted jobs do not survive a restart")
+    String deposit_job_dir() default "";
+
+    @AttributeDefinition(description = "Number of submitted deposit jobs performed concurrently")
+    int deposit_job_workers() default DepositJobQueue.DEFAULT_WORKERS;
+
+    @AttributeDefinition(description = "Perform submitted jobs with the smallest packages first, rather than in " +
+            "order of submission")
+    boolean deposit_job_smallest_first() default false;
+
+    @AttributeDefinition(description = "Number of hours to retain the status of completed deposit jobs")
+    int deposit_job_retention_hours() default DepositJobQueue.DEFAULT_RETENTION_HOURS;
+
+    @AttributeDefinition(description = "Number of threads performing asynchronous deposits.  Deposits beyond this " +
+            "number wait their turn without occupying a thread, and are sent a queued event")
+    int deposit_async_threads() default SingleDepositManager.DEFAULT_ASYNC_THREADS;
+
+    @AttributeDefinition(description = "Milliseconds between progress events of a deposit, giving bytes and " +
+            "resources deposited so far and an estimated completion time.  Zero for none")
+    long deposit_progress_interval_millis() default SingleDepositManager.DEFAULT_PROGRESS_INTERVAL_MILLIS;
+
+    @AttributeDefinition(description = "Number of slowest resources listed in the performance report of each " +
+            "deposit")
+    int deposit_report_slowest() default DepositReport.DEFAULT_SLOWEST;
+
+    @AttributeDefinition(description = "Directory to write the performance report of each deposit to, as a JSON " +
+            "file.  If blank, reports are not written")
+    String deposit_report_dir() default "";
+}
+
 /**
  * Manages the deposit of a single package
  *
  * @author apb@jhu.edu
  */
-@Component(immediate = true)
+@Designate(ocd = SingleDepositManagerConfig.class)
+@Component(configurationPolicy = ConfigurationPolicy.OPTIONAL, immediate = true)
 public class SingleDepositManager implements PackageDepositManager {
 
     static final Logger LOG = LoggerFactory.getLogger(SingleDepositManager.class);
 
+    private static final BooleanSupplier NOT_CANCELLED = () -> false;
+
+    /** Default number of threads performing asynchronous deposits */
+    public static final int DEFAULT_ASYNC_THREADS = 8;
+
+    /** Default milliseconds between progress events */
+    public static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 2000;
+
+    /** Metric name of the number of deposits being performed */
+    public static final String DEPOSITS_ACTIVE = "deposits.active";
+
+    /** Metric name of the number of deposits waiting for a thread */
+    public static final String DEPOSITS_QUEUED = "deposits.queued";
+
     PackageWalkerFactory walkerFactory;
 
     DepositFactory depositFactory;
 
+    private volatile DepositJobQueue jobQueue;
+
+    // Held while the job queue is replaced, which waits for running jobs; deposits of other kinds carry on meanwhile
+    private final Object jobQueueLock = new Object();
+
+    private volatile ThreadPoolExecutor asyncExecutor;
+
+    private ScheduledExecutorService progressTimer;
+
+    private final List<SpanExporter> spanExporters = new CopyOnWriteArrayList<>();
+
+    private volatile long progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL_MILLIS;
+
+    private volatile int reportSlowest = DepositReport.DEFAULT_SLOWEST;
+
+    private volatile Path reportDir;
+
+    // Deposits being performed, however they were started
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Gauge<Integer> activeGauge = this::active;
+
+    private final Gauge<Integer> queuedGauge = this::queued;
+
     /**
      * Set the walker factory.
      *
@@ -73,57 +187,554 @@ public class SingleDepositManager implements PackageDepositManager {
         this.depositFactory = df;
     }
 
-    private void depositPackageInto(final URI resource, final InputStream pkg, final EventListener listener,
-            final Map<String, Object> context) {
+    /**
+     * Configure the queue of submitted deposit jobs.
+     * <p>
+     * Any previously configured queue is closed, cancelling jobs it is still running after a grace period. Its
+     * unstarted jobs are resumed if the new queue uses the same directory. Jobs it was running are only performed
+     * again if the deposit factory is transactional, and never while the closed queue is still running them.
+     * </p>
+     *
+     * @param dir Queue directory, or null/empty for a temporary directory.
+     * @param workers Number of jobs performed concurrently.
+     * @param smallestFirst Whether to perform jobs with smaller packages first.
+     * @param retentionHours Number of hours to retain the status of completed jobs.
+     */
+    public void setJobQueue(final String dir, final int workers, final boolean smallestFirst,
+            final int retentionHours) {
+        final Path queueDir;
+        if (dir == null || dir.trim().isEmpty()) {
+            try {
+                queueDir = Files.createTempDirectory("depositJobs");
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not create temporary deposit job directory", e);
+            }
+        } else {
+            queueDir = Paths.get(dir);
+        }
+
+        // The previous queue has to stop before the new one opens, else it would recover jobs that are still running
+        synchronized (jobQueueLock) {
+            closeJobQueue();
+            jobQueue = new DepositJobQueue(queueDir, workers, smallestFirst, retentionHours, depositFactory != null &&
+                    depositFactory.isTransactional(), (container, pkg, listener, cancelled) -> perform(container,
+                            walking(pkg), listener, cancelled));
+        }
+    }
+
+    /**
+     * Add an exporter of deposit trace spans.
+     * <p>
+     * Each deposited package is traced, with a root span for the package, child spans for each phase of its deposit,
+     * and spans for each repository request within them.  Each span is given to every exporter that has been set.
+     * </p>
+     *
+     * @param exporter the exporter.
+     */
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC,
+            unbind = "unsetSpanExporter")
+    public void setSpanExporter(final SpanExporter exporter) {
+        spanExporters.add(exporter);
+    }
+
+    /**
+     * Stop tracing with the given exporter.
+     *
+     * @param exporter exporter no longer available.
+     */
+    public void unsetSpanExporter(final SpanExporter exporter) {
+        spanExporters.remove(exporter);
+    }
+
+    /**
+     * Set how often the listener of a deposit is sent a progress event.
+     * <p>
+     * Progress events are sent from a timer thread, whether or not the deposit is making progress. The listener is
+     * still never called concurrently.
+     * </p>
+     *
+     * @param millis Milliseconds between progress events, or 0 for none.
+     */
+    public void setProgressInterval(final long millis) {
+        this.progressIntervalMillis = Math.max(millis, 0);
+    }
+
+    /**
+     * Set the number of slowest resources listed in the performance report of each deposit.
+     *
+     * @param slowest Number of resources.
+     */
+    public void setReportSlowest(final int slowest) {
+        this.reportSlowest = slowest >= 0 ? slowest : DepositReport.DEFAULT_SLOWEST;
+    }
+
+    /**
+     * Set the directory performance reports are written to.
+     * <p>
+     * The report of each deposit, successful or not, is written as a JSON file named for the trace of the deposit.
+     * </p>
+     *
+     * @param dir Report directory, or null/empty to not write reports.
+     */
+    public void setReportDir(final String dir) {
+        if (dir == null || dir.trim().isEmpty()) {
+            reportDir = null;
+            return;
+        }
+
+        try {
+            reportDir = Files.createDirectories(Paths.get(dir));
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not create deposit report directory " + dir, e);
+        }
+    }
+
+    /**
+     * Set the number of threads performing asynchronous deposits.
+     * <p>
+     * Deposits beyond this number wait for a thread. Their listeners are sent a {@link EventType#QUEUED} event, and
+     * they are counted in the {@value #DEPOSITS_QUEUED} metric. Deposits already started on a previously configured
+     * pool run to completion.
+     * </p>
+     *
+     * @param threads Number of threads, or zero or less for the default.
+     */
+    public synchronized void setAsyncThreads(final int threads) {
+        closeAsyncExecutor();
+        final int size = threads > 0 ? threads : DEFAULT_ASYNC_THREADS;
+        asyncExecutor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    final Thread t = new Thread(r, "async-deposit");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    // Deposits being performed, whether asynchronous or submitted as jobs
+    private int active() {
+        final ThreadPoolExecutor async = asyncExecutor;
+        final DepositJobQueue jobs = jobQueue;
+        return (async != null ? async.getActiveCount() : 0) + (jobs != null ? jobs.running() : 0);
+    }
+
+    // Deposits waiting for a thread, whether asynchronous or submitted as jobs
+    private int queued() {
+        final ThreadPoolExecutor async = asyncExecutor;
+        final DepositJobQueue jobs = jobQueue;
+        return (async != null ? async.getQueue().size() : 0) + (jobs != null ? jobs.waiting() : 0);
+    }
+
+    /**
+     * Initialize.
+     *
+     * @param config OSGi DS-style configuration
+     */
+    @Activate
+    @Modified
+    public void init(final SingleDepositManagerConfig config) {
+        setJobQueue(config.deposit_job_dir(), config.deposit_job_workers(), config.deposit_job_smallest_first(),
+                config.deposit_job_retention_hours());
+        setAsyncThreads(config.deposit_async_threads());
+        setProgressInterval(config.deposit_progress_interval_millis());
+        setReportSlowest(config.deposit_report_slowest());
+        setReportDir(config.deposit_report_dir());
+        registerMetrics();
+    }
+
+    /**
+     * Report active and queued deposits as the {@value #DEPOSITS_ACTIVE} and {@value #DEPOSITS_QUEUED} metrics, unless
+     * another manager already does. They are reported until {@link #shutdown()}.
+     */
+    public void registerMetrics() {
+        final MetricRegistry metrics = Metrics.registry();
+        synchronized (metrics) {
+            if (!metrics.getNames().contains(DEPOSITS_ACTIVE)) {
+                metrics.register(DEPOSITS_ACTIVE, activeGauge);
+                metrics.register(DEPOSITS_QUEUED, queuedGauge);
+            }
+        }
+    }
+
+    /** Stop performing submitted jobs and asynchronous deposits, and reporting metrics. */
+    @Deactivate
+    public void shutdown() {
+        closeAsyncExecutor();
+        closeJobQueue();
+        closeProgressTimer();
+        removeMetrics();
+    }
+
+    // Only this manager's gauges are removed; those of a manager that replaced it are left alone
+    private void removeMetrics() {
+        final MetricRegistry metrics = Metrics.registry();
+        synchronized (metrics) {
+            if (metrics.getMetrics().get(DEPOSITS_ACTIVE) == activeGauge) {
+                metrics.remove(DEPOSITS_ACTIVE);
+                metrics.remove(DEPOSITS_QUEUED);
+            }
+        }
+    }
+
+    // Jobs submitted meanwhile wait for the queue to be replaced, rather than going to a closed one
+    private void closeJobQueue() {
+        synchronized (jobQueueLock) {
+            final DepositJobQueue queue = jobQueue;
+            jobQueue = null;
+            if (queue != null) {
+                queue.close();
+            }
+        }
+    }
+
+    private synchronized void closeAsyncExecutor() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+    }
+
+    private synchronized void closeProgressTimer() {
+        if (progressTimer != null) {
+            progressTimer.shutdown();
+            progressTimer = null;
+        }
+    }
+
+    private DepositJobQueue jobQueue() {
+        final DepositJobQueue queue = jobQueue;
+        if (queue != null) {
+            return queue;
+        }
+
+        synchronized (jobQueueLock) {
+            // Reasonable default in case it's not configured
+            if (jobQueue == null) {
+                setJobQueue(null, DepositJobQueue.DEFAULT_WORKERS, false, DepositJobQueue.DEFAULT_RETENTION_HOURS);
+            }
+            return jobQueue;
+        }
+    }
+
+    // One thread sends the progress events of every deposit
+    private synchronized ScheduledExecutorService progressTimer() {
+        if (progressTimer == null) {
+            progressTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "deposit-progress");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return progressTimer;
+    }
+
+    private synchronized ThreadPoolExecutor asyncExecutor() {
+        if (asyncExecutor == null) {
+            setAsyncThreads(DEFAULT_ASYNC_THREADS);
+        }
+        return asyncExecutor;
+    }
+
+    // Walks a package stream, which can no longer be read once the deposit is cancelled
+    private Function<BooleanSupplier, PackageWalker> walking(final InputStream pkg) {
+        return cancelled -> walkerFactory.newWalker(CancellableDepositor.cancellable(pkg, cancelled));
+    }
+
+    // Walks a package file or directory in place
+    Function<BooleanSupplier, PackageWalker> walking(final Path pkg) {
+        return cancelled -> walkerFactory.newWalker(pkg);
+    }
+
+    // Perform a deposit whose failure is only reported to the listener
+    private void perform(final URI resource, final Function<BooleanSupplier, PackageWalker> pkg,
+            final EventListener listener, final BooleanSupplier cancelled) {
+        try {
+            depositPackageInto(resource, pkg, listener, depositor(resource), cancelled);
+        } catch (final CompletionException e) {
+            LOG.debug("Deposit into {} failed", resource, e.getCause());
+        }
+    }
+
+    CompletableFuture<DepositResult> performAsync(final URI resource,
+            final Function<BooleanSupplier, PackageWalker> pkg, final EventListener listener,
+            final Supplier<Depositor> depositor, final BooleanSupplier cancelled) {
+
+        final CompletableFuture<DepositResult> result = new CompletableFuture<>();
+        final BooleanSupplier cancelledOrAbandoned = () -> result.isCancelled() || cancelled.getAsBoolean();
+
+        // Held until a deposit that has to wait for a thread is notified of it, so that is its first event
+        final Object queuing = new Object();
+        final Runnable task = () -> {
+            synchronized (queuing) {
+                if (result.isDone()) {
+                    return;
+                }
+            }
+
+            try {
+                result.complete(depositPackageInto(resource, pkg, listener, depositor, cancelledOrAbandoned));
+            } catch (final CompletionException e) {
+                result.completeExceptionally(e.getCause());
+            } catch (final Throwable e) {
+                result.completeExceptionally(e);
+            }
+        };
+
+        final ThreadPoolExecutor executor = asyncExecutor();
+        synchronized (queuing) {
+            executor.execute(task);
+
+            final int waiting = executor.getQueue().size();
+            if (executor.getQueue().contains(task)) {
+                LOG.info("All {} asynchronous deposit threads are busy, {} deposits are waiting", executor
+                        .getMaximumPoolSize(), waiting);
+                listener.onEvent(EventType.QUEUED, null, null, "Waiting for one of " + executor
+                        .getMaximumPoolSize() + " deposit threads, behind " + (waiting - 1) + " other deposits");
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * Deposit a package, notifying the listener of each event including failure. A failure is also thrown as a
+     * CompletionException, after the deposit has been rolled back.  Success is notified with the deposit's performance
+     * report, and failure with a DepositFailedException carrying it.
+     */
+    private DepositResult depositPackageInto(final URI resource, final Function<BooleanSupplier, PackageWalker> pkg,
+            final EventListener listener, final Supplier<Depositor> newDepositor, final BooleanSupplier cancelled) {
+
+        inFlight.incrementAndGet();
+
+        // Each package is a trace, with a span for each phase of its deposit. The report is compiled from its spans.
+        final DepositReport report = new DepositReport("Ingest successfully completed", reportSlowest,
+                inFlight::get);
+        final List<SpanExporter> exporters = new ArrayList<>(spanExporters);
+        final Span trace = Span.root("package", new SpanExporter() {
+
+            @Override
+            public void start(final Span span) {
+                exporters.forEach(e -> e.start(span));
+            }
+
+            @Override
+            public void export(final Span span) {
+                report.export(span);
+                exporters.forEach(e -> e.export(span));
+            }
+        }).with("container", resource);
+
+        DepositResult result = null;
+        CompletionException failure = null;
+        try {
+            result = depositPackage(pkg, listener, newDepositor, cancelled);
+            trace.with("resources", result.getResources().size()).with("status", "success");
+        } catch (final CompletionException e) {
+            trace.with("status", "error").with("error", String.valueOf(e.getCause()));
+            failure = e;
+        } finally {
+            inFlight.decrementAndGet();
+            trace.close();
+            writeReport(trace.getTraceId(), report);
+        }
+
+        // The outcome is notified once the trace is closed, so that its report is complete
+        if (failure != null) {
+            listener.onEvent(EventType.ERROR, null, null, new DepositFailedException(failure.getCause(), report));
+            throw failure;
+        }
+
+        listener.onEvent(EventType.SUCCESS, null, null, report);
+        return result;
+    }
+
+    private void writeReport(final String traceId, final DepositReport report) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Deposit report {}", report.toJson());
+        }
+
+        final Path dir = reportDir;
+        if (dir != null) {
+            try {
+                Files.write(dir.resolve(traceId + ".json"), report.toJson().getBytes(UTF_8));
+            } catch (final IOException e) {
+                LOG.warn("Could not write deposit report to {}", dir, e);
+            }
+        }
+    }
+
+    private DepositResult depositPackage(final Function<BooleanSupplier, PackageWalker> pkg,
+            final EventListener listener, final Supplier<Depositor> newDepositor, final BooleanSupplier cancelled) {
 
         final Map<URI, URI> localUriToDeposited = new HashMap<>();
         final List<URI> toUpdate = new ArrayList<>();
+        final long started = System.nanoTime();
+
+        // Progress is sent from a timer thread, so events are serialized; the listener is never called concurrently
+        final EventListener events = serialized(listener);
+        final ProgressTracker progress = new ProgressTracker(events, progressIntervalMillis);
 
         final Depositor depositor;
         try {
-            depositor = depositFactory.newDepositor(resource, context);
+            depositor = new CancellableDepositor(newDepositor.get(), cancelled, progress::read);
         } catch (final Exception e) {
-            listener.onEvent(EventType.ERROR, null, null, e);
-            return;
+            throw new CompletionException(e);
         }
 
+        progress.start(progressTimer());
+
         // First, initially deposit all objects
         try {
-            final PackageWalker walker = walkerFactory.newWalker(pkg);
-            walker.walk(depositor, (uri, ldpr) -> {
+            try (Span span = Span.start("deposit")) {
+                final PackageWalker walker = pkg.apply(cancelled);
+                walker.walk(depositor, new DepositNotifier() {
 
-                // Notify
-                listener.onEvent(EventType.DEPOSIT, uri, ldpr,
-                        String.format("Deposited <%s> as <%s>", ldpr.getURI(), uri));
+                    @Override
+                    public void onAnalyzed(final long resources, final long bytes) {
+                        progress.analyzed(resources, bytes);
+                    }
 
-                localUriToDeposited.put(ldpr.getURI(), uri);
+                    @Override
+                    public void onDeposit(final URI uri, final PackagedResource ldpr) {
 
-                if (!Type.NONRDFSOURCE.equals(ldpr.getType())) {
-                    toUpdate.add(uri);
-                }
-            });
+                        // Notify
+                        events.onEvent(EventType.DEPOSIT, uri, ldpr,
+                                lazily(() -> "Deposited <" + ldpr.getURI() + "> as <" + uri + ">"));
+
+                        localUriToDeposited.put(ldpr.getURI(), uri);
+
+                        if (!Type.NONRDFSOURCE.equals(ldpr.getType())) {
+                            toUpdate.add(uri);
+                        }
+                        progress.deposited();
+                    }
+                });
+                span.with("resources", localUriToDeposited.size());
+            }
+            final long deposited = System.nanoTime();
 
             // Next, re-map all URIs
-            toUpdate.forEach(uri -> {
-                depositor.remap(uri, localUriToDeposited);
-                listener.onEvent(EventType.REMAP, uri, null, "Remapped " + uri);
-            });
+            try (Span span = Span.start("remap").with("resources", toUpdate.size())) {
+                toUpdate.forEach(uri -> {
+                    depositor.remap(uri, localUriToDeposited);
+                    events.onEvent(EventType.REMAP, uri, null, lazily(() -> "Remapped " + uri));
+                });
+            }
+            final long remapped = System.nanoTime();
 
             // Finally, commit
-            depositor.commit();
-            listener.onEvent(EventType.SUCCESS, null, null, "Ingest successfully completed");
+            try (Span span = Span.start("commit")) {
+                depositor.commit();
+            }
+            return new BasicDepositResult(localUriToDeposited, started, deposited, remapped, System.nanoTime());
         } catch (final Throwable e) {
-            LOG.info("Walking the package produced an error:", e);
+            final Throwable cause = cancelled.getAsBoolean() ?
+                    new CancellationException(CancellableDepositor.CANCELLED) : e;
+            LOG.info("Walking the package produced an error:", cause);
 
             // Rollback if error!
-            try {
+            try (Span span = Span.start("rollback")) {
                 depositor.rollback();
-            } finally {
-                listener.onEvent(EventType.ERROR, null, null, e);
+            } catch (final RuntimeException x) {
+                LOG.warn("Could not roll back deposit", x);
             }
+            throw new CompletionException(cause);
+        } finally {
+            progress.stop();
         }
     }
 
+    // Listener whose events are delivered one at a time, whichever thread they come from
+    private static EventListener serialized(final EventListener listener) {
+        return new EventListener() {
+
+            @Override
+            public synchronized void onEvent(final EventType type, final URI repositoryResource,
+                    final PackagedResource resource, final Object detail) {
+                listener.onEvent(type, repositoryResource, resource, detail);
+            }
+        };
+    }
+
+    // Each deposit has its own transaction
+    Supplier<Depositor> depositor(final URI resource) {
+        return () -> depositFactory.newDepositor(resource, Collections.emptyMap());
+    }
+
+    // Event detail whose text is only built if a listener actually uses it
+    private static Object lazily(final Supplier<String> message) {
+        return new Object() {
+
+            @Override
+            public String toString() {
+                return message.get();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DepositJob getJob(final String id) {
+        return jobQueue().get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BatchDepositBuilder newBatch() {
+        return new BatchDepositBuilder() {
+
+            private URI container;
+
+            private Function<String, EventListener> listeners = id -> (a, b, c, d) -> {
+            };
+
+            private int parallelism = PackageBatch.DEFAULT_PARALLELISM;
+
+            private boolean oneTransaction;
+
+            private BooleanSupplier cancelled = NOT_CANCELLED;
+
+            @Override
+            public BatchDepositBuilder intoContainer(final URI container) {
+                this.container = container;
+                return this;
+            }
+
+            @Override
+            public BatchDepositBuilder withListeners(final Function<String, EventListener> listeners) {
+                this.listeners = listeners;
+                return this;
+            }
+
+            @Override
+            public BatchDepositBuilder withParallelism(final int packages) {
+                this.parallelism = packages > 0 ? packages : PackageBatch.DEFAULT_PARALLELISM;
+                return this;
+            }
+
+            @Override
+            public BatchDepositBuilder inOneTransaction(final boolean oneTransaction) {
+                this.oneTransaction = oneTransaction;
+                return this;
+            }
+
+            @Override
+            public BatchDepositBuilder withCancellation(final BooleanSupplier cancelled) {
+                this.cancelled = cancelled;
+                return this;
+            }
+
+            @Override
+            public BatchDeposit start() {
+                return new PackageBatch(SingleDepositManager.this, container, listeners, parallelism,
+                        oneTransaction, cancelled);
+            }
+        };
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -133,8 +744,14 @@ public class SingleDepositManager implements PackageDepositManager {
 
             private InputStream pkgStream;
 
+            private Path pkgPath;
+
             private URI container;
 
+            private long size;
+
+            private BooleanSupplier cancelled = NOT_CANCELLED;
+
             // Use a noop listener if no listeners are explicitly added;
             private EventListener listener = (a, b, c, d) -> {
             };
@@ -142,12 +759,61 @@ public class SingleDepositManager implements PackageDepositManager {
             @Override
             public DepositBuilder withPackage(final InputStream pkgStream) {
                 this.pkgStream = pkgStream;
+                this.pkgPath = null;
+                return this;
+            }
+
+            @Override
+            public DepositBuilder withPackage(final Path pkg) {
+                if (Files.isDirectory(pkg) && !walkerFactory.acceptsUnpacked()) {
+                    throw new IllegalArgumentException("Unpacked package " + pkg + " cannot be deposited");
+                }
+                this.pkgPath = pkg;
+                this.pkgStream = null;
                 return this;
             }
 
             @Override
             public void perform() {
-                depositPackageInto(container, pkgStream, listener, Collections.emptyMap());
+                SingleDepositManager.this.perform(container, walker(), listener, cancelled);
+            }
+
+            @Override
+            public CompletableFuture<DepositResult> performAsync() {
+                return SingleDepositManager.this.performAsync(container, walker(), listener, depositor(container),
+                        cancelled);
+            }
+
+            @Override
+            public DepositJob submit() {
+                if (pkgPath == null) {
+                    return jobQueue().submit(container, pkgStream, size, listener);
+                } else if (Files.isDirectory(pkgPath)) {
+                    throw new IllegalArgumentException("Unpacked package " + pkgPath +
+                            " cannot be submitted as a job");
+                }
+
+                try (InputStream in = Files.newInputStream(pkgPath)) {
+                    return jobQueue().submit(container, in, size > 0 ? size : Files.size(pkgPath), listener);
+                } catch (final IOException e) {
+                    throw new RuntimeException("Could not read package " + pkgPath, e);
+                }
+            }
+
+            private Function<BooleanSupplier, PackageWalker> walker() {
+                return pkgPath != null ? walking(pkgPath) : walking(pkgStream);
+            }
+
+            @Override
+            public DepositBuilder withCancellation(final BooleanSupplier cancelled) {
+                this.cancelled = cancelled;
+                return this;
+            }
+
+            @Override
+            public DepositBuilder withSize(final long bytes) {
+                this.size = bytes;
+                return this;
             }
 
             @Override
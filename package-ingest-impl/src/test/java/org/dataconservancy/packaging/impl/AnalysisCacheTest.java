@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Function;
+
+import org.dataconservancy.packaging.ingest.PackagedResource;
+import org.dataconservancy.packaging.ingest.PackagedResource.Type;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class AnalysisCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    final Function<URI, InputStream> bodies = uri -> new ByteArrayInputStream(new byte[0]);
+
+    @Test
+    public void roundTripTest() throws Exception {
+        final AnalysisCache cache = new AnalysisCache(folder.getRoot().toPath(), Long.MAX_VALUE);
+
+        final BasicLdpResource container = resource("bag://pkg/data/obj/container.ttl", Type.CONTAINER,
+                "text/turtle");
+        final BasicLdpResource binary = resource("bag://pkg/data/bin/file.txt", Type.NONRDFSOURCE, "text/plain");
+        binary.setSize(42);
+        binary.setDescription(resource("bag://pkg/data/obj/file.txt.ttl", Type.RDFSOURCE, "text/turtle"));
+        container.addChild(binary);
+
+        cache.put("abc", Arrays.asList(container));
+
+        final Collection<PackagedResource> cached = cache.get("abc", bodies);
+        assertNotNull(cached);
+        assertEquals(1, cached.size());
+
+        final PackagedResource root = cached.iterator().next();
+        assertEquals(container.getURI(), root.getURI());
+        assertEquals(Type.CONTAINER, root.getType());
+        assertEquals("text/turtle", root.getMediaType());
+        assertNotNull(root.getBody());
+        assertEquals(1, root.getChildren().size());
+
+        final PackagedResource child = root.getChildren().iterator().next();
+        assertEquals(binary.getURI(), child.getURI());
+        assertEquals(Type.NONRDFSOURCE, child.getType());
+        assertEquals("text/plain", child.getMediaType());
+        assertEquals(42, child.getSize());
+        assertEquals(-1, root.getSize());
+        assertEquals(binary.getDescription().getURI(), child.getDescription().getURI());
+        assertEquals(Type.RDFSOURCE, child.getDescription().getType());
+    }
+
+    @Test
+    public void unknownMediaTypeTest() throws Exception {
+        final AnalysisCache cache = new AnalysisCache(folder.getRoot().toPath(), Long.MAX_VALUE);
+
+        // Binaries of unknown media type are deposited with the default, not an empty one
+        cache.put("abc", Arrays.asList(resource("bag://pkg/data/bin/file", Type.NONRDFSOURCE, null)));
+
+        assertNull(cache.get("abc", bodies).iterator().next().getMediaType());
+    }
+
+    @Test
+    public void missTest() {
+        final AnalysisCache cache = new AnalysisCache(folder.getRoot().toPath(), Long.MAX_VALUE);
+        assertNull(cache.get("nothing", bodies));
+    }
+
+    @Test
+    public void evictionTest() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        final AnalysisCache unbounded = new AnalysisCache(dir, Long.MAX_VALUE);
+
+        unbounded.put("old", Arrays.asList(resource("bag://pkg/old", Type.CONTAINER, "text/turtle")));
+        unbounded.put("new", Arrays.asList(resource("bag://pkg/new", Type.CONTAINER, "text/turtle")));
+
+        Files.setLastModifiedTime(dir.resolve("old" + AnalysisCache.SUFFIX), FileTime.fromMillis(1000));
+
+        // Only enough room for one entry
+        new AnalysisCache(dir, Files.size(dir.resolve("new" + AnalysisCache.SUFFIX))).evict();
+
+        assertNull(unbounded.get("old", bodies));
+        assertNotNull(unbounded.get("new", bodies));
+    }
+
+    private static BasicLdpResource resource(final String uri, final Type type, final String mediaType) {
+        final BasicLdpResource resource = new BasicLdpResource(URI.create(uri));
+        resource.setType(type);
+        resource.setMediaType(mediaType);
+        return resource;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.dataconservancy.packaging.ingest.Span;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class JsonFileSpanExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void nestedSpansTest() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("trace.json");
+
+        try (JsonFileSpanExporter exporter = new JsonFileSpanExporter(file)) {
+            try (Span root = Span.root("package", exporter).with("container", "test:/container")) {
+                try (Span child = Span.start("repository.post").with("bytes", 7L).with("status", "201")) {
+                    assertEquals(child, Span.current());
+                }
+                assertEquals(root, Span.current());
+                root.with("note", "a \"quoted\"\nline");
+            }
+            assertFalse(Span.current().isRecording());
+        }
+
+        final List<String> lines = Files.readAllLines(file, UTF_8);
+        assertEquals(2, lines.size());
+
+        final String child = lines.get(0);
+        final String root = lines.get(1);
+
+        assertTrue(child.contains("\"name\":\"repository.post\""));
+        assertTrue(child.contains("\"attributes\":{\"bytes\":7,\"status\":\"201\"}"));
+        assertTrue(root.contains("\"parentId\":null"));
+        assertTrue(root.contains("\"note\":\"a \\\"quoted\\\"\\nline\""));
+
+        // The child is linked to its parent and trace
+        final String rootId = value(root, "spanId");
+        assertTrue(child.contains("\"parentId\":\"" + rootId + "\""));
+        assertEquals(value(root, "traceId"), value(child, "traceId"));
+    }
+
+    @Test
+    public void untracedTest() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("trace.json");
+
+        try (JsonFileSpanExporter exporter = new JsonFileSpanExporter(file)) {
+
+            // Without a root span, nothing is recorded
+            try (Span span = Span.start("repository.post").with("bytes", 7L)) {
+                assertFalse(span.isRecording());
+                assertTrue(span.getAttributes().isEmpty());
+            }
+        }
+
+        assertEquals(0, Files.size(file));
+    }
+
+    private static String value(final String json, final String field) {
+        final int start = json.indexOf("\"" + field + "\":\"") + field.length() + 4;
+        return json.substring(start, json.indexOf('"', start));
+    }
+}
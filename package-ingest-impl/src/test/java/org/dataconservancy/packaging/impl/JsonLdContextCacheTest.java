@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParserRegistry;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class JsonLdContextCacheTest {
+
+    static final String CONTEXT_URL = "http://example.org/context.jsonld";
+
+    static final String CONTEXT = "{\"@context\": {\"title\": \"http://purl.org/dc/terms/title\"}}";
+
+    static final String DOCUMENT = "{\"@context\": \"" + CONTEXT_URL + "\", " +
+            "\"@id\": \"http://example.org/thing\", \"title\": \"A thing\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void encodedFileNameTest() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve(URLEncoder.encode(CONTEXT_URL, "UTF-8")), CONTEXT.getBytes(UTF_8));
+
+        assertTitle(parse(new JsonLdContextCache(dir, 10, false)));
+    }
+
+    @Test
+    public void indexTest() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve("ctx.json"), CONTEXT.getBytes(UTF_8));
+        Files.write(dir.resolve(JsonLdContextCache.INDEX_FILE), (CONTEXT_URL.replace(":", "\\:") + "=ctx.json\n")
+                .getBytes(UTF_8));
+
+        assertTitle(parse(new JsonLdContextCache(dir, 10, false)));
+    }
+
+    @Test(expected = RiotException.class)
+    public void offlineTest() {
+        parse(new JsonLdContextCache(folder.getRoot().toPath(), 10, false));
+    }
+
+    @Test
+    public void jenaUntouchedTest() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve(URLEncoder.encode(CONTEXT_URL, "UTF-8")), CONTEXT.getBytes(UTF_8));
+
+        final DcsPackageAnalyzerFactory factory = new DcsPackageAnalyzerFactory();
+        factory.setJsonLdContexts(dir.toString(), 10, false);
+
+        // Parsing JSON-LD through Jena directly still uses Jena's own reader
+        assertFalse(RDFParserRegistry.getFactory(Lang.JSONLD).create(Lang.JSONLD) instanceof JsonLdReader);
+        assertTitle(parse(factory.getJsonLdContexts()));
+    }
+
+    private static Model parse(final JsonLdContextCache contexts) {
+        final Model model = ModelFactory.createDefaultModel();
+        contexts.parse(StreamRDFLib.graph(model.getGraph()), new ByteArrayInputStream(DOCUMENT.getBytes(UTF_8)), "",
+                Lang.JSONLD);
+        return model;
+    }
+
+    private static void assertTitle(final Model model) {
+        assertTrue(model.contains(
+                ResourceFactory.createResource("http://example.org/thing"),
+                ResourceFactory.createProperty("http://purl.org/dc/terms/title"),
+                "A thing"));
+    }
+}
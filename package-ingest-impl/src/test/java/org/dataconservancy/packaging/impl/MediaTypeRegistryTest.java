@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.jena.riot.Lang;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class MediaTypeRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    MediaTypeRegistry toTest = new MediaTypeRegistry();
+
+    @Test
+    public void extensionTableTest() {
+        assertEquals("text/plain", toTest.getMediaType(Paths.get("/nowhere/log.txt")));
+        assertEquals("image/jpeg", toTest.getMediaType(Paths.get("/nowhere/picture.JPG")));
+        assertEquals("text/turtle", toTest.getMediaType(Paths.get("/nowhere/obj.ttl")));
+    }
+
+    @Test
+    public void rdfTest() {
+        assertEquals("text/turtle", toTest.getRdfMediaType(Paths.get("/nowhere/obj.ttl")));
+        assertEquals("application/ld+json", toTest.getRdfMediaType(Paths.get("/nowhere/obj.JsonLD")));
+        assertEquals("", toTest.getRdfMediaType(Paths.get("/nowhere/obj.txt")));
+
+        assertEquals(Lang.TURTLE, toTest.getRdfLang(Paths.get("/nowhere/obj.ttl")));
+        assertEquals(Lang.RDFXML, toTest.getRdfLang(Paths.get("/nowhere/obj.rdf")));
+        assertNull(toTest.getRdfLang(Paths.get("/nowhere/obj.txt")));
+    }
+
+    @Test
+    public void sniffTest() throws Exception {
+        final File noExtension = folder.newFile("LICENSE");
+        Files.write(noExtension.toPath(), "Some plain text content\n".getBytes(UTF_8));
+
+        assertEquals("text/plain", toTest.getMediaType(noExtension.toPath()));
+    }
+
+    @Test
+    public void noSniffTest() throws Exception {
+        final File noExtension = folder.newFile("LICENSE");
+        Files.write(noExtension.toPath(), "Some plain text content\n".getBytes(UTF_8));
+
+        toTest.setSniffContent(false);
+
+        assertEquals(MediaTypeRegistry.APPLICATION_OCTETSTREAM, toTest.getMediaType(noExtension.toPath()));
+    }
+
+    @Test
+    public void missingFileTest() {
+        final Path missing = Paths.get(folder.getRoot().getAbsolutePath(), "does-not-exist");
+        assertEquals(MediaTypeRegistry.APPLICATION_OCTETSTREAM, toTest.getMediaType(missing));
+    }
+}
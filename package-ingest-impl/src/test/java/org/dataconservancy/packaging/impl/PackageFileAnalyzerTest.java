@@ -24,8 +24,11 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,11 +36,20 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.dataconservancy.packaging.ingest.PackagedResource;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * @author bbrosius@jhu.edu
@@ -50,22 +62,76 @@ public class PackageFileAnalyzerTest {
 
     private DcsPackageAnalyzer underTest;
 
+    private File testPackage;
+
+    private OpenPackageService openPackageService;
+
     private final InputStream packageStream = mock(InputStream.class);
 
     private static final String TURTLE_MEDIA_TYPE = "text/turtle";
 
+    private static final byte[] PACKAGE_BYTES = "Not really a package; extraction is mocked".getBytes();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setup() throws IOException {
         final URL packageUrl = PackageFileAnalyzerTest.class.getResource("/test_pkg");
-        final File testPackage;
         testPackage = new File(packageUrl.getPath());
 
-        final OpenPackageService openPackageService = mock(OpenPackageService.class);
+        openPackageService = mock(OpenPackageService.class);
         when(openPackageService.openPackage(any(File.class), eq(packageStream))).thenReturn(testPackage);
 
         underTest = new DcsPackageAnalyzer(openPackageService, testPackage.getParentFile());
     }
 
+    @Test
+    public void analysisCacheTest() throws Exception {
+        // Analyses that miss the cache are put in it
+        final AtomicInteger misses = new AtomicInteger();
+        final AnalysisCache cache = new AnalysisCache(folder.newFolder().toPath(), Long.MAX_VALUE) {
+
+            @Override
+            public void put(final String key, final Collection<PackagedResource> roots) {
+                misses.incrementAndGet();
+                super.put(key, roots);
+            }
+        };
+        when(openPackageService.openPackage(any(File.class), any(InputStream.class))).thenReturn(testPackage);
+
+        final DcsPackageAnalyzer first = new DcsPackageAnalyzer(openPackageService, testPackage.getParentFile());
+        first.setAnalysisCache(cache);
+        final Collection<PackagedResource> analyzed = first.getContainerRoots(new ByteArrayInputStream(
+                PACKAGE_BYTES));
+        assertEquals(2, analyzed.size());
+        assertEquals(1, misses.get());
+
+        // Analyzed the same way, the package is found in the cache, sizes and all
+        final DcsPackageAnalyzer same = new DcsPackageAnalyzer(openPackageService, testPackage.getParentFile());
+        same.setAnalysisCache(cache);
+        final Collection<PackagedResource> cached = same.getContainerRoots(new ByteArrayInputStream(PACKAGE_BYTES));
+        assertEquals(2, cached.size());
+        assertEquals(1, misses.get());
+        assertEquals(sizes(analyzed), sizes(cached));
+
+        // Not if media types are determined differently
+        final MediaTypeRegistry noSniffing = new MediaTypeRegistry();
+        noSniffing.setSniffContent(false);
+        final DcsPackageAnalyzer unsniffed = new DcsPackageAnalyzer(openPackageService, testPackage.getParentFile(),
+                noSniffing);
+        unsniffed.setAnalysisCache(cache);
+        unsniffed.getContainerRoots(new ByteArrayInputStream(PACKAGE_BYTES));
+        assertEquals(2, misses.get());
+
+        // Nor if JSON-LD contexts are resolved differently
+        final DcsPackageAnalyzer contexts = new DcsPackageAnalyzer(openPackageService, testPackage.getParentFile());
+        contexts.setJsonLdContexts(new JsonLdContextCache(folder.newFolder().toPath(), 10, false));
+        contexts.setAnalysisCache(cache);
+        contexts.getContainerRoots(new ByteArrayInputStream(PACKAGE_BYTES));
+        assertEquals(3, misses.get());
+    }
+
     @Test
     public void testPackageAnalyzer() throws URISyntaxException {
         // Doesn't matter what file we pass here since we're mocking the open package code.
@@ -177,6 +243,60 @@ public class PackageFileAnalyzerTest {
                 .anyMatch(resource -> resource.getURI().equals(EXPECTED_ORPHAN_BINARY_URI)));
     }
 
+    // Analysis of each subtree in its own thread should produce the same tree as a single thread.
+    @Test
+    public void testParallelAnalysis() throws Exception {
+        final ForkJoinPool singleThread = new ForkJoinPool(1);
+        final ForkJoinPool multiThread = new ForkJoinPool(4);
+
+        try {
+            final Collection<PackagedResource> sequential = new DcsPackageAnalyzer(openPackageService, testPackage
+                    .getParentFile(), new MediaTypeRegistry(), singleThread).getContainerRoots(packageStream);
+            final Collection<PackagedResource> parallel = new DcsPackageAnalyzer(openPackageService, testPackage
+                    .getParentFile(), new MediaTypeRegistry(), multiThread).getContainerRoots(packageStream);
+
+            assertEquals(uris(sequential), uris(parallel));
+            assertEquals(uris(get(EXPECTED_ROOT_URI, sequential).getChildren()),
+                    uris(get(EXPECTED_ROOT_URI, parallel).getChildren()));
+        } finally {
+            singleThread.shutdown();
+            multiThread.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnpackedPackage() throws Exception {
+        final OpenPackageService unused = mock(OpenPackageService.class);
+        final DcsPackageAnalyzer inPlace = new DcsPackageAnalyzer(unused, new File("target/nonexistent"));
+
+        final Collection<PackagedResource> packageResources = inPlace.getContainerRoots(testPackage.toPath());
+
+        assertEquals(uris(underTest.getContainerRoots(packageStream)), uris(packageResources));
+        assertEquals(4, get(EXPECTED_ROOT_URI, packageResources).getChildren().size());
+        verify(unused, never()).openPackage(any(File.class), any(InputStream.class));
+
+        // The package was not extracted, so must not be cleaned up
+        inPlace.cleanUpExtractionDirectory();
+        assertTrue(testPackage.exists());
+    }
+
+    private static Set<URI> uris(final Collection<PackagedResource> resources) {
+        return resources.stream().map(PackagedResource::getURI).collect(Collectors.toSet());
+    }
+
+    // Sizes of every resource in the given trees, by URI
+    private static Map<URI, Long> sizes(final Collection<PackagedResource> resources) {
+        final Map<URI, Long> sizes = new HashMap<>();
+        for (final PackagedResource resource : resources) {
+            sizes.put(resource.getURI(), resource.getSize());
+            if (resource.getDescription() != null) {
+                sizes.putAll(sizes(Collections.singleton(resource.getDescription())));
+            }
+            sizes.putAll(sizes(resource.getChildren()));
+        }
+        return sizes;
+    }
+
     /**
      * Obtain the identified LDPResource from the collection of resources, or null.
      *
@@ -23,9 +23,12 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -42,7 +45,9 @@ import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.Statement;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -62,6 +67,9 @@ public class RdfUtilTest {
     @Mock
     PackagedResource testResource;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void remapTest() {
 
@@ -225,6 +233,43 @@ public class RdfUtilTest {
 
     }
 
+    // Whatever the syntax of the original, the filtered body is Turtle, and says so
+    @Test
+    public void filterMediaTypeTest() throws Exception {
+        final String rdf = "<test:something> <test:rel> \"A literal\" .\n";
+
+        when(testResource.getBody()).thenReturn(new ByteArrayInputStream(rdf.getBytes(UTF_8)));
+        when(testResource.getMediaType()).thenReturn("application/n-triples");
+
+        final PackagedResource filtered = RdfUtil.filterBody(testResource);
+        assertEquals(RdfUtil.FILTERED_MEDIA_TYPE, filtered.getMediaType());
+
+        final Model model = ModelFactory.createDefaultModel();
+        model.read(filtered.getBody(), "", "TTL");
+        assertEquals(1, model.size());
+        assertTrue(model.contains(model.getResource("test:something"), model.getProperty("test:rel"), "A literal"));
+    }
+
+    // JSON-LD is parsed with the contexts it is given, rather than any configured elsewhere
+    @Test
+    public void filterJsonLdContextsTest() throws Exception {
+        final File dir = folder.newFolder();
+        Files.write(dir.toPath().resolve(URLEncoder.encode(JsonLdContextCacheTest.CONTEXT_URL, "UTF-8")),
+                JsonLdContextCacheTest.CONTEXT.getBytes(UTF_8));
+
+        when(testResource.getBody()).thenReturn(new ByteArrayInputStream(JsonLdContextCacheTest.DOCUMENT.getBytes(
+                UTF_8)));
+        when(testResource.getMediaType()).thenReturn("application/ld+json");
+
+        final PackagedResource filtered = RdfUtil.filterBody(new JsonLdContextCache(dir.toPath(), 10, false),
+                testResource);
+
+        final Model model = ModelFactory.createDefaultModel();
+        model.read(filtered.getBody(), "", "TTL");
+        assertTrue(model.contains(model.getResource("http://example.org/thing"), model.getProperty(
+                "http://purl.org/dc/terms/title"), "A thing"));
+    }
+
     @Test
     public void filterRemoveAllTriplesTest() throws Exception {
         final String rdf = "<test:something> a <test:whatever>.\n" +
@@ -268,4 +313,22 @@ public class RdfUtilTest {
         assertEquals(1, model.listStatements(statementsWwithSubjejct.get(0).getObject().asResource(), null,
                 (Resource) null).toList().size());
     }
+
+    @Test
+    public void readNTriplesChunksTest() throws Exception {
+        final StringBuilder nt = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            nt.append(String.format("<test:s%d> <%s> _:shared .\n", i, predicate.getURI()));
+        }
+        final File file = folder.newFile("rem.nt");
+        Files.write(file.toPath(), nt.toString().getBytes(UTF_8));
+
+        final Model model = ModelFactory.createDefaultModel();
+        RdfUtil.readNTriplesChunks(model.getGraph(), file.toPath(), 7);
+
+        assertEquals(100, model.size());
+
+        // The blank node is shared across all chunks
+        assertEquals(1, model.listObjects().toSet().size());
+    }
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.dataconservancy.packaging.ingest.DepositJob;
+import org.dataconservancy.packaging.ingest.EventType;
+import org.dataconservancy.packaging.ingest.PackagedResource;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class DepositJobQueueTest {
+
+    static final URI CONTAINER = URI.create("test:container");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void successfulJobTest() throws Exception {
+        final PackagedResource resource = mock(PackagedResource.class);
+        when(resource.getURI()).thenReturn(URI.create("bag://pkg/resource"));
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        try (DepositJobQueue queue = new DepositJobQueue(folder.getRoot().toPath(), 1, false, 1, false,
+                (container, pkg, listener, cancelled) -> {
+                    listener.onEvent(EventType.DEPOSIT, URI.create("test:deposited"), resource, null);
+                    listener.onEvent(EventType.REMAP, URI.create("test:deposited"), null, null);
+                    listener.onEvent(EventType.SUCCESS, null, null, null);
+                })) {
+
+            final DepositJob job = queue.submit(CONTAINER, new ByteArrayInputStream(new byte[10]), 0, (type, uri,
+                    r, detail) -> {
+                if (type == EventType.SUCCESS) {
+                    done.countDown();
+                }
+            });
+
+            assertEquals(10, job.getSize());
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            waitForState(job, DepositJob.State.SUCCEEDED);
+            assertEquals(1, job.getDepositedCount());
+            assertEquals(1, job.getRemappedCount());
+            assertEquals(URI.create("test:deposited"), job.getResources().get(URI.create("bag://pkg/resource")));
+            assertNull(job.getError());
+        }
+
+        // Status should survive re-opening the queue
+        try (DepositJobQueue queue = new DepositJobQueue(folder.getRoot().toPath(), 1, false, 1, false,
+                (container, pkg, listener, cancelled) -> {
+                })) {
+            assertEquals(1, queue.get(onlyJobId()).getDepositedCount());
+            assertEquals(DepositJob.State.SUCCEEDED, queue.get(onlyJobId()).getState());
+        }
+    }
+
+    @Test
+    public void failedJobTest() throws Exception {
+        try (DepositJobQueue queue = new DepositJobQueue(folder.getRoot().toPath(), 1, false, 1, false,
+                (container, pkg, listener, cancelled) -> {
+                    throw new RuntimeException("Oops");
+                })) {
+
+            final DepositJob job = queue.submit(CONTAINER, new ByteArrayInputStream(new byte[10]), 0, null);
+
+            waitForState(job, DepositJob.State.FAILED);
+            assertTrue(job.getError().contains("Oops"));
+            assertTrue(job.getResources().isEmpty());
+        }
+    }
+
+    @Test
+    public void recoverUnfinishedJobTest() throws Exception {
+        final Path dir = folder.newFolder().toPath();
+        final String[] unfinished = crash(dir);
+
+        // With transactional deposits, the interrupted job left nothing behind and is simply performed again
+        final List<String> read = Collections.synchronizedList(new ArrayList<>());
+        try (DepositJobQueue queue = new DepositJobQueue(dir, 1, false, 1, true, reading(read))) {
+            waitForState(queue.get(unfinished[0]), DepositJob.State.SUCCEEDED);
+            waitForState(queue.get(unfinished[1]), DepositJob.State.SUCCEEDED);
+            assertEquals(Arrays.asList("running", "queued"), read);
+        }
+    }
+
+    @Test
+    public void recoverInterruptedJobTest() throws Exception {
+        final Path dir = folder.newFolder().toPath();
+        final String[] unfinished = crash(dir);
+
+        // Otherwise, the interrupted job may have deposited some resources, and re-running it would duplicate them
+        final List<String> read = Collections.synchronizedList(new ArrayList<>());
+        try (DepositJobQueue queue = new DepositJobQueue(dir, 1, false, 1, false, reading(read))) {
+            assertEquals(DepositJob.State.FAILED, queue.get(unfinished[0]).getState());
+            assertTrue(queue.get(unfinished[0]).getError().contains("interrupted"));
+            assertFalse(Files.exists(dir.resolve(unfinished[0] + DepositJobQueue.PACKAGE_SUFFIX)));
+
+            waitForState(queue.get(unfinished[1]), DepositJob.State.SUCCEEDED);
+            assertEquals(Arrays.asList("queued"), read);
+        }
+    }
+
+    @Test
+    public void smallestFirstTest() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<Long> order = Collections.synchronizedList(new ArrayList<>());
+
+        try (DepositJobQueue queue = new DepositJobQueue(folder.getRoot().toPath(), 1, true, 1, false,
+                (container, pkg, listener, cancelled) -> {
+                    try {
+                        blocked.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    listener.onEvent(EventType.SUCCESS, null, null, null);
+                })) {
+
+            final DepositJob first = queue.submit(CONTAINER, new ByteArrayInputStream(new byte[1]), 0, null);
+            final DepositJob large = queue.submit(CONTAINER, new ByteArrayInputStream(new byte[1]), 1000, (t, u,
+                    r, d) -> order.add(1000L));
+            final DepositJob small = queue.submit(CONTAINER, new ByteArrayInputStream(new byte[1]), 10, (t, u,
+                    r, d) -> order.add(10L));
+
+            blocked.countDown();
+
+            waitForState(first, DepositJob.State.SUCCEEDED);
+            waitForState(large, DepositJob.State.SUCCEEDED);
+            waitForState(small, DepositJob.State.SUCCEEDED);
+        }
+
+        assertEquals(10L, order.get(0).longValue());
+        assertEquals(1000L, order.get(1).longValue());
+    }
+
+    @Test
+    public void closeCancelsJobTest() throws Exception {
+        final Path dir = folder.newFolder().toPath();
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final DepositJob job;
+        try (DepositJobQueue queue = new DepositJobQueue(dir, 1, false, 1, true,
+                (container, pkg, listener, cancelled) -> {
+                    started.countDown();
+                    while (!cancelled.getAsBoolean()) {
+                        Thread.yield();
+                    }
+                    throw new CancellationException("cancelled");
+                })) {
+            queue.closeTimeoutMillis = 100;
+            job = queue.submit(CONTAINER, new ByteArrayInputStream("cancelled".getBytes()), 0, null);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+        }
+
+        // The cancelled deposit was rolled back, so the job is performed when the queue is next opened
+        assertEquals(DepositJob.State.QUEUED, job.getState());
+        final List<String> read = Collections.synchronizedList(new ArrayList<>());
+        try (DepositJobQueue queue = new DepositJobQueue(dir, 1, false, 1, true, reading(read))) {
+            waitForState(queue.get(job.getId()), DepositJob.State.SUCCEEDED);
+            assertEquals(Arrays.asList("cancelled"), read);
+        }
+    }
+
+    @Test
+    public void abandonedJobTest() throws Exception {
+        final Path dir = folder.newFolder().toPath();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        // Like a deposit blocked on a repository request, this one neither checks cancellation nor is interrupted
+        final DepositJob job;
+        try (DepositJobQueue queue = new DepositJobQueue(dir, 1, false, 1, true,
+                (container, pkg, listener, cancelled) -> {
+                    started.countDown();
+                    while (blocked.getCount() > 0) {
+                        try {
+                            blocked.await();
+                        } catch (final InterruptedException e) {
+                            // Ignored
+                        }
+                    }
+                })) {
+            queue.closeTimeoutMillis = 100;
+            job = queue.submit(CONTAINER, new ByteArrayInputStream("abandoned".getBytes()), 0, null);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+        }
+
+        // The job is still being performed by the closed queue, so a new queue only tracks it
+        final List<String> read = Collections.synchronizedList(new ArrayList<>());
+        try (DepositJobQueue queue = new DepositJobQueue(dir, 1, false, 1, true, reading(read))) {
+            assertSame(job, queue.get(job.getId()));
+            assertEquals(DepositJob.State.RUNNING, job.getState());
+
+            blocked.countDown();
+            waitForState(job, DepositJob.State.FAILED);
+            assertTrue(job.getError().contains("interrupted"));
+        }
+        assertTrue(read.isEmpty());
+    }
+
+    /*
+     * Copy the journal of a queue, stopped while performing one job with another queued, into the given directory.
+     * This is what a crash at that point would leave behind.  Returns the ids of the running and queued jobs.
+     */
+    private String[] crash(final Path dir) throws Exception {
+        final Path live = folder.newFolder().toPath();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        try (DepositJobQueue queue = new DepositJobQueue(live, 1, false, 1, false,
+                (container, pkg, listener, cancelled) -> {
+                    started.countDown();
+                    try {
+                        blocked.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                })) {
+            final DepositJob running = queue.submit(CONTAINER, new ByteArrayInputStream("running".getBytes()), 0,
+                    null);
+            final DepositJob queued = queue.submit(CONTAINER, new ByteArrayInputStream("queued".getBytes()), 0,
+                    null);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            for (final String id : Arrays.asList(running.getId(), queued.getId())) {
+                for (final String suffix : Arrays.asList(DepositJobQueue.JOB_SUFFIX, DepositJobQueue.PACKAGE_SUFFIX)) {
+                    Files.copy(live.resolve(id + suffix), dir.resolve(id + suffix));
+                }
+            }
+
+            blocked.countDown();
+            return new String[] { running.getId(), queued.getId() };
+        }
+    }
+
+    private static DepositJobQueue.Deposit reading(final List<String> read) {
+        return (container, pkg, listener, cancelled) -> {
+            try {
+                read.add(IOUtils.toString(pkg, "UTF-8"));
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+            listener.onEvent(EventType.SUCCESS, null, null, null);
+        };
+    }
+
+    private String onlyJobId() throws Exception {
+        final String[] jobs = folder.getRoot().list((d, name) -> name.endsWith(DepositJobQueue.JOB_SUFFIX));
+        assertEquals(1, jobs.length);
+        return jobs[0].substring(0, jobs[0].length() - DepositJobQueue.JOB_SUFFIX.length());
+    }
+
+    private static void waitForState(final DepositJob job, final DepositJob.State state) throws Exception {
+        for (int i = 0; i < 100 && job.getState() != state; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(state, job.getState());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+
+import org.dataconservancy.packaging.ingest.PackagedResource.Type;
+import org.dataconservancy.packaging.ingest.Span;
+
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class DepositReportTest {
+
+    @Test
+    public void resourcesTest() throws Exception {
+        final DepositReport report = new DepositReport("done", 2, () -> 3);
+
+        try (Span root = Span.root("package", report).with("container", URI.create("test:container"))) {
+            try (Span deposit = Span.start("deposit")) {
+                resource("test:a", Type.CONTAINER, 0, 1, "201");
+                resource("test:b", Type.NONRDFSOURCE, 100, 20, "201");
+                resource("test:c", Type.NONRDFSOURCE, 50, 10, "503");
+            }
+            root.with("status", "success");
+        }
+
+        assertEquals(3, report.getResourceCount());
+        assertEquals(150, report.getByteCount());
+        assertEquals(3, report.getPeakConcurrency());
+
+        // Only the slowest are kept, slowest first
+        assertEquals(Arrays.asList(URI.create("test:b"), URI.create("test:c")), report.getSlowest());
+
+        final String json = report.toJson();
+        assertTrue(json.startsWith("{\"status\":\"success\",\"container\":\"test:container\","));
+        assertTrue(json.contains("\"resources\":{\"CONTAINER\":{\"count\":1,\"bytes\":0}," +
+                "\"NONRDFSOURCE\":{\"count\":2,\"bytes\":150}}"));
+        assertTrue(json.contains("\"requests\":{\"post\":3},\"failedRequests\":1"));
+        assertTrue(json.endsWith("\"peakConcurrency\":3}"));
+    }
+
+    @Test
+    public void exclusivePhasesTest() throws Exception {
+        final DepositReport report = new DepositReport("failed", DepositReport.DEFAULT_SLOWEST, () -> 1);
+
+        try (Span root = Span.root("package", report)) {
+            try (Span deposit = Span.start("deposit")) {
+                try (Span analyze = Span.start("analyze")) {
+                    try (Span extract = Span.start("extract").with("bytes", 1234L)) {
+                        Thread.sleep(20);
+                    }
+                }
+            }
+            root.with("status", "error").with("error", "Bad \"package\"");
+        }
+
+        final String json = report.toJson();
+        assertTrue(json.contains("\"error\":\"Bad \\\"package\\\"\""));
+        assertTrue(json.contains("\"extractedBytes\":1234"));
+
+        // Extraction is not counted again as analysis or deposit
+        assertTrue(millis(json, "extract") >= 20);
+        assertTrue(millis(json, "analyze") < 20);
+        assertTrue(millis(json, "deposit") < 20);
+        assertTrue(report.toString().startsWith("failed\n{"));
+    }
+
+    private static double millis(final String json, final String phase) {
+        final int start = json.indexOf("\"" + phase + "\":") + phase.length() + 3;
+        return Double.parseDouble(json.substring(start, json.indexOf(',', start)));
+    }
+
+    private static void resource(final String uri, final Type type, final long bytes, final long sleep,
+            final String status) throws InterruptedException {
+        try (Span resource = Span.start("resource").with("uri", URI.create(uri)).with("type", type)) {
+            try (Span request = Span.start("repository.post").with("bytes", bytes).with("status", status)) {
+                Thread.sleep(sleep);
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dataconservancy.packaging.ingest.Depositor;
+import org.dataconservancy.packaging.ingest.Depositor.DepositedResource;
+import org.dataconservancy.packaging.ingest.PackagedResource;
+import org.dataconservancy.packaging.ingest.PackagedResource.Type;
+import org.dataconservancy.packaging.ingest.Span;
+import org.dataconservancy.packaging.test.InMemoryLdpServer;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Exercises deposits against an in-memory repository.
+ *
+ * @author apb@jhu.edu
+ */
+public class FedoraDepositFactoryTest {
+
+    private static final Node TEST_REL = NodeFactory.createURI("test:rel");
+
+    InMemoryLdpServer server;
+
+    FedoraDepositFactory toTest = new FedoraDepositFactory();
+
+    AtomicInteger counter = new AtomicInteger();
+
+    URI myContainer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new InMemoryLdpServer().retainingBinaries(true).start();
+        toTest.setBaseUri(server.getBaseUri().toString());
+
+        final Depositor depositor = toTest.newDepositer(server.getBaseUri());
+        myContainer = depositor.deposit(rdfResource("<> a <test:container>")).uri;
+        depositor.commit();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    // Verify that nested containers can be deposited, and are only visible once committed
+    @Test
+    public void containerDepositTest() throws Exception {
+
+        final Depositor test = toTest.newDepositer(myContainer);
+
+        final DepositedResource first = test.deposit(rdfResource("<> a <test:first>"));
+        test.deposit(rdfResource("<> a <test:second>"), first.uri);
+
+        assertEquals(0, server.getChildren(myContainer).size());
+
+        test.commit();
+
+        final List<URI> inMyContainer = getChildren(myContainer);
+        assertEquals(1, inMyContainer.size());
+        assertTrue(hasType(server.getGraph(inMyContainer.get(0)), "test:first"));
+
+        final List<URI> inFirstDeposited = getChildren(inMyContainer.get(0));
+        assertEquals(1, inFirstDeposited.size());
+        assertTrue(hasType(server.getGraph(inFirstDeposited.get(0)), "test:second"));
+        assertEquals(0, server.getOpenTransactions());
+    }
+
+    // Verify that binaries and their descriptions can be deposited and committed.
+    @Test
+    public void binaryDepositTest() throws Exception {
+
+        final Depositor test = toTest.newDepositer(myContainer);
+
+        test.deposit(binaryResource("CONTENT", rdfResource("<BINARY> a <test:binaryDescription>")));
+        test.commit();
+
+        final List<URI> inMyContainer = getChildren(myContainer);
+        assertEquals(1, inMyContainer.size());
+        final URI binary = inMyContainer.get(0);
+
+        assertEquals("CONTENT", new String(server.getContent(binary), UTF_8));
+        assertTrue(hasType(server.getGraph(describedBy(binary)), "test:binaryDescription"));
+    }
+
+    // Verify that each repository request is traced within the open span, with its status and bytes sent
+    @Test
+    public void tracingTest() throws Exception {
+        final List<Span> spans = new ArrayList<>();
+
+        try (Span root = Span.root("package", spans::add)) {
+            final Depositor test = toTest.newDepositer(myContainer);
+            test.deposit(binaryResource("CONTENT", rdfResource("<BINARY> a <test:binaryDescription>")));
+            test.commit();
+        }
+
+        final Span root = spans.get(spans.size() - 1);
+        assertEquals("package", root.getName());
+
+        final List<String> names = new ArrayList<>();
+        for (final Span span : spans.subList(0, spans.size() - 1)) {
+            assertEquals(root.getSpanId(), span.getParentId());
+            assertEquals(root.getTraceId(), span.getTraceId());
+            names.add(span.getName());
+        }
+        assertEquals(Arrays.asList("repository.begin", "repository.post", "repository.head", "repository.put",
+                "repository.commit"), names);
+
+        final Span post = spans.get(1);
+        assertEquals(7L, post.getAttributes().get("bytes"));
+        assertEquals("201", post.getAttributes().get("status"));
+        assertTrue(post.getAttributes().get("uri").toString().startsWith(server.getBaseUri().toString()));
+    }
+
+    // Verifies that rollback rolls back
+    @Test
+    public void rollBackTest() throws Exception {
+
+        final Depositor test = toTest.newDepositer(myContainer);
+
+        test.deposit(rdfResource("<> a <test:first>"));
+        test.rollback();
+
+        assertEquals(0, getChildren(myContainer).size());
+        assertEquals(0, server.getOpenTransactions());
+    }
+
+    // Verifies that resources are visible right away without transactions
+    @Test
+    public void noTransactionTest() throws Exception {
+        toTest.setUseTransactions(false);
+
+        final Depositor test = toTest.newDepositer(myContainer);
+
+        test.deposit(rdfResource("<> a <test:first>"));
+        assertEquals(1, getChildren(myContainer).size());
+
+        test.commit();
+        assertEquals(1, getChildren(myContainer).size());
+    }
+
+    @Test
+    public void sparqlRemapTest() throws Exception {
+        toTest.setUseSparql(true);
+        remap();
+        assertTrue(server.getRequestCounts().containsKey("PATCH"));
+    }
+
+    @Test
+    public void putRemapTest() throws Exception {
+        toTest.setUseSparql(false);
+        remap();
+        assertFalse(server.getRequestCounts().containsKey("PATCH"));
+    }
+
+    // setUseSparql once set doTx instead, so turning off SPARQL PATCH also turned off transactions
+    @Test
+    public void useSparqlLeavesTransactionsTest() {
+        toTest.setUseTransactions(true);
+        toTest.setUseSparql(false);
+
+        assertFalse(toTest.useSparql);
+        assertTrue(toTest.doTx);
+        assertTrue(toTest.isTransactional());
+
+        toTest.setUseTransactions(false);
+        toTest.setUseSparql(true);
+
+        assertTrue(toTest.useSparql);
+        assertFalse(toTest.doTx);
+    }
+
+    // Verifies that a repository error surfaces as an exception
+    @Test(expected = RuntimeException.class)
+    public void repositoryErrorTest() throws Exception {
+        try (InMemoryLdpServer failing = new InMemoryLdpServer().withErrors(1.0, 503).start()) {
+            toTest.setBaseUri(failing.getBaseUri().toString());
+            toTest.newDepositer(failing.getBaseUri()).deposit(rdfResource("<> a <test:first>"));
+        }
+    }
+
+    // Verifies that containers and binary descriptions can be re-mapped
+    private void remap() throws Exception {
+        final Map<URI, URI> toRemap = new HashMap<>();
+
+        final Depositor test = toTest.newDepositer(myContainer);
+
+        final DepositedResource containerDeposit = test.deposit(rdfResource("<> <test:rel> <test:resource_2>"));
+        toRemap.put(URI.create("test:resource_1"), containerDeposit.uri);
+
+        final DepositedResource binaryDeposit = test.deposit(binaryResource("CONTENT", rdfResource(
+                "<BINARY> <test:rel> <test:resource_1>")), containerDeposit.uri);
+        toRemap.put(URI.create("test:resource_2"), binaryDeposit.uri);
+
+        test.remap(containerDeposit.uri, toRemap);
+        test.remap(binaryDeposit.describedBy, toRemap);
+
+        test.commit();
+
+        final List<URI> inMyContainer = getChildren(myContainer);
+        assertEquals(1, inMyContainer.size());
+        final URI containerUri = inMyContainer.get(0);
+
+        final List<URI> inFirstContainer = getChildren(containerUri);
+        assertEquals(1, inFirstContainer.size());
+        final URI binaryUri = inFirstContainer.get(0);
+
+        assertEquals(binaryUri.toString(), objectOfRel(server.getGraph(containerUri)));
+        assertEquals(containerUri.toString(), objectOfRel(server.getGraph(describedBy(binaryUri))));
+    }
+
+    private static String objectOfRel(final Graph graph) {
+        final List<Triple> found = graph.find(Node.ANY, TEST_REL, Node.ANY).toList();
+        assertEquals(1, found.size());
+        return found.get(0).getObject().getURI();
+    }
+
+    private static boolean hasType(final Graph graph, final String type) {
+        return graph.contains(Node.ANY, RDF.type.asNode(), NodeFactory.createURI(type));
+    }
+
+    private static URI describedBy(final URI binary) {
+        return URI.create(binary + "/fcr:metadata");
+    }
+
+    private List<URI> getChildren(final URI container) {
+        return new ArrayList<>(server.getChildren(container));
+    }
+
+    private PackagedResource rdfResource(final String rdf) {
+        final PackagedResource resource = mock(PackagedResource.class);
+        when(resource.getURI()).thenReturn(URI.create("file:/test/resource_" + counter.incrementAndGet()));
+        when(resource.getType()).thenReturn(Type.CONTAINER);
+        when(resource.getMediaType()).thenReturn("text/turtle");
+        when(resource.getBody()).thenReturn(new ByteArrayInputStream(rdf.getBytes(UTF_8)));
+
+        return resource;
+    }
+
+    private PackagedResource binaryResource(final String content, final PackagedResource description) {
+        final PackagedResource resource = mock(PackagedResource.class);
+        when(resource.getURI()).thenReturn(URI.create("file:/test/binary_" + counter.incrementAndGet() + ".txt"));
+        when(resource.getType()).thenReturn(Type.NONRDFSOURCE);
+        when(resource.getMediaType()).thenReturn("text/plain");
+        when(resource.getDescription()).thenReturn(description);
+        when(resource.getBody()).thenReturn(new ByteArrayInputStream(content.getBytes(UTF_8)));
+
+        try {
+            final String filtered = IOUtils.toString(description.getBody(), UTF_8).replaceAll("BINARY", resource
+                    .getURI()
+                    .toString());
+            when(description.getBody()).thenReturn(new ByteArrayInputStream(filtered.getBytes(UTF_8)));
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        return resource;
+    }
+}
@@ -169,4 +169,28 @@ public class PackageFileWalkerTest {
         // Make sure we have no other invocations!
         verify(notifier, times(5)).onDeposit(any(URI.class), any(PackagedResource.class));
     }
+
+    @Test
+    public void analyzedTest() {
+        when(deposit.deposit(any(PackagedResource.class), nullable(URI.class))).thenReturn(new DepositedResource());
+        when(root1.getSize()).thenReturn(10L);
+        when(binary.getSize()).thenReturn(100L);
+
+        toTest.newWalker(stream).walk(deposit, notifier);
+
+        // Five resources, including the description of the binary
+        verify(notifier).onAnalyzed(5, 110);
+    }
+
+    @Test
+    public void unknownSizeTest() {
+        when(deposit.deposit(any(PackagedResource.class), nullable(URI.class))).thenReturn(new DepositedResource());
+        when(binary.getSize()).thenReturn(100L);
+        when(binaryDescription.getSize()).thenReturn(-1L);
+
+        toTest.newWalker(stream).walk(deposit, notifier);
+
+        // Not a total of the sizes that are known, which would be too small
+        verify(notifier).onAnalyzed(5, -1);
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.dataconservancy.packaging.ingest.EventType;
+
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class ProgressTrackerTest {
+
+    final List<Object> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void progressTest() throws Exception {
+        final ProgressTracker tracker = new ProgressTracker((type, uri, resource, detail) -> {
+            assertEquals(EventType.PROGRESS, type);
+            events.add(detail);
+        }, 200);
+
+        tracker.analyzed(4, 1000);
+        Thread.sleep(250);
+        tracker.read(250);
+        tracker.tick();
+
+        assertEquals(1, events.size());
+        final DepositProgress progress = (DepositProgress) events.get(0);
+        assertEquals(250, progress.getBytes());
+        assertEquals(1000, progress.getBytesTotal());
+        assertEquals(0, progress.getResources());
+        assertEquals(4, progress.getResourcesTotal());
+        assertTrue(progress.getBytesPerSecond() > 0);
+
+        // A quarter done, so three times as long again
+        assertNotNull(progress.getEstimatedCompletion());
+        assertTrue(progress.getEstimatedCompletion().isAfter(Instant.now()));
+        assertTrue(progress.toString().startsWith("bytes 250 of 1000\nresources 0 of 4\nbytesPerSecond "));
+    }
+
+    @Test
+    public void beforeAnalysisTest() throws Exception {
+        final ProgressTracker tracker = new ProgressTracker((type, uri, resource, detail) -> events.add(detail), 0);
+
+        tracker.read(100);
+        tracker.deposited();
+        assertTrue(events.isEmpty());
+
+        final DepositProgress progress = tracker.progress(System.nanoTime());
+        assertEquals(-1, progress.getBytesTotal());
+        assertNull(progress.getEstimatedCompletion());
+        assertEquals("bytes 100\nresources 1\nbytesPerSecond " + progress.getBytesPerSecond(), progress.toString());
+    }
+
+    @Test
+    public void unknownSizeTest() throws Exception {
+        final ProgressTracker tracker = new ProgressTracker((type, uri, resource, detail) -> events.add(detail), 0);
+
+        tracker.analyzed(4, -1);
+        Thread.sleep(10);
+        tracker.read(1000);
+        tracker.deposited();
+        tracker.deposited();
+        tracker.tick();
+
+        // Half the resources are done, whatever the bytes
+        final DepositProgress progress = (DepositProgress) events.get(0);
+        assertEquals(-1, progress.getBytesTotal());
+        assertNotNull(progress.getEstimatedCompletion());
+        assertTrue(progress.toString().startsWith("bytes 1000\nresources 2 of 4\n"));
+    }
+
+    @Test
+    public void stalledTest() throws Exception {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        final CountDownLatch ticked = new CountDownLatch(3);
+        final ProgressTracker tracker = new ProgressTracker((type, uri, resource, detail) -> {
+            events.add(detail);
+            ticked.countDown();
+        }, 10);
+
+        try {
+            tracker.analyzed(4, 1000);
+            tracker.read(100);
+
+            // Nothing more is read, but the timer keeps reporting
+            tracker.start(timer);
+            assertTrue(ticked.await(10, TimeUnit.SECONDS));
+            tracker.stop();
+
+            final int reported = events.size();
+            final DepositProgress last = (DepositProgress) events.get(reported - 1);
+            assertEquals(100, last.getBytes());
+            assertEquals(0, last.getBytesPerSecond());
+
+            // No more once stopped
+            Thread.sleep(50);
+            assertEquals(reported, events.size());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
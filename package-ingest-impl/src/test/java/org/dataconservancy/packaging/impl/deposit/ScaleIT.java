@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fcrepo.client.FcrepoClient;
+import org.fcrepo.client.FcrepoResponse;
+
+import org.dataconservancy.packaging.test.InMemoryLdpServer;
+import org.dataconservancy.packaging.test.PackageGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies that depositing a very large package stays within a fixed budget of heap, file descriptors, and threads.
+ * <p>
+ * The deposit is run by {@link ScaleRunner} in its own JVM, with a small maximum heap and a low limit on open files,
+ * against an {@link InMemoryLdpServer} in this one. Only run in the {@code scale} profile. Sizes, limits, and budgets
+ * are given by system properties:
+ * </p>
+ * <dl>
+ * <dt>{@code scale.resources}</dt>
+ * <dd>Approximate number of resources in the package, default 100000</dd>
+ * <dt>{@code scale.format}</dt>
+ * <dd>Package format: {@code zip}, {@code tar}, {@code tar.gz}, or empty for an unpacked directory; default zip</dd>
+ * <dt>{@code scale.xmx}, {@code scale.ulimit}</dt>
+ * <dd>Maximum heap of the deposit JVM, and its limit on open files; default 96m and 256</dd>
+ * <dt>{@code scale.heapBudget}, {@code scale.fileBudget}, {@code scale.threadBudget}</dt>
+ * <dd>Most live heap in MiB, open file descriptors, and threads the deposit may use; default 64, 128, and 64</dd>
+ * </dl>
+ *
+ * @author apb@jhu.edu
+ */
+public class ScaleIT {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScaleIT.class);
+
+    static final long RESOURCES = Long.getLong("scale.resources", 100000);
+
+    static final String FORMAT = System.getProperty("scale.format", "zip");
+
+    static final String XMX = System.getProperty("scale.xmx", "96m");
+
+    static final int ULIMIT = Integer.getInteger("scale.ulimit", 256);
+
+    static final long HEAP_BUDGET = Long.getLong("scale.heapBudget", 64) * 1024 * 1024;
+
+    static final long FILE_BUDGET = Long.getLong("scale.fileBudget", 128);
+
+    static final long THREAD_BUDGET = Long.getLong("scale.threadBudget", 64);
+
+    private static final String PARALLELISM = "java.util.concurrent.ForkJoinPool.common.parallelism";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    InMemoryLdpServer server;
+
+    @Before
+    public void setUp() {
+        assumeTrue("Needs a POSIX shell to limit open files", new File("/bin/sh").canExecute());
+        server = new InMemoryLdpServer().retainingBinaries(false).start();
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void scaleTest() throws Exception {
+        final PackageGenerator generator = new PackageGenerator()
+                .withName("scale")
+                .withDepth(3)
+                .withFanOut(10);
+        generator.withBinaries(Math.max(1, (RESOURCES - generator.containers()) / 2));
+
+        final PackageGenerator.Format format = PackageGenerator.Format.fromExtension(FORMAT);
+        final Path dest = format == PackageGenerator.Format.DIRECTORY
+                ? folder.newFolder("pkg").toPath()
+                : folder.getRoot().toPath().resolve("scale." + FORMAT);
+        final PackageGenerator.Summary summary = generator.write(dest, format);
+        LOG.info("Generated {}", summary);
+
+        final Path pkg = format == PackageGenerator.Format.DIRECTORY ? dest.resolve("scale") : dest;
+
+        final Map<String, Long> used = deposit(pkg, createContainer());
+
+        LOG.info("Deposit of {} resources used {}", summary.resources(), used);
+
+        assertTrue("Deposited " + server.size() + " of " + summary.resources() + " resources",
+                server.size() >= summary.resources());
+        assertTrue("Live heap " + used.get("heap") + " exceeds budget " + HEAP_BUDGET,
+                used.get("heap") <= HEAP_BUDGET);
+        assertTrue("Open files " + used.get("files") + " exceed budget " + FILE_BUDGET,
+                used.get("files") <= FILE_BUDGET);
+        assertTrue("Threads " + used.get("threads") + " exceed budget " + THREAD_BUDGET,
+                used.get("threads") <= THREAD_BUDGET);
+    }
+
+    // Deposit in a forked JVM, returning what it reports having used
+    private Map<String, Long> deposit(final Path pkg, final URI container) throws Exception {
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final String classpath = System.getProperty("surefire.test.class.path", System.getProperty(
+                "java.class.path"));
+
+        // Analysis parallelism is fixed, so that the thread budget does not depend on the number of processors
+        final Process proc = new ProcessBuilder(Arrays.asList(
+                "/bin/sh", "-c", "ulimit -n " + ULIMIT + " && exec \"$0\" \"$@\"",
+                java, "-Xmx" + XMX, "-D" + PARALLELISM + "=4", "-cp", classpath, ScaleRunner.class.getName(),
+                server.getBaseUri().toString(), container.toString(), pkg.toString(),
+                folder.newFolder("extract").toString()))
+                .redirectErrorStream(true)
+                .start();
+
+        Map<String, Long> report = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(proc.getInputStream(), UTF_8))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith(ScaleRunner.REPORT + " ")) {
+                    report = parse(line);
+                } else {
+                    LOG.info("[deposit] {}", line);
+                }
+            }
+        }
+
+        assertEquals("Deposit JVM failed", 0, proc.waitFor());
+        assertNotNull("Deposit JVM did not report", report);
+        return report;
+    }
+
+    private static Map<String, Long> parse(final String report) {
+        final Map<String, Long> values = new HashMap<>();
+        for (final String field : report.split(" ")) {
+            final int eq = field.indexOf('=');
+            if (eq > 0) {
+                values.put(field.substring(0, eq), Long.parseLong(field.substring(eq + 1)));
+            }
+        }
+        return values;
+    }
+
+    private URI createContainer() throws Exception {
+        try (FcrepoResponse response = FcrepoClient.client().throwExceptionOnFailure().build()
+                .post(server.getBaseUri()).slug("scale").perform()) {
+            return response.getLocation();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.impl.deposit;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dataconservancy.packaging.impl.DcsPackageAnalyzerFactory;
+import org.dataconservancy.packaging.ingest.DepositResult;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+/**
+ * Deposits one package, and reports the most heap, file descriptors, and threads it took.
+ * <p>
+ * Run by {@link ScaleIT} in its own JVM, so that it can be given a small heap and few file descriptors. The report
+ * is a single line on stdout, wrapped here:
+ * </p>
+ *
+ * <pre>
+ * scale resources=&lt;deposited&gt; heap=&lt;bytes&gt; files=&lt;descriptors&gt;
+ *     threads=&lt;threads&gt; millis=&lt;duration&gt;
+ * </pre>
+ * <p>
+ * Heap is the most live heap seen, i.e. in use just after a collection, so that garbage awaiting collection does not
+ * count against it.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class ScaleRunner {
+
+    static final String REPORT = "scale";
+
+    private static final long SAMPLE_MILLIS = 50;
+
+    private final AtomicLong heap = new AtomicLong();
+
+    private final AtomicLong files = new AtomicLong();
+
+    /**
+     * Deposit a package.
+     *
+     * @param args repository base URI, container to deposit into, package, extract directory.
+     * @throws Exception if the deposit fails.
+     */
+    public static void main(final String[] args) throws Exception {
+        final URI baseUri = URI.create(args[0]);
+        final URI container = URI.create(args[1]);
+        final Path pkg = Paths.get(args[2]);
+
+        final FedoraDepositFactory fedora = new FedoraDepositFactory();
+        fedora.setBaseUri(baseUri.toString());
+
+        final DcsPackageAnalyzerFactory dcs = new DcsPackageAnalyzerFactory();
+        dcs.setExtractDir(args[3]);
+
+        final DefaultPackageWalkerFactory walker = new DefaultPackageWalkerFactory();
+        walker.setAnalyzerFactory(dcs);
+
+        final SingleDepositManager mgr = new SingleDepositManager();
+        mgr.setDepositFactory(fedora);
+        mgr.setWalkerFactory(walker);
+
+        final ScaleRunner runner = new ScaleRunner();
+        final Thread sampler = new Thread(runner::sample, "scale-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        final long start = System.nanoTime();
+        final DepositResult result = mgr.newDeposit().withPackage(pkg).intoContainer(container).performAsync()
+                .join();
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        runner.measure();
+        mgr.shutdown();
+
+        System.out.printf("%s resources=%d heap=%d files=%d threads=%d millis=%d%n", REPORT,
+                result.getResources().size(), runner.heap.get(), runner.files.get(),
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), millis);
+        System.exit(0);
+    }
+
+    private void sample() {
+        while (true) {
+            measure();
+            try {
+                Thread.sleep(SAMPLE_MILLIS);
+            } catch (final InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void measure() {
+        long live = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            final MemoryUsage afterGc = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && afterGc != null) {
+                live += afterGc.getUsed();
+            }
+        }
+        heap.accumulateAndGet(live, Math::max);
+
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof UnixOperatingSystemMXBean) {
+            files.accumulateAndGet(((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount(), Math::max);
+        }
+    }
+}
@@ -16,37 +16,65 @@
 
 package org.dataconservancy.packaging.impl.deposit;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Map;
-
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import org.dataconservancy.packaging.ingest.BatchDeposit;
 import org.dataconservancy.packaging.ingest.DepositFactory;
 import org.dataconservancy.packaging.ingest.DepositNotifier;
+import org.dataconservancy.packaging.ingest.DepositResult;
 import org.dataconservancy.packaging.ingest.Depositor;
 import org.dataconservancy.packaging.ingest.EventListener;
 import org.dataconservancy.packaging.ingest.EventType;
+import org.dataconservancy.packaging.ingest.Metrics;
 import org.dataconservancy.packaging.ingest.PackageWalker;
 import org.dataconservancy.packaging.ingest.PackageWalkerFactory;
 import org.dataconservancy.packaging.ingest.PackagedResource;
 import org.dataconservancy.packaging.ingest.PackagedResource.Type;
+import org.dataconservancy.packaging.ingest.Span;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 
+import com.codahale.metrics.MetricRegistry;
+
 /**
  * @author apb@jhu.edu
  */
@@ -54,6 +82,9 @@ import org.mockito.Mock;
 @SuppressWarnings({ "unchecked", "rawtypes" })
 public class SingleDepositManagerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     EventListener listener;
 
@@ -111,6 +142,310 @@ public class SingleDepositManagerTest {
         verify(listener).onEvent(eq(EventType.ERROR), any(), any(), any());
     }
 
+    @Test
+    public void cancelTest() {
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final PackagedResource resource = mock(PackagedResource.class);
+
+        doAnswer(i -> {
+            final Depositor d = i.getArgument(0);
+
+            // The client goes away part way through the walk
+            cancelled.set(true);
+            d.deposit(resource, null);
+            return null;
+        }).when(walker).walk(any(Depositor.class), any(DepositNotifier.class));
+
+        toTest.newDeposit().intoContainer(URI.create("test:nowhere"))
+                .withPackage(stream)
+                .withListener(listener)
+                .withCancellation(cancelled::get)
+                .perform();
+
+        verify(depositer, never()).deposit(any(PackagedResource.class), any());
+        verify(depositer).rollback();
+        verify(depositer, never()).commit();
+        verify(listener).onEvent(eq(EventType.ERROR), any(), any(), argThat(failedWith(
+                CancellationException.class::isInstance)));
+    }
+
+    @Test
+    public void asyncTest() throws Exception {
+        final PackagedResource resource = mock(PackagedResource.class);
+        when(resource.getURI()).thenReturn(URI.create("test:resource"));
+        when(resource.getType()).thenReturn(Type.NONRDFSOURCE);
+
+        doAnswer(i -> {
+            final DepositNotifier notifier = i.getArgument(1);
+            notifier.onDeposit(URI.create("test:deposited/resource"), resource);
+            return null;
+        }).when(walker).walk(any(Depositor.class), any(DepositNotifier.class));
+
+        final DepositResult result = toTest.newDeposit().intoContainer(URI.create("test:nowhere"))
+                .withPackage(stream)
+                .withListener(listener)
+                .performAsync()
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(URI.create("test:deposited/resource"), result.getResources().get(URI.create("test:resource")));
+        assertEquals(result.getTotalDuration(), result.getDepositDuration().plus(result.getRemapDuration()).plus(
+                result.getCommitDuration()));
+        verify(depositer).commit();
+        verify(listener).onEvent(eq(EventType.SUCCESS), any(), any(), any());
+    }
+
+    @Test
+    public void queuedTest() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        doAnswer(i -> {
+            started.countDown();
+            blocked.await();
+            return null;
+        }).when(walker).walk(any(Depositor.class), any(DepositNotifier.class));
+
+        toTest.setAsyncThreads(1);
+
+        final EventListener first = mock(EventListener.class);
+        final CompletableFuture<DepositResult> running = toTest.newDeposit().intoContainer(URI.create("test:nowhere"))
+                .withPackage(stream)
+                .withListener(first)
+                .performAsync();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // The only thread is busy, so the next deposit waits for it, and is told so right away
+        final CompletableFuture<DepositResult> waiting = toTest.newDeposit().intoContainer(URI.create("test:nowhere"))
+                .withPackage(stream)
+                .withListener(listener)
+                .performAsync();
+        verify(listener).onEvent(eq(EventType.QUEUED), any(), any(), any());
+
+        blocked.countDown();
+        running.get(10, TimeUnit.SECONDS);
+        waiting.get(10, TimeUnit.SECONDS);
+
+        verify(first, never()).onEvent(eq(EventType.QUEUED), any(), any(), any());
+        verify(listener).onEvent(eq(EventType.SUCCESS), any(), any(), any());
+    }
+
+    @Test
+    public void reportTest() throws Exception {
+        final PackagedResource resource = mock(PackagedResource.class);
+        when(resource.getURI()).thenReturn(URI.create("test:resource"));
+
+        // Walk as the default walker does, within a span for the resource and its repository request
+        doAnswer(i -> {
+            try (Span span = Span.start("resource").with("uri", resource.getURI()).with("type", Type.NONRDFSOURCE)) {
+                try (Span request = Span.start("repository.post").with("bytes", 7L).with("status", "201")) {
+                    i.<Depositor> getArgument(0).deposit(resource, null);
+                }
+            }
+            i.<DepositNotifier> getArgument(1).onDeposit(URI.create("test:deposited/resource"), resource);
+            return null;
+        }).when(walker).walk(any(Depositor.class), any(DepositNotifier.class));
+
+        toTest.setReportDir(folder.getRoot().toString());
+        toTest.newDeposit().intoContainer(URI.create("test:nowhere"))
+                .withPackage(stream)
+                .withListener(listener)
+                .perform();
+
+        final ArgumentCaptor<Object> detail = ArgumentCaptor.forClass(Object.class);
+        verify(listener).onEvent(eq(EventType.SUCCESS), any(), any(), detail.capture());
+
+        final DepositReport report = (DepositReport) detail.getValue();
+        assertEquals(1, report.getResourceCount());
+        assertEquals(7, report.getByteCount());
+        assertEquals(1, report.getPeakConcurrency());
+        assertEquals(Arrays.asList(URI.create("test:resource")), report.getSlowest());
+        assertTrue(report.toString().startsWith("Ingest successfully completed\n{\"status\":\"success\""));
+
+        final File[] written = folder.getRoot().listFiles();
+        assertEquals(1, written.length);
+        assertEquals(report.toJson(), new String(Files.readAllBytes(written[0].toPath()), UTF_8));
+    }
+
+    @Test
+    public void asyncFailureTest() throws Exception {
+        final RuntimeException failure = new RuntimeException("Bad package");
+        doThrow(failure).when(walker).walk(any(Depositor.class), any(DepositNotifier.class));
+
+        try {
+            toTest.newDeposit().intoContainer(URI.create("test:nowhere"))
+                    .withPackage(stream)
+                    .withListener(listener)
+                    .performAsync()
+                    .get(10, TimeUnit.SECONDS);
+            fail("Deposit should have failed");
+        } catch (final ExecutionException e) {
+            assertEquals(failure, e.getCause());
+        }
+
+        verify(depositer).rollback();
+
+        // The error carries the report of the failed deposit, complete as of its rollback
+        final ArgumentCaptor<Object> detail = ArgumentCaptor.forClass(Object.class);
+        verify(listener).onEvent(eq(EventType.ERROR), any(), any(), detail.capture());
+        assertTrue(failedWith(failure::equals).matches(detail.getValue()));
+        final String report = ((DepositFailedException) detail.getValue()).getReport().toJson();
+        assertTrue(report.contains("\"status\":\"error\""));
+        assertTrue(report.contains("Bad package"));
+        assertTrue(detail.getValue().toString().startsWith(failure.toString() + "\n{"));
+    }
+
+    @Test
+    public void asyncCancelTest() throws Exception {
+        final CountDownLatch walking = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final PackagedResource resource = mock(PackagedResource.class);
+
+        doAnswer(i -> {
+            final Depositor d = i.getArgument(0);
+            walking.countDown();
+            cancelled.await();
+            d.deposit(resource, null);
+            return null;
+        }).when(walker).walk(any(Depositor.class), any(DepositNotifier.class));
+        doAnswer(i -> {
+            finished.countDown();
+            return null;
+        }).when(depositer).rollback();
+
+        final CompletableFuture<DepositResult> result = toTest.newDeposit().intoContainer(URI.create(
+                "test:nowhere"))
+                .withPackage(stream)
+                .withListener(listener)
+                .performAsync();
+
+        walking.await();
+        assertTrue(result.cancel(true));
+        cancelled.countDown();
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertTrue(result.isCancelled());
+        verify(depositer, never()).deposit(any(PackagedResource.class), any());
+        verify(depositer, never()).commit();
+    }
+
+    @Test
+    public void metricsTest() {
+        final MetricRegistry metrics = Metrics.registry();
+
+        toTest.registerMetrics();
+        assertEquals(0, metrics.getGauges().get(SingleDepositManager.DEPOSITS_ACTIVE).getValue());
+
+        // A second manager neither takes over the gauges, nor removes them when it shuts down
+        final SingleDepositManager other = new SingleDepositManager();
+        other.registerMetrics();
+        other.shutdown();
+        assertTrue(metrics.getNames().contains(SingleDepositManager.DEPOSITS_ACTIVE));
+
+        toTest.shutdown();
+        assertFalse(metrics.getNames().contains(SingleDepositManager.DEPOSITS_ACTIVE));
+        assertFalse(metrics.getNames().contains(SingleDepositManager.DEPOSITS_QUEUED));
+    }
+
+    @Test
+    public void unpackedTest() throws Exception {
+        final Path unpacked = folder.newFolder().toPath();
+
+        try {
+            toTest.newDeposit().withPackage(unpacked);
+            fail("Walker factory does not accept unpacked packages");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+
+        when(walkerFactory.acceptsUnpacked()).thenReturn(true);
+        when(walkerFactory.newWalker(unpacked)).thenReturn(walker);
+
+        toTest.newDeposit().intoContainer(URI.create("test:nowhere"))
+                .withPackage(unpacked)
+                .withListener(listener)
+                .perform();
+
+        verify(walker).walk(any(Depositor.class), any(DepositNotifier.class));
+        verify(listener).onEvent(eq(EventType.SUCCESS), any(), any(), any());
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        final EventListener other = mock(EventListener.class);
+        when(walkerFactory.newWalker(any(Path.class))).thenReturn(walker);
+
+        final BatchDeposit batch = toTest.newBatch().intoContainer(URI.create("test:nowhere"))
+                .withListeners(id -> "a".equals(id) ? listener : other)
+                .withParallelism(1)
+                .start();
+
+        final CompletableFuture<DepositResult> a = batch.add("a", Paths.get("a.zip"));
+        final CompletableFuture<DepositResult> b = batch.add("b", Paths.get("b.zip"));
+        final Map<String, DepositResult> results = batch.finish().get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, results.size());
+        assertEquals(a.get(), results.get("a"));
+        assertEquals(b.get(), results.get("b"));
+
+        // Each package in its own transaction
+        verify(depositFactory, times(2)).newDepositor(any(URI.class), any(Map.class));
+        verify(depositer, times(2)).commit();
+        verify(listener).onEvent(eq(EventType.SUCCESS), any(), any(), any());
+        verify(other).onEvent(eq(EventType.SUCCESS), any(), any(), any());
+    }
+
+    @Test
+    public void batchTransactionTest() throws Exception {
+        final EventListener other = mock(EventListener.class);
+        final PackageWalker badWalker = mock(PackageWalker.class);
+        final RuntimeException failure = new RuntimeException("Bad package");
+
+        when(walkerFactory.newWalker(eq(Paths.get("a.zip")))).thenReturn(walker);
+        when(walkerFactory.newWalker(eq(Paths.get("b.zip")))).thenReturn(badWalker);
+        doThrow(failure).when(badWalker).walk(any(Depositor.class), any(DepositNotifier.class));
+
+        final BatchDeposit batch = toTest.newBatch().intoContainer(URI.create("test:nowhere"))
+                .withListeners(id -> "a".equals(id) ? listener : other)
+                .inOneTransaction(true)
+                .start();
+
+        final CompletableFuture<DepositResult> a = batch.add("a", Paths.get("a.zip"));
+        batch.add("b", Paths.get("b.zip"));
+
+        try {
+            batch.finish().get(10, TimeUnit.SECONDS);
+            fail("Batch should have failed");
+        } catch (final ExecutionException e) {
+            assertEquals(failure, e.getCause());
+        }
+
+        // One transaction, rolled back once, and the package that did deposit is not reported as a success
+        assertTrue(a.isCompletedExceptionally());
+        verify(depositFactory, times(1)).newDepositor(any(URI.class), any(Map.class));
+        verify(depositer, never()).commit();
+        verify(depositer, times(1)).rollback();
+        verify(listener, never()).onEvent(eq(EventType.SUCCESS), any(), any(), any());
+        verify(listener).onEvent(eq(EventType.ERROR), any(), any(), any());
+        verify(other).onEvent(eq(EventType.ERROR), any(), any(), argThat(failedWith(failure::equals)));
+    }
+
+    @Test
+    public void cancelledStreamTest() throws Exception {
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final InputStream in = CancellableDepositor.cancellable(new ByteArrayInputStream(new byte[10]),
+                cancelled::get);
+
+        assertEquals(0, in.read());
+        cancelled.set(true);
+
+        try {
+            in.read();
+            fail("Reading should fail once cancelled");
+        } catch (final InterruptedIOException e) {
+            // expected
+        }
+    }
+
     @Test
     public void successfulDepositTest() {
 
@@ -181,4 +516,11 @@ public class SingleDepositManagerTest {
         verify(listener).onEvent(eq(EventType.REMAP), eq(depositedContainerUri), any(), any());
         verify(listener).onEvent(eq(EventType.REMAP), eq(depositedBinaryDescriptionUri), any(), any());
     }
+
+    // A failed deposit is notified with an error carrying its report, caused by what failed it
+    private static ArgumentMatcher<Object> failedWith(final Predicate<Throwable> cause) {
+        return detail -> detail instanceof DepositFailedException &&
+                ((DepositFailedException) detail).getReport() != null &&
+                cause.test(((DepositFailedException) detail).getCause());
+    }
 }
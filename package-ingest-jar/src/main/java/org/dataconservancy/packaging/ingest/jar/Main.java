@@ -19,15 +19,23 @@ package org.dataconservancy.packaging.ingest.jar;
 import java.io.File;
 import java.net.URI;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 import javax.servlet.Servlet;
 
 import org.dataconservancy.packaging.impl.DcsPackageAnalyzerFactory;
 import org.dataconservancy.packaging.impl.ExtensionRegistration;
+import org.dataconservancy.packaging.impl.JsonFileSpanExporter;
 import org.dataconservancy.packaging.impl.deposit.DefaultPackageWalkerFactory;
 import org.dataconservancy.packaging.impl.deposit.FedoraDepositFactory;
 import org.dataconservancy.packaging.impl.deposit.SingleDepositManager;
+import org.dataconservancy.packaging.ingest.Metrics;
+import org.dataconservancy.packaging.ingest.SpanExporter;
 import org.dataconservancy.packaging.ingest.http.IngestServlet;
+import org.dataconservancy.packaging.ingest.http.MetricsServlet;
 
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.DefaultServlet;
@@ -37,6 +45,8 @@ import org.eclipse.jetty.util.resource.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.JmxReporter;
+
 /**
  * @author apb@jhu.edu
  */
@@ -54,6 +64,17 @@ public abstract class Main {
 
     private static final String PATH = "/ingest";
 
+    private static final String METRICS_PATH = "/metrics";
+
+    private static final String REFERENCE_ROOT = getVal("PACKAGE_INGEST_REFERENCE_ROOT", "");
+
+    private static final String TRACE_FILE = getVal("PACKAGE_INGEST_TRACE_FILE", "");
+
+    private static final String REPORT_DIR = getVal("PACKAGE_INGEST_REPORT_DIR", "");
+
+    // Registration with API-X can be turned off when there is none, e.g. when load testing
+    private static final boolean REGISTER = Boolean.parseBoolean(getVal("PACKAGE_INGEST_REGISTER", "true"));
+
     private static final Logger LOG = LoggerFactory.getLogger(Main.class);
 
     /**
@@ -67,14 +88,19 @@ public abstract class Main {
 
         LogUtil.adjustLogLevels();
 
+        // Metrics are available over JMX as well as from the metrics endpoint
+        JmxReporter.forRegistry(Metrics.registry()).inDomain(Metrics.REGISTRY).build().start();
+
         final Servlet ingest = initServlet();
         final Server server = startContainer(ingest, PORT, PATH);
 
-        new ExtensionRegistration()
-                .withPort(PORT)
-                .withPath(PATH)
-                .withRepositoryBaseUri(REPOSITORY_URI)
-                .run();
+        if (REGISTER) {
+            new ExtensionRegistration()
+                    .withPort(PORT)
+                    .withPath(PATH)
+                    .withRepositoryBaseUri(REPOSITORY_URI)
+                    .run();
+        }
 
         server.join();
 
@@ -94,7 +120,9 @@ public abstract class Main {
         final ServletHolder ingestServlet = new ServletHolder(servlet);
         ingestServlet.setAsyncSupported(true);
 
-        servletContext.addServlet(new ServletHolder(servlet), "/ingest");
+        servletContext.addServlet(new ServletHolder(servlet), PATH + "/*");
+
+        servletContext.addServlet(new ServletHolder(new MetricsServlet()), METRICS_PATH);
 
         servletContext.addServlet(DefaultServlet.class, "/");
 
@@ -112,6 +140,7 @@ public abstract class Main {
         final File tempDir = Files.createTempDirectory("extract").toFile();
         tempDir.deleteOnExit();
         dcs.setExtractDir(tempDir.toString());
+        fedora.setAnalyzerFactory(dcs);
 
         final DefaultPackageWalkerFactory ldpc = new DefaultPackageWalkerFactory();
         ldpc.setAnalyzerFactory(dcs);
@@ -120,7 +149,28 @@ public abstract class Main {
         mgr.setDepositFactory(fedora);
         mgr.setWalkerFactory(ldpc);
 
-        return new IngestServlet(mgr);
+        if (!TRACE_FILE.isEmpty()) {
+            mgr.setSpanExporter(new JsonFileSpanExporter(Paths.get(TRACE_FILE)));
+        }
+
+        // Exporters on the classpath, such as Flight Recorder events, which cannot load on a JVM without it
+        final Iterator<SpanExporter> exporters = ServiceLoader.load(SpanExporter.class).iterator();
+        while (exporters.hasNext()) {
+            try {
+                final SpanExporter exporter = exporters.next();
+                LOG.info("Tracing deposits with {}", exporter.getClass().getName());
+                mgr.setSpanExporter(exporter);
+            } catch (final ServiceConfigurationError | LinkageError e) {
+                LOG.info("Span exporter not available: {}", e.getMessage());
+            }
+        }
+        mgr.setReportDir(REPORT_DIR);
+        mgr.registerMetrics();
+
+        final IngestServlet ingest = new IngestServlet(mgr);
+        ingest.setReferenceRoot(REFERENCE_ROOT);
+
+        return ingest;
     }
 
     private static String getVal(final String key, final String defaultValue) {
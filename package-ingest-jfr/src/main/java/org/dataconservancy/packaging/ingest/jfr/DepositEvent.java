@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one span of a deposit: a whole package, a phase of its deposit, a deposited resource, or
+ * a repository request.
+ *
+ * @author apb@jhu.edu
+ */
+@Name(DepositEvent.NAME)
+@Label("Package Deposit")
+@Category("Package Ingest")
+@Description("A package deposit, one of its phases, or a repository request made by it")
+@StackTrace(false)
+class DepositEvent extends jdk.jfr.Event {
+
+    static final String NAME = "org.dataconservancy.packaging.ingest.Deposit";
+
+    @Label("Span")
+    @Description("What was being done: package, extract, analyze, deposit, resource, remap, commit, rollback, or " +
+            "repository.<operation>")
+    String span;
+
+    @Label("Package ID")
+    @Description("Trace ID of the package deposit, shared by all of its events")
+    String packageId;
+
+    @Label("URI")
+    @Description("Resource or container the span acted upon")
+    String uri;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("HTTP Status")
+    String status;
+}
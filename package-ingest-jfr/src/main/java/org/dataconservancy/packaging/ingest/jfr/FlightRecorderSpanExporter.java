@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.jfr;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.dataconservancy.packaging.ingest.Span;
+import org.dataconservancy.packaging.ingest.SpanExporter;
+
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * Emits each deposit span as a Flight Recorder {@link DepositEvent}, so that ingest phases can be correlated with
+ * GC, I/O, and lock contention in the same recording.
+ * <p>
+ * Events begin when a span starts and are committed when it ends. Nothing is kept unless a recording with the event
+ * enabled is in progress.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+@Component(service = SpanExporter.class)
+public class FlightRecorderSpanExporter implements SpanExporter {
+
+    // Events begun, by the span they are for. A span that is never ended does not keep its event. Guarded by itself.
+    final Map<Span, DepositEvent> events = new WeakHashMap<>();
+
+    @Override
+    public void start(final Span span) {
+        final DepositEvent event = new DepositEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            synchronized (events) {
+                events.put(span, event);
+            }
+        }
+    }
+
+    @Override
+    public void export(final Span span) {
+        final DepositEvent event;
+        synchronized (events) {
+            event = events.remove(span);
+        }
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            final Map<String, Object> attributes = span.getAttributes();
+            event.span = span.getName();
+            event.packageId = span.getTraceId();
+            event.uri = string(attributes.containsKey("uri") ? attributes.get("uri") : attributes.get("container"));
+            event.bytes = attributes.get("bytes") instanceof Number ? ((Number) attributes.get("bytes")).longValue()
+                    : 0;
+            event.status = string(attributes.get("status"));
+            event.commit();
+        }
+    }
+
+    private static String string(final Object value) {
+        return value != null ? value.toString() : null;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.ingest.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.WeakHashMap;
+
+import org.dataconservancy.packaging.ingest.Span;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class FlightRecorderSpanExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    final FlightRecorderSpanExporter exporter = new FlightRecorderSpanExporter();
+
+    @Test
+    public void recordingTest() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("deposit.jfr");
+
+        final String traceId;
+        try (Recording recording = new Recording()) {
+            recording.enable(DepositEvent.NAME);
+            recording.start();
+
+            try (Span root = Span.root("package", exporter).with("container", URI.create("test:container"))) {
+                traceId = root.getTraceId();
+                try (Span request = Span.start("repository.post").with("uri", URI.create("test:container"))
+                        .with("bytes", 7L).with("status", "201")) {
+                    Thread.sleep(1);
+                }
+            }
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(2, events.size());
+
+        final RecordedEvent request = events.stream().filter(e -> e.getString("span").equals("repository.post"))
+                .findFirst().get();
+        assertEquals(traceId, request.getString("packageId"));
+        assertEquals("test:container", request.getString("uri"));
+        assertEquals(7, request.getLong("bytes"));
+        assertEquals("201", request.getString("status"));
+
+        final RecordedEvent pkg = events.stream().filter(e -> e.getString("span").equals("package")).findFirst()
+                .get();
+        assertEquals(traceId, pkg.getString("packageId"));
+        assertNull(pkg.getString("status"));
+
+        // The package encloses its request
+        assertFalse(pkg.getStartTime().isAfter(request.getStartTime()));
+        assertFalse(pkg.getEndTime().isBefore(request.getEndTime()));
+    }
+
+    @Test
+    public void notRecordingTest() throws Exception {
+        try (Span root = Span.root("package", exporter)) {
+            try (Span request = Span.start("repository.post")) {
+                // Without a recording, no events are begun
+                assertTrue(exporter.events.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void unendedSpanTest() throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.enable(DepositEvent.NAME);
+            recording.start();
+
+            // A thread starts a span, but never ends it
+            final Thread abandoning = new Thread(() -> Span.root("package", exporter));
+            abandoning.start();
+            abandoning.join();
+            assertEquals(1, exporter.events.size());
+        }
+
+        // Its event is kept only as long as the span is reachable
+        assertTrue(exporter.events instanceof WeakHashMap);
+    }
+}
@@ -0,0 +1,949 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.update.UpdateAction;
+import org.apache.jena.update.UpdateFactory;
+import org.apache.jena.vocabulary.RDF;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-memory stand-in for a Fedora repository, for exercising and benchmarking deposits end-to-end without one.
+ * <p>
+ * Implements the subset of the Fedora HTTP API that deposits use:
+ * </p>
+ * <ul>
+ * <li>{@code POST} to a container, honoring {@code Slug}, creating an RDF source for an RDF body, or a binary and its
+ * {@code fcr:metadata} description for anything else</li>
+ * <li>{@code HEAD} and {@code GET}, with a {@code describedby} link for binaries, and {@code Prefer} omission of
+ * containment and server-managed triples</li>
+ * <li>{@code PUT} of RDF</li>
+ * <li>{@code PATCH} with SPARQL update</li>
+ * <li>Transactions via {@code fcr:tx}, {@code fcr:commit}, and {@code fcr:rollback}. Resources created in a
+ * transaction are only visible through it until committed.</li>
+ * </ul>
+ * <p>
+ * Every request may be slowed by a fixed latency and limited bandwidth, and a random fraction of requests may be
+ * failed, to see how deposits behave against a slow or unreliable repository. Binary content is only kept if asked
+ * to, so that very large deposits don't need a very large heap.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class InMemoryLdpServer implements AutoCloseable {
+
+    static final String LDP = "http://www.w3.org/ns/ldp#";
+
+    static final String FEDORA = "http://fedora.info/definitions/v4/repository#";
+
+    static final String SERVER_MANAGED = FEDORA + "ServerManaged";
+
+    static final String PREFER_CONTAINMENT = LDP + "PreferContainment";
+
+    static final String METADATA = "/fcr:metadata";
+
+    static final String TX = "/fcr:tx";
+
+    static final String TX_PREFIX = "/tx:";
+
+    // RDF media types, as opposed to binaries. Others that parse as RDF, such as text/plain, are binaries.
+    private static final Set<String> RDF_TYPES = new HashSet<>(Arrays.asList("text/turtle", "application/rdf+xml",
+            "application/n-triples", "application/ld+json", "text/n3", "text/rdf+n3", "application/x-turtle"));
+
+    private static final Node CONTAINS = NodeFactory.createURI(LDP + "contains");
+
+    private static final Node LAST_MODIFIED = NodeFactory.createURI(FEDORA + "lastModified");
+
+    private static final String PATH = "/rest";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Committed resources, keyed by path relative to the repository root
+    private final Map<String, Stored> resources = new ConcurrentHashMap<>();
+
+    // Resources created or modified in open transactions
+    private final Map<String, Map<String, Stored>> transactions = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> requests = new ConcurrentHashMap<>();
+
+    private long latencyMillis;
+
+    private long bytesPerSecond;
+
+    private double errorRate;
+
+    private int errorStatus = 503;
+
+    private boolean retainBinaries = true;
+
+    private Random random = new Random();
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private String base;
+
+    /**
+     * Create a server with an empty root container.
+     */
+    public InMemoryLdpServer() {
+        resources.put("", Stored.container());
+    }
+
+    /**
+     * Delay every request.
+     *
+     * @param millis Delay in milliseconds before a request is handled.
+     * @return this server.
+     */
+    public InMemoryLdpServer withLatency(final long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Limit the rate at which each request and response body is transferred.
+     *
+     * @param bytesPerSecond Bytes per second, or zero for no limit.
+     * @return this server.
+     */
+    public InMemoryLdpServer withBandwidth(final long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Fail a random fraction of requests.
+     *
+     * @param rate Fraction of requests to fail, from 0 to 1.
+     * @param status Status code of failed requests.
+     * @return this server.
+     */
+    public InMemoryLdpServer withErrors(final double rate, final int status) {
+        this.errorRate = rate;
+        this.errorStatus = status;
+        return this;
+    }
+
+    /**
+     * Whether to keep the content of binaries, so that it can be read back. Default is true; otherwise, only their
+     * size is kept, and they read as zeros.
+     *
+     * @param retain true to keep binary content.
+     * @return this server.
+     */
+    public InMemoryLdpServer retainingBinaries(final boolean retain) {
+        this.retainBinaries = retain;
+        return this;
+    }
+
+    /**
+     * Seed the choice of requests to fail.
+     *
+     * @param seed the seed.
+     * @return this server.
+     */
+    public InMemoryLdpServer withSeed(final long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * Start listening on an available port.
+     *
+     * @return this server.
+     */
+    public InMemoryLdpServer start() {
+        return start(0);
+    }
+
+    /**
+     * Start listening.
+     *
+     * @param port Port to listen on, or 0 for any available port.
+     * @return this server.
+     */
+    public InMemoryLdpServer start(final int port) {
+        try {
+            server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not start LDP server", e);
+        }
+
+        executor = Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, "ldp-server");
+            t.setDaemon(true);
+            return t;
+        });
+
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+        server.start();
+
+        base = "http://localhost:" + server.getAddress().getPort() + PATH;
+        return this;
+    }
+
+    /**
+     * URI of the repository root container.
+     *
+     * @return the base URI.
+     */
+    public URI getBaseUri() {
+        return URI.create(base);
+    }
+
+    /**
+     * Number of requests received so far, by method.
+     *
+     * @return map of method to count.
+     */
+    public Map<String, Long> getRequestCounts() {
+        final Map<String, Long> counts = new HashMap<>();
+        requests.forEach((method, count) -> counts.put(method, count.get()));
+        return counts;
+    }
+
+    /**
+     * Number of committed resources, including the root, and binary descriptions.
+     *
+     * @return number of resources.
+     */
+    public synchronized int size() {
+        return resources.size();
+    }
+
+    /**
+     * Get a copy of the triples of a committed RDF resource, as they would be returned to a client.
+     *
+     * @param uri URI of the resource.
+     * @return copy of its graph, or null if it does not exist or is a binary.
+     */
+    public synchronized Graph getGraph(final URI uri) {
+        final Stored resource = resources.get(key(uri.toString()));
+        return resource != null && !resource.binary ? copy(resource.graph, base, base) : null;
+    }
+
+    /**
+     * Get the URIs of the children of a committed container.
+     *
+     * @param uri URI of the container.
+     * @return URIs of its children, or empty if there are none.
+     */
+    public synchronized Set<URI> getChildren(final URI uri) {
+        final Stored resource = resources.get(key(uri.toString()));
+        final Set<URI> children = new LinkedHashSet<>();
+        if (resource != null) {
+            resource.children.forEach(child -> children.add(URI.create(base + child)));
+        }
+        return children;
+    }
+
+    /**
+     * Get the content of a committed binary.
+     *
+     * @param uri URI of the binary.
+     * @return its content, or null if it does not exist, is not a binary, or content is not retained.
+     */
+    public synchronized byte[] getContent(final URI uri) {
+        final Stored resource = resources.get(key(uri.toString()));
+        return resource != null ? resource.content : null;
+    }
+
+    /**
+     * Number of open transactions.
+     *
+     * @return number of transactions.
+     */
+    public int getOpenTransactions() {
+        return transactions.size();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        requests.computeIfAbsent(method, m -> new AtomicLong()).incrementAndGet();
+
+        try (InputStream in = throttled(exchange.getRequestBody())) {
+            pause(latencyMillis);
+
+            final boolean fail;
+            synchronized (random) {
+                fail = errorRate > 0 && random.nextDouble() < errorRate;
+            }
+
+            if (fail) {
+                drain(in);
+                respond(exchange, errorStatus, "Injected error");
+                return;
+            }
+
+            final Request request = new Request(exchange, in);
+
+            if (request.tx != null && !transactions.containsKey(request.tx)) {
+                respond(exchange, 410, "Transaction " + request.tx + " has expired");
+                return;
+            }
+
+            switch (method) {
+            case "POST":
+                post(request);
+                break;
+            case "HEAD":
+            case "GET":
+                get(request, "GET".equals(method));
+                break;
+            case "PUT":
+                put(request);
+                break;
+            case "PATCH":
+                patch(request);
+                break;
+            default:
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD, POST, PUT, PATCH");
+                respond(exchange, 405, "Method not allowed");
+            }
+        } catch (final ExpiredTransactionException e) {
+            respond(exchange, 410, e.getMessage());
+        } catch (final RiotException e) {
+            respond(exchange, 400, "Could not parse RDF: " + e.getMessage());
+        } catch (final Exception e) {
+            respond(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void post(final Request request) throws IOException {
+        if (request.tx == null && request.key.equals(TX)) {
+            final String tx = UUID.randomUUID().toString();
+            transactions.put(tx, new ConcurrentHashMap<>());
+            created(request, base + TX_PREFIX + tx);
+            return;
+        } else if (request.tx != null && request.key.equals(TX + "/fcr:commit")) {
+            commit(request.tx);
+            respond(request.exchange, 204, null);
+            return;
+        } else if (request.tx != null && request.key.equals(TX + "/fcr:rollback")) {
+            transactions.remove(request.tx);
+            respond(request.exchange, 204, null);
+            return;
+        }
+
+        // An empty POST creates an empty container
+        final String contentType = request.contentType();
+        final Lang lang = contentType == null ? Lang.TURTLE : rdfLang(contentType);
+
+        synchronized (this) {
+            final Stored parent = read(request.tx, request.key);
+            if (parent == null) {
+                respond(request.exchange, 404, "Not found");
+                return;
+            } else if (parent.binary) {
+                respond(request.exchange, 409, "Cannot add a child to a binary");
+                return;
+            }
+        }
+
+        final String slug = request.exchange.getRequestHeaders().getFirst("Slug");
+        String key = request.key + "/" + (slug != null && !slug.isEmpty() ? slug : UUID.randomUUID().toString());
+
+        // Read the body before claiming the resource, so that slow uploads don't hold up anyone else
+        final Stored resource;
+        if (lang != null) {
+            resource = Stored.container();
+            resource.graph = parse(request, lang, key);
+        } else {
+            resource = Stored.binary(contentType, request.in, retainBinaries);
+        }
+
+        synchronized (this) {
+            if (read(request.tx, key) != null) {
+                final String taken = key;
+                key = request.key + "/" + UUID.randomUUID().toString();
+                if (lang != null) {
+                    resource.graph = copy(resource.graph, base + taken, base + key);
+                }
+            }
+
+            final Stored parent = write(request.tx, request.key);
+            parent.children.add(key);
+            write(request.tx, key, resource);
+            if (resource.binary) {
+                write(request.tx, key + METADATA, Stored.description());
+            }
+        }
+
+        created(request, request.uri(key));
+    }
+
+    private void get(final Request request, final boolean withBody) throws IOException {
+        final Stored resource;
+        final byte[] body;
+        final String contentType;
+
+        synchronized (this) {
+            resource = read(request.tx, request.key);
+            if (resource == null) {
+                respond(request.exchange, 404, "Not found");
+                return;
+            }
+
+            if (resource.binary) {
+                body = null;
+                contentType = resource.contentType;
+            } else {
+                final Lang lang = accept(request);
+                body = serialize(view(request, resource), lang);
+                contentType = lang.getContentType().getContentType();
+            }
+        }
+
+        final Headers headers = request.exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+
+        if (resource.binary) {
+            headers.add("Link", "<" + request.uri(request.key + METADATA) + ">; rel=\"describedby\"");
+            headers.add("Link", "<" + LDP + "NonRDFSource>; rel=\"type\"");
+        } else {
+            headers.add("Link", "<" + LDP + (resource.isDescription ? "RDFSource" : "Container") + ">; rel=\"type\"");
+            if (!request.key.endsWith(METADATA)) {
+                headers.add("Link", "<" + LDP + "Resource>; rel=\"type\"");
+            }
+        }
+
+        if (!withBody) {
+            headers.set("Content-Length", Long.toString(resource.binary ? resource.size : body.length));
+            request.exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        final long length = resource.binary ? resource.size : body.length;
+        request.exchange.sendResponseHeaders(200, length > 0 ? length : -1);
+        try (OutputStream out = throttled(request.exchange.getResponseBody())) {
+            if (!resource.binary) {
+                out.write(body);
+            } else if (resource.content != null) {
+                out.write(resource.content);
+            } else {
+                final byte[] zeros = new byte[BUFFER_SIZE];
+                for (long remaining = resource.size; remaining > 0; remaining -= zeros.length) {
+                    out.write(zeros, 0, (int) Math.min(remaining, zeros.length));
+                }
+            }
+        }
+    }
+
+    private void put(final Request request) throws IOException {
+        final Lang lang = rdfLang(request.contentType());
+        if (lang == null) {
+            drain(request.in);
+            respond(request.exchange, 415, "Only RDF may be PUT");
+            return;
+        }
+
+        final Graph graph = parse(request, lang, request.key);
+
+        synchronized (this) {
+            final Stored existing = read(request.tx, request.key);
+            if (existing != null) {
+                if (existing.binary) {
+                    respond(request.exchange, 415, "Cannot replace a binary with RDF");
+                    return;
+                }
+                write(request.tx, request.key).replace(withoutServerManaged(graph));
+                respond(request.exchange, 204, null);
+                return;
+            }
+
+            final String parentKey = request.key.substring(0, Math.max(0, request.key.lastIndexOf('/')));
+            final Stored parent = read(request.tx, parentKey);
+            if (parent == null || parent.binary) {
+                respond(request.exchange, 409, "No container to PUT into");
+                return;
+            }
+
+            final Stored resource = Stored.container();
+            resource.graph = withoutServerManaged(graph);
+            write(request.tx, parentKey).children.add(request.key);
+            write(request.tx, request.key, resource);
+        }
+
+        created(request, request.uri(request.key));
+    }
+
+    private void patch(final Request request) throws IOException {
+        if (!"application/sparql-update".equals(request.contentType())) {
+            drain(request.in);
+            respond(request.exchange, 415, "PATCH must be application/sparql-update");
+            return;
+        }
+
+        final String update = new String(read(request.in), UTF_8);
+
+        synchronized (this) {
+            final Stored existing = read(request.tx, request.key);
+            if (existing == null) {
+                respond(request.exchange, 404, "Not found");
+                return;
+            } else if (existing.binary) {
+                respond(request.exchange, 415, "Cannot PATCH a binary");
+                return;
+            }
+
+            // Apply the update to the resource as the client sees it, then store the result canonically
+            final Graph graph = copy(existing.graph, base, request.base());
+            try {
+                UpdateAction.execute(UpdateFactory.create(update, request.uri(request.key)), graph);
+            } catch (final Exception e) {
+                respond(request.exchange, 400, "Bad update: " + e.getMessage());
+                return;
+            }
+
+            write(request.tx, request.key).replace(copy(graph, request.base(), base));
+        }
+
+        respond(request.exchange, 204, null);
+    }
+
+    // Merge a transaction's changes into the committed resources. Children added to a container by other
+    // transactions committed in the meantime are kept.
+    private synchronized void commit(final String tx) {
+        final Map<String, Stored> changes = transactions.remove(tx);
+        if (changes == null) {
+            return;
+        }
+
+        changes.forEach((key, change) -> {
+            final Stored committed = resources.get(key);
+            if (committed == null || committed.binary || change.binary) {
+                resources.put(key, change);
+            } else {
+                committed.children.addAll(change.children);
+                if (change.replaced) {
+                    committed.replace(change.graph);
+                }
+            }
+        });
+    }
+
+    // Look up a resource as seen by the given transaction, or by none.
+    private Stored read(final String tx, final String key) {
+        if (tx != null) {
+            final Stored changed = changes(tx).get(key);
+            if (changed != null) {
+                return changed;
+            }
+        }
+        return resources.get(key);
+    }
+
+    // Get a resource to modify in the given transaction, copying it into the transaction if need be.
+    private Stored write(final String tx, final String key) {
+        if (tx == null) {
+            return resources.get(key);
+        }
+
+        return changes(tx).computeIfAbsent(key, k -> resources.get(k).copy());
+    }
+
+    private void write(final String tx, final String key, final Stored resource) {
+        (tx == null ? resources : changes(tx)).put(key, resource);
+    }
+
+    // Changes made in an open transaction, which may have been committed or rolled back since the request began
+    private Map<String, Stored> changes(final String tx) {
+        final Map<String, Stored> changes = transactions.get(tx);
+        if (changes == null) {
+            throw new ExpiredTransactionException(tx);
+        }
+        return changes;
+    }
+
+    // A resource's graph as the client sees it, with server-managed and containment triples as preferred.
+    private Graph view(final Request request, final Stored resource) {
+        final Graph view = copy(resource.graph, base, request.base());
+        final String prefer = request.exchange.getRequestHeaders().getFirst("Prefer");
+        final Node subject = NodeFactory.createURI(request.uri(request.key));
+
+        if (resource.isDescription) {
+            return view;
+        }
+
+        if (prefer == null || !prefer.contains(SERVER_MANAGED)) {
+            view.add(Triple.create(subject, RDF.type.asNode(), NodeFactory.createURI(LDP + "Container")));
+            view.add(Triple.create(subject, RDF.type.asNode(), NodeFactory.createURI(FEDORA + "Container")));
+            view.add(Triple.create(subject, LAST_MODIFIED, NodeFactory.createLiteral(resource.modified.toString(),
+                    XSDDatatype.XSDdateTime)));
+        }
+
+        if (prefer == null || !(prefer.contains(PREFER_CONTAINMENT) || prefer.contains("return=minimal") &&
+                !prefer.contains("include"))) {
+            for (final String child : resource.children) {
+                view.add(Triple.create(subject, CONTAINS, NodeFactory.createURI(request.uri(child))));
+            }
+        }
+
+        return view;
+    }
+
+    private Graph parse(final Request request, final Lang lang, final String key) {
+        final Graph graph = GraphFactory.createDefaultGraph();
+        RDFDataMgr.read(graph, request.in, request.uri(key), lang);
+        return copy(graph, request.base(), base);
+    }
+
+    private static Lang rdfLang(final String contentType) {
+        return contentType != null && RDF_TYPES.contains(contentType) ? RDFLanguages.contentTypeToLang(contentType)
+                : null;
+    }
+
+    private Lang accept(final Request request) {
+        final String accept = request.exchange.getRequestHeaders().getFirst("Accept");
+        if (accept != null) {
+            for (final String type : accept.split(",")) {
+                final Lang lang = RDFLanguages.contentTypeToLang(type.split(";")[0].trim());
+                if (lang != null) {
+                    return lang;
+                }
+            }
+        }
+        return Lang.TURTLE;
+    }
+
+    private void created(final Request request, final String location) throws IOException {
+        request.exchange.getResponseHeaders().set("Location", location);
+        request.exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        respond(request.exchange, 201, location);
+    }
+
+    private void respond(final HttpExchange exchange, final int status, final String message) throws IOException {
+        if (message == null || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        final byte[] body = message.getBytes(UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Path of a URI relative to the root, or within a transaction, relative to the transaction.
+    private String key(final String uri) {
+        String key = uri.startsWith(base) ? uri.substring(base.length()) : URI.create(uri).getPath();
+        if (key.startsWith(PATH)) {
+            key = key.substring(PATH.length());
+        }
+        if (key.startsWith(TX_PREFIX)) {
+            final int end = key.indexOf('/', 1);
+            key = end > 0 ? key.substring(end) : "";
+        }
+        return key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+    }
+
+    private InputStream throttled(final InputStream in) {
+        if (bytesPerSecond <= 0) {
+            return in;
+        }
+
+        final Throttle throttle = new Throttle(bytesPerSecond);
+        return new FilterInputStream(in) {
+
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                throttle.transferred(b >= 0 ? 1 : 0);
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int n = super.read(b, off, Math.min(len, BUFFER_SIZE));
+                throttle.transferred(Math.max(n, 0));
+                return n;
+            }
+        };
+    }
+
+    private OutputStream throttled(final OutputStream out) {
+        if (bytesPerSecond <= 0) {
+            return out;
+        }
+
+        final Throttle throttle = new Throttle(bytesPerSecond);
+        return new FilterOutputStream(out) {
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                for (int written = 0; written < len; written += BUFFER_SIZE) {
+                    final int n = Math.min(BUFFER_SIZE, len - written);
+                    out.write(b, off + written, n);
+                    throttle.transferred(n);
+                }
+            }
+        };
+    }
+
+    private static Graph withoutServerManaged(final Graph graph) {
+        graph.remove(Node.ANY, LAST_MODIFIED, Node.ANY);
+        graph.remove(Node.ANY, CONTAINS, Node.ANY);
+        return graph;
+    }
+
+    // Copy a graph, replacing the given URI prefix with another.
+    private static Graph copy(final Graph graph, final String from, final String to) {
+        final Graph copy = GraphFactory.createDefaultGraph();
+        graph.find(Node.ANY, Node.ANY, Node.ANY).forEachRemaining(t -> copy.add(Triple.create(
+                rebase(t.getSubject(), from, to), t.getPredicate(), rebase(t.getObject(), from, to))));
+        return copy;
+    }
+
+    private static Node rebase(final Node node, final String from, final String to) {
+        if (from.equals(to) || !node.isURI() || !node.getURI().startsWith(from)) {
+            return node;
+        }
+
+        final String rest = node.getURI().substring(from.length());
+        if (rest.isEmpty() || rest.startsWith("/") || rest.startsWith("#")) {
+            return NodeFactory.createURI(to + rest);
+        }
+        return node;
+    }
+
+    private static byte[] serialize(final Graph graph, final Lang lang) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RDFDataMgr.write(out, graph, lang);
+        return out.toByteArray();
+    }
+
+    private static byte[] read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static long drain(final InputStream in) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+    private static void pause(final long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Paces a transfer to a given rate
+    private static class Throttle {
+
+        private final long bytesPerSecond;
+
+        private final long start = System.nanoTime();
+
+        private long bytes;
+
+        Throttle(final long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void transferred(final long n) {
+            bytes += n;
+            final long due = start + TimeUnit.SECONDS.toNanos(1) * bytes / bytesPerSecond;
+            final long ahead = due - System.nanoTime();
+            if (ahead > 0) {
+                pause(TimeUnit.NANOSECONDS.toMillis(ahead));
+            }
+        }
+    }
+
+    // A request, relative to the repository or transaction it addresses
+    private class Request {
+
+        final HttpExchange exchange;
+
+        final InputStream in;
+
+        final String tx;
+
+        final String key;
+
+        Request(final HttpExchange exchange, final InputStream in) {
+            this.exchange = exchange;
+            this.in = in;
+
+            String path = exchange.getRequestURI().getPath().substring(PATH.length());
+            if (path.startsWith(TX_PREFIX)) {
+                final int end = path.indexOf('/', 1);
+                tx = path.substring(TX_PREFIX.length(), end > 0 ? end : path.length());
+                path = end > 0 ? path.substring(end) : "";
+            } else {
+                tx = null;
+            }
+            key = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        }
+
+        // Base URI of the repository as seen by this request
+        String base() {
+            return tx != null ? base + TX_PREFIX + tx : base;
+        }
+
+        String uri(final String key) {
+            return base() + key;
+        }
+
+        String contentType() {
+            final String type = exchange.getRequestHeaders().getFirst("Content-Type");
+            return type != null ? type.split(";")[0].trim() : null;
+        }
+    }
+
+    // A repository resource
+    private static class Stored {
+
+        final boolean binary;
+
+        final boolean isDescription;
+
+        final Set<String> children = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        final Instant modified = Instant.now();
+
+        Graph graph = GraphFactory.createDefaultGraph();
+
+        // Whether the graph has been replaced since the resource was created or copied
+        boolean replaced;
+
+        String contentType;
+
+        byte[] content;
+
+        long size;
+
+        private Stored(final boolean binary, final boolean isDescription) {
+            this.binary = binary;
+            this.isDescription = isDescription;
+        }
+
+        static Stored container() {
+            return new Stored(false, false);
+        }
+
+        static Stored description() {
+            return new Stored(false, true);
+        }
+
+        static Stored binary(final String contentType, final InputStream in, final boolean retain)
+                throws IOException {
+            final Stored binary = new Stored(true, false);
+            binary.contentType = contentType;
+            if (retain) {
+                binary.content = read(in);
+                binary.size = binary.content.length;
+            } else {
+                binary.size = drain(in);
+            }
+            return binary;
+        }
+
+        void replace(final Graph graph) {
+            this.graph = graph;
+            this.replaced = true;
+        }
+
+        Stored copy() {
+            final Stored copy = new Stored(binary, isDescription);
+            copy.children.addAll(children);
+            copy.graph = InMemoryLdpServer.copy(graph, "", "");
+            copy.contentType = contentType;
+            copy.content = content;
+            copy.size = size;
+            return copy;
+        }
+    }
+
+    private static class ExpiredTransactionException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ExpiredTransactionException(final String tx) {
+            super("Transaction " + tx + " has expired");
+        }
+    }
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+/**
+ * Generates synthetic DCS packages of arbitrary size, for load and scale testing.
+ * <p>
+ * Packages are valid BagIt bags with an ORE-REM resource map, {@code bag-info.txt}, and payload and tag manifests.
+ * Containers form a tree of the given depth and fan-out, and binaries are spread evenly among all containers. Each
+ * binary and container has a domain object, whose description may include cross-references to other domain objects,
+ * and blank nodes.
+ * </p>
+ * <p>
+ * Packages are streamed. Payload files are written straight to the archive as they are generated, while the resource
+ * map and manifest, which grow with the package, are spooled to temporary files. So a package of millions of
+ * resources takes no more heap than a package of ten. Generation is deterministic for a given seed.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class PackageGenerator {
+
+    static final String REM_PATH = "META-INF/org.dataconservancy.packaging/PKG-INFO/ORE-REM/ORE-REM.ttl";
+
+    static final String PROFILE = "http://dataconservancy.org/formats/data-conservancy-pkg-1.0";
+
+    static final String LDP = "http://www.w3.org/ns/ldp#";
+
+    static final String ORE = "http://www.openarchives.org/ore/terms/";
+
+    static final String BOM = "http://dataconservancy.org/business-object-model#";
+
+    static final String DESCRIBES = "http://www.iana.org/assignments/relation/describes";
+
+    static final String RDF_TYPE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Format a package is written in */
+    public enum Format {
+
+        /** Zip archive */
+        ZIP("zip"),
+
+        /** Uncompressed tar archive */
+        TAR("tar"),
+
+        /** Gzipped tar archive */
+        TAR_GZ("tar.gz"),
+
+        /** An unpacked package directory */
+        DIRECTORY("");
+
+        /** File extension of the format, or empty for a directory */
+        public final String extension;
+
+        Format(final String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Get a format by its extension.
+         *
+         * @param extension file extension, or empty for a directory.
+         * @return the format.
+         */
+        public static Format fromExtension(final String extension) {
+            for (final Format format : values()) {
+                if (format.extension.equalsIgnoreCase(extension)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown package format " + extension);
+        }
+    }
+
+    /** Distribution of binary sizes, in bytes */
+    @FunctionalInterface
+    public interface SizeDistribution {
+
+        /**
+         * Size of the next binary.
+         *
+         * @param random source of randomness.
+         * @return size in bytes.
+         */
+        long next(Random random);
+
+        /**
+         * Binaries all of the same size.
+         *
+         * @param size size in bytes.
+         * @return the distribution.
+         */
+        static SizeDistribution fixed(final long size) {
+            return random -> size;
+        }
+
+        /**
+         * Binaries uniformly distributed in size.
+         *
+         * @param min smallest size in bytes, inclusive.
+         * @param max largest size in bytes, inclusive.
+         * @return the distribution.
+         */
+        static SizeDistribution uniform(final long min, final long max) {
+            return random -> min + (long) (random.nextDouble() * (max - min + 1));
+        }
+
+        /**
+         * Binaries whose sizes are log-normally distributed, as file sizes typically are; many small, and a few very
+         * large.
+         *
+         * @param median median size in bytes.
+         * @param sigma standard deviation of the natural log of the size.
+         * @return the distribution.
+         */
+        static SizeDistribution logNormal(final long median, final double sigma) {
+            return random -> Math.round(median * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    /** What was generated */
+    public static final class Summary {
+
+        /** Name of the package, and of its bag */
+        public final String name;
+
+        /** Number of containers */
+        public final long containers;
+
+        /** Number of binaries */
+        public final long binaries;
+
+        /** Number of payload bytes */
+        public final long payloadBytes;
+
+        Summary(final String name, final long containers, final long binaries, final long payloadBytes) {
+            this.name = name;
+            this.containers = containers;
+            this.binaries = binaries;
+            this.payloadBytes = payloadBytes;
+        }
+
+        /**
+         * Number of repository resources the package deposits; each container, each binary, and the description of
+         * each binary.
+         *
+         * @return number of resources.
+         */
+        public long resources() {
+            return containers + 2 * binaries;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d containers, %d binaries, %d payload bytes", name, containers, binaries,
+                    payloadBytes);
+        }
+    }
+
+    private String name = "generated";
+
+    private int depth = 2;
+
+    private int fanOut = 2;
+
+    private long binaries = 10;
+
+    private SizeDistribution binarySize = SizeDistribution.fixed(1024);
+
+    private int descriptionTriples = 5;
+
+    private int crossReferences = 0;
+
+    private int blankNodes = 0;
+
+    private long seed = 0;
+
+    /**
+     * Name of the package, and of its bag. Default is {@code generated}.
+     *
+     * @param name package name.
+     * @return this generator.
+     */
+    public PackageGenerator withName(final String name) {
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * Number of levels of nested containers. Default is 2.
+     *
+     * @param depth depth, at least one.
+     * @return this generator.
+     */
+    public PackageGenerator withDepth(final int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be at least one: " + depth);
+        }
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * Number of child containers of every container above the deepest level. Default is 2.
+     *
+     * @param fanOut fan-out, at least one.
+     * @return this generator.
+     */
+    public PackageGenerator withFanOut(final int fanOut) {
+        if (fanOut < 1) {
+            throw new IllegalArgumentException("Fan-out must be at least one: " + fanOut);
+        }
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    /**
+     * Total number of binaries. Default is 10.
+     *
+     * @param binaries number of binaries.
+     * @return this generator.
+     */
+    public PackageGenerator withBinaries(final long binaries) {
+        this.binaries = binaries;
+        return this;
+    }
+
+    /**
+     * Distribution of binary sizes. Default is a fixed 1KiB.
+     *
+     * @param sizes size distribution.
+     * @return this generator.
+     */
+    public PackageGenerator withBinarySize(final SizeDistribution sizes) {
+        this.binarySize = sizes;
+        return this;
+    }
+
+    /**
+     * Number of literal-valued triples in every domain object, in addition to its type and membership. Default is 5.
+     *
+     * @param triples number of triples.
+     * @return this generator.
+     */
+    public PackageGenerator withDescriptionTriples(final int triples) {
+        this.descriptionTriples = triples;
+        return this;
+    }
+
+    /**
+     * Number of links from every domain object to other, randomly chosen, domain objects. Default is none.
+     *
+     * @param references number of references.
+     * @return this generator.
+     */
+    public PackageGenerator withCrossReferences(final int references) {
+        this.crossReferences = references;
+        return this;
+    }
+
+    /**
+     * Number of blank nodes in every domain object. Default is none.
+     *
+     * @param nodes number of blank nodes.
+     * @return this generator.
+     */
+    public PackageGenerator withBlankNodes(final int nodes) {
+        this.blankNodes = nodes;
+        return this;
+    }
+
+    /**
+     * Seed for random sizes, content, and cross-references. Default is 0.
+     *
+     * @param seed the seed.
+     * @return this generator.
+     */
+    public PackageGenerator withSeed(final long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Number of containers a package will have, given its depth and fan-out.
+     *
+     * @return number of containers.
+     */
+    public long containers() {
+        long containers = 0;
+        long level = 1;
+        for (int d = 0; d < depth; d++) {
+            containers = Math.addExact(containers, level);
+            level = Math.multiplyExact(level, fanOut);
+        }
+        return containers;
+    }
+
+    /**
+     * Write a package to a file, or for {@link Format#DIRECTORY}, into a directory.
+     *
+     * @param dest Archive file to write, or for {@link Format#DIRECTORY}, the directory to write the bag into.
+     * @param format Package format.
+     * @return summary of the package.
+     */
+    public Summary write(final Path dest, final Format format) {
+        try {
+            switch (format) {
+            case DIRECTORY:
+                return write(new DirectorySink(dest));
+            case ZIP:
+                return write(new ArchiveSink(new ZipArchiveOutputStream(dest.toFile())));
+            default:
+                try (OutputStream out = Files.newOutputStream(dest)) {
+                    return write(out, format);
+                }
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not write package to " + dest, e);
+        }
+    }
+
+    /**
+     * Write a package archive to a stream. The stream is not closed.
+     *
+     * @param out The stream.
+     * @param format Archive format.
+     * @return summary of the package.
+     */
+    public Summary write(final OutputStream out, final Format format) {
+        final OutputStream shielded = new FilterOutputStream(new BufferedOutputStream(out, BUFFER_SIZE)) {
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                this.out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+
+        try {
+            switch (format) {
+            case ZIP:
+                return write(new ArchiveSink(new ZipArchiveOutputStream(shielded)));
+            case TAR:
+                return write(new ArchiveSink(tar(shielded)));
+            case TAR_GZ:
+                return write(new ArchiveSink(tar(new GzipCompressorOutputStream(shielded))));
+            default:
+                throw new IllegalArgumentException("Cannot stream a package as a " + format);
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not write package", e);
+        }
+    }
+
+    private Summary write(final Sink sink) throws IOException {
+        final Path rem = Files.createTempFile("rem-", ".ttl");
+        final Path manifest = Files.createTempFile("manifest-", ".txt");
+        final Random random = new Random(seed);
+        final long containers = containers();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        long payloadBytes = 0;
+
+        try (Sink s = sink;
+                Writer remOut = writer(rem);
+                Writer manifestOut = writer(manifest)) {
+
+            remOut.write("<> <" + RDF_TYPE + "> <" + ORE + "ResourceMap> .\n");
+            remOut.write("<> <" + ORE + "describes> <#Aggregation> .\n");
+            remOut.write("<#Aggregation> <" + RDF_TYPE + "> <" + ORE + "Aggregation> .\n");
+
+            for (long c = 0; c < containers; c++) {
+                final String obj = containerPath(c);
+                payloadBytes += payload(s, manifestOut, obj, description(c == 0 ? -1 : (c - 1) / fanOut,
+                        containers, random));
+
+                remOut.write(String.format("<#Aggregation> <%saggregates> <%s> .\n", ORE, uri(obj)));
+                remOut.write(String.format("<%s> <%s> <%sContainer> .\n", uri(obj), RDF_TYPE, LDP));
+                if (c > 0) {
+                    remOut.write(String.format("<%s> <%scontains> <%s> .\n", uri(containerPath((c - 1) / fanOut)),
+                            LDP, uri(obj)));
+                }
+            }
+
+            for (long b = 0; b < binaries; b++) {
+                final long container = b % containers;
+                final String bin = binaryPath(b, containers);
+                final String obj = binaryDescriptionPath(b, containers);
+                final long size = Math.max(0, binarySize.next(random));
+                final MessageDigest md5 = md5();
+
+                s.put(bin, size, out -> {
+                    final DigestOutputStream digested = new DigestOutputStream(out, md5);
+                    for (long remaining = size; remaining > 0; remaining -= buffer.length) {
+                        random.nextBytes(buffer);
+                        digested.write(buffer, 0, (int) Math.min(remaining, buffer.length));
+                    }
+                    digested.flush();
+                });
+                manifestOut.write(hex(md5.digest()) + "  " + bin + "\n");
+                payloadBytes += size;
+
+                payloadBytes += payload(s, manifestOut, obj, description(container, containers, random));
+
+                remOut.write(String.format("<#Aggregation> <%saggregates> <%s> .\n", ORE, uri(obj)));
+                remOut.write(String.format("<%s> <%s> <%s> .\n", uri(obj), DESCRIBES, uri(bin)));
+                remOut.write(String.format("<%s> <%scontains> <%s> .\n", uri(containerPath(container)), LDP,
+                        uri(bin)));
+            }
+
+            remOut.close();
+            manifestOut.close();
+
+            final StringBuilder tagManifest = new StringBuilder();
+            tagManifest.append(tag(s, REM_PATH, Files.size(rem), out -> Files.copy(rem, out)));
+            tagManifest.append(tag(s, "manifest-md5.txt", Files.size(manifest), out -> Files.copy(manifest, out)));
+            tagManifest.append(tag(s, "bagit.txt", "BagIt-Version: 0.97\nTag-File-Character-Encoding: UTF-8\n"));
+            tagManifest.append(tag(s, "bag-info.txt", String.format(
+                    "BagIt-Profile-Identifier: %s\n" +
+                            "Package-Name: %s\n" +
+                            "Payload-Oxum: %d.%d\n" +
+                            "Resource-Manifest: %s\n",
+                    PROFILE, name, payloadBytes, containers + 2 * binaries, uri(REM_PATH))));
+
+            final byte[] tags = tagManifest.toString().getBytes(UTF_8);
+            s.put("tagmanifest-md5.txt", tags.length, out -> out.write(tags));
+        } finally {
+            Files.deleteIfExists(rem);
+            Files.deleteIfExists(manifest);
+        }
+
+        return new Summary(name, containers, binaries, payloadBytes);
+    }
+
+    // Turtle description of a domain object, whose parent container is the given index, or negative for none.
+    private byte[] description(final long parent, final long containers, final Random random) {
+        final StringBuilder body = new StringBuilder();
+        body.append("<> a <").append(BOM).append(parent < 0 ? "Project" : "DataItem").append("> .\n");
+        if (parent >= 0) {
+            body.append("<> <").append(BOM).append("isMemberOf> <").append(uri(containerPath(parent)))
+                    .append("> .\n");
+        }
+
+        for (int t = 0; t < descriptionTriples; t++) {
+            body.append("<> <").append(BOM).append(t == 0 ? "hasTitle" : "hasDescription").append("> \"")
+                    .append(t == 0 ? "Synthetic object " : "Synthetic description ").append(random.nextInt())
+                    .append("\" .\n");
+        }
+
+        for (int r = 0; r < crossReferences && binaries > 0; r++) {
+            final long target = (long) (random.nextDouble() * binaries);
+            body.append("<> <").append(BOM).append("hasRelated> <")
+                    .append(uri(binaryDescriptionPath(target, containers))).append("> .\n");
+        }
+
+        for (int n = 0; n < blankNodes; n++) {
+            body.append("<> <").append(BOM).append("hasCreator> [ a <").append(BOM).append("Person> ; <")
+                    .append(BOM).append("hasName> \"Person ").append(random.nextInt()).append("\" ] .\n");
+        }
+
+        return body.toString().getBytes(UTF_8);
+    }
+
+    private static String containerPath(final long container) {
+        return "data/obj/container-" + container + ".ttl";
+    }
+
+    // Binaries are spread evenly among containers, and kept in a directory per container
+    private static String binaryPath(final long binary, final long containers) {
+        return "data/bin/container-" + binary % containers + "/file-" + binary + ".bin";
+    }
+
+    private static String binaryDescriptionPath(final long binary, final long containers) {
+        return "data/obj/container-" + binary % containers + "/file-" + binary + ".ttl";
+    }
+
+    private String uri(final String path) {
+        return "bag://" + name + "/" + path;
+    }
+
+    private static long payload(final Sink sink, final Writer manifest, final String path, final byte[] content)
+            throws IOException {
+        sink.put(path, content.length, out -> out.write(content));
+        manifest.write(hex(md5().digest(content)) + "  " + path + "\n");
+        return content.length;
+    }
+
+    private static String tag(final Sink sink, final String path, final String content) throws IOException {
+        final byte[] bytes = content.getBytes(UTF_8);
+        return tag(sink, path, bytes.length, out -> out.write(bytes));
+    }
+
+    private static String tag(final Sink sink, final String path, final long size, final Content content)
+            throws IOException {
+        final MessageDigest md5 = md5();
+        sink.put(path, size, out -> {
+            final DigestOutputStream digested = new DigestOutputStream(out, md5);
+            content.writeTo(digested);
+            digested.flush();
+        });
+        return hex(md5.digest()) + "  " + path + "\n";
+    }
+
+    private static Writer writer(final Path file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), UTF_8));
+    }
+
+    private static TarArchiveOutputStream tar(final OutputStream out) {
+        final TarArchiveOutputStream tar = new TarArchiveOutputStream(out);
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        return tar;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(final byte[] digest) {
+        final StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (final byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // Writes the content of a file
+    @FunctionalInterface
+    private interface Content {
+
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // Where the files of a package are written, relative to the bag directory
+    private interface Sink extends AutoCloseable {
+
+        void put(String path, long size, Content content) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private class ArchiveSink implements Sink {
+
+        private final ArchiveOutputStream archive;
+
+        ArchiveSink(final ArchiveOutputStream archive) {
+            this.archive = archive;
+        }
+
+        @Override
+        public void put(final String path, final long size, final Content content) throws IOException {
+            final ArchiveEntry entry;
+            if (archive instanceof TarArchiveOutputStream) {
+                final TarArchiveEntry tarEntry = new TarArchiveEntry(name + "/" + path);
+                tarEntry.setSize(size);
+                entry = tarEntry;
+            } else {
+                final ZipArchiveEntry zipEntry = new ZipArchiveEntry(name + "/" + path);
+                zipEntry.setSize(size);
+                entry = zipEntry;
+            }
+
+            archive.putArchiveEntry(entry);
+            content.writeTo(archive);
+            archive.closeArchiveEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            archive.finish();
+            archive.close();
+        }
+    }
+
+    private class DirectorySink implements Sink {
+
+        private final Path bag;
+
+        DirectorySink(final Path dir) {
+            this.bag = dir.resolve(name);
+        }
+
+        @Override
+        public void put(final String path, final long size, final Content content) throws IOException {
+            final Path file = bag.resolve(path);
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE)) {
+                content.writeTo(out);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dataconservancy.packaging.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.dataconservancy.packaging.test.PackageGenerator.Format;
+import org.dataconservancy.packaging.test.PackageGenerator.SizeDistribution;
+import org.dataconservancy.packaging.test.PackageGenerator.Summary;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class PackageGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    final PackageGenerator generator = new PackageGenerator()
+            .withName("pkg")
+            .withDepth(3)
+            .withFanOut(3)
+            .withBinaries(50)
+            .withBinarySize(SizeDistribution.uniform(0, 20000))
+            .withCrossReferences(2)
+            .withBlankNodes(1)
+            .withSeed(42);
+
+    @Test
+    public void containersTest() {
+        assertEquals(1 + 3 + 9, generator.containers());
+        assertEquals(1, new PackageGenerator().withDepth(1).containers());
+    }
+
+    @Test
+    public void directoryTest() throws Exception {
+        final Summary summary = generator.write(folder.getRoot().toPath(), Format.DIRECTORY);
+
+        final Map<String, byte[]> files = new HashMap<>();
+        try (Stream<Path> walk = Files.walk(folder.getRoot().toPath().resolve("pkg"))) {
+            for (final Path file : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                files.put(folder.getRoot().toPath().relativize(file).toString().replace('\\', '/'),
+                        Files.readAllBytes(file));
+            }
+        }
+
+        verify(summary, files);
+    }
+
+    @Test
+    public void zipTest() throws Exception {
+        verifyArchive(Format.ZIP);
+    }
+
+    @Test
+    public void tarTest() throws Exception {
+        verifyArchive(Format.TAR);
+    }
+
+    @Test
+    public void tarGzTest() throws Exception {
+        verifyArchive(Format.TAR_GZ);
+    }
+
+    @Test
+    public void deterministicTest() throws Exception {
+        final Path first = folder.getRoot().toPath().resolve("first.tar");
+        final Path second = folder.getRoot().toPath().resolve("second.tar");
+
+        generator.write(first, Format.TAR);
+        generator.write(second, Format.TAR);
+
+        final Map<String, byte[]> firstFiles = read(first, Format.TAR);
+        final Map<String, byte[]> secondFiles = read(second, Format.TAR);
+
+        assertEquals(firstFiles.keySet(), secondFiles.keySet());
+        for (final String file : firstFiles.keySet()) {
+            assertArrayEquals(file, firstFiles.get(file), secondFiles.get(file));
+        }
+    }
+
+    private void verifyArchive(final Format format) throws Exception {
+        final Path archive = folder.getRoot().toPath().resolve("pkg." + format.extension);
+        final Summary summary = generator.write(archive, format);
+
+        verify(summary, read(archive, format));
+    }
+
+    private static Map<String, byte[]> read(final Path archive, final Format format) throws Exception {
+        final Map<String, byte[]> files = new HashMap<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(archive))) {
+            final InputStream decompressed = format == Format.TAR_GZ
+                    ? new BufferedInputStream(new CompressorStreamFactory().createCompressorInputStream(in))
+                    : in;
+            final ArchiveInputStream entries = new ArchiveStreamFactory().createArchiveInputStream(decompressed);
+            ArchiveEntry entry;
+            while ((entry = entries.getNextEntry()) != null) {
+                files.put(entry.getName(), read(entries));
+            }
+        }
+        return files;
+    }
+
+    // Every file is in a manifest, with the right digest, and the resource map covers every resource
+    private static void verify(final Summary summary, final Map<String, byte[]> files) throws Exception {
+        assertEquals(13, summary.containers);
+        assertEquals(50, summary.binaries);
+
+        final Map<String, String> manifest = new HashMap<>();
+        manifest.putAll(manifest(files.get("pkg/manifest-md5.txt")));
+        manifest.putAll(manifest(files.get("pkg/tagmanifest-md5.txt")));
+
+        assertEquals(files.size() - 1, manifest.size());
+        for (final Map.Entry<String, String> file : manifest.entrySet()) {
+            assertEquals(file.getKey(), file.getValue(), md5(files.get("pkg/" + file.getKey())));
+        }
+
+        final long payload = files.entrySet().stream()
+                .filter(e -> e.getKey().startsWith("pkg/data/"))
+                .mapToLong(e -> e.getValue().length).sum();
+        assertEquals(summary.payloadBytes, payload);
+
+        final String bagInfo = new String(files.get("pkg/bag-info.txt"), UTF_8);
+        assertTrue(bagInfo.contains("Payload-Oxum: " + payload + "." + (13 + 2 * 50) + "\n"));
+        assertTrue(bagInfo.contains("Resource-Manifest: bag://pkg/" + PackageGenerator.REM_PATH + "\n"));
+
+        final String rem = new String(files.get("pkg/" + PackageGenerator.REM_PATH), UTF_8);
+        assertEquals(13 + 50, count(rem, "aggregates>"));
+        assertEquals(13, count(rem, "Container>"));
+        assertEquals(12 + 50, count(rem, "contains>"));
+        assertEquals(50, count(rem, PackageGenerator.DESCRIBES));
+
+        final String description = new String(files.get("pkg/data/obj/container-1/file-1.ttl"), UTF_8);
+        assertEquals(2, count(description, "hasRelated>"));
+        assertEquals(1, count(description, "["));
+        assertTrue(description.contains("isMemberOf> <bag://pkg/data/obj/container-1.ttl>"));
+    }
+
+    private static Map<String, String> manifest(final byte[] content) {
+        final Map<String, String> entries = new HashMap<>();
+        for (final String line : new String(content, UTF_8).split("\n")) {
+            final String[] parts = line.split("  ", 2);
+            entries.put(parts[1], parts[0]);
+        }
+        return entries;
+    }
+
+    private static int count(final String text, final String token) {
+        int count = 0;
+        for (int i = text.indexOf(token); i >= 0; i = text.indexOf(token, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String md5(final byte[] content) throws Exception {
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : MessageDigest.getInstance("MD5").digest(content)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+}